@@ -107,6 +107,12 @@ public class RecordScanReader implements EntityReader<RecordScan> {
 
         scan.setCacheBlocks(JsonUtil.getBoolean(node, "cacheBlocks", scan.getCacheBlocks()));
 
+        scan.setParallelism(JsonUtil.getInt(node, "parallelism", scan.getParallelism()));
+
+        scan.setOrdered(JsonUtil.getBoolean(node, "ordered", scan.getOrdered()));
+
+        scan.setReadAhead(JsonUtil.getInt(node, "readAhead", scan.getReadAhead()));
+
         return scan;
     }
 
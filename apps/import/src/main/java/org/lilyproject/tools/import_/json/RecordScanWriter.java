@@ -84,6 +84,12 @@ public class RecordScanWriter implements EntityWriter<RecordScan> {
 
         node.put("cacheBlocks", scan.getCacheBlocks());
 
+        node.put("parallelism", scan.getParallelism());
+
+        node.put("ordered", scan.getOrdered());
+
+        node.put("readAhead", scan.getReadAhead());
+
         return node;
     }
 }
@@ -15,6 +15,8 @@
  */
 package org.lilyproject.tools.import_.json.filters;
 
+import java.util.List;
+
 import org.codehaus.jackson.JsonNode;
 import org.codehaus.jackson.node.ObjectNode;
 import org.lilyproject.repository.api.CompareOp;
@@ -62,6 +64,10 @@ public class FieldValueFilterJson implements RecordFilterJsonConverter<FieldValu
             QName fieldQName = QNameConverter.fromJson(field, namespaces);
             filter.setField(fieldQName);
             ValueType valueType = repositoryManager.getTypeManager().getFieldTypeByName(fieldQName).getValueType();
+            if (valueType.getBaseName().equals("LIST") && !fieldValue.isArray()) {
+                // A single value for a list field, used with the ordered compare operators
+                valueType = valueType.getDeepestValueType();
+            }
             Object value = RecordReader.INSTANCE.readValue(fieldValue, valueType, "fieldValue", new NamespacesImpl(),
                                                                 repositoryManager, defaultLinkTransformer);
             filter.setFieldValue(value);
@@ -72,6 +78,11 @@ public class FieldValueFilterJson implements RecordFilterJsonConverter<FieldValu
             filter.setCompareOp(CompareOp.valueOf(compareOp));
         }
 
+        String listMatch = JsonUtil.getString(node, "listMatch", null);
+        if (listMatch != null) {
+            filter.setListMatch(FieldValueFilter.ListMatch.valueOf(listMatch));
+        }
+
 
         filter.setFilterIfMissing(JsonUtil.getBoolean(node, "filterIfMissing", filter.getFilterIfMissing()));
 
@@ -94,6 +105,9 @@ public class FieldValueFilterJson implements RecordFilterJsonConverter<FieldValu
             node.put("field", QNameConverter.toJson(filter.getField(), namespaces));
 
             ValueType valueType = repositoryManager.getTypeManager().getFieldTypeByName(filter.getField()).getValueType();
+            if (valueType.getBaseName().equals("LIST") && !(filter.getFieldValue() instanceof List)) {
+                valueType = valueType.getDeepestValueType();
+            }
             JsonNode valueAsJson = RecordWriter.INSTANCE.valueToJson(filter.getFieldValue(), valueType,
                     new WriteOptions(), namespaces, repositoryManager);
 
@@ -105,6 +119,10 @@ public class FieldValueFilterJson implements RecordFilterJsonConverter<FieldValu
             node.put("compareOp", filter.getCompareOp().toString());
         }
 
+        if (filter.getListMatch() != null) {
+            node.put("listMatch", filter.getListMatch().toString());
+        }
+
         node.put("filterIfMissing", filter.getFilterIfMissing());
 
         return node;
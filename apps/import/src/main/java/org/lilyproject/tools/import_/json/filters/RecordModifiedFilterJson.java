@@ -0,0 +1,64 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.tools.import_.json.filters;
+
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.node.ObjectNode;
+import org.lilyproject.repository.api.RepositoryException;
+import org.lilyproject.repository.api.RepositoryManager;
+import org.lilyproject.repository.api.filter.RecordFilter;
+import org.lilyproject.repository.api.filter.RecordModifiedFilter;
+import org.lilyproject.tools.import_.json.JsonFormatException;
+import org.lilyproject.tools.import_.json.Namespaces;
+import org.lilyproject.util.json.JsonFormat;
+import org.lilyproject.util.json.JsonUtil;
+
+public class RecordModifiedFilterJson implements RecordFilterJsonConverter<RecordModifiedFilter> {
+    @Override
+    public boolean supports(String typeName) {
+        return typeName.equals(RecordModifiedFilter.class.getName());
+    }
+
+    @Override
+    public ObjectNode toJson(RecordModifiedFilter filter, Namespaces namespaces, RepositoryManager repositoryManager,
+            RecordFilterJsonConverter<RecordFilter> converter)
+            throws RepositoryException, InterruptedException {
+
+        ObjectNode node = JsonFormat.OBJECT_MAPPER.createObjectNode();
+
+        if (filter.getFrom() != null) {
+            node.put("from", filter.getFrom());
+        }
+
+        if (filter.getTo() != null) {
+            node.put("to", filter.getTo());
+        }
+
+        return node;
+    }
+
+    @Override
+    public RecordModifiedFilter fromJson(JsonNode node, Namespaces namespaces, RepositoryManager repositoryManager,
+            RecordFilterJsonConverter<RecordFilter> converter)
+            throws JsonFormatException, RepositoryException, InterruptedException {
+
+        RecordModifiedFilter filter = new RecordModifiedFilter();
+        filter.setFrom(JsonUtil.getLong(node, "from", null));
+        filter.setTo(JsonUtil.getLong(node, "to", null));
+
+        return filter;
+    }
+}
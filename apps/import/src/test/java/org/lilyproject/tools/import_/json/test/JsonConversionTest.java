@@ -17,6 +17,7 @@ package org.lilyproject.tools.import_.json.test;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
@@ -55,6 +56,7 @@ import org.lilyproject.repository.api.TypeManager;
 import org.lilyproject.repository.api.filter.FieldValueFilter;
 import org.lilyproject.repository.api.filter.RecordFilterList;
 import org.lilyproject.repository.api.filter.RecordIdPrefixFilter;
+import org.lilyproject.repository.api.filter.RecordModifiedFilter;
 import org.lilyproject.repository.api.filter.RecordTypeFilter;
 import org.lilyproject.repository.api.filter.RecordVariantFilter;
 import org.lilyproject.repository.impl.id.IdGeneratorImpl;
@@ -196,6 +198,27 @@ public class JsonConversionTest {
         assertEquals(500, parsedScan.getCaching());
     }
 
+    @Test
+    public void testScanParallelism() throws Exception {
+        RecordScan scan = new RecordScan();
+        scan.setParallelism(8);
+        scan.setOrdered(false);
+        scan.setReadAhead(250);
+
+        byte[] data = scanToBytes(scan);
+        RecordScan parsedScan = scanFromBytes(data);
+
+        assertEquals(8, parsedScan.getParallelism());
+        assertEquals(false, parsedScan.getOrdered());
+        assertEquals(250, parsedScan.getReadAhead());
+
+        // Defaults
+        parsedScan = scanFromBytes(scanToBytes(new RecordScan()));
+        assertEquals(1, parsedScan.getParallelism());
+        assertEquals(true, parsedScan.getOrdered());
+        assertEquals(-1, parsedScan.getReadAhead());
+    }
+
     @Test
     public void testScanRecordTypeFilter() throws Exception {
         QName recordType = new QName("ns", "rt");
@@ -243,6 +266,28 @@ public class JsonConversionTest {
                 node.get("recordFilter").get("recordId").getTextValue());
     }
 
+    @Test
+    public void testScanRecordModifiedFilter() throws Exception {
+        RecordScan scan = new RecordScan();
+        scan.setRecordFilter(new RecordModifiedFilter(1000L, null));
+
+        byte[] data = scanToBytes(scan);
+        RecordScan parsedScan = scanFromBytes(data);
+
+        assertNotNull(parsedScan.getRecordFilter());
+        assertTrue(parsedScan.getRecordFilter() instanceof RecordModifiedFilter);
+        RecordModifiedFilter filter = (RecordModifiedFilter) parsedScan.getRecordFilter();
+        assertEquals(new Long(1000L), filter.getFrom());
+        assertNull(filter.getTo());
+
+        // Check json
+        JsonNode node = new ObjectMapper().readTree(data);
+        assertEquals("org.lilyproject.repository.api.filter.RecordModifiedFilter",
+                node.get("recordFilter").get("@class").getTextValue());
+        assertEquals(1000L, node.get("recordFilter").get("from").getLongValue());
+        assertFalse(node.get("recordFilter").has("to"));
+    }
+
     @Test
     public void testScanFieldValueFilter() throws Exception {
         QName name = new QName("ns", "stringField");
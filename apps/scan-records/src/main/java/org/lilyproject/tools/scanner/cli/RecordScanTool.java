@@ -18,10 +18,15 @@ package org.lilyproject.tools.scanner.cli;
 import java.io.File;
 import java.io.FileInputStream;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 import org.codehaus.jackson.JsonNode;
+import org.lilyproject.repository.api.FieldAggregation;
 import org.lilyproject.repository.api.QName;
 import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.RecordAggregation;
 import org.lilyproject.repository.api.RecordScan;
 import org.lilyproject.repository.api.RecordScanner;
 import org.lilyproject.repository.api.Repository;
@@ -37,6 +42,8 @@ public class RecordScanTool {
     private Repository repository;
     private static int DEFAULT_CACHE = 1024;
     private static boolean DEFAULT_CACHE_BLOCKS = false;
+    private int parallelism = -1;
+    private boolean ordered = true;
 
     public static void count(Repository repository) throws Exception {
         count(repository, null, null);
@@ -70,6 +77,22 @@ public class RecordScanTool {
         this.repository = repository;
     }
 
+    /**
+     * Sets the number of regions to scan concurrently, see {@link RecordScan#setParallelism(int)}. When
+     * not set, the value from the scan configuration file is used.
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Sets whether a parallel scan should return the records in key order, see
+     * {@link RecordScan#setOrdered(boolean)}.
+     */
+    public void setOrdered(boolean ordered) {
+        this.ordered = ordered;
+    }
+
     public void count(String startId, String stopId, String recordTypeFilter, File configFile) throws Exception {
         System.out.println("Counting records");
         RecordScan scan = createRecordScan(startId, stopId, recordTypeFilter, configFile);
@@ -95,6 +118,42 @@ public class RecordScanTool {
         }
     }
 
+    /**
+     * Counts the records and computes statistics of the given numeric fields, without retrieving the records,
+     * see {@link Repository#aggregate(RecordScan, QName...)}.
+     */
+    public void aggregate(String startId, String stopId, String recordTypeFilter, File configFile, List<QName> fields)
+            throws Exception {
+        System.out.println("Aggregating records");
+        RecordScan scan = createRecordScan(startId, stopId, recordTypeFilter, configFile);
+        Date start = new Date();
+        RecordAggregation aggregation = repository.aggregate(scan, fields.toArray(new QName[fields.size()]));
+        Date stop = new Date();
+
+        System.out.println("Found " + aggregation.getCount() + " records in "
+                + ((stop.getTime() - start.getTime()) / 1000f) + "s");
+
+        System.out.println();
+        System.out.println("Records per record type:");
+        Map<String, Long> countsByRecordType = new TreeMap<String, Long>();
+        for (Map.Entry<QName, Long> entry : aggregation.getCountsByRecordType().entrySet()) {
+            countsByRecordType.put(entry.getKey().toString(), entry.getValue());
+        }
+        for (Map.Entry<String, Long> entry : countsByRecordType.entrySet()) {
+            System.out.println("  " + entry.getKey() + " : " + entry.getValue());
+        }
+
+        for (QName field : fields) {
+            FieldAggregation fieldAggregation = aggregation.getFieldAggregation(field);
+            System.out.println();
+            System.out.println("Field " + field + ":");
+            System.out.println("  count : " + fieldAggregation.getCount());
+            System.out.println("  min   : " + fieldAggregation.getMin());
+            System.out.println("  max   : " + fieldAggregation.getMax());
+            System.out.println("  sum   : " + fieldAggregation.getSum());
+        }
+    }
+
     public void print(String startId, String stopId, long limit, String recordTypeFilter, File configFile) throws Exception {
         if (limit < 0) {
             limit = Long.MAX_VALUE;
@@ -127,6 +186,13 @@ public class RecordScanTool {
         scan.setCaching(RecordScanTool.DEFAULT_CACHE);
         scan.setCacheBlocks(DEFAULT_CACHE_BLOCKS);
 
+        if (parallelism > 0) {
+            scan.setParallelism(parallelism);
+        }
+        if (!ordered) {
+            scan.setOrdered(false);
+        }
+
         if (startId != null && startId.length() > 0) {
             scan.setStartRecordId(repository.getIdGenerator().fromString(startId));
         }
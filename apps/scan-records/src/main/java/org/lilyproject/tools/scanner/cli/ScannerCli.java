@@ -16,6 +16,7 @@
 package org.lilyproject.tools.scanner.cli;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.List;
 
 import org.lilyproject.util.hbase.LilyHBaseSchema.Table;
@@ -27,6 +28,7 @@ import org.apache.commons.cli.Option;
 import org.apache.commons.cli.OptionBuilder;
 import org.lilyproject.cli.BaseZkCliTool;
 import org.lilyproject.client.LilyClient;
+import org.lilyproject.repository.api.QName;
 import org.lilyproject.util.Version;
 import org.lilyproject.util.io.Closer;
 
@@ -40,6 +42,10 @@ public class ScannerCli extends BaseZkCliTool {
     private Option stopOption;
     private Option recordTypeOption;
     private Option tableOption;
+    private Option parallelOption;
+    private Option aggregateOption;
+    private Option fieldsOption;
+    private Option unorderedOption;
 
     /**
      * @param args
@@ -73,6 +79,16 @@ public class ScannerCli extends BaseZkCliTool {
                 .withDescription("Count the number of records")
                 .withLongOpt("count")
                 .create("c");
+        aggregateOption = OptionBuilder
+                .withDescription("Count the number of records per record type and aggregate field values, server-side")
+                .withLongOpt("aggregate")
+                .create("a");
+        fieldsOption = OptionBuilder
+                .hasArg()
+                .withArgName("{namespace}name,...")
+                .withDescription("Numeric fields to compute the count, min, max and sum of, in aggregate mode")
+                .withLongOpt("fields")
+                .create();
         printOption = OptionBuilder
                 .withDescription("Print records to the command line")
                 .withLongOpt("print")
@@ -107,16 +123,29 @@ public class ScannerCli extends BaseZkCliTool {
                 .withDescription("Repository table to scan (defaults to record)")
                 .withLongOpt("table")
                 .create("t");
-        
+        parallelOption = OptionBuilder
+                .hasArg()
+                .withArgName("number")
+                .withDescription("Number of regions to scan concurrently (default: 1)")
+                .withLongOpt("parallel")
+                .create();
+        unorderedOption = OptionBuilder
+                .withDescription("When scanning in parallel, return records as they arrive rather than in key order")
+                .withLongOpt("unordered")
+                .create();
 
         options.add(printOption);
         options.add(limitOption);
         options.add(countOption);
+        options.add(aggregateOption);
+        options.add(fieldsOption);
         options.add(configOption);
         options.add(startOption);
         options.add(stopOption);
         options.add(recordTypeOption);
         options.add(tableOption);
+        options.add(parallelOption);
+        options.add(unorderedOption);
 
         return options;
     }
@@ -127,7 +156,8 @@ public class ScannerCli extends BaseZkCliTool {
         if (result != 0)
             return result;
 
-        if (!cmd.hasOption(printOption.getOpt()) && !cmd.hasOption(countOption.getOpt())) {
+        if (!cmd.hasOption(printOption.getOpt()) && !cmd.hasOption(countOption.getOpt())
+                && !cmd.hasOption(aggregateOption.getOpt())) {
             printHelp();
             return 0;
         }
@@ -139,11 +169,25 @@ public class ScannerCli extends BaseZkCliTool {
         long limit = cmd.hasOption(limitOption.getLongOpt()) ? Long.parseLong(cmd.getOptionValue(limitOption.getLongOpt())) : -1;
         String table = OptionUtil.getStringOption(cmd, tableOption, Table.RECORD.name);
 
+        int parallelism = cmd.hasOption(parallelOption.getLongOpt()) ? Integer.parseInt(cmd.getOptionValue(parallelOption.getLongOpt())) : -1;
+        boolean ordered = !cmd.hasOption(unorderedOption.getLongOpt());
+
         lilyClient = new LilyClient(zkConnectionString, zkSessionTimeout);
-        if (cmd.hasOption(countOption.getOpt())) {
-            RecordScanTool.count(lilyClient.getRepository(table), startId, stopId,recordTypeFilter, configFile);
+        RecordScanTool scanTool = new RecordScanTool(lilyClient.getRepository(table));
+        scanTool.setParallelism(parallelism);
+        scanTool.setOrdered(ordered);
+        if (cmd.hasOption(aggregateOption.getOpt())) {
+            List<QName> fields = new ArrayList<QName>();
+            if (cmd.hasOption(fieldsOption.getLongOpt())) {
+                for (String field : cmd.getOptionValue(fieldsOption.getLongOpt()).split(",")) {
+                    fields.add(QName.fromString(field.trim()));
+                }
+            }
+            scanTool.aggregate(startId, stopId, recordTypeFilter, configFile, fields);
+        } else if (cmd.hasOption(countOption.getOpt())) {
+            scanTool.count(startId, stopId, recordTypeFilter, configFile);
         } else if (cmd.hasOption(printOption.getOpt())) {
-            RecordScanTool.print(lilyClient.getRepository(table), startId, stopId, limit, recordTypeFilter, configFile);
+            scanTool.print(startId, stopId, limit, recordTypeFilter, configFile);
         }
 
         return 0;
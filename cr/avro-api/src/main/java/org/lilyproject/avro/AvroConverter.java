@@ -16,6 +16,7 @@
 package org.lilyproject.avro;
 
 import java.lang.reflect.Constructor;
+import java.math.BigDecimal;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -32,6 +33,7 @@ import org.lilyproject.avro.repository.RecordAsBytesConverter;
 import org.lilyproject.bytes.impl.DataInputImpl;
 import org.lilyproject.indexer.IndexerException;
 import org.lilyproject.repository.api.CompareOp;
+import org.lilyproject.repository.api.FieldMutation;
 import org.lilyproject.repository.api.FieldType;
 import org.lilyproject.repository.api.FieldTypeEntry;
 import org.lilyproject.repository.api.IdRecord;
@@ -141,6 +143,46 @@ public class AvroConverter {
         return avroConditions;
     }
 
+    public List<AvroFieldMutation> convertFieldMutations(Record parentRecord, List<FieldMutation> mutations)
+            throws AvroRepositoryException, AvroInterruptedException {
+
+        if (mutations == null) {
+            return new ArrayList<AvroFieldMutation>();
+        }
+
+        List<AvroFieldMutation> avroMutations = new ArrayList<AvroFieldMutation>(mutations.size());
+
+        IdentityRecordStack parentRecords = new IdentityRecordStack(parentRecord);
+
+        for (FieldMutation mutation : mutations) {
+            try {
+                AvroFieldMutation avroMutation = new AvroFieldMutation();
+                avroMutation.setName(convert(mutation.getField()));
+                avroMutation.setType(AvroFieldMutationType.values()[mutation.getType().ordinal()]);
+                avroMutation.setMaxSize(mutation.getMaxSize());
+
+                if (mutation.getDelta() != null) {
+                    avroMutation.setDelta(mutation.getDelta().toString());
+                }
+                if (mutation.getValues() != null) {
+                    // The values are encoded as a value of the list field itself
+                    ValueType valueType = repositoryManager.getTypeManager().getFieldTypeByName(mutation.getField())
+                            .getValueType();
+                    avroMutation.setValueType(valueType.getName());
+                    avroMutation.setValues(ByteBuffer.wrap(valueType.toBytes(mutation.getValues(), parentRecords)));
+                }
+
+                avroMutations.add(avroMutation);
+            } catch (RepositoryException e) {
+                throw convert(e);
+            } catch (InterruptedException e) {
+                throw convert(e);
+            }
+        }
+
+        return avroMutations;
+    }
+
     public List<Record> convertAvroRecords(List<ByteBuffer> avroRecords) throws RepositoryException,
             InterruptedException {
         List<Record> records = new ArrayList<Record>();
@@ -630,6 +672,32 @@ public class AvroConverter {
         return conditions;
     }
 
+    public List<FieldMutation> convertFieldMutationsFromAvro(List<AvroFieldMutation> avroMutations)
+            throws RepositoryException, InterruptedException {
+
+        List<FieldMutation> mutations = new ArrayList<FieldMutation>(avroMutations.size());
+
+        for (AvroFieldMutation avroMutation : avroMutations) {
+            QName name = convert(avroMutation.getName());
+
+            switch (avroMutation.getType()) {
+                case INCREMENT:
+                    mutations.add(FieldMutation.increment(name, new BigDecimal(avroMutation.getDelta())));
+                    break;
+                case APPEND:
+                    ValueType valueType = repositoryManager.getTypeManager().getValueType(
+                            avroMutation.getValueType());
+                    List<?> values = valueType.read(avroMutation.getValues().array());
+                    mutations.add(FieldMutation.append(name, values, avroMutation.getMaxSize()));
+                    break;
+                default:
+                    throw new RuntimeException("Unsupported field mutation: " + avroMutation.getType());
+            }
+        }
+
+        return mutations;
+    }
+
  
 
     public AvroCompareOp convert(CompareOp op) {
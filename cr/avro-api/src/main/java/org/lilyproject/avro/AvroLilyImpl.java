@@ -127,6 +127,20 @@ public class AvroLilyImpl implements AvroLily {
         }
     }
 
+    @Override
+    public ByteBuffer updateWithMutations(ByteBuffer record, String table, List<AvroMutationCondition> conditions,
+                                          List<AvroFieldMutation> mutations) throws AvroRemoteException {
+        try {
+            Repository repository = getRepository(table);
+            return converter.convert(repository.update(converter.convertRecord(record),
+                    converter.convertFromAvro(conditions), converter.convertFieldMutationsFromAvro(mutations)));
+        } catch (RepositoryException e) {
+            throw converter.convert(e);
+        } catch (InterruptedException e) {
+            throw converter.convert(e);
+        }
+    }
+
     @Override
     public AvroFieldType createFieldType(AvroFieldType avroFieldType)
             throws AvroRepositoryException, AvroInterruptedException {
@@ -49,6 +49,8 @@ public class AddIndexCli extends BaseIndexerAdminCli {
         options.add(solrZkOption);
         options.add(solrModeOption);
         options.add(enableDerefMapOption);
+        options.add(enableFingerprintsOption);
+        options.add(sharedSubscriptionOption);
 
         return options;
     }
@@ -115,6 +117,12 @@ public class AddIndexCli extends BaseIndexerAdminCli {
         else
             index.setEnableDerefMap(true); // default true
 
+        if (enableFingerprints != null)
+            index.setEnableFingerprints(enableFingerprints);
+
+        if (sharedSubscription != null)
+            index.setSharedSubscription(sharedSubscription);
+
         model.addIndex(index);
 
         System.out.println("Index created: " + indexName);
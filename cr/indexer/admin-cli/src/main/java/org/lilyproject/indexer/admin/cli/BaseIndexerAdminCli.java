@@ -75,6 +75,8 @@ public abstract class BaseIndexerAdminCli extends BaseZkCliTool {
     protected Option solrZkOption;
     protected Option solrModeOption;
     protected Option enableDerefMapOption;
+    protected Option enableFingerprintsOption;
+    protected Option sharedSubscriptionOption;
 
     protected String indexName;
     protected Map<String, String> solrShards;
@@ -96,6 +98,8 @@ public abstract class BaseIndexerAdminCli extends BaseZkCliTool {
     protected String solrZk;
     protected SolrMode solrMode;
     protected Boolean enableDerefMap;
+    protected Boolean enableFingerprints;
+    protected Boolean sharedSubscription;
 
     protected enum SolrMode {
         CLASSIC, CLOUD;
@@ -235,6 +239,24 @@ public abstract class BaseIndexerAdminCli extends BaseZkCliTool {
                         "only ever plan to populate your index through batch index building.")
                 .withLongOpt("enable-derefmap")
                 .create("edm");
+
+        enableFingerprintsOption = OptionBuilder
+                .withArgName("enable fingerprints")
+                .hasArg()
+                .withDescription("Maintain fingerprints of the indexed documents in HBase, so that documents " +
+                        "which did not change are not sent to Solr again. This is disabled by default. Only enable " +
+                        "this if the Solr index is only ever modified by the indexer.")
+                .withLongOpt("enable-fingerprints")
+                .create("efp");
+
+        sharedSubscriptionOption = OptionBuilder
+                .withArgName("shared subscription")
+                .hasArg()
+                .withDescription("Consume the record events through the SEP subscription which is shared by all " +
+                        "indexes having this option enabled, instead of through a subscription of its own. This " +
+                        "avoids shipping and parsing each event once per index. This is disabled by default.")
+                .withLongOpt("shared-subscription")
+                .create("ss");
     }
 
     @Override
@@ -511,6 +533,14 @@ public abstract class BaseIndexerAdminCli extends BaseZkCliTool {
             enableDerefMap = Boolean.valueOf(cmd.getOptionValue(enableDerefMapOption.getOpt()));
         }
 
+        if (cmd.hasOption(enableFingerprintsOption.getOpt())) {
+            enableFingerprints = Boolean.valueOf(cmd.getOptionValue(enableFingerprintsOption.getOpt()));
+        }
+
+        if (cmd.hasOption(sharedSubscriptionOption.getOpt())) {
+            sharedSubscription = Boolean.valueOf(cmd.getOptionValue(sharedSubscriptionOption.getOpt()));
+        }
+
         printBatchConfiguration = cmd.hasOption(printBatchConfigurationOption.getOpt());
 
         printShardingConfiguration = cmd.hasOption(printShardingConfigurationOption.getOpt());
@@ -71,6 +71,12 @@ public class ListIndexesCli extends BaseIndexerAdminCli {
             if (!index.isEnableDerefMap()) {
                 System.out.println("  + Dereference Map: disabled");
             }
+            if (index.isEnableFingerprints()) {
+                System.out.println("  + Document fingerprints: enabled");
+            }
+            if (index.isSharedSubscription()) {
+                System.out.println("  + Shared subscription: enabled");
+            }
             if (index.getSolrShards() != null && !index.getSolrShards().isEmpty()) {
                 System.out.println("  + Solr Mode: CLASSIC");
                 System.out.println("    + Solr shards:");
@@ -119,6 +125,10 @@ public class ListIndexesCli extends BaseIndexerAdminCli {
                     System.out.println("    + Batch build config : " +
                             prettyPrintJson(lastBatchBuild.getBatchIndexConfiguration(), 6));
             }
+            if (index.getLastSuccessfulBatchBuildTime() > 0) {
+                System.out.println("  + Last successful batch build submitted at: " +
+                        new DateTime(index.getLastSuccessfulBatchBuildTime()).toString());
+            }
             if (index.getBatchTables() != null) {
                 System.out.println("  + Batch build tables: " + index.getBatchTables());
             }
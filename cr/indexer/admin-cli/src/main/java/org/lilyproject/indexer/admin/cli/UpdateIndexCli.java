@@ -55,6 +55,8 @@ public class UpdateIndexCli extends BaseIndexerAdminCli {
         options.add(solrZkOption);
         options.add(solrModeOption);
         options.add(enableDerefMapOption);
+        options.add(enableFingerprintsOption);
+        options.add(sharedSubscriptionOption);
         options.add(batchIndexTablesOption);
 
         return options;
@@ -184,6 +186,16 @@ public class UpdateIndexCli extends BaseIndexerAdminCli {
                 changes = true;
             }
 
+            if (enableFingerprints != null && enableFingerprints != index.isEnableFingerprints()) {
+                index.setEnableFingerprints(enableFingerprints);
+                changes = true;
+            }
+
+            if (sharedSubscription != null && sharedSubscription != index.isSharedSubscription()) {
+                index.setSharedSubscription(sharedSubscription);
+                changes = true;
+            }
+
             if (changes) {
                 model.updateIndex(index, lock);
                 System.out.println("Index updated: " + indexName);
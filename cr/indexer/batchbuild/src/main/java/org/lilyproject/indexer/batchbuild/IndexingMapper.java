@@ -44,6 +44,7 @@ import org.lilyproject.indexer.engine.IndexLocker;
 import org.lilyproject.indexer.engine.Indexer;
 import org.lilyproject.indexer.engine.IndexerMetrics;
 import org.lilyproject.indexer.engine.SolrClientConfig;
+import org.lilyproject.indexer.engine.SolrDocumentFingerprints;
 import org.lilyproject.indexer.engine.SolrShardManager;
 import org.lilyproject.indexer.model.indexerconf.IndexerConf;
 import org.lilyproject.indexer.model.indexerconf.IndexerConfBuilder;
@@ -102,8 +103,11 @@ public class IndexingMapper extends IdRecordMapper<ImmutableBytesWritable, Resul
             final DerefMap derefMap = indexerConf.containsDerefExpressions() ?
                     DerefMapHbaseImpl.create(indexName, LilyClient.getHBaseConfiguration(zk), null,
                             lilyClient.getIdGenerator()) : null;
+            final SolrDocumentFingerprints fingerprints =
+                    jobConf.getBoolean("org.lilyproject.indexer.batchbuild.fingerprints", false) ?
+                    SolrDocumentFingerprints.create(indexName, LilyClient.getHBaseConfiguration(zk), null) : null;
             indexer = new Indexer(indexName, indexerConf, lilyClient, solrShardMgr, indexLocker,
-                    new IndexerMetrics(indexName), derefMap);
+                    new IndexerMetrics(indexName), derefMap, fingerprints);
 
             int workers = getIntProp("org.lilyproject.indexer.batchbuild.threads", 5, jobConf);
 
@@ -13,10 +13,21 @@ import org.lilyproject.repository.api.AbsoluteRecordId;
 final class DependantRecordIdsIteratorImpl implements DependantRecordIdsIterator {
     private final QueryResult queryResult;
     private final DerefMapSerializationUtil serializationUtil;
+    private final DerefMapMetrics metrics;
+    private boolean foundAny;
 
     DependantRecordIdsIteratorImpl(QueryResult queryResult, DerefMapSerializationUtil serializationUtil) {
+        this(queryResult, serializationUtil, null);
+    }
+
+    /**
+     * @param metrics if not null, the scan is counted as empty scan in case it finds nothing
+     */
+    DependantRecordIdsIteratorImpl(QueryResult queryResult, DerefMapSerializationUtil serializationUtil,
+                                   DerefMapMetrics metrics) {
         this.queryResult = queryResult;
         this.serializationUtil = serializationUtil;
+        this.metrics = metrics;
     }
 
     @Override
@@ -30,10 +41,17 @@ final class DependantRecordIdsIteratorImpl implements DependantRecordIdsIterator
         // the identifier is the record id of the record that depends on the queried record
 
         final byte[] nextIdentifier = queryResult.next();
-        if (nextIdentifier == null)
+        if (nextIdentifier == null) {
+            if (!foundAny && metrics != null) {
+                metrics.emptyScans.inc();
+                // count only once
+                foundAny = true;
+            }
             return null;
-        else
+        } else {
+            foundAny = true;
             return serializationUtil.deserializeDependantRecordId(nextIdentifier);
+        }
     }
 
     @Override
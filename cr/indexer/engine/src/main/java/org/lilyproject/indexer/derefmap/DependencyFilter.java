@@ -0,0 +1,419 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.indexer.derefmap;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.TableNotFoundException;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HBaseAdmin;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.KeyOnlyFilter;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Hash;
+import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.util.hbase.HBaseTableFactory;
+import org.lilyproject.util.hbase.HBaseTableFactoryImpl;
+import org.lilyproject.util.io.Closer;
+
+/**
+ * Bloom filter over the master record ids of the dependencies in the backward index of a {@link DerefMapHbaseImpl},
+ * which allows to tell that a record has no dependants without opening a scanner on the backward index.
+ *
+ * <p>The filter is stored in an HBase table, with one cell for each bit that is set, so that it is shared by all
+ * processes maintaining the deref map and bits can be set concurrently without any coordination. The bits of a
+ * dependency are always set before its backward index entry is written. It is a blocked bloom filter: all bits of
+ * a master record fall in the same row, so a lookup is a single Get, and adding a record a single Put. Bits which
+ * are known to be set are remembered locally, so most positive lookups don't need to contact HBase at all.</p>
+ *
+ * <p>Bits are never cleared, so the filter is rebuilt from time to time from the forward index, see
+ * {@link DerefMapHbaseImpl#rebuildDependencyFilter()}. Each build goes into a new generation. Which generations
+ * exist is stored in a meta row, which every process re-reads at least every {@link #META_REFRESH_INTERVAL} ms.
+ * Bits are set in all existing generations: while one is being built, and for a while after it replaced the
+ * previous one, so that no process ever looks at a generation which misses bits. Lookups only use the current
+ * generation. As long as no generation has been built (e.g. for a deref map which already existed before this
+ * filter was introduced), every lookup answers "maybe".</p>
+ */
+class DependencyFilter {
+    static final int NUM_BITS = 1 << 26;
+
+    static final int NUM_HASHES = 5;
+
+    static final int BITS_PER_ROW = 1 << 14;
+
+    private static final int NUM_ROWS = NUM_BITS / BITS_PER_ROW;
+
+    static final long META_REFRESH_INTERVAL = 10000L;
+
+    private static final long NO_GENERATION = -1L;
+
+    private static final int DELETE_BATCH_SIZE = 1000;
+
+    private static final byte[] FAMILY = Bytes.toBytes("f");
+
+    // The rows of the generations start with the 8-byte generation number, and thus never equal this one
+    private static final byte[] META_ROW = Bytes.toBytes("meta");
+
+    private static final byte[] CURRENT_COLUMN = Bytes.toBytes("current");
+
+    private static final byte[] CURRENT_BUILT_COLUMN = Bytes.toBytes("current_built");
+
+    private static final byte[] BUILDING_COLUMN = Bytes.toBytes("building");
+
+    private static final byte[] PREVIOUS_COLUMN = Bytes.toBytes("previous");
+
+    private static final byte[] EMPTY_VALUE = new byte[0];
+
+    private static final Hash HASH = Hash.getInstance(Hash.MURMUR_HASH);
+
+    private final HTableInterface htable;
+
+    /**
+     * Time to wait after a change to the meta row before relying on all processes having seen it.
+     */
+    private long gracePeriod = 6 * META_REFRESH_INTERVAL;
+
+    private volatile Generations generations;
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    DependencyFilter(String indexName, Configuration hbaseConf, HBaseTableFactory tableFactory)
+            throws IOException, InterruptedException {
+        if (tableFactory == null) {
+            tableFactory = new HBaseTableFactoryImpl(hbaseConf);
+        }
+        HTableDescriptor tableDescr = new HTableDescriptor(tableName(indexName));
+        tableDescr.addFamily(new HColumnDescriptor(FAMILY));
+        htable = tableFactory.getTable(tableDescr);
+    }
+
+    static String tableName(String indexName) {
+        return "deref-filter-" + indexName;
+    }
+
+    /**
+     * Deletes the filter of an index. Does nothing if there is none.
+     */
+    static void delete(String indexName, Configuration hbaseConf) throws IOException {
+        HBaseAdmin hbaseAdmin = new HBaseAdmin(hbaseConf);
+        try {
+            String tableName = tableName(indexName);
+            if (hbaseAdmin.tableExists(tableName)) {
+                hbaseAdmin.disableTable(tableName);
+                hbaseAdmin.deleteTable(tableName);
+            }
+        } catch (TableNotFoundException e) {
+            // deleted concurrently, fine
+        } finally {
+            Closer.close(hbaseAdmin);
+        }
+    }
+
+    void setGracePeriod(long gracePeriod) {
+        this.gracePeriod = gracePeriod;
+    }
+
+    /**
+     * Returns false if there are certainly no dependencies on the given master record.
+     */
+    boolean mightContain(RecordId master) throws IOException {
+        Generations gens = getGenerations();
+        if (gens.current == NO_GENERATION) {
+            return true;
+        }
+
+        BitSet knownBits = gens.knownBits.get(gens.current);
+        List<Integer> unknownBits = new ArrayList<Integer>(NUM_HASHES);
+        synchronized (knownBits) {
+            for (int bit : bits(master)) {
+                if (!knownBits.get(bit)) {
+                    unknownBits.add(bit);
+                }
+            }
+        }
+        if (unknownBits.isEmpty()) {
+            return true;
+        }
+
+        // All bits are in the same row
+        Get get = new Get(rowKey(gens.current, unknownBits.get(0)));
+        for (int bit : unknownBits) {
+            get.addColumn(FAMILY, Bytes.toBytes(bit));
+        }
+        Result result = htable.get(get);
+
+        boolean allSet = true;
+        synchronized (knownBits) {
+            for (int bit : unknownBits) {
+                if (result.containsColumn(FAMILY, Bytes.toBytes(bit))) {
+                    knownBits.set(bit);
+                } else {
+                    allSet = false;
+                }
+            }
+        }
+        return allSet;
+    }
+
+    /**
+     * Adds the given master records to all generations of the filter.
+     */
+    void add(Collection<RecordId> masters) throws IOException {
+        Generations gens = getGenerations();
+        for (long generation : gens.knownBits.keySet()) {
+            add(generation, gens.knownBits.get(generation), masters);
+        }
+    }
+
+    private void add(long generation, BitSet knownBits, Collection<RecordId> masters) throws IOException {
+        Set<Integer> newBits = new LinkedHashSet<Integer>();
+        synchronized (knownBits) {
+            for (RecordId master : masters) {
+                for (int bit : bits(master)) {
+                    if (!knownBits.get(bit)) {
+                        newBits.add(bit);
+                    }
+                }
+            }
+        }
+        if (newBits.isEmpty()) {
+            return;
+        }
+
+        // One put for each row, the bits of a master record are all in the same row
+        Map<Integer, Put> puts = new HashMap<Integer, Put>();
+        for (int bit : newBits) {
+            Put put = puts.get(bit / BITS_PER_ROW);
+            if (put == null) {
+                put = new Put(rowKey(generation, bit));
+                puts.put(bit / BITS_PER_ROW, put);
+            }
+            put.add(FAMILY, Bytes.toBytes(bit), EMPTY_VALUE);
+        }
+        htable.put(new ArrayList<Put>(puts.values()));
+
+        synchronized (knownBits) {
+            for (int bit : newBits) {
+                knownBits.set(bit);
+            }
+        }
+    }
+
+    /**
+     * Returns the time since the current generation was built, or {@link Long#MAX_VALUE} if there is none yet.
+     */
+    long getAge() throws IOException {
+        Generations gens = getGenerations();
+        return gens.current == NO_GENERATION ? Long.MAX_VALUE : System.currentTimeMillis() - gens.currentBuilt;
+    }
+
+    /**
+     * Starts building a new generation. When this method returns, all processes add to the new generation, so
+     * the caller can start filling it with the dependencies which existed before.
+     *
+     * @return the generation to fill
+     */
+    long startBuild() throws IOException, InterruptedException {
+        Generations gens = readGenerations();
+
+        if (gens.previous != NO_GENERATION) {
+            // A previous build didn't complete its cleanup
+            Thread.sleep(gracePeriod);
+            dropPrevious(gens.previous);
+            gens = readGenerations();
+        }
+
+        long generation = gens.building;
+        if (generation == NO_GENERATION) {
+            generation = gens.current == NO_GENERATION ? 1 : gens.current + 1;
+            Put put = new Put(META_ROW);
+            put.add(FAMILY, BUILDING_COLUMN, Bytes.toBytes(generation));
+            htable.put(put);
+        } else {
+            // Resume a build which didn't complete: the processes have been adding to it all along
+            log.info("Resuming build of generation " + generation + " of " + Bytes.toString(htable.getTableName()));
+        }
+        generations = readGenerations();
+
+        Thread.sleep(gracePeriod);
+        return generation;
+    }
+
+    /**
+     * Adds the given master records to one specific generation, used to fill the generation which is being built.
+     */
+    void add(long generation, Collection<RecordId> masters) throws IOException {
+        Generations gens = getGenerations();
+        BitSet knownBits = gens.knownBits.get(generation);
+        if (knownBits == null) {
+            throw new IllegalStateException("Generation " + generation + " of " +
+                    Bytes.toString(htable.getTableName()) + " does not exist anymore.");
+        }
+        add(generation, knownBits, masters);
+    }
+
+    /**
+     * Makes a generation the current one and deletes the one it replaces, once no process uses it anymore.
+     */
+    void finishBuild(long generation) throws IOException, InterruptedException {
+        Generations gens = readGenerations();
+        if (gens.building != generation) {
+            throw new IllegalStateException("Generation " + generation + " of " +
+                    Bytes.toString(htable.getTableName()) + " is not being built.");
+        }
+
+        // Until the delete of the building column, processes add twice to the new generation, which does no harm
+        Put put = new Put(META_ROW);
+        put.add(FAMILY, CURRENT_COLUMN, Bytes.toBytes(generation));
+        put.add(FAMILY, CURRENT_BUILT_COLUMN, Bytes.toBytes(System.currentTimeMillis()));
+        if (gens.current != NO_GENERATION) {
+            put.add(FAMILY, PREVIOUS_COLUMN, Bytes.toBytes(gens.current));
+        }
+        htable.put(put);
+        Delete delete = new Delete(META_ROW);
+        delete.deleteColumns(FAMILY, BUILDING_COLUMN);
+        htable.delete(delete);
+        generations = readGenerations();
+
+        if (gens.current != NO_GENERATION) {
+            // Processes which didn't see the switch yet still look at the previous generation
+            Thread.sleep(gracePeriod);
+            dropPrevious(gens.current);
+        }
+    }
+
+    private void dropPrevious(long generation) throws IOException {
+        Delete delete = new Delete(META_ROW);
+        delete.deleteColumns(FAMILY, PREVIOUS_COLUMN);
+        htable.delete(delete);
+        generations = readGenerations();
+
+        Scan scan = new Scan(Bytes.toBytes(generation), Bytes.toBytes(generation + 1));
+        scan.setFilter(new KeyOnlyFilter());
+        scan.setCaching(DELETE_BATCH_SIZE);
+        ResultScanner scanner = htable.getScanner(scan);
+        try {
+            List<Delete> deletes = new ArrayList<Delete>();
+            for (Result result : scanner) {
+                deletes.add(new Delete(result.getRow()));
+                if (deletes.size() >= DELETE_BATCH_SIZE) {
+                    htable.delete(deletes);
+                    deletes.clear();
+                }
+            }
+            if (!deletes.isEmpty()) {
+                htable.delete(deletes);
+            }
+        } finally {
+            Closer.close(scanner);
+        }
+    }
+
+    private Generations getGenerations() throws IOException {
+        Generations gens = generations;
+        if (gens == null || System.currentTimeMillis() - gens.readAt > META_REFRESH_INTERVAL) {
+            gens = readGenerations();
+            generations = gens;
+        }
+        return gens;
+    }
+
+    private Generations readGenerations() throws IOException {
+        Result result = htable.get(new Get(META_ROW));
+        Generations gens = new Generations(getLong(result, CURRENT_COLUMN), getLong(result, CURRENT_BUILT_COLUMN),
+                getLong(result, BUILDING_COLUMN), getLong(result, PREVIOUS_COLUMN));
+
+        // Keep what we know about the generations which still exist
+        Map<Long, BitSet> oldKnownBits =
+                generations != null ? generations.knownBits : Collections.<Long, BitSet>emptyMap();
+        for (long generation : new long[] {gens.current, gens.building, gens.previous}) {
+            if (generation != NO_GENERATION) {
+                BitSet knownBits = oldKnownBits.get(generation);
+                gens.knownBits.put(generation, knownBits != null ? knownBits : new BitSet());
+            }
+        }
+        return gens;
+    }
+
+    private static long getLong(Result result, byte[] column) {
+        byte[] value = result.getValue(FAMILY, column);
+        return value != null ? Bytes.toLong(value) : NO_GENERATION;
+    }
+
+    private static byte[] rowKey(long generation, int bit) {
+        return Bytes.add(Bytes.toBytes(generation), Bytes.toBytes(bit / BITS_PER_ROW));
+    }
+
+    /**
+     * Calculates the bits of a master record id: a first hash selects the row, within which the bits are chosen
+     * using double hashing.
+     */
+    static int[] bits(RecordId master) {
+        byte[] bytes = master.toBytes();
+        int rowHash = HASH.hash(bytes, 0);
+        int hash1 = HASH.hash(bytes, rowHash);
+        int hash2 = HASH.hash(bytes, hash1);
+        int rowStart = (int)((rowHash & Long.MAX_VALUE) % NUM_ROWS) * BITS_PER_ROW;
+        int[] bits = new int[NUM_HASHES];
+        for (int i = 0; i < NUM_HASHES; i++) {
+            bits[i] = rowStart + (int)(((hash1 + (long)i * hash2) & Long.MAX_VALUE) % BITS_PER_ROW);
+        }
+        return bits;
+    }
+
+    void close() {
+        Closer.close(htable);
+    }
+
+    private static class Generations {
+        private final long current;
+        private final long currentBuilt;
+        private final long building;
+        private final long previous;
+        private final long readAt = System.currentTimeMillis();
+
+        /**
+         * The bits known to be set, for each existing generation.
+         */
+        private final Map<Long, BitSet> knownBits = new HashMap<Long, BitSet>();
+
+        private Generations(long current, long currentBuilt, long building, long previous) {
+            this.current = current;
+            this.currentBuilt = currentBuilt;
+            this.building = building;
+            this.previous = previous;
+        }
+    }
+}
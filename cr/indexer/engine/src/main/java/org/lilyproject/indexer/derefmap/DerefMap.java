@@ -34,6 +34,16 @@ public interface DerefMap {
     void updateDependants(AbsoluteRecordId parentRecordId, final SchemaId dependantVtagId,
                             Map<DependencyEntry, Set<SchemaId>> newDependantEntries) throws IOException;
 
+    /**
+     * Same as {@link #updateDependants(AbsoluteRecordId, SchemaId, Map)}, but for several vtags of a record at once,
+     * which allows to combine the writes to the underlying storage.
+     *
+     * @param newDependantEntriesByVtag for each vtag to update, the new dependencies of the record in that vtag
+     */
+    void updateDependants(AbsoluteRecordId parentRecordId,
+                          Map<SchemaId, Map<DependencyEntry, Set<SchemaId>>> newDependantEntriesByVtag)
+            throws IOException;
+
     /**
      * Find all record ids which depend on one of the given fields of a given record in a given vtag. Both the set of
      * fields and the vtag can be <code>null</code> if you want to ignore filtering on the fields and/or vtag.
@@ -1,13 +1,17 @@
 package org.lilyproject.indexer.derefmap;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import com.google.common.collect.Sets;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.client.HBaseAdmin;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.lilyproject.hbaseindex.Index;
 import org.lilyproject.hbaseindex.IndexDefinition;
@@ -34,22 +38,46 @@ public class DerefMapHbaseImpl implements DerefMap {
 
     private static final byte[] DUMMY_IDENTIFIER = new byte[]{0};
 
+    private static final int FILTER_REBUILD_BATCH_SIZE = 1000;
+
+    private static final DependantRecordIdsIterator NO_DEPENDANTS = new DependantRecordIdsIterator() {
+        @Override
+        public boolean hasNext() {
+            return false;
+        }
+
+        @Override
+        public AbsoluteRecordId next() {
+            return null;
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
     private Index forwardDerefIndex;
 
     private Index backwardDerefIndex;
 
+    private DependencyFilter dependencyFilter;
+
     private DerefMapSerializationUtil serializationUtil;
 
+    private DerefMapMetrics metrics;
+
     /**
      * Private constructor. Clients should use static factory methods {@link #delete(String,
      * org.apache.hadoop.conf.Configuration)} and {@link #create(String, Configuration, HBaseTableFactory,
      * IdGenerator)}
      */
     private DerefMapHbaseImpl(final String indexName, final Configuration hbaseConfiguration,
-                              final HBaseTableFactory tableFactory, final IdGenerator idGenerator)
+                              final HBaseTableFactory tableFactory, final IdGenerator idGenerator,
+                              final DerefMapMetrics metrics)
             throws IndexNotFoundException, IOException, InterruptedException {
 
         this.serializationUtil = new DerefMapSerializationUtil(idGenerator);
+        this.metrics = metrics;
 
         final IndexManager indexManager = new IndexManager(hbaseConfiguration, tableFactory);
 
@@ -69,6 +97,8 @@ public class DerefMapHbaseImpl implements DerefMap {
         backwardIndexDef.addByteField("dependant_vtag", DerefMapSerializationUtil.SCHEMA_ID_BYTE_LENGTH);
         backwardIndexDef.addVariableLengthByteField("variant_properties_pattern");
         backwardDerefIndex = indexManager.getIndex(backwardIndexDef);
+
+        dependencyFilter = new DependencyFilter(indexName, hbaseConfiguration, tableFactory);
     }
 
     /**
@@ -85,7 +115,20 @@ public class DerefMapHbaseImpl implements DerefMap {
     public static DerefMap create(final String indexName, final Configuration hbaseConfiguration,
                                   final HBaseTableFactory tableFactory, final IdGenerator idGenerator)
             throws IndexNotFoundException, IOException, InterruptedException {
-        return new DerefMapHbaseImpl(indexName, hbaseConfiguration, tableFactory, idGenerator);
+        return new DerefMapHbaseImpl(indexName, hbaseConfiguration, tableFactory, idGenerator, null);
+    }
+
+    /**
+     * Same as {@link #create(String, Configuration, HBaseTableFactory, IdGenerator)}, but keeps track of how many
+     * scans of the backward index are performed and avoided.
+     *
+     * @param metrics metrics to update, these are not shut down by the DerefMap
+     */
+    public static DerefMap create(final String indexName, final Configuration hbaseConfiguration,
+                                  final HBaseTableFactory tableFactory, final IdGenerator idGenerator,
+                                  final DerefMapMetrics metrics)
+            throws IndexNotFoundException, IOException, InterruptedException {
+        return new DerefMapHbaseImpl(indexName, hbaseConfiguration, tableFactory, idGenerator, metrics);
     }
 
     /**
@@ -98,11 +141,24 @@ public class DerefMapHbaseImpl implements DerefMap {
      */
     public static void delete(final String indexName, final Configuration hbaseConfiguration)
             throws IOException, IndexNotFoundException {
+        DependencyFilter.delete(indexName, hbaseConfiguration);
         final IndexManager manager = new IndexManager(hbaseConfiguration);
         manager.deleteIndex(forwardIndexName(indexName));
         manager.deleteIndex(backwardIndexName(indexName));
     }
 
+    /**
+     * Checks if the DerefMap of a given index exists, without creating it.
+     */
+    public static boolean exists(final String indexName, final Configuration hbaseConfiguration) throws IOException {
+        HBaseAdmin hbaseAdmin = new HBaseAdmin(hbaseConfiguration);
+        try {
+            return hbaseAdmin.tableExists(forwardIndexName(indexName));
+        } finally {
+            Closer.close(hbaseAdmin);
+        }
+    }
+
     public static String forwardIndexName(String indexName) {
         return "deref-forward-" + indexName;
     }
@@ -115,39 +171,77 @@ public class DerefMapHbaseImpl implements DerefMap {
     public void updateDependants(AbsoluteRecordId parentRecordId, SchemaId parentVtagId,
                                    Map<DependencyEntry, Set<SchemaId>> newDependantEntries)
             throws IOException {
-        
-        final Set<DependencyEntry> existingEntries = findDependencies(parentRecordId, parentVtagId);
+        updateDependants(parentRecordId, Collections.singletonMap(parentVtagId, newDependantEntries));
+    }
+
+    @Override
+    public void updateDependants(AbsoluteRecordId parentRecordId,
+                                 Map<SchemaId, Map<DependencyEntry, Set<SchemaId>>> newDependantEntriesByVtag)
+            throws IOException {
+
+        final List<IndexEntry> backwardRemovals = new ArrayList<IndexEntry>();
+        final List<IndexEntry> forwardEntries = new ArrayList<IndexEntry>();
+        final List<IndexEntry> backwardAdditions = new ArrayList<IndexEntry>();
+        final List<RecordId> addedMasters = new ArrayList<RecordId>();
+
+        for (Map.Entry<SchemaId, Map<DependencyEntry, Set<SchemaId>>> vtagEntry :
+                newDependantEntriesByVtag.entrySet()) {
+            final SchemaId parentVtagId = vtagEntry.getKey();
+            final Map<DependencyEntry, Set<SchemaId>> newDependantEntries = vtagEntry.getValue();
 
-        // Figure out what changed
-        final Set<DependencyEntry> removedDependencies =
-                figureOutRemovedDependencies(newDependantEntries.keySet(), existingEntries);
-        final Collection<DependencyEntry> addedDependencies =
-                figureOutAddedDependencies(newDependantEntries.keySet(), existingEntries);
+            final Set<DependencyEntry> existingEntries = findDependencies(parentRecordId, parentVtagId);
+
+            // Nothing to write if nothing changed, which is the common case when a record is reindexed. This also
+            // avoids writing a forward entry for records without dependencies (the absence of the entry means the
+            // same).
+            if (existingEntries.equals(newDependantEntries.keySet())) {
+                continue;
+            }
+
+            // Figure out what changed
+            final Set<DependencyEntry> removedDependencies =
+                    figureOutRemovedDependencies(newDependantEntries.keySet(), existingEntries);
+            final Collection<DependencyEntry> addedDependencies =
+                    figureOutAddedDependencies(newDependantEntries.keySet(), existingEntries);
+
+            for (DependencyEntry removed : removedDependencies) {
+                backwardRemovals.add(createBackwardEntry(removed.getDependency(), parentRecordId, parentVtagId, null,
+                        removed.getMoreDimensionedVariants()));
+            }
+
+            // added and removed at the same time, it is a single row
+            forwardEntries.add(createForwardEntry(parentRecordId, parentVtagId, newDependantEntries.keySet()));
+
+            for (DependencyEntry added : addedDependencies) {
+                final Set<SchemaId> fields = newDependantEntries.get(added);
+                backwardAdditions.add(createBackwardEntry(added.getDependency(), parentRecordId, parentVtagId, fields,
+                        added.getMoreDimensionedVariants()));
+                addedMasters.add(added.getDependency().getRecordId().getMaster());
+            }
+        }
 
         // IMPORTANT implementation note: the order in which changes are applied is not arbitrary. It is such that if
         // the process would fail in between, there will never be left any state in the backward index which would not
-        // be found via the forward index.
+        // be found via the forward index. Each step is a single batch over all vtags.
 
         // delete removed from bwd index
-        for (DependencyEntry removed : removedDependencies) {
-            final IndexEntry backwardEntry =
-                    createBackwardEntry(removed.getDependency(), parentRecordId, parentVtagId, null,
-                            removed.getMoreDimensionedVariants());
-            backwardDerefIndex.removeEntry(backwardEntry);
+        if (!backwardRemovals.isEmpty()) {
+            backwardDerefIndex.removeEntries(backwardRemovals);
+        }
+
+        // update fwd index
+        if (!forwardEntries.isEmpty()) {
+            forwardDerefIndex.addEntries(forwardEntries);
         }
 
-        // update fwd index (added and removed at the same time, it is a single row)
-        final IndexEntry fwdEntry =
-                createForwardEntry(parentRecordId, parentVtagId, newDependantEntries.keySet());
-        forwardDerefIndex.addEntry(fwdEntry);
+        // the dependency filter should know about everything in the bwd idx, so update it first
+        if (!addedMasters.isEmpty()) {
+            dependencyFilter.add(addedMasters);
+        }
 
         // add added to bwd idx
-        for (DependencyEntry added : addedDependencies) {
-            final Set<SchemaId> fields = newDependantEntries.get(added);
-            final IndexEntry backwardEntry =
-                    createBackwardEntry(added.getDependency(), parentRecordId, parentVtagId, fields,
-                            added.getMoreDimensionedVariants());
-            backwardDerefIndex.addEntry(backwardEntry);
+        if (!backwardAdditions.isEmpty()) {
+            backwardDerefIndex.addEntries(backwardAdditions);
         }
     }
 
@@ -257,6 +351,15 @@ public class DerefMapHbaseImpl implements DerefMap {
         
         final RecordId master = parentRecordId.getRecordId().getMaster();
 
+        if (!dependencyFilter.mightContain(master)) {
+            if (metrics != null)
+                metrics.scansAvoided.inc();
+            return NO_DEPENDANTS;
+        }
+
+        if (metrics != null)
+            metrics.scans.inc();
+
         final Query query = new Query();
         query.addEqualsCondition("dependency_masterrecordid", master.toBytes());
         if (vtag != null)
@@ -264,7 +367,8 @@ public class DerefMapHbaseImpl implements DerefMap {
 
         query.setIndexFilter(new DerefMapIndexFilter(parentRecordId.getRecordId().getVariantProperties(), fields));
 
-        return new DependantRecordIdsIteratorImpl(backwardDerefIndex.performQuery(query), this.serializationUtil);
+        return new DependantRecordIdsIteratorImpl(backwardDerefIndex.performQuery(query), this.serializationUtil,
+                metrics);
     }
 
     @Override
@@ -278,4 +382,57 @@ public class DerefMapHbaseImpl implements DerefMap {
         return findDependantsOf(parentRecordId, (Set<SchemaId>) null, null);
     }
 
+    /**
+     * Returns the time in ms since the dependency filter was last built, or {@link Long#MAX_VALUE} if it was never
+     * built, in which case it doesn't avoid any scans.
+     */
+    public long getDependencyFilterAge() throws IOException {
+        return dependencyFilter.getAge();
+    }
+
+    /**
+     * Rebuilds the filter which is used to avoid scans of the backward index for records which have no dependants,
+     * from the dependencies in the forward index. This takes at least a few minutes, even for an empty DerefMap,
+     * since all processes using the DerefMap have to pick up the new filter. It should be called by only one process
+     * at a time.
+     */
+    public void rebuildDependencyFilter() throws IOException, InterruptedException {
+        final long generation = dependencyFilter.startBuild();
+
+        // match all entries
+        final Query query = new Query();
+        query.setRangeCondition("dependant_recordid", Query.MIN_VALUE, Query.MAX_VALUE);
+
+        final QueryResult queryResult = forwardDerefIndex.performQuery(query);
+        try {
+            final Set<RecordId> masters = new HashSet<RecordId>();
+            while (queryResult.next() != null) {
+                final byte[] serializedEntries = queryResult.getData(DEPENDENCIES_KEY);
+                for (DependencyEntry entry : this.serializationUtil.deserializeDependenciesForward(serializedEntries)) {
+                    masters.add(entry.getDependency().getRecordId().getMaster());
+                }
+                if (masters.size() >= FILTER_REBUILD_BATCH_SIZE) {
+                    dependencyFilter.add(generation, masters);
+                    masters.clear();
+                }
+            }
+            dependencyFilter.add(generation, masters);
+        } finally {
+            Closer.close(queryResult);
+        }
+
+        dependencyFilter.finishBuild(generation);
+    }
+
+    /**
+     * Releases the table of the dependency filter. The DerefMap can't be used anymore afterwards.
+     */
+    public void close() {
+        dependencyFilter.close();
+    }
+
+    DependencyFilter getDependencyFilter() {
+        return dependencyFilter;
+    }
+
 }
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.indexer.derefmap;
+
+import javax.management.ObjectName;
+
+import org.apache.hadoop.metrics.MetricsContext;
+import org.apache.hadoop.metrics.MetricsRecord;
+import org.apache.hadoop.metrics.MetricsUtil;
+import org.apache.hadoop.metrics.Updater;
+import org.apache.hadoop.metrics.util.MetricsBase;
+import org.apache.hadoop.metrics.util.MetricsRegistry;
+import org.apache.hadoop.metrics.util.MetricsTimeVaryingLong;
+import org.lilyproject.util.hbase.metrics.MBeanUtil;
+import org.lilyproject.util.hbase.metrics.MetricsDynamicMBeanBase;
+
+public class DerefMapMetrics implements Updater {
+    private final String indexName;
+    private final MetricsRegistry registry = new MetricsRegistry();
+    private final MetricsRecord metricsRecord;
+    private final MetricsContext context;
+    private final DerefMapMetricsMBean mbean;
+
+    /**
+     * Lookups of dependants for which the dependency filter told there are none, so no scan was needed.
+     */
+    public MetricsTimeVaryingLong scansAvoided = new MetricsTimeVaryingLong("scansAvoided", registry);
+
+    /**
+     * Lookups of dependants which needed a scan.
+     */
+    public MetricsTimeVaryingLong scans = new MetricsTimeVaryingLong("scans", registry);
+
+    /**
+     * Scans which found no dependants. These are the false positives of the dependency filter, but also include
+     * the lookups for which there are dependants, but not for the requested vtag or fields.
+     */
+    public MetricsTimeVaryingLong emptyScans = new MetricsTimeVaryingLong("emptyScans", registry);
+
+    public DerefMapMetrics(String indexName) {
+        this.indexName = indexName;
+        context = MetricsUtil.getContext("derefMap");
+        metricsRecord = MetricsUtil.createRecord(context, indexName);
+        context.registerUpdater(this);
+        mbean = new DerefMapMetricsMBean(this.registry);
+    }
+
+    public void shutdown() {
+        mbean.shutdown();
+        context.unregisterUpdater(this);
+    }
+
+    @Override
+    public void doUpdates(MetricsContext metricsContext) {
+        synchronized (this) {
+            for (MetricsBase m : registry.getMetricsList()) {
+                m.pushMetric(metricsRecord);
+            }
+        }
+        metricsRecord.update();
+    }
+
+    public class DerefMapMetricsMBean extends MetricsDynamicMBeanBase {
+        private final ObjectName mbeanName;
+
+        public DerefMapMetricsMBean(MetricsRegistry registry) {
+            super(registry, "Lily Deref Map");
+
+            mbeanName = MBeanUtil.registerMBean("Deref Map", indexName, this);
+        }
+
+        public void shutdown() {
+            if (mbeanName != null)
+                MBeanUtil.unregisterMBean(mbeanName);
+        }
+    }
+}
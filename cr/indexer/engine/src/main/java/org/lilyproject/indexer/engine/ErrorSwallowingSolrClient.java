@@ -80,6 +80,7 @@ public class ErrorSwallowingSolrClient {
 
         @Override
         public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            long before = System.currentTimeMillis();
             try {
                 return method.invoke(baseSolrClient, args);
             } catch (InvocationTargetException ite) {
@@ -110,6 +111,9 @@ public class ErrorSwallowingSolrClient {
                 log.warn("Swallowing Solr exception", originalThrowable);
                 clientMetrics.swallowedExceptions.inc();
                 return ERROR_UPDATE_RESPONSE;
+            } finally {
+                // Failed calls are recorded too, these are often the slow ones (e.g. timeouts)
+                clientMetrics.reportUpdate(method.getName(), System.currentTimeMillis() - before);
             }
         }
     }
@@ -35,6 +35,7 @@ import com.ngdata.sep.EventListener;
 import com.ngdata.sep.SepEvent;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.KeyValue;
 import org.lilyproject.indexer.derefmap.DependantRecordIdsIterator;
 import org.lilyproject.indexer.derefmap.DerefMap;
 import org.lilyproject.indexer.model.indexerconf.IndexCase;
@@ -45,6 +46,7 @@ import org.lilyproject.repository.api.AbsoluteRecordId;
 import org.lilyproject.repository.api.FieldType;
 import org.lilyproject.repository.api.IdGenerator;
 import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.RecordCacheBypass;
 import org.lilyproject.repository.api.RecordId;
 import org.lilyproject.repository.api.RecordNotFoundException;
 import org.lilyproject.repository.api.Repository;
@@ -136,27 +138,45 @@ public class IndexUpdater implements EventListener {
 
     @Override
     public void processEvent(SepEvent event) {
+        processEvent(event, null);
+    }
+
+    /**
+     * Processes an event of which the payload might already have been parsed, which is the case when the
+     * same event is dispatched to several index updaters.
+     *
+     * @param recordEvent the RecordEvent parsed from the payload of the event, or null to parse it here
+     */
+    public void processEvent(SepEvent event, RecordEvent recordEvent) {
         
         long before = System.currentTimeMillis();
+        metrics.eventStarted(getEventTimestamp(event, before));
+        boolean failed = false;
 
         // During the processing of this message, we switch the context class loader to the one
         // of the Lily Runtime module to which the index updater belongs. This is necessary for Tika
         // to find its parser implementations.
 
-        RecordEvent recordEvent = null;
         RecordId recordId = null;
 
+        // All reads done while processing the event, including those of versions and of dereferenced records,
+        // bypass the record cache: the index should reflect the latest state of the records, which the cache
+        // might not have yet in case they were changed through another Lily node.
+        boolean previousBypass = RecordCacheBypass.begin();
+
         ClassLoader currentCL = Thread.currentThread().getContextClassLoader();
         try {
             Thread.currentThread().setContextClassLoader(myContextClassLoader);
             
-            byte[] payload = event.getPayload();
-            if (payload == null) {
-                log.warn("Ignoring SepEvent with empty payload: " + event);
-                return;
+            if (recordEvent == null) {
+                byte[] payload = event.getPayload();
+                if (payload == null) {
+                    log.warn("Ignoring SepEvent with empty payload: " + event);
+                    return;
+                }
+
+                recordEvent = new RecordEvent(payload, idGenerator);
             }
-            
-            recordEvent = new RecordEvent(payload, idGenerator);
             recordId = idGenerator.fromBytes(event.getRow());
 
             if (log.isDebugEnabled()) {
@@ -264,6 +284,7 @@ public class IndexUpdater implements EventListener {
             }
 
         } catch (Exception e) {
+            failed = true;
             if (e instanceof InterruptedException) {
                 Thread.currentThread().interrupt();
             }
@@ -280,8 +301,25 @@ public class IndexUpdater implements EventListener {
         } finally {
             long after = System.currentTimeMillis();
             metrics.updates.inc(after - before);
+            metrics.eventFinished(failed);
             Thread.currentThread().setContextClassLoader(currentCL);
+            RecordCacheBypass.end(previousBypass);
+        }
+    }
+
+    /**
+     * Returns the most recent timestamp of the KeyValues of the event, which approximates the time at which
+     * the event was written, or the given default if the event has no KeyValues.
+     */
+    public static long getEventTimestamp(SepEvent event, long defaultTimestamp) {
+        if (event.getKeyValues() == null || event.getKeyValues().isEmpty()) {
+            return defaultTimestamp;
+        }
+        long timestamp = Long.MIN_VALUE;
+        for (KeyValue keyValue : event.getKeyValues()) {
+            timestamp = Math.max(timestamp, keyValue.getTimestamp());
         }
+        return timestamp;
     }
 
     private void handleRecordCreateUpdate(VTaggedRecord vtRecord) throws Exception {
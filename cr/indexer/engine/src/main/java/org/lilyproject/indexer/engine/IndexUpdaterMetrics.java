@@ -15,11 +15,16 @@
  */
 package org.lilyproject.indexer.engine;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
 import org.apache.hadoop.metrics.MetricsContext;
 import org.apache.hadoop.metrics.MetricsRecord;
 import org.apache.hadoop.metrics.MetricsUtil;
 import org.apache.hadoop.metrics.Updater;
 import org.apache.hadoop.metrics.util.MetricsBase;
+import org.apache.hadoop.metrics.util.MetricsIntValue;
 import org.apache.hadoop.metrics.util.MetricsRegistry;
 import org.apache.hadoop.metrics.util.MetricsTimeVaryingLong;
 import org.apache.hadoop.metrics.util.MetricsTimeVaryingRate;
@@ -47,6 +52,28 @@ public class IndexUpdaterMetrics implements Updater {
      * */
     public MetricsTimeVaryingLong errors = new MetricsTimeVaryingLong("errors", registry);
 
+    /**
+     * Age, in ms, of the oldest event which is being processed, or 0 if the index updater is idle. Since the
+     * SEP delivers events in the order they were written, this tells how far the index is behind.
+     */
+    public MetricsLongValue lag = new MetricsLongValue("lag_ms", registry);
+    public MetricsLongValue eventsInRate = new MetricsLongValue("events_in_per_sec", registry);
+    public MetricsLongValue eventsOutRate = new MetricsLongValue("events_out_per_sec", registry);
+    public MetricsIntValue eventsInProgress = new MetricsIntValue("events_in_progress", registry);
+    /** The number of SEP listener threads, set by the one who starts the index updater. */
+    public MetricsIntValue listeners = new MetricsIntValue("listeners", registry);
+
+    private final AtomicLong eventsIn = new AtomicLong();
+    private final AtomicLong eventsOut = new AtomicLong();
+    private final AtomicLong failedEvents = new AtomicLong();
+
+    /** Timestamp of the event being processed, by listener thread. */
+    private final ConcurrentMap<Thread, Long> eventsInProcess = new ConcurrentHashMap<Thread, Long>();
+
+    private long lastUpdateTime = System.currentTimeMillis();
+    private long lastEventsIn;
+    private long lastEventsOut;
+
     public IndexUpdaterMetrics(String indexName) {
         this.indexName = indexName;
         context = MetricsUtil.getContext("indexUpdater");
@@ -60,9 +87,62 @@ public class IndexUpdaterMetrics implements Updater {
         context.unregisterUpdater(this);
     }
 
+    /**
+     * To be called when an event is received, with the time at which the event was written.
+     */
+    public void eventStarted(long eventTimestamp) {
+        eventsIn.incrementAndGet();
+        eventsInProcess.put(Thread.currentThread(), eventTimestamp);
+    }
+
+    /**
+     * To be called by the same thread as {@link #eventStarted}, once the event is processed.
+     */
+    public void eventFinished(boolean failed) {
+        eventsInProcess.remove(Thread.currentThread());
+        eventsOut.incrementAndGet();
+        if (failed) {
+            failedEvents.incrementAndGet();
+        }
+    }
+
+    public long getLag() {
+        long oldest = Long.MAX_VALUE;
+        for (Long timestamp : eventsInProcess.values()) {
+            oldest = Math.min(oldest, timestamp);
+        }
+        return oldest == Long.MAX_VALUE ? 0 : Math.max(0, System.currentTimeMillis() - oldest);
+    }
+
+    /**
+     * Total number of processed events (successful or not) since the creation of these metrics.
+     */
+    public long getEventsOut() {
+        return eventsOut.get();
+    }
+
+    /**
+     * Total number of events whose processing failed since the creation of these metrics.
+     */
+    public long getFailedEvents() {
+        return failedEvents.get();
+    }
+
     @Override
     public void doUpdates(MetricsContext metricsContext) {
         synchronized (this) {
+          long now = System.currentTimeMillis();
+          long seconds = Math.max(1, (now - lastUpdateTime) / 1000);
+          long in = eventsIn.get();
+          long out = eventsOut.get();
+          eventsInRate.set((in - lastEventsIn) / seconds);
+          eventsOutRate.set((out - lastEventsOut) / seconds);
+          lastEventsIn = in;
+          lastEventsOut = out;
+          lastUpdateTime = now;
+          lag.set(getLag());
+          eventsInProgress.set(eventsInProcess.size());
+
           for (MetricsBase m : registry.getMetricsList()) {
             m.pushMetric(metricsRecord);
           }
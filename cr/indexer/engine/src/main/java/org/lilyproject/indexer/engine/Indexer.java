@@ -18,6 +18,7 @@ package org.lilyproject.indexer.engine;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -33,7 +34,9 @@ import org.lilyproject.indexer.model.indexerconf.DynamicFieldNameTemplateResolve
 import org.lilyproject.indexer.model.indexerconf.DynamicIndexField;
 import org.lilyproject.indexer.model.indexerconf.DynamicIndexField.DynamicIndexFieldMatch;
 import org.lilyproject.indexer.model.indexerconf.IndexCase;
+import org.lilyproject.indexer.model.indexerconf.IndexFields;
 import org.lilyproject.indexer.model.indexerconf.IndexerConf;
+import org.lilyproject.indexer.model.indexerconf.MappingNode;
 import org.lilyproject.indexer.model.sharding.ShardSelectorException;
 import org.lilyproject.repository.api.FieldType;
 import org.lilyproject.repository.api.IdRecord;
@@ -73,10 +76,22 @@ public class Indexer {
      */
     private final DerefMap derefMap;
 
+    /**
+     * Fingerprints of the documents sent to Solr, used to skip sending unchanged documents. It is <code>null</code>
+     * in case the index was configured not to maintain fingerprints.
+     */
+    private final SolrDocumentFingerprints fingerprints;
+
     private final Log log = LogFactory.getLog(getClass());
 
     public Indexer(String indexName, IndexerConf conf, RepositoryManager repositoryManager, SolrShardManager solrShardMgr,
                    IndexLocker indexLocker, IndexerMetrics metrics, DerefMap derefMap) {
+        this(indexName, conf, repositoryManager, solrShardMgr, indexLocker, metrics, derefMap, null);
+    }
+
+    public Indexer(String indexName, IndexerConf conf, RepositoryManager repositoryManager, SolrShardManager solrShardMgr,
+                   IndexLocker indexLocker, IndexerMetrics metrics, DerefMap derefMap,
+                   SolrDocumentFingerprints fingerprints) {
         this.indexName = indexName;
         this.conf = conf;
         this.repositoryManager = repositoryManager;
@@ -87,6 +102,7 @@ public class Indexer {
         this.valueEvaluator = new ValueEvaluator(conf);
         this.metrics = metrics;
         this.derefMap = derefMap;
+        this.fingerprints = fingerprints;
     }
 
     public IndexerConf getConf() {
@@ -174,6 +190,9 @@ public class Indexer {
                     verifyLock(recordId);
                     solrShardMgr.getSolrClient(recordId).deleteById(getIndexId(table, recordId, vtag));
                     metrics.deletesById.inc();
+                    if (fingerprints != null) {
+                        fingerprints.remove(table, recordId, vtag);
+                    }
                 }
 
                 if (log.isDebugEnabled()) {
@@ -202,13 +221,22 @@ public class Indexer {
         // Note that it is important the the indexFields are evaluated in order, since multiple
         // indexFields can have the same name and the order of values for multi-value fields can be important.
         //
-        // The value of the indexFields is re-evaluated for each vtag. It is only the value of
-        // deref-values which can change from vtag to vtag, so we could optimize this by only
-        // evaluating those after the first run, but again because we want to maintain order and
-        // because a deref-field could share the same name with a non-deref field, we simply
-        // re-evaluate all fields for each vtag.
-        for (SchemaId vtag : vtags) {
+        // It is only the value of deref-values which can change from vtag to vtag. Therefore, the
+        // vtag-invariant parts of the mapping are only evaluated for the first vtag, and their outcome is
+        // recorded and added in the same position for the other vtags, while the other parts are re-evaluated.
+        //
+        // The index fields are specialized for the record type and variant properties of the record, so that
+        // the match nodes which can't match the record are not evaluated.
+        IndexFields indexFields = conf.getIndexFields(table, record);
+        List<MappingNode> nodes = indexFields.getChildren();
+        boolean reuse = vtags.size() > 1;
+        SolrDocumentBuilder.Fragment[] invariantFragments = new SolrDocumentBuilder.Fragment[nodes.size()];
+        SolrDocumentBuilder.Fragment dynamicFieldsFragment = null;
+
+        long before = System.currentTimeMillis();
 
+        Map<SchemaId, SolrDocumentBuilder> solrDocumentBuilders = new LinkedHashMap<SchemaId, SolrDocumentBuilder>();
+        for (SchemaId vtag : vtags) {
             SolrDocumentBuilder solrDocumentBuilder =
                     new SolrDocumentBuilder(repositoryManager, getConf().getRecordFilter(), systemFields, valueEvaluator,
                             table, record, getIndexId(table, record.getId(), vtag), vtag, version);
@@ -218,33 +246,43 @@ public class Indexer {
             //
             // 1: evaluate the static index fields
             //
-            conf.getIndexFields().collectIndexUpdate(solrDocumentBuilder);
+            for (int i = 0; i < nodes.size(); i++) {
+                if (!reuse || !indexFields.isVTagInvariant(i)) {
+                    nodes.get(i).collectIndexUpdate(solrDocumentBuilder);
+                } else if (invariantFragments[i] == null) {
+                    solrDocumentBuilder.startFragment();
+                    nodes.get(i).collectIndexUpdate(solrDocumentBuilder);
+                    invariantFragments[i] = solrDocumentBuilder.endFragment();
+                } else {
+                    solrDocumentBuilder.addFragment(invariantFragments[i]);
+                }
+            }
 
             //
-            // 2: evaluate dynamic index fields
+            // 2: evaluate dynamic index fields, these only depend on the record itself
             //
             if (!conf.getDynamicFields().isEmpty()) {
-                for (Map.Entry<SchemaId, Object> field : record.getFieldsById().entrySet()) {
-                    FieldType fieldType = typeManager.getFieldTypeById(field.getKey());
-                    for (DynamicIndexField dynField : conf.getDynamicFields()) {
-                        DynamicIndexFieldMatch match = dynField.matches(fieldType);
-                        if (match.match) {
-                            String fieldName = evalName(dynField, match, fieldType);
-
-                            List<String> values = valueEvaluator.format(table, record, fieldType, dynField.extractContext(),
-                                    dynField.getFormatter(), repositoryManager);
-
-                            solrDocumentBuilder.addField(fieldName, values);
-
-                            if (!dynField.getContinue()) {
-                                // stop on first match, unless continue attribute is true
-                                break;
-                            }
-                        }
-                    }
+                if (!reuse) {
+                    collectDynamicFields(table, record, solrDocumentBuilder);
+                } else if (dynamicFieldsFragment == null) {
+                    solrDocumentBuilder.startFragment();
+                    collectDynamicFields(table, record, solrDocumentBuilder);
+                    dynamicFieldsFragment = solrDocumentBuilder.endFragment();
+                } else {
+                    solrDocumentBuilder.addFragment(dynamicFieldsFragment);
                 }
             }
 
+            solrDocumentBuilders.put(vtag, solrDocumentBuilder);
+        }
+
+        // The dependencies of all vtags are stored at once, before anything is sent to Solr
+        processDependencies(table, record, solrDocumentBuilders);
+
+        for (Map.Entry<SchemaId, SolrDocumentBuilder> builderEntry : solrDocumentBuilders.entrySet()) {
+            SchemaId vtag = builderEntry.getKey();
+            SolrDocumentBuilder solrDocumentBuilder = builderEntry.getValue();
+
             if (solrDocumentBuilder.isEmptyDocument()) {
                 // No single field was added to the Solr document.
                 // In this case we do not add it to the index.
@@ -256,38 +294,84 @@ public class Indexer {
                 // There can be a previous entry in the index which we should try to delete
                 solrShardMgr.getSolrClient(record.getId()).deleteById(getIndexId(table, record.getId(), vtag));
                 metrics.deletesById.inc();
+                if (fingerprints != null) {
+                    fingerprints.remove(table, record.getId(), vtag);
+                }
 
                 if (log.isDebugEnabled())
                     log.debug(String.format("Record %1$s, vtag %2$s: no index fields produced output, " +
                             "removed from index if present", record.getId(), safeLoadTagName(vtag)));
-
-                processDependencies(table, record, vtag, solrDocumentBuilder);
             } else {
                 SolrInputDocument solrDoc = solrDocumentBuilder.build();
 
-                processDependencies(table, record, vtag, solrDocumentBuilder);
+                SolrClient solrClient = solrShardMgr.getSolrClient(record.getId());
+                if (fingerprints != null && !fingerprints.addIfChanged(solrClient, table, record.getId(), vtag,
+                        solrDoc)) {
+                    metrics.unchangedSkipped.inc();
 
-                log.debug("index response " + solrShardMgr.getSolrClient(record.getId()).add(solrDoc).toString());
-                metrics.adds.inc();
+                    if (log.isDebugEnabled()) {
+                        log.debug(String.format("Record %1$s, vtag %2$s: document did not change, not sent to Solr",
+                                record.getId(), safeLoadTagName(vtag)));
+                    }
+                } else {
+                    if (fingerprints == null) {
+                        log.debug("index response " + solrClient.add(solrDoc).toString());
+                    }
+                    metrics.adds.inc();
 
-                if (log.isDebugEnabled()) {
-                    log.debug(String.format("Record %1$s, vtag %2$s: indexed, doc = %3$s", record.getId(),
-                            safeLoadTagName(vtag), solrDoc));
+                    if (log.isDebugEnabled()) {
+                        log.debug(String.format("Record %1$s, vtag %2$s: indexed, doc = %3$s", record.getId(),
+                                safeLoadTagName(vtag), solrDoc));
+                    }
+                }
+            }
+        }
+
+        // Most of the work is shared by the vtags, so this is recorded as one sample for all of them: spreading
+        // it evenly over the vtags would give equal samples which distort the percentiles
+        metrics.indexTime.inc(System.currentTimeMillis() - before);
+    }
+
+    private void collectDynamicFields(String table, IdRecord record, SolrDocumentBuilder solrDocumentBuilder)
+            throws RepositoryException, InterruptedException {
+        for (Map.Entry<SchemaId, Object> field : record.getFieldsById().entrySet()) {
+            FieldType fieldType = typeManager.getFieldTypeById(field.getKey());
+            for (DynamicIndexField dynField : conf.getDynamicFields()) {
+                DynamicIndexFieldMatch match = dynField.matches(fieldType);
+                if (match.match) {
+                    String fieldName = evalName(dynField, match, fieldType);
+
+                    List<String> values = valueEvaluator.format(table, record, fieldType, dynField.extractContext(),
+                            dynField.getFormatter(), repositoryManager);
+
+                    solrDocumentBuilder.addField(fieldName, values);
+
+                    if (!dynField.getContinue()) {
+                        // stop on first match, unless continue attribute is true
+                        break;
+                    }
                 }
             }
         }
     }
 
-    private void processDependencies(String table, IdRecord record, SchemaId vtag, SolrDocumentBuilder solrDocumentBuilder)
+    private void processDependencies(String table, IdRecord record,
+                                     Map<SchemaId, SolrDocumentBuilder> solrDocumentBuilders)
             throws IOException, RepositoryException, InterruptedException {
-        if (log.isDebugEnabled()) {
-            log.debug("Constructed Solr doc: " + solrDocumentBuilder.build());
-            log.debug("Updating dependencies for " + record.getId());
-            logDependencies(record.getId(), solrDocumentBuilder.getDependencies());
+        Map<SchemaId, Map<DependencyEntry, Set<SchemaId>>> dependenciesByVtag =
+                new HashMap<SchemaId, Map<DependencyEntry, Set<SchemaId>>>();
+        for (Map.Entry<SchemaId, SolrDocumentBuilder> entry : solrDocumentBuilders.entrySet()) {
+            SolrDocumentBuilder solrDocumentBuilder = entry.getValue();
+            if (log.isDebugEnabled()) {
+                log.debug("Constructed Solr doc: " + solrDocumentBuilder.build());
+                log.debug("Updating dependencies for " + record.getId() + ", vtag " + safeLoadTagName(entry.getKey()));
+                logDependencies(record.getId(), solrDocumentBuilder.getDependencies());
+            }
+            dependenciesByVtag.put(entry.getKey(), solrDocumentBuilder.getDependencies());
         }
 
         if (derefMap != null)
-            derefMap.updateDependants(new AbsoluteRecordIdImpl(table, record.getId()), vtag, solrDocumentBuilder.getDependencies());
+            derefMap.updateDependants(new AbsoluteRecordIdImpl(table, record.getId()), dependenciesByVtag);
     }
 
     private void logDependencies(RecordId recordId, Map<DependencyEntry, Set<SchemaId>> dependencies) {
@@ -353,22 +437,28 @@ public class Indexer {
      * <p>This method requires you obtained the {@link IndexLocker} for the record.
      */
     public void delete(RecordId recordId) throws SolrClientException, ShardSelectorException,
-            InterruptedException {
+            InterruptedException, IOException {
         verifyLock(recordId);
         UpdateResponse response = solrShardMgr.getSolrClient(recordId)
                 .deleteByQuery("lily.id:" + ClientUtils.escapeQueryChars(recordId.toString()));
         log.debug(response.toString());
         metrics.deletesByQuery.inc();
+        if (fingerprints != null) {
+            fingerprints.removeAll(recordId);
+        }
     }
 
     /**
      * <p>This method requires you obtained the {@link IndexLocker} for the record.
      */
     public void delete(String table, RecordId recordId, SchemaId vtag) throws SolrClientException, ShardSelectorException,
-            InterruptedException {
+            InterruptedException, IOException {
         verifyLock(recordId);
         solrShardMgr.getSolrClient(recordId).deleteById(getIndexId(table, recordId, vtag));
         metrics.deletesByQuery.inc();
+        if (fingerprints != null) {
+            fingerprints.remove(table, recordId, vtag);
+        }
     }
 
     private Map<Long, Set<SchemaId>> getVtagsByVersion(Set<SchemaId> vtagsToIndex, Map<SchemaId, Long> vtags) {
@@ -11,6 +11,7 @@ import org.lilyproject.indexer.IndexerException;
 import org.lilyproject.indexer.model.indexerconf.IndexCase;
 import org.lilyproject.indexer.model.sharding.ShardSelectorException;
 import org.lilyproject.repository.api.IdRecord;
+import org.lilyproject.repository.api.RecordCacheBypass;
 import org.lilyproject.repository.api.RecordId;
 import org.lilyproject.repository.api.RepositoryException;
 import org.lilyproject.repository.api.RepositoryManager;
@@ -32,6 +33,16 @@ public class IndexerApiImpl implements org.lilyproject.indexer.Indexer {
 
     @Override
     public void index(String table, RecordId recordId) throws IndexerException, InterruptedException {
+        // Like the IndexUpdater, index the latest state of the record rather than the one in the record cache
+        boolean previousBypass = RecordCacheBypass.begin();
+        try {
+            doIndex(table, recordId);
+        } finally {
+            RecordCacheBypass.end(previousBypass);
+        }
+    }
+
+    private void doIndex(String table, RecordId recordId) throws IndexerException, InterruptedException {
         final IdRecord idRecord = tryReadRecord(table, recordId);
 
         if (indexerRegistry.getAllIndexers().isEmpty()) {
@@ -54,6 +65,16 @@ public class IndexerApiImpl implements org.lilyproject.indexer.Indexer {
 
     @Override
     public void indexOn(String table, RecordId recordId, Set<String> indexes) throws IndexerException, InterruptedException {
+        boolean previousBypass = RecordCacheBypass.begin();
+        try {
+            doIndexOn(table, recordId, indexes);
+        } finally {
+            RecordCacheBypass.end(previousBypass);
+        }
+    }
+
+    private void doIndexOn(String table, RecordId recordId, Set<String> indexes)
+            throws IndexerException, InterruptedException {
         for (String indexName : indexes) {
             final org.lilyproject.indexer.engine.Indexer indexer = indexerRegistry.getIndexer(indexName);
             if (indexer == null) {
@@ -102,6 +123,8 @@ public class IndexerApiImpl implements org.lilyproject.indexer.Indexer {
             throw new IndexerException("failed to delete on solr", e);
         } catch (ShardSelectorException e) {
             throw new IndexerException("failed to select shard", e);
+        } catch (IOException e) {
+            throw new IndexerException(e);
         }
     }
 
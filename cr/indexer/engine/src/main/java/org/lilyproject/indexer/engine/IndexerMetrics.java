@@ -26,6 +26,7 @@ import org.apache.hadoop.metrics.util.MetricsRegistry;
 import org.apache.hadoop.metrics.util.MetricsTimeVaryingLong;
 import org.lilyproject.util.hbase.metrics.MBeanUtil;
 import org.lilyproject.util.hbase.metrics.MetricsDynamicMBeanBase;
+import org.lilyproject.util.hbase.metrics.MetricsHistogram;
 
 // TODO: I think we can drop these metrics as these can be collected from Solr too.
 // TODO: If we would keep them, it would be best to call this from a wrapper on SolrClient, to avoid having to
@@ -44,6 +45,12 @@ public class IndexerMetrics implements Updater {
 
     public MetricsTimeVaryingLong deletesByQuery = new MetricsTimeVaryingLong("deletesByQuery", registry);
 
+    /** Documents which were not sent to Solr because they are identical to what was sent before. */
+    public MetricsTimeVaryingLong unchangedSkipped = new MetricsTimeVaryingLong("unchangedSkipped", registry);
+
+    /** Time needed to build and send (or delete) the Solr documents for all vtags of one record version. */
+    public MetricsHistogram indexTime = new MetricsHistogram("indexTime", registry);
+
     public IndexerMetrics(String indexName) {
         this.indexName = indexName;
         context = MetricsUtil.getContext("indexer");
@@ -24,6 +24,7 @@ import org.apache.hadoop.metrics.util.MetricsRegistry;
 import org.apache.hadoop.metrics.util.MetricsTimeVaryingLong;
 import org.lilyproject.util.hbase.metrics.MBeanUtil;
 import org.lilyproject.util.hbase.metrics.MetricsDynamicMBeanBase;
+import org.lilyproject.util.hbase.metrics.MetricsHistogram;
 
 import javax.management.ObjectName;
 
@@ -37,6 +38,15 @@ public class SolrClientMetrics implements Updater {
     /** Counts number of times indexing exceptions have been swallowed because they are determined as not retry-able. */
     public MetricsTimeVaryingLong swallowedExceptions = new MetricsTimeVaryingLong("swallowedExceptions", registry);
 
+    /** Latency of add requests to Solr. */
+    public MetricsHistogram adds = new MetricsHistogram("add", registry);
+
+    /** Latency of delete (by id or by query) requests to Solr. */
+    public MetricsHistogram deletes = new MetricsHistogram("delete", registry);
+
+    /** Latency of commit requests to Solr. */
+    public MetricsHistogram commits = new MetricsHistogram("commit", registry);
+
     public SolrClientMetrics(String indexName, String shardName) {
         this.recordName = indexName + "_" + shardName;
         context = MetricsUtil.getContext("solrClient");
@@ -50,6 +60,19 @@ public class SolrClientMetrics implements Updater {
         mbean.shutdown();
     }
 
+    /**
+     * Reports the duration of a call to one of the update methods of {@link SolrClient}.
+     */
+    public void reportUpdate(String methodName, long duration) {
+        if (methodName.startsWith("add")) {
+            adds.inc(duration);
+        } else if (methodName.startsWith("delete")) {
+            deletes.inc(duration);
+        } else if (methodName.startsWith("commit")) {
+            commits.inc(duration);
+        }
+    }
+
     @Override
     public void doUpdates(MetricsContext metricsContext) {
         synchronized (this) {
@@ -16,7 +16,9 @@
 package org.lilyproject.indexer.engine;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -72,6 +74,9 @@ public class SolrDocumentBuilder implements IndexUpdateBuilder {
     private Stack<RecordContext> contexts;
     private LoadingCache<DependencyEntry, Set<SchemaId>> dependencies;
 
+    /** When not null, the fields and dependencies added are also recorded in this fragment. */
+    private Fragment fragment;
+
     private String table;
     private RecordId recordId;
     private String key;
@@ -137,9 +142,53 @@ public class SolrDocumentBuilder implements IndexUpdateBuilder {
                 solrDoc.addField(fieldName, value);
                 emptyDocument = false;
             }
+            if (fragment != null) {
+                fragment.fieldNames.add(fieldName);
+                fragment.fieldValues.add(values);
+            }
         }
     }
 
+    /**
+     * Starts recording the fields and dependencies which are added, until {@link #endFragment()} is called.
+     * This allows to add the outcome of evaluating a part of the mapping to the document of another vtag,
+     * without evaluating it again.
+     */
+    public void startFragment() {
+        fragment = new Fragment();
+    }
+
+    public Fragment endFragment() {
+        Fragment result = fragment;
+        fragment = null;
+        return result;
+    }
+
+    /**
+     * Adds the fields and dependencies recorded in a fragment, in the same order as they were recorded.
+     */
+    public void addFragment(Fragment fragment) throws InterruptedException, RepositoryException {
+        for (int i = 0; i < fragment.fieldNames.size(); i++) {
+            addField(fragment.fieldNames.get(i), fragment.fieldValues.get(i));
+        }
+        for (Map.Entry<DependencyEntry, Set<SchemaId>> entry : fragment.dependencies.entrySet()) {
+            try {
+                dependencies.get(entry.getKey()).addAll(entry.getValue());
+            } catch (ExecutionException ee) {
+                throw new RuntimeException("Failed to update dependencies");
+            }
+        }
+    }
+
+    /**
+     * The fields and dependencies added to a document while evaluating some part of the mapping.
+     */
+    public static class Fragment {
+        private final List<String> fieldNames = new ArrayList<String>();
+        private final List<List<String>> fieldValues = new ArrayList<List<String>>();
+        private final Map<DependencyEntry, Set<SchemaId>> dependencies = new HashMap<DependencyEntry, Set<SchemaId>>();
+    }
+
     @Override
     public RecordContext getRecordContext() {
         return contexts.peek();
@@ -181,7 +230,16 @@ public class SolrDocumentBuilder implements IndexUpdateBuilder {
         RecordContext ctx = contexts.peek();
         try {
             if (!ctx.dep.moreDimensionedVariants.isEmpty() || !ctx.dep.id.equals(recordId)) { // avoid adding unnecesary self-references
-                dependencies.get(DerefMapUtil.newEntry(new AbsoluteRecordIdImpl(table, ctx.dep.id), ctx.dep.moreDimensionedVariants)).add(field);
+                DependencyEntry entry = DerefMapUtil.newEntry(new AbsoluteRecordIdImpl(table, ctx.dep.id), ctx.dep.moreDimensionedVariants);
+                dependencies.get(entry).add(field);
+                if (fragment != null) {
+                    Set<SchemaId> fields = fragment.dependencies.get(entry);
+                    if (fields == null) {
+                        fields = Sets.newHashSet();
+                        fragment.dependencies.put(entry, fields);
+                    }
+                    fields.add(field);
+                }
             }
         } catch (ExecutionException ee) {
             throw new RuntimeException("Failed to update dependencies");
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.indexer.engine;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.TableNotFoundException;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HBaseAdmin;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.solr.client.solrj.response.UpdateResponse;
+import org.apache.solr.common.SolrInputDocument;
+import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.repository.api.SchemaId;
+import org.lilyproject.util.hbase.HBaseTableFactory;
+import org.lilyproject.util.hbase.HBaseTableFactoryImpl;
+import org.lilyproject.util.io.Closer;
+
+/**
+ * Keeps a fingerprint of the last Solr document sent for each record and vtag of an index, which allows the
+ * {@link Indexer} to skip sending documents which didn't change.
+ *
+ * <p>The fingerprints are stored in an HBase table per index. The row key is the record id, since the indexer
+ * can delete all documents of a record id at once, the columns are the table and the vtag.</p>
+ */
+public class SolrDocumentFingerprints {
+    private static final byte[] FAMILY = Bytes.toBytes("f");
+
+    private final HTableInterface htable;
+
+    private SolrDocumentFingerprints(String indexName, Configuration hbaseConf, HBaseTableFactory tableFactory)
+            throws IOException, InterruptedException {
+        if (tableFactory == null) {
+            tableFactory = new HBaseTableFactoryImpl(hbaseConf);
+        }
+        HTableDescriptor tableDescr = new HTableDescriptor(tableName(indexName));
+        tableDescr.addFamily(new HColumnDescriptor(FAMILY));
+        htable = tableFactory.getTable(tableDescr);
+    }
+
+    SolrDocumentFingerprints(HTableInterface htable) {
+        this.htable = htable;
+    }
+
+    /**
+     * Gets the fingerprints of an index, creating the HBase table if it doesn't exist yet.
+     *
+     * @param tableFactory can be null, in which case a default table factory is used
+     */
+    public static SolrDocumentFingerprints create(String indexName, Configuration hbaseConf,
+            HBaseTableFactory tableFactory) throws IOException, InterruptedException {
+        return new SolrDocumentFingerprints(indexName, hbaseConf, tableFactory);
+    }
+
+    /**
+     * Deletes the fingerprints of an index. Does nothing if there are none.
+     */
+    public static void delete(String indexName, Configuration hbaseConf) throws IOException {
+        HBaseAdmin hbaseAdmin = new HBaseAdmin(hbaseConf);
+        try {
+            String tableName = tableName(indexName);
+            if (hbaseAdmin.tableExists(tableName)) {
+                hbaseAdmin.disableTable(tableName);
+                hbaseAdmin.deleteTable(tableName);
+            }
+        } catch (TableNotFoundException e) {
+            // deleted concurrently, fine
+        } finally {
+            Closer.close(hbaseAdmin);
+        }
+    }
+
+    public static String tableName(String indexName) {
+        return "fingerprints-" + indexName;
+    }
+
+    /**
+     * Calculates the fingerprint of a Solr document. This only depends on the field names and values, not on the
+     * order in which the fields were added, but it does depend on the order of the values of a field.
+     */
+    public static byte[] fingerprint(SolrInputDocument solrDoc) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+
+        List<String> fieldNames = new ArrayList<String>(solrDoc.getFieldNames());
+        Collections.sort(fieldNames);
+        for (String fieldName : fieldNames) {
+            update(digest, fieldName);
+            Collection<Object> values = solrDoc.getFieldValues(fieldName);
+            digest.update(Bytes.toBytes(values == null ? 0 : values.size()));
+            if (values != null) {
+                for (Object value : values) {
+                    update(digest, String.valueOf(value));
+                }
+            }
+        }
+        return digest.digest();
+    }
+
+    private static void update(MessageDigest digest, String string) {
+        // The length makes sure different splits of the same characters over names and values give another result
+        byte[] bytes = Bytes.toBytes(string);
+        digest.update(Bytes.toBytes(bytes.length));
+        digest.update(bytes);
+    }
+
+    /**
+     * Returns the fingerprint of the last document sent for the given record and vtag, or null if unknown.
+     */
+    public byte[] get(String table, RecordId recordId, SchemaId vtag) throws IOException {
+        byte[] qualifier = qualifier(table, vtag);
+        Get get = new Get(recordId.toBytes());
+        get.addColumn(FAMILY, qualifier);
+        Result result = htable.get(get);
+        return result.getValue(FAMILY, qualifier);
+    }
+
+    /**
+     * Sends a document to Solr, unless it is identical to the last document sent for the given record and vtag.
+     *
+     * <p>The fingerprint is only stored when Solr accepted the document. When the add failed with an error that
+     * was swallowed by the {@link ErrorSwallowingSolrClient}, storing it would make all later attempts consider
+     * the document as unchanged, so that it would never reach Solr.</p>
+     *
+     * @return false if the document was not sent because it didn't change
+     */
+    public boolean addIfChanged(SolrClient solrClient, String table, RecordId recordId, SchemaId vtag,
+            SolrInputDocument solrDoc) throws IOException, SolrClientException, InterruptedException {
+        byte[] fingerprint = fingerprint(solrDoc);
+        if (Arrays.equals(fingerprint, get(table, recordId, vtag))) {
+            return false;
+        }
+
+        UpdateResponse response = solrClient.add(solrDoc);
+        if (response != ErrorSwallowingSolrClient.ERROR_UPDATE_RESPONSE) {
+            put(table, recordId, vtag, fingerprint);
+        }
+        return true;
+    }
+
+    public void put(String table, RecordId recordId, SchemaId vtag, byte[] fingerprint) throws IOException {
+        Put put = new Put(recordId.toBytes());
+        put.add(FAMILY, qualifier(table, vtag), fingerprint);
+        htable.put(put);
+    }
+
+    public void remove(String table, RecordId recordId, SchemaId vtag) throws IOException {
+        Delete delete = new Delete(recordId.toBytes());
+        delete.deleteColumns(FAMILY, qualifier(table, vtag));
+        htable.delete(delete);
+    }
+
+    /**
+     * Removes the fingerprints of all vtags of a record, in all tables.
+     */
+    public void removeAll(RecordId recordId) throws IOException {
+        htable.delete(new Delete(recordId.toBytes()));
+    }
+
+    private byte[] qualifier(String table, SchemaId vtag) {
+        // The vtag has a fixed length, so we can put the table after it
+        return Bytes.add(vtag.getBytes(), Bytes.toBytes(table));
+    }
+}
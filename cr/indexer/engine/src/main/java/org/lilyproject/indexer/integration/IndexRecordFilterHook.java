@@ -16,9 +16,11 @@
 package org.lilyproject.indexer.integration;
 
 import org.lilyproject.indexer.model.util.IndexInfo;
+import org.lilyproject.indexer.model.util.IndexRouting;
 import org.lilyproject.indexer.model.util.IndexesInfo;
 import org.lilyproject.plugin.PluginRegistry;
 import org.lilyproject.repository.api.*;
+import org.lilyproject.repository.spi.FieldDependentRecordUpdateHook;
 import org.lilyproject.repository.spi.RecordUpdateHook;
 import org.lilyproject.util.repo.RecordEvent;
 
@@ -27,11 +29,10 @@ import javax.annotation.PreDestroy;
 import com.google.common.collect.Sets;
 
 import org.lilyproject.util.repo.RecordEvent.IndexRecordFilterData;
-
-import org.lilyproject.indexer.model.indexerconf.IndexRecordFilter;
 import org.lilyproject.repository.api.Record;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Set;
 
 /**
@@ -40,7 +41,7 @@ import java.util.Set;
  * on the previous (or deleted) record state. Also allows to make this decision without
  * needing to read the complete record.
  */
-public class IndexRecordFilterHook implements RecordUpdateHook {
+public class IndexRecordFilterHook implements FieldDependentRecordUpdateHook {
     
     private PluginRegistry pluginRegistry;
     private final IndexesInfo indexesInfo;
@@ -69,6 +70,12 @@ public class IndexRecordFilterHook implements RecordUpdateHook {
         pluginRegistry.removePlugin(RecordUpdateHook.class, NAME, this);
     }
 
+    @Override
+    public Set<QName> getOriginalFieldDependencies() {
+        return indexesInfo.getIndexInfos().isEmpty() ?
+                Collections.<QName>emptySet() : indexesInfo.getRecordFilterFieldDependencies();
+    }
+
     @Override
     public void beforeUpdate(Record record, Record originalRecord, Repository repository, FieldTypes fieldTypes,
             RecordEvent recordEvent) throws RepositoryException, InterruptedException {
@@ -200,16 +207,17 @@ public class IndexRecordFilterHook implements RecordUpdateHook {
      */
     void calculateIndexInclusion(String table, Record oldRecord, Record newRecord, IndexRecordFilterData indexFilterData) {
         
+        // The index routing only evaluates the record filters of the indexes that can possibly include the record
+        IndexRouting indexRouting = indexesInfo.getIndexRouting();
         Set<String> applicableIndexes = Sets.newHashSet();
-        Set<String> nonApplicableIndexes = Sets.newHashSet();
-        for (IndexInfo indexInfo : indexesInfo.getIndexInfos()) {
-            String queueSubscriptionId = indexInfo.getIndexDefinition().getQueueSubscriptionId();
-            if (indexIsApplicable(indexInfo.getIndexerConf().getRecordFilter(), table, oldRecord, newRecord)) {
-                applicableIndexes.add(queueSubscriptionId);
-            } else {
-                nonApplicableIndexes.add(queueSubscriptionId);
-            }
+        if (oldRecord != null) {
+            indexRouting.collectApplicableSubscriptions(table, oldRecord, applicableIndexes);
+        }
+        if (newRecord != null) {
+            indexRouting.collectApplicableSubscriptions(table, newRecord, applicableIndexes);
         }
+        Set<String> nonApplicableIndexes = Sets.newHashSet(
+                Sets.difference(indexRouting.getSubscriptionIds(), applicableIndexes));
 
         if (applicableIndexes.isEmpty()) {
             indexFilterData.setSubscriptionExclusions(IndexRecordFilterData.ALL_INDEX_SUBSCRIPTIONS);
@@ -222,15 +230,4 @@ public class IndexRecordFilterHook implements RecordUpdateHook {
         }
     }
 
-    /**
-     * Determine if an {@code IndexRecordFilter} is applicable for either the old or new version of
-     * a record.
-     *
-     * @return true if the index is applicable for either the new or old version of the record
-     */
-    boolean indexIsApplicable(IndexRecordFilter filter, String table, Record oldRecord, Record newRecord) {
-        return ((oldRecord != null && filter.getIndexCase(table, oldRecord) != null)
-                || (newRecord != null && filter.getIndexCase(table, newRecord) != null));
-    }
-
 }
@@ -531,6 +531,98 @@ public class DerefMapBasicTest {
                                                 absId(b), field, tag2)));
     }
 
+    @Test
+    public void multipleVtags() throws Exception {
+        String idPrefix = newIdPrefix();
+
+        final SchemaId vtag1 = ids.getSchemaId(UUID.randomUUID());
+        final SchemaId vtag2 = ids.getSchemaId(UUID.randomUUID());
+        final SchemaId field = ids.getSchemaId(UUID.randomUUID());
+        final RecordId dependant = ids.newRecordId(idPrefix + "dependant");
+        final RecordId dependency1 = ids.newRecordId(idPrefix + "dependency1");
+        final RecordId dependency2 = ids.newRecordId(idPrefix + "dependency2");
+
+        final Set<SchemaId> fields = Sets.newHashSet(field);
+        final Map<SchemaId, Map<DependencyEntry, Set<SchemaId>>> dependencies = Maps.newHashMap();
+        dependencies.put(vtag1, Collections.singletonMap(new DependencyEntry(absId(dependency1)), fields));
+        dependencies.put(vtag2, Collections.singletonMap(new DependencyEntry(absId(dependency2)), fields));
+        derefMap.updateDependants(absId(dependant), dependencies);
+
+        assertEquals(Sets.newHashSet(absId(dependant)), asRecordIds(derefMap.findDependantsOf(absId(dependency1),
+                field, vtag1)));
+        assertFalse(derefMap.findDependantsOf(absId(dependency1), field, vtag2).hasNext());
+        assertEquals(Sets.newHashSet(absId(dependant)), asRecordIds(derefMap.findDependantsOf(absId(dependency2),
+                field, vtag2)));
+
+        // vtag1 stays the same, vtag2 now also depends on dependency1
+        final Map<DependencyEntry, Set<SchemaId>> vtag2Dependencies = Maps.newHashMap();
+        vtag2Dependencies.put(new DependencyEntry(absId(dependency1)), fields);
+        vtag2Dependencies.put(new DependencyEntry(absId(dependency2)), fields);
+        dependencies.put(vtag2, vtag2Dependencies);
+        derefMap.updateDependants(absId(dependant), dependencies);
+
+        assertEquals(1, derefMap.findDependencies(absId(dependant), vtag1).size());
+        assertEquals(2, derefMap.findDependencies(absId(dependant), vtag2).size());
+        assertEquals(Sets.newHashSet(absId(dependant)), asRecordIds(derefMap.findDependantsOf(absId(dependency1),
+                field, vtag2)));
+    }
+
+    @Test
+    public void dependencyFilter() throws Exception {
+        String idPrefix = newIdPrefix();
+
+        final DerefMapHbaseImpl filteredDerefMap =
+                (DerefMapHbaseImpl) DerefMapHbaseImpl.create("filtertest", repoSetup.getHadoopConf(), null, ids);
+        final DependencyFilter filter = filteredDerefMap.getDependencyFilter();
+        filter.setGracePeriod(0);
+
+        final SchemaId dummyVtag = ids.getSchemaId(UUID.randomUUID());
+        final SchemaId dependencyField = ids.getSchemaId(UUID.randomUUID());
+        final RecordId dependant = ids.newRecordId(idPrefix + "dependant");
+        final RecordId dependency = ids.newRecordId(idPrefix + "dependency");
+        final RecordId dependencyAfterRebuild = ids.newRecordId(idPrefix + "dependencyAfterRebuild");
+        final RecordId noDependency = ids.newRecordId(idPrefix + "noDependency");
+
+        // all bits of a record are in the same row, so that a lookup needs only one get
+        final int[] bits = DependencyFilter.bits(dependency);
+        for (int bit : bits) {
+            assertEquals(bits[0] / DependencyFilter.BITS_PER_ROW, bit / DependencyFilter.BITS_PER_ROW);
+        }
+
+        filteredDerefMap.updateDependants(absId(dependant), dummyVtag,
+                Collections.singletonMap(new DependencyEntry(absId(dependency)), Sets.newHashSet(dependencyField)));
+
+        // as long as the filter has not been built, it doesn't filter anything
+        assertEquals(Long.MAX_VALUE, filteredDerefMap.getDependencyFilterAge());
+        assertTrue(filter.mightContain(noDependency));
+
+        filteredDerefMap.rebuildDependencyFilter();
+        assertTrue(filteredDerefMap.getDependencyFilterAge() < Long.MAX_VALUE);
+        assertFalse(filter.mightContain(noDependency));
+        assertFalse(filteredDerefMap.findDependantsOf(absId(noDependency)).hasNext());
+        assertTrue(filter.mightContain(dependency));
+        assertEquals(Sets.newHashSet(absId(dependant)),
+                asRecordIds(filteredDerefMap.findDependantsOf(absId(dependency), dependencyField, dummyVtag)));
+
+        // dependencies added after the build are added to the filter
+        filteredDerefMap.updateDependants(absId(dependant), dummyVtag,
+                Collections.singletonMap(new DependencyEntry(absId(dependencyAfterRebuild)),
+                        Sets.newHashSet(dependencyField)));
+        assertTrue(filter.mightContain(dependencyAfterRebuild));
+        assertEquals(Sets.newHashSet(absId(dependant)), asRecordIds(
+                filteredDerefMap.findDependantsOf(absId(dependencyAfterRebuild), dependencyField, dummyVtag)));
+
+        // a rebuild forgets the dependencies which have been removed
+        assertTrue(filter.mightContain(dependency));
+        filteredDerefMap.rebuildDependencyFilter();
+        assertFalse(filter.mightContain(dependency));
+        assertTrue(filter.mightContain(dependencyAfterRebuild));
+        assertEquals(Sets.newHashSet(absId(dependant)), asRecordIds(
+                filteredDerefMap.findDependantsOf(absId(dependencyAfterRebuild), dependencyField, dummyVtag)));
+
+        filteredDerefMap.close();
+    }
+
     private Set<AbsoluteRecordId> asRecordIds(DependantRecordIdsIterator iter) throws IOException {
         Set<AbsoluteRecordId> result = Sets.newHashSet();
         while (iter.hasNext()) {
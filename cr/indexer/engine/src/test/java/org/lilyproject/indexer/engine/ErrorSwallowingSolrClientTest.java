@@ -16,6 +16,9 @@
 package org.lilyproject.indexer.engine;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
@@ -56,6 +59,7 @@ public class ErrorSwallowingSolrClientTest {
         wrappingSolrClient.add(document);
         verify(baseSolrClient).add(document);
         verify(solrClientMetrics.swallowedExceptions, never()).inc();
+        verify(solrClientMetrics).reportUpdate(eq("add"), anyLong());
     }
 
     @Test(expected = SolrException.class)
@@ -83,9 +87,25 @@ public class ErrorSwallowingSolrClientTest {
         UpdateResponse updateResponse = wrappingSolrClient.add(document);
         
         verify(solrClientMetrics.swallowedExceptions, times(1)).inc();
+        verify(solrClientMetrics).reportUpdate(eq("add"), anyLong());
         assertEquals(ErrorSwallowingSolrClient.ERROR_UPDATE_RESPONSE, updateResponse);
     }
 
+    @Test
+    public void testWrappedClient_LatencyReportedForRethrownException() throws SolrClientException,
+            InterruptedException {
+        when(baseSolrClient.add(document)).thenThrow(new SolrException(ErrorCode.NOT_FOUND, "Not found"));
+
+        try {
+            wrappingSolrClient.add(document);
+            fail("Expected a SolrException");
+        } catch (SolrException e) {
+            // expected
+        }
+
+        verify(solrClientMetrics).reportUpdate(eq("add"), anyLong());
+    }
+
     @Test(expected = SolrException.class)
     public void testWrappedClient_ErrorCausedByUnknownHostException() throws SolrClientException, InterruptedException {
         when(baseSolrClient.add(document)).thenThrow(
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.indexer.engine;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.metrics.util.MetricsTimeVaryingLong;
+import org.apache.solr.client.solrj.response.UpdateResponse;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.SolrException.ErrorCode;
+import org.apache.solr.common.SolrInputDocument;
+import org.junit.Test;
+import org.lilyproject.repository.api.IdGenerator;
+import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.repository.api.SchemaId;
+import org.lilyproject.repository.impl.id.IdGeneratorImpl;
+import org.lilyproject.repository.impl.id.SchemaIdImpl;
+
+public class SolrDocumentFingerprintsTest {
+
+    @Test
+    public void testFieldOrderDoesNotMatter() {
+        SolrInputDocument doc1 = new SolrInputDocument();
+        doc1.addField("a", "value1");
+        doc1.addField("b", "value2");
+
+        SolrInputDocument doc2 = new SolrInputDocument();
+        doc2.addField("b", "value2");
+        doc2.addField("a", "value1");
+
+        assertArrayEquals(SolrDocumentFingerprints.fingerprint(doc1), SolrDocumentFingerprints.fingerprint(doc2));
+    }
+
+    @Test
+    public void testValueOrderMatters() {
+        SolrInputDocument doc1 = new SolrInputDocument();
+        doc1.addField("a", "value1");
+        doc1.addField("a", "value2");
+
+        SolrInputDocument doc2 = new SolrInputDocument();
+        doc2.addField("a", "value2");
+        doc2.addField("a", "value1");
+
+        assertFalse(Arrays.equals(SolrDocumentFingerprints.fingerprint(doc1),
+                SolrDocumentFingerprints.fingerprint(doc2)));
+    }
+
+    @Test
+    public void testValueBoundaries() {
+        SolrInputDocument doc1 = new SolrInputDocument();
+        doc1.addField("a", "bc");
+
+        SolrInputDocument doc2 = new SolrInputDocument();
+        doc2.addField("ab", "c");
+
+        SolrInputDocument doc3 = new SolrInputDocument();
+        doc3.addField("a", "b");
+        doc3.addField("a", "c");
+
+        byte[] fingerprint1 = SolrDocumentFingerprints.fingerprint(doc1);
+        assertFalse(Arrays.equals(fingerprint1, SolrDocumentFingerprints.fingerprint(doc2)));
+        assertFalse(Arrays.equals(fingerprint1, SolrDocumentFingerprints.fingerprint(doc3)));
+    }
+
+    @Test
+    public void testFailedAddIsRetried() throws Exception {
+        HTableInterface htable = mock(HTableInterface.class);
+        when(htable.get(any(Get.class))).thenReturn(new Result(new KeyValue[0]));
+        SolrDocumentFingerprints fingerprints = new SolrDocumentFingerprints(htable);
+
+        SolrClientMetrics solrClientMetrics = mock(SolrClientMetrics.class);
+        solrClientMetrics.swallowedExceptions = mock(MetricsTimeVaryingLong.class);
+        SolrClient baseSolrClient = mock(SolrClient.class);
+        SolrClient solrClient = ErrorSwallowingSolrClient.wrap(baseSolrClient, solrClientMetrics);
+
+        IdGenerator idGenerator = new IdGeneratorImpl();
+        RecordId recordId = idGenerator.newRecordId();
+        SchemaId vtag = new SchemaIdImpl(UUID.randomUUID());
+        SolrInputDocument doc = new SolrInputDocument();
+        doc.addField("a", "value1");
+
+        // The add fails with an error which is swallowed: the fingerprint should not be stored
+        when(baseSolrClient.add(doc)).thenThrow(new SolrException(ErrorCode.BAD_REQUEST, "Bad request"));
+        assertTrue(fingerprints.addIfChanged(solrClient, "record", recordId, vtag, doc));
+        verify(htable, never()).put(any(Put.class));
+
+        // Once Solr is fixed, reindexing the same document should send it again
+        doReturn(new UpdateResponse()).when(baseSolrClient).add(doc);
+        assertTrue(fingerprints.addIfChanged(solrClient, "record", recordId, vtag, doc));
+        verify(baseSolrClient, times(2)).add(doc);
+        verify(htable, times(1)).put(any(Put.class));
+    }
+}
@@ -19,6 +19,11 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 import static org.lilyproject.util.repo.RecordEvent.Type.CREATE;
 import static org.lilyproject.util.repo.RecordEvent.Type.DELETE;
 import static org.lilyproject.util.repo.RecordEvent.Type.UPDATE;
@@ -30,6 +35,7 @@ import java.io.OutputStream;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -52,8 +58,10 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.client.HTable;
 import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.client.solrj.response.UpdateResponse;
 import org.apache.solr.client.solrj.util.ClientUtils;
 import org.apache.solr.common.SolrDocument;
+import org.apache.solr.common.SolrInputDocument;
 import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.joda.time.LocalDate;
@@ -61,6 +69,7 @@ import org.junit.AfterClass;
 import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.lilyproject.hadooptestfw.CleanupUtil;
 import org.lilyproject.hadooptestfw.TestHelper;
 import org.lilyproject.indexer.derefmap.DerefMap;
@@ -71,7 +80,9 @@ import org.lilyproject.indexer.engine.IndexUpdater;
 import org.lilyproject.indexer.engine.IndexUpdaterMetrics;
 import org.lilyproject.indexer.engine.Indexer;
 import org.lilyproject.indexer.engine.IndexerMetrics;
+import org.lilyproject.indexer.engine.SolrClient;
 import org.lilyproject.indexer.engine.SolrClientException;
+import org.lilyproject.indexer.engine.SolrShardManager;
 import org.lilyproject.indexer.integration.IndexRecordFilterHook;
 import org.lilyproject.indexer.model.api.IndexDefinition;
 import org.lilyproject.indexer.model.api.WriteableIndexerModel;
@@ -2964,6 +2975,84 @@ public class IndexerTest {
         verifyResultCount("+v_field2:met +lily.vtag:latest", 1);
     }
 
+    /**
+     * When several vtags point to the same version, the outcome of the vtag-invariant parts of the mapping is
+     * only evaluated for the first vtag. The documents should be the same as when each vtag is indexed on its own.
+     */
+    @Test
+    public void testVTagFragmentReuse() throws Exception {
+        changeIndexUpdater("indexerconf1.xml");
+
+        messageVerifier.disable();
+
+        // The linked record has a different value in the live and preview versions, so that the deref fields
+        // differ between the vtags
+        Record linkedRecord = defaultRepository.newRecord();
+        linkedRecord.setRecordType(vRecordType1.getName());
+        linkedRecord.setField(vfield1.getName(), "plum");
+        linkedRecord.setField(liveTag.getName(), 1L);
+        linkedRecord = defaultRepository.create(linkedRecord);
+
+        linkedRecord.setField(vfield1.getName(), "quince");
+        linkedRecord.setField(previewTag.getName(), 2L);
+        linkedRecord.setField(latestTag.getName(), 2L);
+        defaultRepository.update(linkedRecord);
+
+        Record record = defaultRepository.newRecord();
+        record.setRecordType(vRecordType1.getName());
+        record.setField(vfield1.getName(), "medlar");
+        record.setField(vLinkField1.getName(), new Link(linkedRecord.getId()));
+        record.setField(vStringMvField.getName(), Arrays.asList("one", "two"));
+        record.setField(vLongField.getName(), 42L);
+        record.setField(liveTag.getName(), 1L);
+        record.setField(previewTag.getName(), 1L);
+        record.setField(latestTag.getName(), 1L);
+        record = defaultRepository.create(record);
+
+        SolrClient solrClient = mock(SolrClient.class);
+        when(solrClient.add(any(SolrInputDocument.class))).thenReturn(new UpdateResponse());
+        SolrShardManager shardManager = mock(SolrShardManager.class);
+        when(shardManager.getSolrClient(any(RecordId.class))).thenReturn(solrClient);
+
+        IndexerMetrics metrics = new IndexerMetrics("fragmentreuse");
+        VersionIndexer indexer = new VersionIndexer(shardManager, metrics);
+
+        IdRecord idRecord = defaultRepository.readWithIds(record.getId(), 1L, null);
+        Set<SchemaId> vtags = new LinkedHashSet<SchemaId>(
+                Arrays.asList(liveTag.getId(), previewTag.getId(), latestTag.getId()));
+
+        // First each vtag on its own, which evaluates the complete mapping, then all vtags at once
+        for (SchemaId vtag : vtags) {
+            indexer.indexVersion(idRecord, 1L, Collections.singleton(vtag));
+        }
+        indexer.indexVersion(idRecord, 1L, vtags);
+        metrics.shutdown();
+
+        ArgumentCaptor<SolrInputDocument> docs = ArgumentCaptor.forClass(SolrInputDocument.class);
+        verify(solrClient, times(6)).add(docs.capture());
+        List<SolrInputDocument> fullDocs = docs.getAllValues().subList(0, 3);
+        List<SolrInputDocument> reusedDocs = docs.getAllValues().subList(3, 6);
+
+        assertEquals("plum", fullDocs.get(0).getFieldValue("v_deref1"));
+        assertEquals("quince", fullDocs.get(1).getFieldValue("v_deref1"));
+        assertEquals("quince", fullDocs.get(2).getFieldValue("v_deref1"));
+
+        for (int i = 0; i < fullDocs.size(); i++) {
+            assertEquals(getFields(fullDocs.get(i)), getFields(reusedDocs.get(i)));
+        }
+    }
+
+    /**
+     * Lists the fields of a document with their values, in the order in which they were added.
+     */
+    private static List<String> getFields(SolrInputDocument doc) {
+        List<String> fields = Lists.newArrayList();
+        for (String name : doc.getFieldNames()) {
+            fields.add(name + "=" + doc.getFieldValues(name));
+        }
+        return fields;
+    }
+
     /**
      * This test might better fit in the indexer-model package
      */
@@ -3211,6 +3300,20 @@ public class IndexerTest {
         messageVerifier.addExpectedEvent(recordId, event);
     }
 
+    /**
+     * Gives access to the indexing of one version of a record for a set of vtags.
+     */
+    private static class VersionIndexer extends Indexer {
+        public VersionIndexer(SolrShardManager solrShardManager, IndexerMetrics metrics) throws Exception {
+            super("fragmentreuse", INDEXER_CONF, repositoryManager, solrShardManager,
+                    new IndexLocker(repoSetup.getZk(), false), metrics, derefMap);
+        }
+
+        public void indexVersion(IdRecord record, long version, Set<SchemaId> vtags) throws Exception {
+            index(Table.RECORD.name, record, version, vtags);
+        }
+    }
+
     private static class MessageVerifier implements EventListener {
         private List<Pair<RecordId, RecordEvent>> expectedEvents = Lists.newArrayList();
         private int failures = 0;
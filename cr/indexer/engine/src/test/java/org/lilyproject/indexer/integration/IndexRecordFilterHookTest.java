@@ -17,21 +17,25 @@ package org.lilyproject.indexer.integration;
 
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
-import static org.mockito.Mockito.doReturn;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anySetOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.util.Set;
+
 import org.lilyproject.util.hbase.LilyHBaseSchema.Table;
 
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import org.junit.Before;
 import org.junit.Test;
-import org.lilyproject.indexer.model.indexerconf.IndexCase;
-import org.lilyproject.indexer.model.indexerconf.IndexRecordFilter;
 import org.lilyproject.indexer.model.util.IndexInfo;
+import org.lilyproject.indexer.model.util.IndexRouting;
 import org.lilyproject.indexer.model.util.IndexesInfo;
 import org.lilyproject.repository.api.FieldTypes;
 import org.lilyproject.repository.api.Record;
@@ -40,7 +44,8 @@ import org.lilyproject.repository.api.RepositoryException;
 import org.lilyproject.util.repo.RecordEvent;
 import org.lilyproject.util.repo.RecordEvent.IndexRecordFilterData;
 import org.lilyproject.util.repo.RecordEvent.Type;
-import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 public class IndexRecordFilterHookTest {
     
@@ -67,8 +72,8 @@ public class IndexRecordFilterHookTest {
 
     @Test
     public void testBeforeUpdate() throws RepositoryException, InterruptedException {
-        IndexInfo inclusion = createMockIndexInfo("include", true);
-        when(indexesInfo.getIndexInfos()).thenReturn(Lists.newArrayList(inclusion));
+        when(indexesInfo.getIndexInfos()).thenReturn(Lists.newArrayList(mock(IndexInfo.class)));
+        setIndexRouting(ImmutableSet.of("include"), ImmutableSet.of("include"));
 
         RecordEvent recordEvent = new RecordEvent();
         recordEvent.setType(Type.UPDATE);
@@ -84,8 +89,8 @@ public class IndexRecordFilterHookTest {
     
     @Test
     public void testBeforeCreate() throws RepositoryException, InterruptedException {
-        IndexInfo inclusion = createMockIndexInfo("include", true);
-        when(indexesInfo.getIndexInfos()).thenReturn(Lists.newArrayList(inclusion));
+        when(indexesInfo.getIndexInfos()).thenReturn(Lists.newArrayList(mock(IndexInfo.class)));
+        setIndexRouting(ImmutableSet.of("include"), ImmutableSet.of("include"));
 
         RecordEvent recordEvent = new RecordEvent();
         recordEvent.setType(Type.CREATE);
@@ -101,8 +106,8 @@ public class IndexRecordFilterHookTest {
 
     @Test
     public void testBeforeDelete() throws RepositoryException, InterruptedException {
-        IndexInfo inclusion = createMockIndexInfo("include", true);
-        when(indexesInfo.getIndexInfos()).thenReturn(Lists.newArrayList(inclusion));
+        when(indexesInfo.getIndexInfos()).thenReturn(Lists.newArrayList(mock(IndexInfo.class)));
+        setIndexRouting(ImmutableSet.of("include"), ImmutableSet.of("include"));
 
         RecordEvent recordEvent = new RecordEvent();
         recordEvent.setType(Type.DELETE);
@@ -119,11 +124,7 @@ public class IndexRecordFilterHookTest {
     @Test
     public void testCalculateIndexInclusion_MoreInclusionsThanExclusions() {
         IndexRecordFilterData indexFilterData = mock(IndexRecordFilterData.class);
-        IndexInfo inclusionA = createMockIndexInfo("includeA", true);
-        IndexInfo inclusionB = createMockIndexInfo("includeB", true);
-        IndexInfo exclusion = createMockIndexInfo("exclude", false);
-
-        when(indexesInfo.getIndexInfos()).thenReturn(Lists.newArrayList(inclusionA, inclusionB, exclusion));
+        setIndexRouting(ImmutableSet.of("includeA", "includeB", "exclude"), ImmutableSet.of("includeA", "includeB"));
 
         indexFilterHook.calculateIndexInclusion(Table.RECORD.name, oldRecord, newRecord, indexFilterData);
 
@@ -133,11 +134,7 @@ public class IndexRecordFilterHookTest {
     @Test
     public void testCalculateIndexInclusion_MoreExclusionsThanInclusions() {
         IndexRecordFilterData indexFilterData = mock(IndexRecordFilterData.class);
-        IndexInfo inclusion = createMockIndexInfo("include", true);
-        IndexInfo exclusionA = createMockIndexInfo("excludeA", false);
-        IndexInfo exclusionB = createMockIndexInfo("excludeB", false);
-
-        when(this.indexesInfo.getIndexInfos()).thenReturn(Lists.newArrayList(inclusion, exclusionA, exclusionB));
+        setIndexRouting(ImmutableSet.of("include", "excludeA", "excludeB"), ImmutableSet.of("include"));
 
         indexFilterHook.calculateIndexInclusion(Table.RECORD.name, oldRecord, newRecord, indexFilterData);
 
@@ -147,9 +144,7 @@ public class IndexRecordFilterHookTest {
     @Test
     public void testCalculateIndexInclusion_AllIndexesIncluded() {
         IndexRecordFilterData indexFilterData = mock(IndexRecordFilterData.class);
-        IndexInfo inclusion = createMockIndexInfo("include", true);
-
-        when(indexesInfo.getIndexInfos()).thenReturn(Lists.newArrayList(inclusion));
+        setIndexRouting(ImmutableSet.of("include"), ImmutableSet.of("include"));
 
         indexFilterHook.calculateIndexInclusion(Table.RECORD.name, oldRecord, newRecord, indexFilterData);
 
@@ -159,9 +154,7 @@ public class IndexRecordFilterHookTest {
     @Test
     public void testCalculateIndexInclusion_AllIndexesExcluded() {
         IndexRecordFilterData indexFilterData = mock(IndexRecordFilterData.class);
-        IndexInfo inclusion = createMockIndexInfo("exclude", false);
-
-        when(indexesInfo.getIndexInfos()).thenReturn(Lists.newArrayList(inclusion));
+        setIndexRouting(ImmutableSet.of("exclude"), ImmutableSet.<String>of());
 
         indexFilterHook.calculateIndexInclusion(Table.RECORD.name, oldRecord, newRecord, indexFilterData);
 
@@ -171,58 +164,28 @@ public class IndexRecordFilterHookTest {
     @Test
     public void testCalculateIndexInclusion_NoIndexSubscriptions() {
         IndexRecordFilterData indexFilterData = mock(IndexRecordFilterData.class);
-        when(indexesInfo.getIndexInfos()).thenReturn(Lists.<IndexInfo>newArrayList());
+        setIndexRouting(ImmutableSet.<String>of(), ImmutableSet.<String>of());
 
         indexFilterHook.calculateIndexInclusion(Table.RECORD.name, oldRecord, newRecord, indexFilterData);
 
         verify(indexFilterData).setSubscriptionExclusions(IndexRecordFilterData.ALL_INDEX_SUBSCRIPTIONS);
     }
     
-    private IndexInfo createMockIndexInfo(String queueSubscriptionId, boolean include) {
-        IndexInfo indexInfo = mock(IndexInfo.class, Mockito.RETURNS_DEEP_STUBS);
-        IndexRecordFilter indexRecordFilter = mock(IndexRecordFilter.class);
-
-        when(indexInfo.getIndexerConf().getRecordFilter()).thenReturn(indexRecordFilter);
-        doReturn(include).when(indexFilterHook).indexIsApplicable(indexRecordFilter, Table.RECORD.name, oldRecord, newRecord);
-        when(indexInfo.getIndexDefinition().getQueueSubscriptionId()).thenReturn(queueSubscriptionId);
-
-        return indexInfo;
-    }
-
-    @Test
-    public void testIndexIsApplicable_TrueForOldRecord() {
-        IndexRecordFilter indexRecordFilter = mock(IndexRecordFilter.class);
-        Record oldRecord = mock(Record.class);
-        when(indexRecordFilter.getIndexCase(Table.RECORD.name, oldRecord)).thenReturn(mock(IndexCase.class));
-
-        assertTrue(indexFilterHook.indexIsApplicable(indexRecordFilter, Table.RECORD.name, oldRecord, null));
-    }
-
-    @Test
-    public void testIndexIsApplicable_FalseForOldRecord() {
-        IndexRecordFilter indexRecordFilter = mock(IndexRecordFilter.class);
-        Record oldRecord = mock(Record.class);
-        when(indexRecordFilter.getIndexCase(Table.RECORD.name, oldRecord)).thenReturn(null);
-
-        assertFalse(indexFilterHook.indexIsApplicable(indexRecordFilter, Table.RECORD.name, oldRecord, null));
-    }
-
-    @Test
-    public void testIndexIsApplicable_TrueForNewRecord() {
-        IndexRecordFilter indexRecordFilter = mock(IndexRecordFilter.class);
-        Record newRecord = mock(Record.class);
-        when(indexRecordFilter.getIndexCase(Table.RECORD.name, newRecord)).thenReturn(mock(IndexCase.class));
-
-        assertTrue(indexFilterHook.indexIsApplicable(indexRecordFilter, Table.RECORD.name, null, newRecord));
-    }
-
-    @Test
-    public void testIndexIsApplicable_FalseForNewRecord() {
-        IndexRecordFilter indexRecordFilter = mock(IndexRecordFilter.class);
-        Record newRecord = mock(Record.class);
-        when(indexRecordFilter.getIndexCase(Table.RECORD.name, newRecord)).thenReturn(null);
-
-        assertFalse(indexFilterHook.indexIsApplicable(indexRecordFilter, Table.RECORD.name,  null, newRecord));
+    /**
+     * @param applicable the subscriptions the routing finds applicable to both the old and new record
+     */
+    private void setIndexRouting(Set<String> all, final Set<String> applicable) {
+        IndexRouting indexRouting = mock(IndexRouting.class);
+        when(indexRouting.getSubscriptionIds()).thenReturn(all);
+        doAnswer(new Answer<Void>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Void answer(InvocationOnMock invocation) {
+                ((Set<String>)invocation.getArguments()[2]).addAll(applicable);
+                return null;
+            }
+        }).when(indexRouting).collectApplicableSubscriptions(anyString(), any(Record.class), anySetOf(String.class));
+        when(indexesInfo.getIndexRouting()).thenReturn(indexRouting);
     }
 
 }
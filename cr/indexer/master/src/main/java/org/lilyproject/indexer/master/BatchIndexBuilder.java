@@ -16,10 +16,13 @@
 package org.lilyproject.indexer.master;
 
 import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 
 import net.iharder.Base64;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.lib.output.NullOutputFormat;
@@ -27,6 +30,7 @@ import org.codehaus.jackson.JsonNode;
 import org.lilyproject.hbaseindex.IndexNotFoundException;
 import org.lilyproject.indexer.batchbuild.IndexingMapper;
 import org.lilyproject.indexer.derefmap.DerefMapHbaseImpl;
+import org.lilyproject.indexer.engine.SolrDocumentFingerprints;
 import org.lilyproject.indexer.engine.SolrClientConfig;
 import org.lilyproject.indexer.model.api.IndexDefinition;
 import org.lilyproject.indexer.model.indexerconf.IndexerConf;
@@ -35,11 +39,16 @@ import org.lilyproject.mapreduce.LilyMapReduceUtil;
 import org.lilyproject.repository.api.RecordScan;
 import org.lilyproject.repository.api.RepositoryManager;
 import org.lilyproject.repository.api.ReturnFields;
+import org.lilyproject.repository.api.filter.RecordFilterList;
+import org.lilyproject.repository.api.filter.RecordModifiedFilter;
 import org.lilyproject.tools.import_.json.RecordScanReader;
 import org.lilyproject.util.hbase.HBaseTableFactory;
 import org.lilyproject.util.json.JsonFormat;
+import org.lilyproject.util.json.JsonUtil;
 
 public class BatchIndexBuilder {
+    private static final Log log = LogFactory.getLog(BatchIndexBuilder.class);
+
     /**
      * @return the ID of the started job
      */
@@ -93,6 +102,17 @@ public class BatchIndexBuilder {
         JsonNode batchConfigurationNode =
                 JsonFormat.deserializeNonStd(new ByteArrayInputStream(batchIndexConfiguration));
         RecordScan recordScan = RecordScanReader.INSTANCE.fromJson(batchConfigurationNode.get("scan"), repositoryManager);
+        RecordModifiedFilter modifiedFilter = getModifiedFilter(batchConfigurationNode, index);
+        if (modifiedFilter != null) {
+            if (recordScan.getRecordFilter() != null) {
+                RecordFilterList filterList = new RecordFilterList();
+                filterList.addFilter(recordScan.getRecordFilter());
+                filterList.addFilter(modifiedFilter);
+                recordScan.setRecordFilter(filterList);
+            } else {
+                recordScan.setRecordFilter(modifiedFilter);
+            }
+        }
         recordScan.setReturnFields(ReturnFields.ALL);
         recordScan.setCacheBlocks(false);
         recordScan.setCaching(1024);
@@ -106,6 +126,18 @@ public class BatchIndexBuilder {
             }
         }
 
+        // The fingerprints should be cleared when building into an empty Solr index, otherwise documents
+        // would be skipped as being unchanged.
+        if (batchConfigurationNode.has("clearFingerprints") &&
+                batchConfigurationNode.get("clearFingerprints").asBoolean(false)) {
+            SolrDocumentFingerprints.delete(index.getName(), hbaseConf);
+        }
+
+        if (index.isEnableFingerprints()) {
+            SolrDocumentFingerprints.create(index.getName(), hbaseConf, tableFactory);
+            job.getConfiguration().setBoolean("org.lilyproject.indexer.batchbuild.fingerprints", true);
+        }
+
         // Create derefmap table, but only if there are deref expressions.
         // We create the derefmap table already here, because here we have knowledge of the table
         // creation preferences (otherwise would need to serialize that config towards the mappers).
@@ -150,4 +182,73 @@ public class BatchIndexBuilder {
 
         return job;
     }
+
+    /**
+     * Tells whether a batch build indexes all records, or in case of an incremental build, all records modified
+     * since the last successful build. Only then can its submit time serve as the start of the time window of
+     * later incremental builds. This is not the case when the build is limited to some tables, to a key range,
+     * by a record filter, or to an explicit modifiedFrom/modifiedTo time window.
+     */
+    public static boolean coversAllRecords(byte[] batchIndexConfiguration, List<String> tableList)
+            throws IOException {
+        if (tableList != null && !tableList.isEmpty()) {
+            return false;
+        }
+
+        JsonNode batchConfigurationNode = JsonFormat.deserializeNonStd(batchIndexConfiguration);
+        if (hasValue(batchConfigurationNode, "modifiedFrom") || hasValue(batchConfigurationNode, "modifiedTo")) {
+            return false;
+        }
+
+        JsonNode scanNode = batchConfigurationNode.get("scan");
+        if (scanNode != null) {
+            for (String restriction : new String[] {"startRecordId", "stopRecordId", "rawStartRecordId",
+                    "rawStopRecordId", "recordFilter"}) {
+                if (hasValue(scanNode, restriction)) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    private static boolean hasValue(JsonNode node, String property) {
+        return node.get(property) != null && !node.get(property).isNull();
+    }
+
+    /**
+     * Returns the filter to limit the build to the records modified within a time window, or null for a full
+     * build. The time window is specified using the "modifiedFrom" and "modifiedTo" properties (in milliseconds
+     * since the epoch), or by setting "incremental" to true, which uses the time of the last successful batch
+     * build as start of the window.
+     *
+     * <p>Note that records deleted within the time window are not removed from the index by such a build.</p>
+     */
+    private static RecordModifiedFilter getModifiedFilter(JsonNode batchConfigurationNode, IndexDefinition index) {
+        Long from = JsonUtil.getLong(batchConfigurationNode, "modifiedFrom", null);
+        Long to = JsonUtil.getLong(batchConfigurationNode, "modifiedTo", null);
+
+        if (JsonUtil.getBoolean(batchConfigurationNode, "incremental", false)) {
+            if (from != null) {
+                throw new IllegalArgumentException("Batch index configuration: modifiedFrom can not be combined"
+                        + " with incremental.");
+            }
+            if (index.getLastSuccessfulBatchBuildTime() > 0) {
+                from = index.getLastSuccessfulBatchBuildTime();
+            } else {
+                log.warn("No successful batch build found for index " + index.getName()
+                        + ", incremental build will index all records.");
+            }
+        }
+
+        if (from == null && to == null) {
+            return null;
+        }
+
+        log.info("Batch build of index " + index.getName() + " limited to records modified in time window ["
+                + from + ", " + to + "[");
+
+        return new RecordModifiedFilter(from, to);
+    }
 }
@@ -49,6 +49,7 @@ import org.apache.tika.io.IOUtils;
 import org.apache.zookeeper.KeeperException;
 import org.lilyproject.indexer.batchbuild.IndexBatchBuildCounters;
 import org.lilyproject.indexer.derefmap.DerefMapHbaseImpl;
+import org.lilyproject.indexer.engine.SolrDocumentFingerprints;
 import org.lilyproject.indexer.engine.SolrClientConfig;
 import org.lilyproject.indexer.model.api.ActiveBatchBuildInfo;
 import org.lilyproject.indexer.model.api.BatchBuildInfo;
@@ -121,11 +122,19 @@ public class IndexerMaster {
 
     private SepModel sepModel;
 
+    private final long derefMapFilterRebuildInterval;
+
+    private DerefMapFilterRebuilder derefMapFilterRebuilder = new DerefMapFilterRebuilder();
+
+    /**
+     * @param derefMapFilterRebuildHours hours after which the dependency filters of the deref maps are rebuilt,
+     *                                   0 to never build them
+     */
     public IndexerMaster(ZooKeeperItf zk, WriteableIndexerModel indexerModel, RepositoryManager repositoryManager,
             Configuration mapReduceConf, Configuration mapReduceJobConf, Configuration hbaseConf,
             String zkConnectString, int zkSessionTimeout, SepModel sepModel,
             LilyInfo lilyInfo, SolrClientConfig solrClientConfig, boolean enableLocking,
-            String hostName, HBaseTableFactory tableFactory, String nodes) {
+            String hostName, HBaseTableFactory tableFactory, String nodes, int derefMapFilterRebuildHours) {
 
         this.zk = zk;
         this.indexerModel = indexerModel;
@@ -142,6 +151,7 @@ public class IndexerMaster {
         this.tableFactory = tableFactory;
         this.nodes = nodes;
         this.sepModel = sepModel;
+        this.derefMapFilterRebuildInterval = TimeUnit.HOURS.toMillis(derefMapFilterRebuildHours);
     }
 
     @PostConstruct
@@ -193,6 +203,9 @@ public class IndexerMaster {
             // that these will receive work.
             eventWorker.start();
             jobStatusWatcher.start();
+            if (derefMapFilterRebuildInterval > 0) {
+                derefMapFilterRebuilder.start();
+            }
 
             Collection<IndexDefinition> indexes = indexerModel.getIndexes(listener);
 
@@ -218,6 +231,8 @@ public class IndexerMaster {
             // we want it to finish (e.g. a lock taken that should be released again)
             eventWorker.shutdown(false);
             jobStatusWatcher.shutdown(false);
+            // A rebuild which is interrupted is resumed by the next master
+            derefMapFilterRebuilder.shutdown(true);
 
             log.info("Shutdown as indexer master successful.");
             lilyInfo.setIndexerMaster(false);
@@ -243,6 +258,12 @@ public class IndexerMaster {
         return !index.isEnableDerefMap();
     }
 
+    private boolean needsFingerprintsDeletion(IndexDefinition index) {
+        // Fingerprints which are not maintained become outdated, so they should not be kept in case they
+        // would be enabled again later
+        return !index.isEnableFingerprints();
+    }
+
     private void assignSubscription(String indexName) {
         try {
             String lock = indexerModel.lockIndex(indexName);
@@ -255,7 +276,13 @@ public class IndexerMaster {
                     // due to concurrent operations (e.g. someone deleting this subscription right after we
                     // created it).
                     String subscriptionId = subscriptionId(index.getName());
-                    sepModel.addSubscription(subscriptionId);
+                    if (index.isSharedSubscription()) {
+                        // The index's own subscription ID is still assigned, it serves to route the events
+                        // within the shared subscription
+                        sepModel.addSubscriptionSilent(IndexDefinition.SHARED_SUBSCRIPTION_ID);
+                    } else {
+                        sepModel.addSubscription(subscriptionId);
+                    }
                     index.setQueueSubscriptionId(subscriptionId);
                     indexerModel.updateIndexInternal(index);
                     log.info("Assigned queue subscription ID '" + subscriptionId + "' to index '" + indexName + "'");
@@ -275,10 +302,15 @@ public class IndexerMaster {
                 // Read current situation of record and assure it is still actual
                 IndexDefinition index = indexerModel.getMutableIndex(indexName);
                 if (needsSubscriptionIdUnassigned(index)) {
-                    sepModel.removeSubscription(index.getQueueSubscriptionId());
+                    if (!index.isSharedSubscription()) {
+                        sepModel.removeSubscription(index.getQueueSubscriptionId());
+                    }
                     log.info("Deleted queue subscription for index " + indexName);
                     index.setQueueSubscriptionId(null);
                     indexerModel.updateIndexInternal(index);
+                    if (index.isSharedSubscription()) {
+                        releaseSharedSubscriptionIfUnused();
+                    }
                 }
             } finally {
                 indexerModel.unlockIndex(lock);
@@ -292,6 +324,49 @@ public class IndexerMaster {
         return "IndexUpdater_" + indexName;
     }
 
+    /**
+     * Moves the index to or from the shared subscription, in case this option was changed after its subscription
+     * was assigned. Record events which are queued for the old subscription at that time are not indexed.
+     */
+    private void syncSubscription(IndexDefinition index) {
+        try {
+            if (index.isSharedSubscription()) {
+                sepModel.addSubscriptionSilent(IndexDefinition.SHARED_SUBSCRIPTION_ID);
+                if (sepModel.removeSubscriptionSilent(index.getQueueSubscriptionId())) {
+                    log.info("Moved index " + index.getName() + " to the shared queue subscription");
+                }
+            } else {
+                if (sepModel.addSubscriptionSilent(index.getQueueSubscriptionId())) {
+                    log.info("Moved index " + index.getName() + " to its own queue subscription '" +
+                            index.getQueueSubscriptionId() + "'");
+                }
+                releaseSharedSubscriptionIfUnused();
+            }
+        } catch (Throwable t) {
+            log.error("Error trying to synchronize the queue subscription of index " + index.getName(), t);
+        }
+    }
+
+    /**
+     * Removes the shared subscription if no index is using it anymore, since otherwise HBase keeps on
+     * replicating to it.
+     */
+    private void releaseSharedSubscriptionIfUnused() {
+        try {
+            for (IndexDefinition index : indexerModel.getIndexes()) {
+                if (index.isSharedSubscription() && index.getQueueSubscriptionId() != null &&
+                        !index.getGeneralState().isDeleteState()) {
+                    return;
+                }
+            }
+            if (sepModel.removeSubscriptionSilent(IndexDefinition.SHARED_SUBSCRIPTION_ID)) {
+                log.info("Deleted the shared queue subscription since no index is using it anymore");
+            }
+        } catch (Throwable t) {
+            log.error("Error trying to delete the shared queue subscription", t);
+        }
+    }
+
     private void startFullIndexBuild(String indexName) {
         try {
             String lock = indexerModel.lockIndex(indexName);
@@ -305,7 +380,9 @@ public class IndexerMaster {
                 if (needsBatchBuildStart(index)) {
                     Job job = null;
                     boolean jobStarted;
+                    boolean coversAllRecords = false;
                     try {
+                        coversAllRecords = BatchIndexBuilder.coversAllRecords(batchIndexConfiguration, batchTables);
                         job = BatchIndexBuilder.startBatchBuildJob(index, mapReduceJobConf, hbaseConf,
                                 repositoryManager, zkConnectString, zkSessionTimeout, solrClientConfig,
                                 batchIndexConfiguration, enableLocking, batchTables, tableFactory);
@@ -321,6 +398,7 @@ public class IndexerMaster {
                         jobInfo.setJobId(job.getJobID().toString());
                         jobInfo.setTrackingUrl(job.getTrackingURL());
                         jobInfo.setBatchIndexConfiguration(batchIndexConfiguration);
+                        jobInfo.setCoversAllRecords(coversAllRecords);
                         index.setActiveBatchBuildInfo(jobInfo);
 
                         index.setBatchBuildState(IndexBatchBuildState.BUILDING);
@@ -383,7 +461,11 @@ public class IndexerMaster {
 
                 String queueSubscriptionId = index.getQueueSubscriptionId();
                 if (queueSubscriptionId != null) {
-                    sepModel.removeSubscription(index.getQueueSubscriptionId());
+                    if (index.isSharedSubscription()) {
+                        releaseSharedSubscriptionIfUnused();
+                    } else {
+                        sepModel.removeSubscription(index.getQueueSubscriptionId());
+                    }
                     // We leave the subscription ID in the index definition FYI
                 }
 
@@ -439,6 +521,14 @@ public class IndexerMaster {
             // ignore, the index was already deleted
         }
 
+        // delete the document fingerprints
+        try {
+            SolrDocumentFingerprints.delete(indexName, hbaseConf);
+        } catch (IOException e) {
+            log.error("Failed to delete document fingerprints for index " + indexName, e);
+            failedToDeleteIndex = true;
+        }
+
         if (failedToDeleteIndex) {
             try {
                 IndexDefinition index = indexerModel.getMutableIndex(indexName);
@@ -560,6 +650,8 @@ public class IndexerMaster {
 
                             if (needsSubscriptionIdUnassigned(index)) {
                                 unassignSubscription(index.getName());
+                            } else if (index.getQueueSubscriptionId() != null) {
+                                syncSubscription(index);
                             }
 
                             if (needsBatchBuildStart(index)) {
@@ -574,6 +666,10 @@ public class IndexerMaster {
                             if (needsDerefMapDeletion(index)) {
                                 deleteDerefMap(index);
                             }
+
+                            if (needsFingerprintsDeletion(index)) {
+                                SolrDocumentFingerprints.delete(index.getName(), hbaseConf);
+                            }
                         }
                     }
 
@@ -724,6 +820,15 @@ public class IndexerMaster {
                     index.setLastBatchBuildInfo(jobInfo);
                     index.setActiveBatchBuildInfo(null);
 
+                    // The job scanned the records after it was submitted, so all records modified before
+                    // that time are indexed. Only consider it when the build wasn't limited to part of the
+                    // records and all records were indexed successfully, otherwise an incremental build would
+                    // skip the records which were not indexed.
+                    if (success && activeJobInfo != null && activeJobInfo.getCoversAllRecords() && (counters == null ||
+                            counters.getCounter(IndexBatchBuildCounters.NUM_FAILED_RECORDS) == 0)) {
+                        index.setLastSuccessfulBatchBuildTime(activeJobInfo.getSubmitTime());
+                    }
+
                     index.setBatchBuildState(IndexBatchBuildState.INACTIVE);
 
                     runningJobs.remove(indexName);
@@ -765,4 +870,87 @@ public class IndexerMaster {
             return result;
         }
     }
+
+    /**
+     * Periodically rebuilds the dependency filters of the deref maps, see
+     * {@link DerefMapHbaseImpl#rebuildDependencyFilter()}.
+     */
+    private class DerefMapFilterRebuilder implements Runnable {
+        private static final long CHECK_INTERVAL = 10 * 60 * 1000L;
+
+        private boolean stop; // do not rely only on Thread.interrupt since some libraries eat interruptions
+
+        private Thread thread;
+
+        public synchronized void shutdown(boolean interrupt) throws InterruptedException {
+            stop = true;
+
+            if (thread == null || !thread.isAlive()) {
+                return;
+            }
+
+            if (interrupt)
+                thread.interrupt();
+            Logs.logThreadJoin(thread);
+            thread.join();
+            thread = null;
+        }
+
+        public synchronized void start() throws InterruptedException {
+            if (thread != null) {
+                log.warn("DerefMapFilterRebuilder start was requested, but old thread was still there. " +
+                        "Stopping it now.");
+                thread.interrupt();
+                Logs.logThreadJoin(thread);
+                thread.join();
+            }
+            stop = false;
+            thread = new Thread(this, "DerefMapFilterRebuilder");
+            thread.start();
+        }
+
+        @Override
+        public void run() {
+            while (!stop && !Thread.interrupted()) {
+                try {
+                    Thread.sleep(CHECK_INTERVAL);
+
+                    for (IndexDefinition index : indexerModel.getIndexes()) {
+                        if (stop || Thread.interrupted()) {
+                            return;
+                        }
+
+                        if (!index.isEnableDerefMap() || index.getGeneralState().isDeleteState() ||
+                                !DerefMapHbaseImpl.exists(index.getName(), hbaseConf)) {
+                            continue;
+                        }
+
+                        DerefMapHbaseImpl derefMap = null;
+                        try {
+                            derefMap = (DerefMapHbaseImpl)DerefMapHbaseImpl.create(index.getName(), hbaseConf,
+                                    tableFactory, repositoryManager.getIdGenerator());
+                            if (derefMap.getDependencyFilterAge() >= derefMapFilterRebuildInterval) {
+                                log.info("Rebuilding the dependency filter of the deref map of index " +
+                                        index.getName());
+                                derefMap.rebuildDependencyFilter();
+                                log.info("Rebuilt the dependency filter of the deref map of index " +
+                                        index.getName());
+                            }
+                        } catch (InterruptedException e) {
+                            throw e;
+                        } catch (Throwable t) {
+                            log.error("Error rebuilding the dependency filter of the deref map of index " +
+                                    index.getName(), t);
+                        } finally {
+                            Closer.close(derefMap);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                } catch (Throwable t) {
+                    log.error("Error in deref map filter rebuilder thread.", t);
+                }
+            }
+        }
+    }
 }
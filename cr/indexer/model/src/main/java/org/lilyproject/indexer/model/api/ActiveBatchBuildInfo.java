@@ -23,6 +23,7 @@ public class ActiveBatchBuildInfo {
     private boolean immutable;
     private String trackingUrl;
     private byte[] batchIndexConfiguration;
+    private boolean coversAllRecords;
 
     public String getJobId() {
         return jobId;
@@ -79,6 +80,9 @@ public class ActiveBatchBuildInfo {
         if (!ObjectUtils.safeEquals(trackingUrl, other.trackingUrl))
             return false;
 
+        if (coversAllRecords != other.coversAllRecords)
+            return false;
+
         return true;
     }
 
@@ -87,6 +91,7 @@ public class ActiveBatchBuildInfo {
         int result = jobId != null ? jobId.hashCode() : 0;
         result = 31 * result + (int) (submitTime ^ (submitTime >>> 32));
         result = 31 * result + (trackingUrl != null ? trackingUrl.hashCode() : 0);
+        result = 31 * result + (coversAllRecords ? 1 : 0);
         return result;
     }
 
@@ -97,4 +102,17 @@ public class ActiveBatchBuildInfo {
     public void setBatchIndexConfiguration(byte[] batchIndexConfiguration) {
         this.batchIndexConfiguration = batchIndexConfiguration;
     }
+
+    /**
+     * True if the build indexes all records, or all records modified since the last successful build, so that
+     * once it succeeded, later incremental builds can start from its submit time.
+     */
+    public boolean getCoversAllRecords() {
+        return coversAllRecords;
+    }
+
+    public void setCoversAllRecords(boolean coversAllRecords) {
+        checkIfMutable();
+        this.coversAllRecords = coversAllRecords;
+    }
 }
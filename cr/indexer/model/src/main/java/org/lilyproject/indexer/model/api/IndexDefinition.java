@@ -19,6 +19,12 @@ import java.util.List;
 import java.util.Map;
 
 public interface IndexDefinition {
+    /**
+     * Id of the SEP subscription through which the indexes with {@link #isSharedSubscription()} enabled consume
+     * their updates.
+     */
+    String SHARED_SUBSCRIPTION_ID = "IndexUpdaterShared";
+
     String getName();
     
     IndexGeneralState getGeneralState();
@@ -70,6 +76,16 @@ public interface IndexDefinition {
 
     void setLastBatchBuildInfo(BatchBuildInfo info);
 
+    /**
+     * The submit time of the last batch build that completed successfully. An incremental batch build
+     * re-indexes the records modified since this time.
+     *
+     * @return Number of milliseconds since the epoch, 0 if no batch build completed successfully yet
+     */
+    long getLastSuccessfulBatchBuildTime();
+
+    void setLastSuccessfulBatchBuildTime(long time);
+
     ActiveBatchBuildInfo getActiveBatchBuildInfo();
 
     void setActiveBatchBuildInfo(ActiveBatchBuildInfo info);
@@ -140,6 +156,34 @@ public interface IndexDefinition {
     boolean isEnableDerefMap();
 
     void setEnableDerefMap(boolean enableDerefMap);
+
+    /**
+     * Do we need to maintain fingerprints of the indexed documents. When enabled, the indexer skips sending a
+     * document to Solr if it is identical to the document it sent before for the same record and vtag. This avoids
+     * needless Solr updates when records are reindexed without effective changes, e.g. because of dereferencing.
+     *
+     * <p>The fingerprints assume Solr still contains what the indexer sent before. When the Solr index is cleared
+     * by other means, the fingerprints should be cleared too (see the clearFingerprints batch build option).
+     *
+     * @return true if fingerprints should be maintained for this index, false otherwise (this is the default).
+     */
+    boolean isEnableFingerprints();
+
+    void setEnableFingerprints(boolean enableFingerprints);
+
+    /**
+     * Should this index consume its updates through the SEP subscription which is shared by all indexes having
+     * this option enabled, rather than through a subscription of its own. Each record event is then shipped to
+     * and parsed on the Lily nodes only once for all those indexes, rather than once per index.
+     *
+     * <p>The index still has its own {@link #getQueueSubscriptionId() queue subscription id}, which is used to
+     * determine which indexes a record event applies to.
+     *
+     * @return true if this index uses the shared subscription, false otherwise (this is the default).
+     */
+    boolean isSharedSubscription();
+
+    void setSharedSubscription(boolean sharedSubscription);
     
     /**
      * Set the timestamp of when this index's update subscription started. Only record updates that have
@@ -98,6 +98,7 @@ public class IndexDefinitionConverter {
             activeBatchBuild.setJobId(JsonUtil.getString(buildNode, "jobId"));
             activeBatchBuild.setSubmitTime(JsonUtil.getLong(buildNode, "submitTime"));
             activeBatchBuild.setTrackingUrl(JsonUtil.getString(buildNode, "trackingUrl", null));
+            activeBatchBuild.setCoversAllRecords(JsonUtil.getBoolean(buildNode, "coversAllRecords", false));
             // no likely that this attribute isn't available but check for it just in case
             if (buildNode.has("batchIndexConfiguration") && !buildNode.get("batchIndexConfiguration").isNull()) {
                 activeBatchBuild.setBatchIndexConfiguration(serializeJsonNode(
@@ -129,6 +130,8 @@ public class IndexDefinitionConverter {
             }
 
         }
+        long lastSuccessfulBatchBuildTime = JsonUtil.getLong(node, "lastSuccessfulBatchBuildTime", 0L);
+
         byte[] batchIndexConfiguration = null;
         if (node.has("batchIndexConfiguration") && !node.get("batchIndexConfiguration").isNull()) {
             batchIndexConfiguration = serializeJsonNode(JsonUtil.getObject(node, "batchIndexConfiguration"));
@@ -140,6 +143,10 @@ public class IndexDefinitionConverter {
 
         if (node.has("maintainDerefMap") && !node.get("maintainDerefMap").isNull()) index.setEnableDerefMap(node.get("maintainDerefMap").asBoolean());
 
+        if (node.has("maintainFingerprints") && !node.get("maintainFingerprints").isNull()) index.setEnableFingerprints(node.get("maintainFingerprints").asBoolean());
+
+        if (node.has("sharedSubscription") && !node.get("sharedSubscription").isNull()) index.setSharedSubscription(node.get("sharedSubscription").asBoolean());
+
         index.setGeneralState(state);
         index.setUpdateState(updateState);
         index.setBatchBuildState(buildState);
@@ -150,6 +157,7 @@ public class IndexDefinitionConverter {
         index.setShardingConfiguration(shardingConfiguration);
         index.setActiveBatchBuildInfo(activeBatchBuild);
         index.setLastBatchBuildInfo(lastBatchBuild);
+        index.setLastSuccessfulBatchBuildTime(lastSuccessfulBatchBuildTime);
         index.setBatchIndexConfiguration(batchIndexConfiguration);
         index.setDefaultBatchIndexConfiguration(defaultBatchIndexConfiguration);
         index.setDefaultBatchTables(defaultBatchTables);
@@ -219,6 +227,7 @@ public class IndexDefinitionConverter {
             buildNode.put("jobId", buildInfo.getJobId());
             buildNode.put("submitTime", buildInfo.getSubmitTime());
             buildNode.put("trackingUrl", buildInfo.getTrackingUrl());
+            buildNode.put("coversAllRecords", buildInfo.getCoversAllRecords());
             buildNode.put("batchIndexConfiguration", deserializeByteArray(buildInfo.getBatchIndexConfiguration()));
         }
 
@@ -239,6 +248,7 @@ public class IndexDefinitionConverter {
               buildNode.put("batchIndexConfiguration", deserializeByteArray(buildInfo.getBatchIndexConfiguration()));
             }
         }
+        node.put("lastSuccessfulBatchBuildTime", index.getLastSuccessfulBatchBuildTime());
         if (index.getBatchIndexConfiguration() != null) {
             node.put("batchIndexConfiguration", this.deserializeByteArray(index.getBatchIndexConfiguration()));
         }
@@ -247,6 +257,10 @@ public class IndexDefinitionConverter {
         }
 
         node.put("maintainDerefMap", index.isEnableDerefMap());
+
+        node.put("maintainFingerprints", index.isEnableFingerprints());
+
+        node.put("sharedSubscription", index.isSharedSubscription());
         
         List<String> defaultBatchTables = index.getDefaultBatchTables();
         if (defaultBatchTables != null) {
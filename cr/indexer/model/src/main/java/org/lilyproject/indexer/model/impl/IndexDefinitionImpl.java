@@ -43,11 +43,14 @@ public class IndexDefinitionImpl implements IndexDefinition {
     private Map<String, String> solrShards = Collections.emptyMap();
     private int zkDataVersion = -1;
     private BatchBuildInfo lastBatchBuildInfo;
+    private long lastSuccessfulBatchBuildTime;
     private ActiveBatchBuildInfo activeBatchBuildInfo;
     private boolean immutable;
     private String zkConnectionString;
     private String solrCollection;
     private boolean enableDerefMap;
+    private boolean enableFingerprints;
+    private boolean sharedSubscription;
     private long subscriptionTimestamp;
 
     public IndexDefinitionImpl(String name) {
@@ -160,6 +163,17 @@ public class IndexDefinitionImpl implements IndexDefinition {
         this.lastBatchBuildInfo = info;
     }
 
+    @Override
+    public long getLastSuccessfulBatchBuildTime() {
+        return lastSuccessfulBatchBuildTime;
+    }
+
+    @Override
+    public void setLastSuccessfulBatchBuildTime(long time) {
+        checkIfMutable();
+        this.lastSuccessfulBatchBuildTime = time;
+    }
+
     @Override
     public ActiveBatchBuildInfo getActiveBatchBuildInfo() {
         return activeBatchBuildInfo;
@@ -253,6 +267,26 @@ public class IndexDefinitionImpl implements IndexDefinition {
     public void setEnableDerefMap(boolean enableDerefMap) {
         this.enableDerefMap = enableDerefMap;
     }
+
+    @Override
+    public boolean isEnableFingerprints() {
+        return enableFingerprints;
+    }
+
+    @Override
+    public void setEnableFingerprints(boolean enableFingerprints) {
+        this.enableFingerprints = enableFingerprints;
+    }
+
+    @Override
+    public boolean isSharedSubscription() {
+        return sharedSubscription;
+    }
+
+    @Override
+    public void setSharedSubscription(boolean sharedSubscription) {
+        this.sharedSubscription = sharedSubscription;
+    }
     
     @Override
     public void setSubscriptionTimestamp(long timestamp) {
@@ -15,6 +15,11 @@
  */
 package org.lilyproject.indexer.model.indexerconf;
 
+import java.util.List;
+import java.util.Set;
+
+import com.google.common.base.Predicate;
+import org.lilyproject.repository.api.QName;
 import org.lilyproject.repository.api.RepositoryException;
 import org.lilyproject.repository.api.Scope;
 import org.lilyproject.util.repo.VTaggedRecord;
@@ -23,10 +28,90 @@ import org.lilyproject.util.repo.VTaggedRecord;
  * The root of the mapping hierarchy. This corresponds to the 'fields' element in indexerconf.
  */
 public class IndexFields extends ContainerMappingNode {
+    /** Lazily computed, see {@link #isVTagInvariant(int)}. */
+    private volatile boolean[] vtagInvariantChildren;
 
     @Override
     public boolean isIndexAffectedByUpdate(VTaggedRecord record, Scope scope) throws InterruptedException, RepositoryException {
         return childrenAffectedByUpdate(record, scope);
     }
 
+    /**
+     * Returns index fields which give the same outcome as these for all records in the given table having the
+     * given record type and variant properties, but without the match nodes which can't match such records.
+     * Match nodes which always match such records are replaced by their children.
+     *
+     * <p>Only the match nodes which apply to the record itself are specialized, those nested in a forEach apply
+     * to other records and are kept as is. Dropping a match node doesn't lose any dependencies, since the
+     * dependencies of a record on its own fields are not recorded.</p>
+     *
+     * @param recordTypeName the name of the record type of the records, can be null
+     */
+    public IndexFields specialize(String table, QName recordTypeName, Set<String> variantDimensions) {
+        IndexFields result = new IndexFields();
+        specializeChildren(this, result, table, recordTypeName, variantDimensions);
+        return result;
+    }
+
+    private static void specializeChildren(ContainerMappingNode source, ContainerMappingNode target, String table,
+            QName recordTypeName, Set<String> variantDimensions) {
+        for (MappingNode child : source.getChildren()) {
+            if (child instanceof MatchNode) {
+                RecordMatcher matcher = ((MatchNode)child).getRecordMatcher();
+                if (!matcher.couldMatch(table, recordTypeName, variantDimensions)) {
+                    continue;
+                }
+                if (matcher.isDecidedByCouldMatch()) {
+                    specializeChildren((MatchNode)child, target, table, recordTypeName, variantDimensions);
+                } else {
+                    MatchNode matchNode = new MatchNode(matcher);
+                    specializeChildren((MatchNode)child, matchNode, table, recordTypeName, variantDimensions);
+                    if (!matchNode.getChildren().isEmpty()) {
+                        target.addChildNode(matchNode);
+                    }
+                }
+            } else {
+                target.addChildNode(child);
+            }
+        }
+    }
+
+    /**
+     * Returns true if the outcome of the child node at the given position is the same for all vtags pointing
+     * to the same version of a record.
+     *
+     * <p>A mapping node can only give a different outcome for different vtags if it reads other records, since
+     * these are read in the version of the vtag. This is the case for deref values and for forEach's other than
+     * those over record-type fields.</p>
+     */
+    public boolean isVTagInvariant(int childIndex) {
+        boolean[] invariant = vtagInvariantChildren;
+        List<MappingNode> children = getChildren();
+        if (invariant == null || invariant.length != children.size()) {
+            invariant = new boolean[children.size()];
+            for (int i = 0; i < children.size(); i++) {
+                invariant[i] = isVTagInvariant(children.get(i));
+            }
+            vtagInvariantChildren = invariant;
+        }
+        return invariant[childIndex];
+    }
+
+    private static boolean isVTagInvariant(MappingNode node) {
+        final boolean[] invariant = new boolean[] {true};
+        node.visitAll(new Predicate<MappingNode>() {
+            @Override
+            public boolean apply(MappingNode input) {
+                if (input instanceof IndexField && ((IndexField)input).getValue() instanceof DerefValue) {
+                    invariant[0] = false;
+                } else if (input instanceof ForEachNode
+                        && !(((ForEachNode)input).getFollow() instanceof RecordFieldFollow)) {
+                    invariant[0] = false;
+                }
+                return invariant[0];
+            }
+        });
+        return invariant[0];
+    }
+
 }
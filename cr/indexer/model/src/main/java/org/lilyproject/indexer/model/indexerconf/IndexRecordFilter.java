@@ -88,6 +88,39 @@ public class IndexRecordFilter {
         return null;
     }
 
+    /**
+     * Returns a filter which gives the same result as this one for all records in the given table having the
+     * given record type and variant properties, but which only contains the matchers that can possibly match
+     * such records.
+     *
+     * @param recordTypeName the name of the record type of the records, can be null
+     * @return null if this filter doesn't include any of these records
+     */
+    public IndexRecordFilter specialize(String table, QName recordTypeName, Set<String> variantDimensions) {
+        IndexRecordFilter result = new IndexRecordFilter();
+
+        for (RecordMatcher exclude : excludes) {
+            if (exclude.couldMatch(table, recordTypeName, variantDimensions)) {
+                if (exclude.isDecidedByCouldMatch()) {
+                    return null;
+                }
+                result.addExclude(exclude);
+            }
+        }
+
+        for (Pair<RecordMatcher, IndexCase> include : includes) {
+            if (include.getV1().couldMatch(table, recordTypeName, variantDimensions)) {
+                result.addInclude(include.getV1(), include.getV2());
+                if (include.getV1().isDecidedByCouldMatch()) {
+                    // The includes after this one will never be reached
+                    break;
+                }
+            }
+        }
+
+        return result.includes.isEmpty() ? null : result;
+    }
+
     public List<IndexCase> getAllIndexCases() {
         List<IndexCase> cases = new ArrayList<IndexCase>(includes.size());
         for (Pair<RecordMatcher, IndexCase> include : includes) {
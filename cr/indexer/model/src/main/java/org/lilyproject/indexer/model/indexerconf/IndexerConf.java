@@ -19,6 +19,8 @@ import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import com.google.common.base.Predicate;
 import org.lilyproject.repository.api.FieldType;
@@ -42,8 +44,16 @@ import org.lilyproject.util.repo.VTaggedRecord;
  * construction.
  */
 public class IndexerConf {
+    /**
+     * The number of combinations of table, record type and variant properties for which the specialized
+     * index fields are kept, see {@link #getIndexFields(String, Record)}.
+     */
+    private static final int MAX_CACHED_INDEX_FIELDS = 5000;
+
     private IndexRecordFilter recordFilter;
     private IndexFields indexFields;
+    private final ConcurrentMap<SpecializationKey, IndexFields> specializedIndexFields =
+            new ConcurrentHashMap<SpecializationKey, IndexFields>();
     private List<DynamicIndexField> dynamicFields = new ArrayList<DynamicIndexField>();
     private Set<SchemaId> vtags = new HashSet<SchemaId>();
     private Formatters formatters = new Formatters();
@@ -68,12 +78,33 @@ public class IndexerConf {
         return indexFields;
     }
 
+    /**
+     * Returns the index fields specialized for the record type and variant properties of the given record, see
+     * {@link IndexFields#specialize}. The specialized index fields are computed once for each such combination.
+     *
+     * <p>The specialization doesn't depend on the schema, so it stays valid when the schema changes. When the
+     * configuration changes, a new IndexerConf is built.</p>
+     */
+    public IndexFields getIndexFields(String table, Record record) {
+        SpecializationKey key = new SpecializationKey(table, record);
+        IndexFields result = specializedIndexFields.get(key);
+        if (result == null) {
+            result = indexFields.specialize(key.getTable(), key.getRecordTypeName(), key.getDimensions());
+            if (specializedIndexFields.size() >= MAX_CACHED_INDEX_FIELDS) {
+                specializedIndexFields.clear();
+            }
+            specializedIndexFields.put(key, result);
+        }
+        return result;
+    }
+
     public IndexRecordFilter getRecordFilter() {
         return recordFilter;
     }
 
     public void setIndexFields(IndexFields indexFields) {
         this.indexFields = indexFields;
+        specializedIndexFields.clear();
 
         indexFields.visitAll(new Predicate<MappingNode>() {
             @Override
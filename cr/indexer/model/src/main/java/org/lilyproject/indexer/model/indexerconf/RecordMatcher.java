@@ -76,25 +76,12 @@ public class RecordMatcher {
         QName recordTypeName = record.getRecordTypeName();
         Map<String, String> varProps = record.getId().getVariantProperties();
 
-        // About "recordTypeName == null": normally record type name cannot be null, but it can
-        // be in the case of IndexAwareMQFeeder
-        if (this.recordTypeNamespace != null &&
-                (recordTypeName == null || !this.recordTypeNamespace.lightMatch(recordTypeName.getNamespace()))) {
-            return false;
-        }
-        
-        if (!tableNames.isEmpty() && !tableNames.contains(table)) {
-            return false;
-        }
-
-        if (this.recordTypeName != null
-                && (recordTypeName == null || !this.recordTypeName.lightMatch(recordTypeName.getName()))) {
+        if (!couldMatch(table, recordTypeName, varProps.keySet())) {
             return false;
         }
 
         try {
-            if (this.instanceOfType != null
-                    && (recordTypeName == null || !RecordUtil.instanceOf(record, instanceOfType, typeManager))) {
+            if (this.instanceOfType != null && !RecordUtil.instanceOf(record, instanceOfType, typeManager)) {
                 return false;
             }
         } catch (InterruptedException e) {
@@ -105,21 +92,9 @@ public class RecordMatcher {
         }
 
         if (variantPropsPattern != null) {
-            if (variantPropsPattern.size() != varProps.size() && !variantPropsPattern.containsKey("*")) {
-                return false;
-            }
-
             for (Map.Entry<String, String> entry : variantPropsPattern.entrySet()) {
-                if (entry.getKey().equals("*"))
-                    continue;
-
-                String dimVal = varProps.get(entry.getKey());
-                if (dimVal == null) {
-                    // this record does not have a required variant property
-                    return false;
-                }
-
-                if (entry.getValue() != null && !entry.getValue().equals(dimVal)) {
+                if (entry.getValue() != null && !entry.getKey().equals("*")
+                        && !entry.getValue().equals(varProps.get(entry.getKey()))) {
                     // the variant property does not have the required value
                     return false;
                 }
@@ -140,6 +115,69 @@ public class RecordMatcher {
         return true;
     }
 
+    /**
+     * Evaluates the conditions which only depend on the table, the record type name and the names of the
+     * variant properties of a record. If this returns false, {@link #matches} returns false for all records
+     * having these.
+     *
+     * @param recordTypeName the name of the record type of the record, can be null
+     */
+    public boolean couldMatch(String table, QName recordTypeName, Set<String> variantDimensions) {
+        // About "recordTypeName == null": normally record type name cannot be null, but it can
+        // be in the case of IndexAwareMQFeeder
+        if (this.recordTypeNamespace != null &&
+                (recordTypeName == null || !this.recordTypeNamespace.lightMatch(recordTypeName.getNamespace()))) {
+            return false;
+        }
+
+        if (!tableNames.isEmpty() && !tableNames.contains(table)) {
+            return false;
+        }
+
+        if (this.recordTypeName != null
+                && (recordTypeName == null || !this.recordTypeName.lightMatch(recordTypeName.getName()))) {
+            return false;
+        }
+
+        if (this.instanceOfType != null && recordTypeName == null) {
+            return false;
+        }
+
+        if (variantPropsPattern != null) {
+            if (variantPropsPattern.size() != variantDimensions.size() && !variantPropsPattern.containsKey("*")) {
+                return false;
+            }
+
+            for (String dimension : variantPropsPattern.keySet()) {
+                if (!dimension.equals("*") && !variantDimensions.contains(dimension)) {
+                    // this record does not have a required variant property
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns true if the outcome of {@link #matches} is fully determined by {@link #couldMatch}.
+     */
+    public boolean isDecidedByCouldMatch() {
+        if (instanceOfType != null || fieldType != null) {
+            return false;
+        }
+
+        if (variantPropsPattern != null) {
+            for (Map.Entry<String, String> entry : variantPropsPattern.entrySet()) {
+                if (entry.getValue() != null && !entry.getKey().equals("*")) {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
     public Set<QName> getFieldDependencies() {
         return fieldType != null ? Collections.singleton(fieldType.getName()) : Collections.<QName>emptySet();
     }
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.indexer.model.indexerconf;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.lilyproject.repository.api.QName;
+import org.lilyproject.repository.api.Record;
+import org.lilyproject.util.ObjectUtils;
+
+/**
+ * The properties of a record on which the static part of the record matchers depend, see
+ * {@link RecordMatcher#couldMatch}: the table, the record type name and the names of the variant properties.
+ * Used as key to cache the configuration specialized for such records.
+ */
+public class SpecializationKey {
+    private final String table;
+    private final QName recordTypeName;
+    private final Set<String> dimensions;
+    private final int hashCode;
+
+    public SpecializationKey(String table, QName recordTypeName, Set<String> dimensions) {
+        this.table = table;
+        this.recordTypeName = recordTypeName;
+        // Copy, since the variant properties of a record id are not necessarily immutable
+        this.dimensions = dimensions.isEmpty() ? Collections.<String>emptySet() : new HashSet<String>(dimensions);
+        this.hashCode = 31 * (31 * (table != null ? table.hashCode() : 0)
+                + (recordTypeName != null ? recordTypeName.hashCode() : 0)) + this.dimensions.hashCode();
+    }
+
+    public SpecializationKey(String table, Record record) {
+        this(table, record.getRecordTypeName(), record.getId().getVariantProperties().keySet());
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    /**
+     * @return the record type name, can be null
+     */
+    public QName getRecordTypeName() {
+        return recordTypeName;
+    }
+
+    public Set<String> getDimensions() {
+        return dimensions;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof SpecializationKey)) {
+            return false;
+        }
+        SpecializationKey other = (SpecializationKey)obj;
+        return hashCode == other.hashCode && ObjectUtils.safeEquals(table, other.table)
+                && ObjectUtils.safeEquals(recordTypeName, other.recordTypeName)
+                && dimensions.equals(other.dimensions);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.indexer.model.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.lilyproject.indexer.model.indexerconf.IndexRecordFilter;
+import org.lilyproject.indexer.model.indexerconf.SpecializationKey;
+import org.lilyproject.repository.api.Record;
+
+/**
+ * The record filters of a set of indexes, compiled into a structure to quickly find out to which indexes a
+ * record applies.
+ *
+ * <p>Most conditions of the record filters only depend on the table, the record type and the names of the
+ * variant properties of a record. For each such combination encountered, the record filters are specialized
+ * once (see {@link IndexRecordFilter#specialize}), so that for the following records of that kind, only the
+ * indexes and matchers which can possibly match are evaluated.</p>
+ *
+ * <p>This object is immutable as far as the indexes are concerned: when the index definitions change, a new
+ * one should be created.</p>
+ */
+public class IndexRouting {
+    /**
+     * The number of combinations of table, record type and variant properties for which the specialized
+     * filters are kept. Usually this is far less, the limit avoids unbounded growth in case of very dynamic
+     * variant properties.
+     */
+    private static final int MAX_CACHED_KEYS = 5000;
+
+    private final List<Route> routes;
+
+    private final Set<String> subscriptionIds;
+
+    private final ConcurrentMap<SpecializationKey, List<Route>> specializedRoutes =
+            new ConcurrentHashMap<SpecializationKey, List<Route>>();
+
+    public IndexRouting(Collection<IndexInfo> indexInfos) {
+        List<Route> routes = new ArrayList<Route>(indexInfos.size());
+        Set<String> subscriptionIds = new HashSet<String>();
+        for (IndexInfo indexInfo : indexInfos) {
+            String subscriptionId = indexInfo.getIndexDefinition().getQueueSubscriptionId();
+            // Indexes without subscription don't receive any events, so they don't need to be considered
+            if (subscriptionId != null) {
+                routes.add(new Route(subscriptionId, indexInfo.getIndexerConf().getRecordFilter()));
+                subscriptionIds.add(subscriptionId);
+            }
+        }
+        this.routes = routes;
+        this.subscriptionIds = Collections.unmodifiableSet(subscriptionIds);
+    }
+
+    /**
+     * Returns the queue subscription IDs of all indexes.
+     */
+    public Set<String> getSubscriptionIds() {
+        return subscriptionIds;
+    }
+
+    /**
+     * Adds the queue subscription IDs of the indexes whose record filter includes the record to the given set.
+     */
+    public void collectApplicableSubscriptions(String table, Record record, Set<String> result) {
+        for (Route route : getRoutes(table, record)) {
+            if (!result.contains(route.subscriptionId) && route.filter.getIndexCase(table, record) != null) {
+                result.add(route.subscriptionId);
+            }
+        }
+    }
+
+    private List<Route> getRoutes(String table, Record record) {
+        if (routes.isEmpty()) {
+            return routes;
+        }
+
+        SpecializationKey key = new SpecializationKey(table, record);
+        List<Route> result = specializedRoutes.get(key);
+        if (result == null) {
+            result = new ArrayList<Route>();
+            for (Route route : routes) {
+                IndexRecordFilter filter = route.filter.specialize(key.getTable(), key.getRecordTypeName(),
+                        key.getDimensions());
+                if (filter != null) {
+                    result.add(new Route(route.subscriptionId, filter));
+                }
+            }
+            if (specializedRoutes.size() >= MAX_CACHED_KEYS) {
+                specializedRoutes.clear();
+            }
+            specializedRoutes.put(key, result);
+        }
+        return result;
+    }
+
+    private static class Route {
+        private final String subscriptionId;
+        private final IndexRecordFilter filter;
+
+        Route(String subscriptionId, IndexRecordFilter filter) {
+            this.subscriptionId = subscriptionId;
+            this.filter = filter;
+        }
+    }
+}
@@ -33,4 +33,9 @@ public interface IndexesInfo {
     Set<QName> getRecordFilterFieldDependencies();
 
     boolean getRecordFilterDependsOnRecordType();
+
+    /**
+     * Returns the record filters of all indexes compiled for finding the indexes applicable to a record.
+     */
+    IndexRouting getIndexRouting();
 }
@@ -50,6 +50,7 @@ public class IndexesInfoImpl implements IndexesInfo {
     private Map<String, IndexInfo> indexInfos;
     private Set<QName> recordFilterFieldDependencies;
     private boolean recordFilterDependsOnRecordType;
+    private IndexRouting indexRouting;
 
     private final Listener listener = new Listener();
     private final Log log = LogFactory.getLog(getClass());
@@ -104,6 +105,7 @@ public class IndexesInfoImpl implements IndexesInfo {
         this.indexInfos = newIndexInfos;
         this.recordFilterFieldDependencies = recordFilterFieldDependencies;
         this.recordFilterDependsOnRecordType = recordFilterDependsOnRecordType;
+        this.indexRouting = new IndexRouting(newIndexInfos.values());
     }
 
     /**
@@ -139,6 +141,12 @@ public class IndexesInfoImpl implements IndexesInfo {
         return recordFilterDependsOnRecordType;
     }
 
+    @Override
+    public IndexRouting getIndexRouting() {
+        assureInitialized();
+        return indexRouting;
+    }
+
     private class Listener implements IndexerModelListener {
         @Override
         public void process(IndexerModelEvent event) {
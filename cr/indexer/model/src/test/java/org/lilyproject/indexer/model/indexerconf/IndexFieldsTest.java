@@ -0,0 +1,131 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.indexer.model.indexerconf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.junit.Test;
+import org.lilyproject.repository.api.FieldType;
+import org.lilyproject.repository.api.QName;
+import org.lilyproject.util.repo.SystemFields;
+
+public class IndexFieldsTest {
+    private static final String NS = "ns";
+
+    private static final Set<String> NO_DIMENSIONS = Collections.emptySet();
+
+    @Test
+    public void testRecordTypeMatch() {
+        IndexField common = indexField();
+        IndexField fieldA = indexField();
+        IndexField fieldB = indexField();
+
+        IndexFields indexFields = new IndexFields();
+        indexFields.addChildNode(common);
+        indexFields.addChildNode(matchNode(matcher("TypeA", null, null), fieldA));
+        indexFields.addChildNode(matchNode(matcher("TypeB", null, null), fieldB));
+
+        IndexFields specialized = indexFields.specialize("table", new QName(NS, "TypeA"), NO_DIMENSIONS);
+        assertEquals(2, specialized.getChildren().size());
+        assertSame(common, specialized.getChildren().get(0));
+        // The match node always matches, so it is replaced by its children
+        assertSame(fieldA, specialized.getChildren().get(1));
+
+        specialized = indexFields.specialize("table", new QName(NS, "Other"), NO_DIMENSIONS);
+        assertEquals(1, specialized.getChildren().size());
+        assertSame(common, specialized.getChildren().get(0));
+    }
+
+    @Test
+    public void testUndecidedMatch() {
+        FieldType fieldType = mock(FieldType.class);
+
+        IndexField field = indexField();
+        IndexField nestedField = indexField();
+
+        IndexFields indexFields = new IndexFields();
+        MatchNode matchNode = matchNode(matcher("TypeA", null, fieldType), field);
+        matchNode.addChildNode(matchNode(matcher("TypeB", null, null), nestedField));
+        indexFields.addChildNode(matchNode);
+
+        // The field condition can only be evaluated on the record itself, the nested match node never matches
+        IndexFields specialized = indexFields.specialize("table", new QName(NS, "TypeA"), NO_DIMENSIONS);
+        assertEquals(1, specialized.getChildren().size());
+        MatchNode specializedMatchNode = (MatchNode)specialized.getChildren().get(0);
+        assertSame(matchNode.getRecordMatcher(), specializedMatchNode.getRecordMatcher());
+        assertEquals(1, specializedMatchNode.getChildren().size());
+        assertSame(field, specializedMatchNode.getChildren().get(0));
+    }
+
+    @Test
+    public void testVariantProperties() {
+        IndexField field = indexField();
+
+        IndexFields indexFields = new IndexFields();
+        indexFields.addChildNode(matchNode(matcher(null, ImmutableMap.of("lang", "en"), null), field));
+
+        assertEquals(0, indexFields.specialize("table", new QName(NS, "TypeA"), NO_DIMENSIONS).getChildren().size());
+
+        // The value of the variant property can only be evaluated on the record itself
+        IndexFields specialized = indexFields.specialize("table", new QName(NS, "TypeA"), ImmutableSet.of("lang"));
+        assertEquals(1, specialized.getChildren().size());
+        assertTrue(specialized.getChildren().get(0) instanceof MatchNode);
+    }
+
+    @Test
+    public void testForEachNotSpecialized() {
+        ForEachNode forEachNode = new ForEachNode(mock(SystemFields.class), mock(Follow.class));
+        forEachNode.addChildNode(matchNode(matcher("TypeB", null, null), indexField()));
+
+        IndexFields indexFields = new IndexFields();
+        indexFields.addChildNode(indexField());
+        indexFields.addChildNode(forEachNode);
+
+        // The match nodes in a forEach apply to the followed records
+        IndexFields specialized = indexFields.specialize("table", new QName(NS, "TypeA"), NO_DIMENSIONS);
+        assertEquals(2, specialized.getChildren().size());
+        assertSame(forEachNode, specialized.getChildren().get(1));
+
+        assertTrue(specialized.isVTagInvariant(0));
+        assertFalse(specialized.isVTagInvariant(1));
+    }
+
+    private IndexField indexField() {
+        return new IndexField(null, mock(Value.class));
+    }
+
+    private MatchNode matchNode(RecordMatcher matcher, MappingNode child) {
+        MatchNode matchNode = new MatchNode(matcher);
+        matchNode.addChildNode(child);
+        return matchNode;
+    }
+
+    private RecordMatcher matcher(String recordTypeName, Map<String, String> variantProps, FieldType fieldType) {
+        return new RecordMatcher(null, recordTypeName != null ? new WildcardPattern(recordTypeName) : null, null,
+                fieldType, RecordMatcher.FieldComparator.EQUAL, fieldType != null ? "published" : null,
+                variantProps, null, null);
+    }
+}
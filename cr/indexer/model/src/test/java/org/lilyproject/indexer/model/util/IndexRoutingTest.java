@@ -0,0 +1,165 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.indexer.model.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import org.junit.Test;
+import org.lilyproject.indexer.model.api.IndexDefinition;
+import org.lilyproject.indexer.model.indexerconf.IndexCase;
+import org.lilyproject.indexer.model.indexerconf.IndexRecordFilter;
+import org.lilyproject.indexer.model.indexerconf.IndexerConf;
+import org.lilyproject.indexer.model.indexerconf.RecordMatcher;
+import org.lilyproject.indexer.model.indexerconf.WildcardPattern;
+import org.lilyproject.repository.api.FieldType;
+import org.lilyproject.repository.api.IdGenerator;
+import org.lilyproject.repository.api.QName;
+import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.SchemaId;
+import org.lilyproject.repository.impl.RecordImpl;
+import org.lilyproject.repository.impl.id.IdGeneratorImpl;
+
+public class IndexRoutingTest {
+    private static final String NS = "ns";
+
+    private final IdGenerator idGenerator = new IdGeneratorImpl();
+
+    @Test
+    public void testRecordTypeAndTable() {
+        IndexRecordFilter filterA = new IndexRecordFilter();
+        filterA.addInclude(matcher("TypeA", null, null, null), indexCase());
+
+        IndexRecordFilter filterB = new IndexRecordFilter();
+        filterB.addInclude(matcher("Type*", null, null, Lists.newArrayList("table2")), indexCase());
+
+        IndexRouting routing = new IndexRouting(Lists.newArrayList(indexInfo("A", filterA), indexInfo("B", filterB)));
+
+        assertEquals(ImmutableSet.of("A", "B"), routing.getSubscriptionIds());
+        assertEquals(ImmutableSet.of("A"), applicable(routing, "table1", record("TypeA", null)));
+        assertEquals(ImmutableSet.of("A", "B"), applicable(routing, "table2", record("TypeA", null)));
+        assertEquals(ImmutableSet.of("B"), applicable(routing, "table2", record("TypeB", null)));
+        assertEquals(Collections.<String>emptySet(), applicable(routing, "table1", record("Other", null)));
+        // Same kind of record again, now answered from the specialized filters
+        assertEquals(ImmutableSet.of("A"), applicable(routing, "table1", record("TypeA", null)));
+    }
+
+    @Test
+    public void testExcludes() {
+        IndexRecordFilter filter = new IndexRecordFilter();
+        filter.addExclude(matcher("TypeA", ImmutableMap.<String, String>of("lang", "en"), null, null));
+        filter.addExclude(matcher("TypeB", null, null, null));
+        filter.addInclude(matcher(null, null, null, null), indexCase());
+
+        IndexRouting routing = new IndexRouting(Lists.newArrayList(indexInfo("A", filter)));
+
+        assertEquals(ImmutableSet.of("A"), applicable(routing, "table", record("TypeA", null)));
+        assertEquals(ImmutableSet.of("A"),
+                applicable(routing, "table", record("TypeA", ImmutableMap.of("lang", "nl"))));
+        assertEquals(Collections.<String>emptySet(),
+                applicable(routing, "table", record("TypeA", ImmutableMap.of("lang", "en"))));
+        assertEquals(Collections.<String>emptySet(), applicable(routing, "table", record("TypeB", null)));
+        assertEquals(ImmutableSet.of("A"), applicable(routing, "table", record("TypeC", null)));
+    }
+
+    @Test
+    public void testFieldCondition() {
+        FieldType fieldType = mock(FieldType.class);
+        when(fieldType.getName()).thenReturn(new QName(NS, "status"));
+
+        IndexRecordFilter filter = new IndexRecordFilter();
+        filter.addInclude(matcher("TypeA", null, fieldType, null), indexCase());
+
+        IndexRouting routing = new IndexRouting(Lists.newArrayList(indexInfo("A", filter)));
+
+        Record record = record("TypeA", null);
+        assertEquals(Collections.<String>emptySet(), applicable(routing, "table", record));
+        record.setField(new QName(NS, "status"), "published");
+        assertEquals(ImmutableSet.of("A"), applicable(routing, "table", record));
+        record.setField(new QName(NS, "status"), "draft");
+        assertEquals(Collections.<String>emptySet(), applicable(routing, "table", record));
+    }
+
+    @Test
+    public void testVariantProperties() {
+        IndexRecordFilter filter = new IndexRecordFilter();
+        Map<String, String> variantProps = new HashMap<String, String>();
+        variantProps.put("lang", null);
+        filter.addInclude(matcher(null, variantProps, null, null), indexCase());
+
+        IndexRouting routing = new IndexRouting(Lists.newArrayList(indexInfo("A", filter)));
+
+        assertEquals(Collections.<String>emptySet(), applicable(routing, "table", record("TypeA", null)));
+        assertEquals(ImmutableSet.of("A"),
+                applicable(routing, "table", record("TypeA", ImmutableMap.of("lang", "en"))));
+        assertEquals(Collections.<String>emptySet(),
+                applicable(routing, "table", record("TypeA", ImmutableMap.of("lang", "en", "branch", "b1"))));
+    }
+
+    @Test
+    public void testIndexWithoutSubscription() {
+        IndexRecordFilter filter = new IndexRecordFilter();
+        filter.addInclude(matcher(null, null, null, null), indexCase());
+
+        IndexRouting routing = new IndexRouting(Lists.newArrayList(indexInfo(null, filter)));
+
+        assertEquals(Collections.<String>emptySet(), routing.getSubscriptionIds());
+        assertEquals(Collections.<String>emptySet(), applicable(routing, "table", record("TypeA", null)));
+    }
+
+    private Set<String> applicable(IndexRouting routing, String table, Record record) {
+        Set<String> result = new HashSet<String>();
+        routing.collectApplicableSubscriptions(table, record, result);
+        return result;
+    }
+
+    private RecordMatcher matcher(String recordTypeName, Map<String, String> variantProps, FieldType fieldType,
+            List<String> tables) {
+        return new RecordMatcher(null, recordTypeName != null ? new WildcardPattern(recordTypeName) : null, null,
+                fieldType, RecordMatcher.FieldComparator.EQUAL, fieldType != null ? "published" : null,
+                variantProps, tables, null);
+    }
+
+    private IndexCase indexCase() {
+        return new IndexCase(Collections.<SchemaId>emptySet());
+    }
+
+    private Record record(String recordTypeName, Map<String, String> variantProps) {
+        Record record = new RecordImpl(variantProps != null ? idGenerator.newRecordId(variantProps) :
+                idGenerator.newRecordId());
+        record.setRecordType(new QName(NS, recordTypeName));
+        return record;
+    }
+
+    private IndexInfo indexInfo(String subscriptionId, IndexRecordFilter filter) {
+        IndexDefinition indexDefinition = mock(IndexDefinition.class);
+        when(indexDefinition.getQueueSubscriptionId()).thenReturn(subscriptionId);
+        IndexerConf indexerConf = mock(IndexerConf.class);
+        when(indexerConf.getRecordFilter()).thenReturn(filter);
+        return new IndexInfo(indexDefinition, indexerConf);
+    }
+}
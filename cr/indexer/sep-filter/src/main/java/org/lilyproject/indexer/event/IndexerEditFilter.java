@@ -32,7 +32,8 @@ import org.lilyproject.util.repo.RecordEvent.IndexRecordFilterData;
 
 /**
  * Filter for SEP events that removes all KeyValues from WALEdits that are not applicable to the configured index
- * subscription.
+ * subscription. For the subscription shared by several indexes, only the KeyValues that are not applicable to
+ * any index are removed.
  */
 class IndexerEditFilter implements WALEditFilter {
 
@@ -42,6 +43,11 @@ class IndexerEditFilter implements WALEditFilter {
      */
     public static final String NO_INDEX_FLAG = "lily.mq";
 
+    /**
+     * Name of the SEP subscription shared by indexes, should correspond to IndexDefinition.SHARED_SUBSCRIPTION_ID.
+     */
+    public static final String SHARED_SUBSCRIPTION_NAME = "IndexUpdaterShared";
+
     private final IdGenerator idGenerator = new IdGeneratorImpl();
     private final Log log = LogFactory.getLog(getClass());
     private final String subscriptionName;
@@ -80,6 +86,11 @@ class IndexerEditFilter implements WALEditFilter {
             }
             IndexRecordFilterData indexRecordFilterData = recordEvent.getIndexRecordFilterData();
             if (indexRecordFilterData != null) {
+                if (SHARED_SUBSCRIPTION_NAME.equals(subscriptionName)) {
+                    // Which indexes use the shared subscription is not known here, the IndexerWorker dispatches
+                    // the events to the applicable ones
+                    return indexRecordFilterData.appliesToAnySubscription();
+                }
                 return indexRecordFilterData.appliesToSubscription(subscriptionName);
             } else {
                 log.warn("No IndexRecordFilterData on " + recordEvent.toJson());
@@ -27,7 +27,8 @@ public class IndexerEditFilterProvider implements WALEditFilterProvider {
 
     @Override
     public WALEditFilter getWALEditFilter(String subscriptionId) {
-        if (subscriptionId.startsWith("IndexUpdater_")) {
+        if (subscriptionId.startsWith("IndexUpdater_")
+                || IndexerEditFilter.SHARED_SUBSCRIPTION_NAME.equals(subscriptionId)) {
             return new IndexerEditFilter(subscriptionId);
         } else if ("LinkIndexUpdater".equals(subscriptionId)) {
             return new LinkIndexUpdaterEditFilter();
@@ -39,6 +39,13 @@ public class IndexerEditFilterProviderTest {
         assertEquals(subscriptionName, editFilter.getSubscriptionName());
     }
     
+    @Test
+    public void testGetWALEditFilter_SharedSubscription() {
+        String subscriptionName = "IndexUpdaterShared";
+        IndexerEditFilter editFilter = (IndexerEditFilter)filterProvider.getWALEditFilter(subscriptionName);
+        assertEquals(subscriptionName, editFilter.getSubscriptionName());
+    }
+
     @Test
     public void testGetWALEditFilter_LinkIndexUpdater() {
         String subscriptionName = "LinkIndexUpdater";
@@ -99,6 +99,42 @@ public class IndexerEditFilterTest {
         assertEquals(0, walEdit.size());
     }
 
+    @Test
+    public void testApply_SharedSubscription() {
+        IndexerEditFilter sharedEditFilter = new IndexerEditFilter(IndexerEditFilter.SHARED_SUBSCRIPTION_NAME);
+
+        RecordEvent recordEvent = new RecordEvent();
+        IndexRecordFilterData filterData = new IndexRecordFilterData();
+        filterData.setSubscriptionInclusions(ImmutableSet.of("SomeIndexName"));
+        recordEvent.setIndexRecordFilterData(filterData);
+
+        WALEdit walEdit = new WALEdit();
+        walEdit.add(new KeyValue(Bytes.toBytes("row"), RecordCf.DATA.bytes, RecordColumn.PAYLOAD.bytes,
+                recordEvent.toJsonBytes()));
+
+        sharedEditFilter.apply(walEdit);
+
+        assertEquals(1, walEdit.size());
+    }
+
+    @Test
+    public void testApply_SharedSubscription_NoApplicableIndex() {
+        IndexerEditFilter sharedEditFilter = new IndexerEditFilter(IndexerEditFilter.SHARED_SUBSCRIPTION_NAME);
+
+        RecordEvent recordEvent = new RecordEvent();
+        IndexRecordFilterData filterData = new IndexRecordFilterData();
+        filterData.setSubscriptionExclusions(IndexRecordFilterData.ALL_INDEX_SUBSCRIPTIONS);
+        recordEvent.setIndexRecordFilterData(filterData);
+
+        WALEdit walEdit = new WALEdit();
+        walEdit.add(new KeyValue(Bytes.toBytes("row"), RecordCf.DATA.bytes, RecordColumn.PAYLOAD.bytes,
+                recordEvent.toJsonBytes()));
+
+        sharedEditFilter.apply(walEdit);
+
+        assertEquals(0, walEdit.size());
+    }
+
     @Test
     public void testApply_NonJsonPayload() {
 
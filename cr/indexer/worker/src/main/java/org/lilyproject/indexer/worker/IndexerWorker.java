@@ -28,6 +28,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
@@ -42,6 +43,7 @@ import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
 import org.apache.zookeeper.KeeperException;
 import org.lilyproject.indexer.derefmap.DerefMap;
 import org.lilyproject.indexer.derefmap.DerefMapHbaseImpl;
+import org.lilyproject.indexer.derefmap.DerefMapMetrics;
 import org.lilyproject.indexer.engine.ClassicSolrShardManager;
 import org.lilyproject.indexer.engine.CloudSolrShardManager;
 import org.lilyproject.indexer.engine.IndexLocker;
@@ -51,6 +53,7 @@ import org.lilyproject.indexer.engine.Indexer;
 import org.lilyproject.indexer.engine.IndexerMetrics;
 import org.lilyproject.indexer.engine.IndexerRegistry;
 import org.lilyproject.indexer.engine.SolrClientConfig;
+import org.lilyproject.indexer.engine.SolrDocumentFingerprints;
 import org.lilyproject.indexer.engine.SolrShardManager;
 import org.lilyproject.indexer.model.api.IndexDefinition;
 import org.lilyproject.indexer.model.api.IndexNotFoundException;
@@ -83,6 +86,15 @@ import org.lilyproject.util.zookeeper.ZooKeeperItf;
  * period of time, the Lily node will shut down, and that it should not cause harm that
  * the index updaters continue to run according to a possibly outdated configuration, since
  * after all one can not expect these things to change momentarily.
+ *
+ * <p>Indexes which have {@link IndexDefinition#isSharedSubscription()} enabled don't get a SEP consumer
+ * of their own, their index updaters are registered with the {@link SharedSubscriptionDispatcher} which
+ * listens to the shared subscription. The consumer of the shared subscription only runs as long as there
+ * are such indexes.
+ *
+ * <p>When {@link IndexerWorkerSettings#getAdaptiveListeners()} is enabled, the number of listeners of the SEP
+ * consumer of each index is periodically adjusted according to a {@link ListenerScalingPolicy}. Since the number
+ * of threads of a SEP consumer can't be changed, the consumer is restarted for this.
  */
 public class IndexerWorker {
     private final IndexerModel indexerModel;
@@ -119,6 +131,13 @@ public class IndexerWorker {
 
     private HBaseTableFactory tableFactory;
 
+    private SharedSubscriptionDispatcher sharedDispatcher;
+
+    private SepConsumer sharedSepConsumer;
+
+    /** Null in case the number of listeners is not adaptive. */
+    private final ListenerScalingPolicy scalingPolicy;
+
     private final Log log = LogFactory.getLog(getClass());
 
     public IndexerWorker(IndexerModel indexerModel, RepositoryManager repositoryManager, ZooKeeperItf zk, Configuration hbaseConf,
@@ -134,6 +153,10 @@ public class IndexerWorker {
         this.hostName = hostName;
         this.indexerRegistry = indexerRegistry;
         this.tableFactory = tableFactory;
+        this.sharedDispatcher = new SharedSubscriptionDispatcher(repositoryManager.getIdGenerator());
+        this.scalingPolicy = settings.getAdaptiveListeners() ? new ListenerScalingPolicy(
+                settings.getMinListenersPerIndex(), settings.getMaxListenersPerIndex(),
+                settings.getListenerScaleUpLag()) : null;
     }
 
     @PostConstruct
@@ -193,14 +216,21 @@ public class IndexerWorker {
 
             // Create a deref map in case the indexer configuration contains deref fields and the index definition says
             // we should maintain a deref map.
-            DerefMap derefMap = index.isEnableDerefMap() && indexerConf.containsDerefExpressions() ?
-                    DerefMapHbaseImpl.create(index.getName(), hbaseConf, tableFactory,
-                            repositoryManager.getIdGenerator()) : null;
+            DerefMapMetrics derefMapMetrics = null;
+            DerefMap derefMap = null;
+            if (index.isEnableDerefMap() && indexerConf.containsDerefExpressions()) {
+                derefMapMetrics = new DerefMapMetrics(index.getName());
+                derefMap = DerefMapHbaseImpl.create(index.getName(), hbaseConf, tableFactory,
+                        repositoryManager.getIdGenerator(), derefMapMetrics);
+            }
+
+            SolrDocumentFingerprints fingerprints = index.isEnableFingerprints() ?
+                    SolrDocumentFingerprints.create(index.getName(), hbaseConf, tableFactory) : null;
 
             // create and register the indexer
             Indexer indexer = new Indexer(index.getName(), indexerConf,
                     repositoryManager, solrShardMgr, indexLocker, indexerMetrics,
-                    derefMap);
+                    derefMap, fingerprints);
             indexerRegistry.register(indexer);
 
             IndexUpdaterMetrics updaterMetrics = new IndexUpdaterMetrics(index.getName());
@@ -209,10 +239,16 @@ public class IndexerWorker {
                             repositoryManager, indexLocker, updaterMetrics, derefMap,
                             eventPublisherManager, index.getQueueSubscriptionId());
 
-            SepConsumer sepConsumer = new SepConsumer(index.getQueueSubscriptionId(),
-                    index.getSubscriptionTimestamp(), indexUpdater, settings.getListenersPerIndex(), hostName,
-                    new ZooKeeperItfAdapter(zk), hbaseConf, new LilyPayloadExtractor());
-            handle = new IndexUpdaterHandle(index, sepConsumer, solrShardMgr, indexerMetrics, updaterMetrics);
+            SepConsumer sepConsumer = null;
+            int listeners = settings.getListenersForSharedSubscription();
+            if (!index.isSharedSubscription()) {
+                listeners = scalingPolicy != null ? scalingPolicy.bound(settings.getListenersPerIndex()) :
+                        settings.getListenersPerIndex();
+                sepConsumer = createSepConsumer(index, indexUpdater, listeners);
+            }
+            updaterMetrics.listeners.set(listeners);
+            handle = new IndexUpdaterHandle(index, indexUpdater, sepConsumer, listeners, solrShardMgr,
+                    indexerMetrics, updaterMetrics, derefMapMetrics);
             handle.start();
 
             indexUpdaters.put(index.getName(), handle);
@@ -240,6 +276,51 @@ public class IndexerWorker {
         }
     }
 
+    private SepConsumer createSepConsumer(IndexDefinition index, IndexUpdater indexUpdater, int listeners)
+            throws IOException, InterruptedException {
+        return new SepConsumer(index.getQueueSubscriptionId(), index.getSubscriptionTimestamp(), indexUpdater,
+                listeners, hostName, new ZooKeeperItfAdapter(zk), hbaseConf, new LilyPayloadExtractor());
+    }
+
+    private void scaleListeners() {
+        for (IndexUpdaterHandle handle : indexUpdaters.values()) {
+            if (handle.indexDef.isSharedSubscription()) {
+                continue;
+            }
+            try {
+                handle.scaleListeners();
+            } catch (Throwable t) {
+                if (t instanceof InterruptedException) {
+                    Thread.currentThread().interrupt();
+                }
+                log.error("Problem changing the number of listeners for index " + handle.indexDef.getName(), t);
+            }
+        }
+    }
+
+    private void registerWithSharedSubscription(IndexDefinition index, IndexUpdater indexUpdater)
+            throws InterruptedException, KeeperException, IOException {
+        sharedDispatcher.register(index.getQueueSubscriptionId(), index.getSubscriptionTimestamp(), indexUpdater);
+        if (sharedSepConsumer == null) {
+            // The shared subscription is consumed since its creation, the dispatcher takes care of the
+            // subscription timestamps of the individual indexes
+            sharedSepConsumer = new SepConsumer(IndexDefinition.SHARED_SUBSCRIPTION_ID, 0L, sharedDispatcher,
+                    settings.getListenersForSharedSubscription(), hostName, new ZooKeeperItfAdapter(zk), hbaseConf,
+                    new LilyPayloadExtractor());
+            sharedSepConsumer.start();
+            log.info("Started consumer of the shared subscription");
+        }
+    }
+
+    private void unregisterFromSharedSubscription(IndexDefinition index) {
+        sharedDispatcher.unregister(index.getQueueSubscriptionId());
+        if (sharedDispatcher.isEmpty() && sharedSepConsumer != null) {
+            Closer.close(sharedSepConsumer);
+            sharedSepConsumer = null;
+            log.info("Stopped consumer of the shared subscription");
+        }
+    }
+
     private SolrShardManager getSolrShardManager(IndexDefinition index) throws Exception {
         if (index.getSolrShards().isEmpty()) {
             return new CloudSolrShardManager(index.getName(), index.getZkConnectionString(), index.getSolrCollection(),
@@ -277,7 +358,9 @@ public class IndexerWorker {
         boolean relevantChanges = !Arrays.equals(handle.indexDef.getConfiguration(), index.getConfiguration()) ||
                 !handle.indexDef.getSolrShards().equals(index.getSolrShards()) ||
                 !ObjectUtils.safeEquals(handle.indexDef.getShardingConfiguration(), index.getShardingConfiguration()) ||
-                handle.indexDef.isEnableDerefMap() != index.isEnableDerefMap();
+                handle.indexDef.isEnableDerefMap() != index.isEnableDerefMap() ||
+                handle.indexDef.isEnableFingerprints() != index.isEnableFingerprints() ||
+                handle.indexDef.isSharedSubscription() != index.isSharedSubscription();
 
         if (!relevantChanges) {
             return;
@@ -330,36 +413,94 @@ public class IndexerWorker {
 
     private class IndexUpdaterHandle {
         private final IndexDefinition indexDef;
-        private final SepConsumer sepConsumer;
+        private final IndexUpdater indexUpdater;
+        /** Null in case the index uses the shared subscription. */
+        private SepConsumer sepConsumer;
+        private int listeners;
         private final SolrShardManager solrShardMgr;
         private final IndexerMetrics indexerMetrics;
         private final IndexUpdaterMetrics updaterMetrics;
-
-        public IndexUpdaterHandle(IndexDefinition indexDef, SepConsumer sepEventSlave,
-                                  SolrShardManager solrShardMgr, IndexerMetrics indexerMetrics,
-                                  IndexUpdaterMetrics updaterMetrics) {
+        /** Null in case the index has no deref map. */
+        private final DerefMapMetrics derefMapMetrics;
+        /** Values of the updater metrics at the previous scaling check. */
+        private long lastEventsOut;
+        private long lastFailedEvents;
+
+        public IndexUpdaterHandle(IndexDefinition indexDef, IndexUpdater indexUpdater, SepConsumer sepEventSlave,
+                                  int listeners, SolrShardManager solrShardMgr, IndexerMetrics indexerMetrics,
+                                  IndexUpdaterMetrics updaterMetrics, DerefMapMetrics derefMapMetrics) {
             this.indexDef = indexDef;
+            this.indexUpdater = indexUpdater;
             this.sepConsumer = sepEventSlave;
+            this.listeners = listeners;
             this.solrShardMgr = solrShardMgr;
             this.indexerMetrics = indexerMetrics;
             this.updaterMetrics = updaterMetrics;
+            this.derefMapMetrics = derefMapMetrics;
         }
 
         public void start() throws InterruptedException, KeeperException, IOException {
-            sepConsumer.start();
+            if (sepConsumer != null) {
+                sepConsumer.start();
+            } else {
+                registerWithSharedSubscription(indexDef, indexUpdater);
+            }
         }
 
-        public void stop() throws InterruptedException {
+        /**
+         * Restarts the SEP consumer with another number of listeners, if the scaling policy says so.
+         */
+        public void scaleListeners() throws InterruptedException, KeeperException, IOException {
+            long eventsOut = updaterMetrics.getEventsOut();
+            long failedEvents = updaterMetrics.getFailedEvents();
+            long lag = updaterMetrics.getLag();
+            int newListeners = scalingPolicy.getListeners(listeners, lag, eventsOut - lastEventsOut,
+                    failedEvents - lastFailedEvents);
+            lastEventsOut = eventsOut;
+            lastFailedEvents = failedEvents;
+
+            if (newListeners == listeners) {
+                return;
+            }
+
+            log.info("Changing number of listeners for index " + indexDef.getName() + " from " + listeners + " to "
+                    + newListeners + ", lag is " + lag + " ms");
+            // The new consumer is started before the old one is closed, so that if it fails to start, the old one
+            // just keeps running. Both consume the subscription for a moment, which is harmless.
+            SepConsumer newSepConsumer = createSepConsumer(indexDef, indexUpdater, newListeners);
+            boolean started = false;
+            try {
+                newSepConsumer.start();
+                started = true;
+            } finally {
+                if (!started) {
+                    Closer.close(newSepConsumer);
+                }
+            }
             Closer.close(sepConsumer);
+            sepConsumer = newSepConsumer;
+            listeners = newListeners;
+            updaterMetrics.listeners.set(listeners);
+        }
+
+        public void stop() throws InterruptedException {
+            if (sepConsumer != null) {
+                Closer.close(sepConsumer);
+            } else {
+                unregisterFromSharedSubscription(indexDef);
+            }
             Closer.close(solrShardMgr);
             Closer.close(indexerMetrics);
             Closer.close(updaterMetrics);
+            Closer.close(derefMapMetrics);
         }
     }
 
     private class EventWorker implements Runnable {
         private volatile boolean stop = false;
 
+        private long nextListenerCheck;
+
         public void stop() {
             stop = true;
         }
@@ -377,8 +518,10 @@ public class IndexerWorker {
                         log.warn("EventWorker queue getting large, size = " + queueSize);
                     }
 
-                    IndexerModelEvent event = eventQueue.take();
-                    if (event.getType() == INDEX_ADDED || event.getType() == INDEX_UPDATED) {
+                    IndexerModelEvent event = takeEvent();
+                    if (event == null) {
+                        scaleListeners();
+                    } else if (event.getType() == INDEX_ADDED || event.getType() == INDEX_UPDATED) {
                         try {
                             IndexDefinition index = indexerModel.getIndex(event.getIndexName());
                             if (shouldRunIndexUpdater(index)) {
@@ -406,5 +549,28 @@ public class IndexerWorker {
                 }
             }
         }
+
+        /**
+         * Returns the next indexer model event, or null when it is time to reconsider the number of listeners.
+         * The scaling is done by this thread since it is the one which manages the index updaters.
+         */
+        private IndexerModelEvent takeEvent() throws InterruptedException {
+            if (scalingPolicy == null) {
+                return eventQueue.take();
+            }
+
+            long now = System.currentTimeMillis();
+            if (nextListenerCheck == 0) {
+                nextListenerCheck = now + settings.getListenerCheckInterval();
+            }
+            IndexerModelEvent event = null;
+            if (now < nextListenerCheck) {
+                event = eventQueue.poll(nextListenerCheck - now, TimeUnit.MILLISECONDS);
+            }
+            if (event == null) {
+                nextListenerCheck = System.currentTimeMillis() + settings.getListenerCheckInterval();
+            }
+            return event;
+        }
     }
 }
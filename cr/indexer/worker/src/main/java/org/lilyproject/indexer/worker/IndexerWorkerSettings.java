@@ -17,9 +17,15 @@ package org.lilyproject.indexer.worker;
 
 public class IndexerWorkerSettings {
     private int listenersPerIndex = 10;
+    private int listenersForSharedSubscription = 10;
     private boolean enableLocking = false;
     private int solrMaxTotalConnections = 200;
     private int solrMaxConnectionsPerHost = 50;
+    private boolean adaptiveListeners = false;
+    private int minListenersPerIndex = 5;
+    private int maxListenersPerIndex = 100;
+    private long listenerScaleUpLag = 60000L;
+    private long listenerCheckInterval = 60000L;
 
     public int getListenersPerIndex() {
         return listenersPerIndex;
@@ -29,6 +35,14 @@ public class IndexerWorkerSettings {
         this.listenersPerIndex = listenersPerIndex;
     }
 
+    public int getListenersForSharedSubscription() {
+        return listenersForSharedSubscription;
+    }
+
+    public void setListenersForSharedSubscription(int listenersForSharedSubscription) {
+        this.listenersForSharedSubscription = listenersForSharedSubscription;
+    }
+
     public boolean getEnableLocking() {
         return enableLocking;
     }
@@ -52,4 +66,54 @@ public class IndexerWorkerSettings {
     public void setSolrMaxConnectionsPerHost(int solrMaxConnectionsPerHost) {
         this.solrMaxConnectionsPerHost = solrMaxConnectionsPerHost;
     }
+
+    /**
+     * When enabled, the number of listeners of each index is adjusted between {@link #getMinListenersPerIndex()}
+     * and {@link #getMaxListenersPerIndex()}, starting from {@link #getListenersPerIndex()}.
+     */
+    public boolean getAdaptiveListeners() {
+        return adaptiveListeners;
+    }
+
+    public void setAdaptiveListeners(boolean adaptiveListeners) {
+        this.adaptiveListeners = adaptiveListeners;
+    }
+
+    public int getMinListenersPerIndex() {
+        return minListenersPerIndex;
+    }
+
+    public void setMinListenersPerIndex(int minListenersPerIndex) {
+        this.minListenersPerIndex = minListenersPerIndex;
+    }
+
+    public int getMaxListenersPerIndex() {
+        return maxListenersPerIndex;
+    }
+
+    public void setMaxListenersPerIndex(int maxListenersPerIndex) {
+        this.maxListenersPerIndex = maxListenersPerIndex;
+    }
+
+    /**
+     * The lag (in ms) above which the number of listeners of an index is increased.
+     */
+    public long getListenerScaleUpLag() {
+        return listenerScaleUpLag;
+    }
+
+    public void setListenerScaleUpLag(long listenerScaleUpLag) {
+        this.listenerScaleUpLag = listenerScaleUpLag;
+    }
+
+    /**
+     * Interval (in ms) at which the number of listeners is reconsidered.
+     */
+    public long getListenerCheckInterval() {
+        return listenerCheckInterval;
+    }
+
+    public void setListenerCheckInterval(long listenerCheckInterval) {
+        this.listenerCheckInterval = listenerCheckInterval;
+    }
 }
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.indexer.worker;
+
+/**
+ * Decides on the number of SEP listeners of an index, based on what happened during the last check interval.
+ *
+ * <ul>
+ *     <li>When a considerable part of the events failed, this is usually because Solr or HBase can't keep up,
+ *     so the number of listeners is halved.</li>
+ *     <li>When the index is lagging behind, the number of listeners is doubled.</li>
+ *     <li>When the lag is low, the number of listeners is gradually decreased.</li>
+ * </ul>
+ */
+class ListenerScalingPolicy {
+    /** Failure percentage of the events above which the number of listeners is decreased. */
+    static final int MAX_FAILURE_PCT = 10;
+
+    private final int minListeners;
+    private final int maxListeners;
+    private final long scaleUpLag;
+
+    ListenerScalingPolicy(int minListeners, int maxListeners, long scaleUpLag) {
+        if (minListeners < 1 || maxListeners < minListeners) {
+            throw new IllegalArgumentException("Invalid listener bounds: min " + minListeners + ", max "
+                    + maxListeners);
+        }
+        this.minListeners = minListeners;
+        this.maxListeners = maxListeners;
+        this.scaleUpLag = scaleUpLag;
+    }
+
+    /**
+     * Brings a number of listeners within the configured bounds.
+     */
+    int bound(int listeners) {
+        return Math.max(minListeners, Math.min(maxListeners, listeners));
+    }
+
+    /**
+     * @param lag the current lag of the index, in ms
+     * @param events the number of events processed during the last interval
+     * @param failedEvents the number of events which failed during the last interval
+     */
+    int getListeners(int current, long lag, long events, long failedEvents) {
+        if (failedEvents > 0 && failedEvents * 100 >= events * MAX_FAILURE_PCT) {
+            return bound(current / 2);
+        } else if (lag > scaleUpLag) {
+            return bound(current * 2);
+        } else if (lag < scaleUpLag / 4) {
+            return bound(current - Math.max(1, current / 4));
+        } else {
+            return bound(current);
+        }
+    }
+}
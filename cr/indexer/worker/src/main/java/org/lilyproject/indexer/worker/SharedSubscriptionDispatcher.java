@@ -0,0 +1,201 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.indexer.worker;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.ngdata.sep.EventListener;
+import com.ngdata.sep.SepEvent;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.lilyproject.indexer.engine.IndexUpdater;
+import org.lilyproject.repository.api.IdGenerator;
+import org.lilyproject.util.repo.RecordEvent;
+import org.lilyproject.util.repo.RecordEvent.IndexRecordFilterData;
+
+/**
+ * Listener on the SEP subscription which is shared by several indexes. Each event is parsed only once and then
+ * passed on to the index updaters of the indexes to which it applies, which is determined based on the
+ * {@link IndexRecordFilterData} of the event, just like the SEP filter does for indexes that have their own
+ * subscription.
+ *
+ * <p>A failure of one index updater does not prevent the others from processing the event. The failure is
+ * counted in the metrics of its index by the index updater itself, and the event is then handed back to the SEP
+ * to be retried. The indexes which did process the event remember that, so that the retry is only done for the
+ * failing indexes.</p>
+ */
+class SharedSubscriptionDispatcher implements EventListener {
+    /**
+     * The number of events each index remembers as processed while another index failed on them. This only needs
+     * to cover the events which the SEP retries, older ones are processed again, which is harmless.
+     */
+    private static final int MAX_REMEMBERED_EVENTS = 10000;
+
+    private final IdGenerator idGenerator;
+
+    /**
+     * The registered index updaters, by queue subscription ID of their index. This map is never modified but
+     * replaced, so that it can be iterated without locking while processing events.
+     */
+    private volatile Map<String, Registration> registrations = Collections.emptyMap();
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    public SharedSubscriptionDispatcher(IdGenerator idGenerator) {
+        this.idGenerator = idGenerator;
+    }
+
+    /**
+     * @param subscriptionId the queue subscription ID of the index
+     * @param subscriptionTimestamp events older than this timestamp are not passed to the index updater
+     */
+    public synchronized void register(String subscriptionId, long subscriptionTimestamp, IndexUpdater indexUpdater) {
+        Map<String, Registration> newRegistrations = new HashMap<String, Registration>(registrations);
+        newRegistrations.put(subscriptionId, new Registration(subscriptionTimestamp, indexUpdater));
+        registrations = newRegistrations;
+    }
+
+    public synchronized void unregister(String subscriptionId) {
+        Map<String, Registration> newRegistrations = new HashMap<String, Registration>(registrations);
+        newRegistrations.remove(subscriptionId);
+        registrations = newRegistrations;
+    }
+
+    public boolean isEmpty() {
+        return registrations.isEmpty();
+    }
+
+    @Override
+    public void processEvent(SepEvent event) {
+        byte[] payload = event.getPayload();
+        if (payload == null) {
+            log.warn("Ignoring SepEvent with empty payload: " + event);
+            return;
+        }
+
+        RecordEvent recordEvent;
+        try {
+            recordEvent = new RecordEvent(payload, idGenerator);
+        } catch (IOException e) {
+            log.error("Failure in shared subscription. Failed while reading payload: " + e);
+            // We throw the exception through so that it will be retried by the SEP
+            throw new RuntimeException(e);
+        }
+
+        IndexRecordFilterData filterData = recordEvent.getIndexRecordFilterData();
+        // Events without KeyValues can't be dated, they are passed to every index
+        long eventTimestamp = IndexUpdater.getEventTimestamp(event, Long.MAX_VALUE);
+
+        EventKey eventKey = new EventKey(event, eventTimestamp);
+        List<Registration> processed = new ArrayList<Registration>();
+        RuntimeException failure = null;
+        for (Map.Entry<String, Registration> entry : registrations.entrySet()) {
+            Registration registration = entry.getValue();
+            if (filterData != null && !filterData.appliesToSubscription(entry.getKey())) {
+                continue;
+            }
+            if (eventTimestamp < registration.subscriptionTimestamp) {
+                continue;
+            }
+            if (registration.isProcessed(eventKey)) {
+                // A retry of an event on which another index failed
+                continue;
+            }
+
+            try {
+                registration.indexUpdater.processEvent(event, recordEvent);
+                processed.add(registration);
+            } catch (RuntimeException e) {
+                // Already logged and counted by the index updater, let the other indexes go on
+                failure = e;
+            }
+        }
+
+        if (failure != null) {
+            for (Registration registration : processed) {
+                registration.markProcessed(eventKey);
+            }
+            throw failure;
+        }
+    }
+
+    private static class Registration {
+        private final long subscriptionTimestamp;
+        private final IndexUpdater indexUpdater;
+        private final Map<EventKey, Boolean> processedEvents = new LinkedHashMap<EventKey, Boolean>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<EventKey, Boolean> eldest) {
+                return size() > MAX_REMEMBERED_EVENTS;
+            }
+        };
+
+        Registration(long subscriptionTimestamp, IndexUpdater indexUpdater) {
+            this.subscriptionTimestamp = subscriptionTimestamp;
+            this.indexUpdater = indexUpdater;
+        }
+
+        synchronized boolean isProcessed(EventKey eventKey) {
+            return !processedEvents.isEmpty() && processedEvents.containsKey(eventKey);
+        }
+
+        synchronized void markProcessed(EventKey eventKey) {
+            processedEvents.put(eventKey, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Identifies an event across retries by the SEP, which deliver the same row, timestamp and payload again.
+     */
+    private static class EventKey {
+        private final byte[] row;
+        private final long timestamp;
+        private final byte[] payload;
+        private final int hashCode;
+
+        EventKey(SepEvent event, long timestamp) {
+            this.row = event.getRow();
+            this.timestamp = timestamp;
+            this.payload = event.getPayload();
+            this.hashCode = 31 * (31 * Arrays.hashCode(row) + (int)(timestamp ^ (timestamp >>> 32)))
+                    + Arrays.hashCode(payload);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof EventKey)) {
+                return false;
+            }
+            EventKey other = (EventKey)obj;
+            return timestamp == other.timestamp && Arrays.equals(row, other.row)
+                    && Arrays.equals(payload, other.payload);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
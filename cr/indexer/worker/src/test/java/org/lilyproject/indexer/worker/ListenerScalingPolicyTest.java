@@ -0,0 +1,64 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.indexer.worker;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class ListenerScalingPolicyTest {
+    private final ListenerScalingPolicy policy = new ListenerScalingPolicy(2, 40, 60000L);
+
+    @Test
+    public void testScaleUpOnLag() {
+        assertEquals(20, policy.getListeners(10, 120000L, 1000, 0));
+        // Bounded by the maximum
+        assertEquals(40, policy.getListeners(30, 120000L, 1000, 0));
+    }
+
+    @Test
+    public void testScaleDownOnFailures() {
+        // Even when lagging, failing events take precedence
+        assertEquals(5, policy.getListeners(10, 120000L, 1000, 100));
+        assertEquals(2, policy.getListeners(3, 0L, 10, 10));
+        // A few failures don't matter
+        assertEquals(20, policy.getListeners(10, 120000L, 1000, 5));
+    }
+
+    @Test
+    public void testScaleDownWhenIdle() {
+        assertEquals(15, policy.getListeners(20, 0L, 0, 0));
+        assertEquals(2, policy.getListeners(3, 0L, 0, 0));
+        assertEquals(2, policy.getListeners(2, 0L, 0, 0));
+    }
+
+    @Test
+    public void testKeepWhenLagModerate() {
+        assertEquals(10, policy.getListeners(10, 30000L, 1000, 0));
+    }
+
+    @Test
+    public void testBound() {
+        assertEquals(2, policy.bound(0));
+        assertEquals(40, policy.bound(50));
+        assertEquals(10, policy.bound(10));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidBounds() {
+        new ListenerScalingPolicy(10, 5, 60000L);
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.indexer.worker;
+
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.same;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.Collections;
+import java.util.List;
+
+import com.ngdata.sep.SepEvent;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Before;
+import org.junit.Test;
+import org.lilyproject.indexer.engine.IndexUpdater;
+import org.lilyproject.repository.api.IdGenerator;
+import org.lilyproject.util.repo.RecordEvent;
+
+public class SharedSubscriptionDispatcherTest {
+    private SharedSubscriptionDispatcher dispatcher;
+    private IndexUpdater updater1;
+    private IndexUpdater updater2;
+
+    @Before
+    public void setUp() {
+        dispatcher = new SharedSubscriptionDispatcher(mock(IdGenerator.class));
+        updater1 = mock(IndexUpdater.class);
+        updater2 = mock(IndexUpdater.class);
+    }
+
+    @Test
+    public void testSubscriptionTimestamp() {
+        dispatcher.register("index1", 100L, updater1);
+        dispatcher.register("index2", 300L, updater2);
+
+        SepEvent event = createEvent("row1", 200L);
+        dispatcher.processEvent(event);
+        verify(updater1).processEvent(same(event), any(RecordEvent.class));
+        verify(updater2, never()).processEvent(any(SepEvent.class), any(RecordEvent.class));
+
+        event = createEvent("row1", 300L);
+        dispatcher.processEvent(event);
+        verify(updater1).processEvent(same(event), any(RecordEvent.class));
+        verify(updater2).processEvent(same(event), any(RecordEvent.class));
+    }
+
+    @Test
+    public void testEventWithoutKeyValues() {
+        dispatcher.register("index1", 100L, updater1);
+        dispatcher.register("index2", Long.MAX_VALUE - 1, updater2);
+
+        // Can't be dated, so passed to every index
+        SepEvent event = new SepEvent(Bytes.toBytes("table"), Bytes.toBytes("row1"), Collections.<KeyValue>emptyList(),
+                createPayload());
+        dispatcher.processEvent(event);
+        verify(updater1).processEvent(same(event), any(RecordEvent.class));
+        verify(updater2).processEvent(same(event), any(RecordEvent.class));
+    }
+
+    @Test
+    public void testFailureIsolation() {
+        dispatcher.register("index1", 0L, updater1);
+        dispatcher.register("index2", 0L, updater2);
+        doThrow(new RuntimeException("Solr is down")).doNothing().when(updater1)
+                .processEvent(any(SepEvent.class), any(RecordEvent.class));
+
+        try {
+            dispatcher.processEvent(createEvent("row1", 100L));
+            fail("Expected the failure to be passed to the SEP");
+        } catch (RuntimeException e) {
+            // expected
+        }
+        verify(updater1, times(1)).processEvent(any(SepEvent.class), any(RecordEvent.class));
+        verify(updater2, times(1)).processEvent(any(SepEvent.class), any(RecordEvent.class));
+
+        // The SEP retries the event, only the failing index processes it again
+        dispatcher.processEvent(createEvent("row1", 100L));
+        verify(updater1, times(2)).processEvent(any(SepEvent.class), any(RecordEvent.class));
+        verify(updater2, times(1)).processEvent(any(SepEvent.class), any(RecordEvent.class));
+
+        // Other events are processed by both indexes
+        dispatcher.processEvent(createEvent("row1", 101L));
+        dispatcher.processEvent(createEvent("row2", 100L));
+        verify(updater1, times(4)).processEvent(any(SepEvent.class), any(RecordEvent.class));
+        verify(updater2, times(3)).processEvent(any(SepEvent.class), any(RecordEvent.class));
+    }
+
+    @Test
+    public void testFailureOfUnregisteredIndex() {
+        dispatcher.register("index1", 0L, updater1);
+        dispatcher.register("index2", 0L, updater2);
+        doThrow(new RuntimeException("Solr is down")).when(updater1)
+                .processEvent(any(SepEvent.class), any(RecordEvent.class));
+
+        try {
+            dispatcher.processEvent(createEvent("row1", 100L));
+            fail("Expected the failure to be passed to the SEP");
+        } catch (RuntimeException e) {
+            // expected
+        }
+
+        // Once the failing index is gone, the retry succeeds without processing the event again
+        dispatcher.unregister("index1");
+        dispatcher.processEvent(createEvent("row1", 100L));
+        verify(updater2, times(1)).processEvent(any(SepEvent.class), any(RecordEvent.class));
+    }
+
+    private SepEvent createEvent(String row, long timestamp) {
+        byte[] rowBytes = Bytes.toBytes(row);
+        List<KeyValue> keyValues = Collections.singletonList(new KeyValue(rowBytes, Bytes.toBytes("family"),
+                Bytes.toBytes("qualifier"), timestamp, Bytes.toBytes("value")));
+        return new SepEvent(Bytes.toBytes("table"), rowBytes, keyValues, createPayload());
+    }
+
+    private byte[] createPayload() {
+        RecordEvent recordEvent = new RecordEvent();
+        recordEvent.setType(RecordEvent.Type.UPDATE);
+        return recordEvent.toJsonBytes();
+    }
+}
@@ -18,8 +18,10 @@ package org.lilyproject.linkindex;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import com.google.common.collect.Sets;
@@ -201,6 +203,19 @@ public class LinkIndex {
     
     public void updateLinks(AbsoluteRecordId sourceRecord, SchemaId vtag, Set<FieldedLink> links, boolean isNewRecord)
             throws LinkIndexException {
+        updateLinks(sourceRecord, Collections.singletonMap(vtag, links), isNewRecord);
+    }
+
+    /**
+     * Updates the links of a record for several vtags at once. This reads the existing links of the record with
+     * a single query and applies all changes in one batch per index table.
+     *
+     * @param linksByVtag the links for each vtag to update, an empty set removes all links for the vtag
+     * @param isNewRecord if this is a new record, then we can skip querying the existing links, thus gaining some
+     *                    time.
+     */
+    public void updateLinks(AbsoluteRecordId sourceRecord, Map<SchemaId, Set<FieldedLink>> linksByVtag,
+            boolean isNewRecord) throws LinkIndexException {
         long before = System.currentTimeMillis();
         try {
             // We could simply delete all the old entries using deleteLinks() and then add
@@ -208,70 +223,95 @@ public class LinkIndex {
             // perform that. This is to avoid running into problems due to http://search-hadoop.com/m/rNnhN15Xecu
             // (= delete and put within the same millisecond).
 
-            Set<FieldedLink> oldLinks = isNewRecord ?
-                    Collections.<FieldedLink>emptySet() : getFieldedForwardLinks(sourceRecord, vtag);
+            Map<SchemaId, Set<FieldedLink>> oldLinksByVtag = isNewRecord ?
+                    Collections.<SchemaId, Set<FieldedLink>>emptyMap() :
+                    getForwardLinksByVtag(sourceRecord, linksByVtag.keySet());
 
-            if (links.isEmpty() && oldLinks.isEmpty()) {
-                // No links to add, no links to remove
-                return;
-            }
-
-            // Find out what changed
-            Set<FieldedLink> removedLinks = new HashSet<FieldedLink>(oldLinks);
-            removedLinks.removeAll(links);
-            Set<FieldedLink> addedLinks = new HashSet<FieldedLink>(links);
-            addedLinks.removeAll(oldLinks);
-
-            // Apply added links
             byte[] sourceAsBytes = sourceRecord.toBytes();
-            List<IndexEntry> fwdEntries = null;
-            List<IndexEntry> bkwdEntries = null;
-            if (addedLinks.size() > 0) {
-                fwdEntries = new ArrayList<IndexEntry>(Math.max(addedLinks.size(), removedLinks.size()));
-                bkwdEntries = new ArrayList<IndexEntry>(fwdEntries.size());
-                for (FieldedLink link : addedLinks) {
-                    IndexEntry fwdEntry = createForwardIndexEntry(vtag, sourceRecord, link.getFieldTypeId());
-                    fwdEntry.setIdentifier(link.getAbsoluteRecordId().toBytes());
-                    fwdEntries.add(fwdEntry);
-
-                    IndexEntry bkwdEntry = createBackwardIndexEntry(vtag, link.getAbsoluteRecordId(), link.getFieldTypeId());
-                    bkwdEntry.setIdentifier(sourceAsBytes);
-                    bkwdEntries.add(bkwdEntry);
+            List<IndexEntry> addedFwdEntries = new ArrayList<IndexEntry>();
+            List<IndexEntry> addedBkwdEntries = new ArrayList<IndexEntry>();
+            List<IndexEntry> removedFwdEntries = new ArrayList<IndexEntry>();
+            List<IndexEntry> removedBkwdEntries = new ArrayList<IndexEntry>();
+
+            for (Map.Entry<SchemaId, Set<FieldedLink>> entry : linksByVtag.entrySet()) {
+                SchemaId vtag = entry.getKey();
+                Set<FieldedLink> links = entry.getValue();
+                Set<FieldedLink> oldLinks = oldLinksByVtag.containsKey(vtag) ?
+                        oldLinksByVtag.get(vtag) : Collections.<FieldedLink>emptySet();
+
+                // Find out what changed
+                for (FieldedLink link : links) {
+                    if (!oldLinks.contains(link)) {
+                        IndexEntry fwdEntry = createForwardIndexEntry(vtag, sourceRecord, link.getFieldTypeId());
+                        fwdEntry.setIdentifier(link.getAbsoluteRecordId().toBytes());
+                        addedFwdEntries.add(fwdEntry);
+
+                        IndexEntry bkwdEntry = createBackwardIndexEntry(vtag, link.getAbsoluteRecordId(),
+                                link.getFieldTypeId());
+                        bkwdEntry.setIdentifier(sourceAsBytes);
+                        addedBkwdEntries.add(bkwdEntry);
+                    }
                 }
-                forwardIndex.addEntries(fwdEntries);
-                backwardIndex.addEntries(bkwdEntries);
-            }
 
-            // Apply removed links
-            if (removedLinks.size() > 0) {
-                if (fwdEntries != null) {
-                    fwdEntries.clear();
-                    bkwdEntries.clear();
-                } else {
-                    fwdEntries = new ArrayList<IndexEntry>(removedLinks.size());
-                    bkwdEntries = new ArrayList<IndexEntry>(fwdEntries.size());
+                for (FieldedLink link : oldLinks) {
+                    if (!links.contains(link)) {
+                        IndexEntry bkwdEntry = createBackwardIndexEntry(vtag, link.getAbsoluteRecordId(),
+                                link.getFieldTypeId());
+                        bkwdEntry.setIdentifier(sourceAsBytes);
+                        removedBkwdEntries.add(bkwdEntry);
+
+                        IndexEntry fwdEntry = createForwardIndexEntry(vtag, sourceRecord, link.getFieldTypeId());
+                        fwdEntry.setIdentifier(link.getAbsoluteRecordId().toBytes());
+                        removedFwdEntries.add(fwdEntry);
+                    }
                 }
+            }
 
-                for (FieldedLink link : removedLinks) {
-                    IndexEntry bkwdEntry = createBackwardIndexEntry(vtag, link.getAbsoluteRecordId(), link.getFieldTypeId());
-                    bkwdEntry.setIdentifier(sourceAsBytes);
-                    bkwdEntries.add(bkwdEntry);
+            // Apply added links
+            if (!addedFwdEntries.isEmpty()) {
+                forwardIndex.addEntries(addedFwdEntries);
+                backwardIndex.addEntries(addedBkwdEntries);
+            }
 
-                    IndexEntry fwdEntry = createForwardIndexEntry(vtag, sourceRecord, link.getFieldTypeId());
-                    fwdEntry.setIdentifier(link.getAbsoluteRecordId().toBytes());
-                    fwdEntries.add(fwdEntry);
-                }
-                backwardIndex.removeEntries(bkwdEntries);
-                forwardIndex.removeEntries(fwdEntries);
+            // Apply removed links
+            if (!removedFwdEntries.isEmpty()) {
+                backwardIndex.removeEntries(removedBkwdEntries);
+                forwardIndex.removeEntries(removedFwdEntries);
             }
         } catch (IOException e) {
-            throw new LinkIndexException("Error updating links for record '" + sourceRecord + "', vtag '" +
-                    vtag + "'", e);
+            throw new LinkIndexException("Error updating links for record '" + sourceRecord + "', vtags '" +
+                    linksByVtag.keySet() + "'", e);
         } finally {
             metrics.report(Action.UPDATE_LINKS, System.currentTimeMillis() - before);
         }
     }
 
+    /**
+     * Returns the forward links of a record for the given vtags. The forward index entries of a record are
+     * stored next to each other, so for several vtags it is cheaper to read them all at once than to query
+     * vtag by vtag.
+     */
+    private Map<SchemaId, Set<FieldedLink>> getForwardLinksByVtag(AbsoluteRecordId record, Set<SchemaId> vtags)
+            throws LinkIndexException {
+        Map<SchemaId, Set<FieldedLink>> result = new HashMap<SchemaId, Set<FieldedLink>>();
+        if (vtags.size() == 1) {
+            SchemaId vtag = vtags.iterator().next();
+            result.put(vtag, getFieldedForwardLinks(record, vtag));
+        } else if (vtags.size() > 1) {
+            for (Pair<FieldedLink, SchemaId> link : getAllForwardLinks(record)) {
+                if (vtags.contains(link.getV2())) {
+                    Set<FieldedLink> links = result.get(link.getV2());
+                    if (links == null) {
+                        links = new HashSet<FieldedLink>();
+                        result.put(link.getV2(), links);
+                    }
+                    links.add(link.getV1());
+                }
+            }
+        }
+        return result;
+    }
+
     private IndexEntry createBackwardIndexEntry(SchemaId vtag, AbsoluteRecordId target, SchemaId sourceField) {
         IndexEntry entry = new IndexEntry(backwardIndex.getDefinition());
 
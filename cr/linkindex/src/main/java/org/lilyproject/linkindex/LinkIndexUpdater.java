@@ -144,14 +144,15 @@ public class LinkIndexUpdater implements EventListener {
                 //
                 // For each of the vtags, perform the link extraction
                 //
+                Map<SchemaId, Set<FieldedLink>> linksByVtag = new HashMap<SchemaId, Set<FieldedLink>>();
                 Map<Long, Set<FieldedLink>> cache = new HashMap<Long, Set<FieldedLink>>();
                 for (SchemaId vtag : vtagsToProcess) {
                     if (!vtags.containsKey(vtag)) {
                         // The vtag is not defined on the document: it is a deleted vtag, delete the
                         // links corresponding to it
-                        linkIndex.deleteLinks(absRecordId, vtag);
+                        linksByVtag.put(vtag, Collections.<FieldedLink>emptySet());
                         if (log.isDebugEnabled()) {
-                            log.debug(String.format("Record %1$s, vtag %2$s : deleted extracted links " +
+                            log.debug(String.format("Record %1$s, vtag %2$s : deleting extracted links " +
                                     "because vtag does not exist on document anymore",
                                     absRecordId, safeLoadTagName(vtag)));
                         }
@@ -166,13 +167,18 @@ public class LinkIndexUpdater implements EventListener {
                             links = extractLinks(vtRecord, version);
                             cache.put(version, links);
                         }
-                        linkIndex.updateLinks(absRecordId, vtag, links, isNewRecord);
+                        linksByVtag.put(vtag, links);
                         if (log.isDebugEnabled()) {
                             log.debug(String.format("Record %1$s, vtag %2$s : extracted links count : %3$s",
                                     absRecordId, safeLoadTagName(vtag), links.size()));
                         }
                     }
                 }
+
+                // Update the links of all vtags at once, this needs only one read of the existing links
+                if (!linksByVtag.isEmpty()) {
+                    linkIndex.updateLinks(absRecordId, linksByVtag, isNewRecord);
+                }
             }
         } catch (Exception e) {
             // Throw the exception through so that it is retried later by the SEP
@@ -19,7 +19,10 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 
@@ -183,6 +186,47 @@ public class LinkIndexTest {
         assertTrue(absoluteReferrers.contains(ids.newAbsoluteRecordId(TABLE_B, "idB")));
         assertEquals(2, absoluteReferrers.size());
     }
+
+    @Test
+    public void testLinkIndex_MultipleVtags() throws Exception {
+        SchemaId liveTag = repository.getIdGenerator().getSchemaId(UUID.randomUUID());
+        SchemaId previewTag = repository.getIdGenerator().getSchemaId(UUID.randomUUID());
+        SchemaId archiveTag = repository.getIdGenerator().getSchemaId(UUID.randomUUID());
+        AbsoluteRecordId source = createAbsoluteId("idMV");
+
+        FieldedLink link1 = new FieldedLink(createAbsoluteId("mv1"), field1);
+        FieldedLink link2 = new FieldedLink(createAbsoluteId("mv2"), field1);
+        FieldedLink link3 = new FieldedLink(createAbsoluteId("mv3"), field1);
+
+        Map<SchemaId, Set<FieldedLink>> linksByVtag = new HashMap<SchemaId, Set<FieldedLink>>();
+        linksByVtag.put(liveTag, Sets.newHashSet(link1, link2));
+        linksByVtag.put(previewTag, Sets.newHashSet(link2));
+        linksByVtag.put(archiveTag, Sets.newHashSet(link3));
+        linkIndex.updateLinks(source, linksByVtag, true);
+
+        assertEquals(Sets.newHashSet(link1, link2), linkIndex.getFieldedForwardLinks(source, liveTag));
+        assertEquals(Sets.newHashSet(link2), linkIndex.getFieldedForwardLinks(source, previewTag));
+        assertEquals(Sets.newHashSet(link3), linkIndex.getFieldedForwardLinks(source, archiveTag));
+
+        // Change the links of two vtags, remove those of the third, the links of other vtags are untouched
+        SchemaId otherTag = repository.getIdGenerator().getSchemaId(UUID.randomUUID());
+        linkIndex.updateLinks(source, otherTag, Sets.newHashSet(link1));
+
+        linksByVtag.clear();
+        linksByVtag.put(liveTag, Sets.newHashSet(link1, link3));
+        linksByVtag.put(previewTag, Sets.newHashSet(link2, link3));
+        linksByVtag.put(archiveTag, Collections.<FieldedLink>emptySet());
+        linkIndex.updateLinks(source, linksByVtag, false);
+
+        assertEquals(Sets.newHashSet(link1, link3), linkIndex.getFieldedForwardLinks(source, liveTag));
+        assertEquals(Sets.newHashSet(link2, link3), linkIndex.getFieldedForwardLinks(source, previewTag));
+        assertEquals(0, linkIndex.getFieldedForwardLinks(source, archiveTag).size());
+        assertEquals(Sets.newHashSet(link1), linkIndex.getFieldedForwardLinks(source, otherTag));
+
+        assertEquals(0, linkIndex.getAbsoluteReferrers(createAbsoluteId("mv2"), liveTag).size());
+        assertEquals(Sets.newHashSet(source), linkIndex.getAbsoluteReferrers(createAbsoluteId("mv3"), liveTag));
+        assertEquals(0, linkIndex.getAbsoluteReferrers(createAbsoluteId("mv3"), archiveTag).size());
+    }
     
     @Test
     public void testLinkIndexWithShortRecordIds() throws Exception {
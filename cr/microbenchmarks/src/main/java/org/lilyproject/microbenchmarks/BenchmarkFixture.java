@@ -0,0 +1,269 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.microbenchmarks;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.joda.time.DateTime;
+import org.lilyproject.repository.api.IdGenerator;
+import org.lilyproject.repository.api.Link;
+import org.lilyproject.repository.api.QName;
+import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.RecordFactory;
+import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.repository.api.RecordType;
+import org.lilyproject.repository.api.Repository;
+import org.lilyproject.repository.api.RepositoryException;
+import org.lilyproject.repository.api.RepositoryManager;
+import org.lilyproject.repository.api.Scope;
+import org.lilyproject.repository.api.TypeManager;
+import org.lilyproject.repository.impl.RecordFactoryImpl;
+import org.lilyproject.repository.impl.id.IdGeneratorImpl;
+
+/**
+ * Schema and sample data shared by the benchmarks. Everything is in memory, no HBase or ZooKeeper is needed.
+ *
+ * <p>The records come in a number of shapes, see {@link Shape}, which try to mimic what is found in real
+ * applications.</p>
+ */
+public class BenchmarkFixture implements RepositoryManager {
+    public static final String NS = "org.lilyproject.microbenchmarks";
+
+    /**
+     * The record shapes, used as JMH parameter values.
+     */
+    public enum Shape {
+        /** A handful of short string fields, a long and a date. */
+        SMALL,
+        /** 50 short string fields. */
+        WIDE,
+        /** Some long texts, including non-ASCII characters. */
+        LONG_STRINGS,
+        /** A record containing records, including a list of records. */
+        NESTED,
+        /** Lists of strings and longs. */
+        LISTS,
+        /** Link fields, including a list of links to variant records. */
+        LINKS,
+        /** A variant record (record id with variant properties). */
+        VARIANT
+    }
+
+    public static final int WIDE_FIELD_COUNT = 50;
+
+    private final IdGenerator idGenerator;
+    private final InMemoryTypeManager typeManager;
+    private final RecordFactory recordFactory;
+    private final Random random = new Random(42);
+
+    public BenchmarkFixture() throws RepositoryException, InterruptedException {
+        idGenerator = new IdGeneratorImpl();
+        typeManager = new InMemoryTypeManager(idGenerator);
+        recordFactory = new RecordFactoryImpl(typeManager, idGenerator);
+        createSchema();
+    }
+
+    private void createSchema() throws RepositoryException, InterruptedException {
+        // Nested record type
+        RecordType address = typeManager.newRecordType(new QName(NS, "Address"));
+        address.addFieldTypeEntry(field("street", "STRING").getId(), false);
+        address.addFieldTypeEntry(field("number", "INTEGER").getId(), false);
+        address.addFieldTypeEntry(field("city", "STRING").getId(), false);
+        typeManager.createRecordType(address);
+
+        RecordType person = typeManager.newRecordType(new QName(NS, "Person"));
+        person.addFieldTypeEntry(field("name", "STRING").getId(), false);
+        person.addFieldTypeEntry(field("address", "RECORD<{" + NS + "}Address>").getId(), false);
+        typeManager.createRecordType(person);
+
+        RecordType document = typeManager.newRecordType(new QName(NS, "Document"));
+        document.addFieldTypeEntry(field("title", "STRING").getId(), false);
+        document.addFieldTypeEntry(field("author", "STRING").getId(), false);
+        document.addFieldTypeEntry(field("status", "STRING").getId(), false);
+        document.addFieldTypeEntry(field("size", "LONG").getId(), false);
+        document.addFieldTypeEntry(field("price", "DECIMAL").getId(), false);
+        document.addFieldTypeEntry(field("modified", "DATETIME").getId(), false);
+        document.addFieldTypeEntry(field("body", "STRING").getId(), false);
+        document.addFieldTypeEntry(field("summary", "STRING").getId(), false);
+        document.addFieldTypeEntry(field("owner", "RECORD<{" + NS + "}Person>").getId(), false);
+        document.addFieldTypeEntry(field("contributors", "LIST<RECORD<{" + NS + "}Person>>").getId(), false);
+        document.addFieldTypeEntry(field("keywords", "LIST<STRING>").getId(), false);
+        document.addFieldTypeEntry(field("counts", "LIST<LONG>").getId(), false);
+        document.addFieldTypeEntry(field("parent", "LINK").getId(), false);
+        document.addFieldTypeEntry(field("related", "LIST<LINK>").getId(), false);
+        for (int i = 0; i < WIDE_FIELD_COUNT; i++) {
+            document.addFieldTypeEntry(field("attr" + i, "STRING").getId(), false);
+        }
+        typeManager.createRecordType(document);
+    }
+
+    private org.lilyproject.repository.api.FieldType field(String name, String valueType)
+            throws RepositoryException, InterruptedException {
+        return typeManager.createFieldType(valueType, new QName(NS, name), Scope.NON_VERSIONED);
+    }
+
+    public static QName name(String name) {
+        return new QName(NS, name);
+    }
+
+    /**
+     * Creates a record of the given shape. The content is random but deterministic.
+     */
+    public Record createRecord(Shape shape) throws RepositoryException {
+        Record record = recordFactory.newRecord();
+        record.setRecordType(name("Document"));
+
+        switch (shape) {
+            case SMALL:
+                record.setId(idGenerator.newRecordId());
+                record.setField(name("title"), "A short title");
+                record.setField(name("author"), "John Doe");
+                record.setField(name("status"), "published");
+                record.setField(name("size"), 12345L);
+                record.setField(name("modified"), new DateTime(2013, 3, 14, 15, 9, 26, 0));
+                break;
+            case WIDE:
+                record.setId(idGenerator.newRecordId());
+                for (int i = 0; i < WIDE_FIELD_COUNT; i++) {
+                    record.setField(name("attr" + i), randomString(8 + random.nextInt(16), false));
+                }
+                break;
+            case LONG_STRINGS:
+                record.setId(idGenerator.newRecordId("doc-" + random.nextInt(1000000)));
+                record.setField(name("title"), randomString(200, true));
+                record.setField(name("summary"), randomString(2000, true));
+                record.setField(name("body"), randomString(20000, true));
+                record.setField(name("price"), new BigDecimal("1234.5678"));
+                break;
+            case NESTED:
+                record.setId(idGenerator.newRecordId());
+                record.setField(name("title"), "A document with nested records");
+                record.setField(name("owner"), createPerson());
+                List<Record> contributors = new ArrayList<Record>();
+                for (int i = 0; i < 5; i++) {
+                    contributors.add(createPerson());
+                }
+                record.setField(name("contributors"), contributors);
+                break;
+            case LISTS:
+                record.setId(idGenerator.newRecordId());
+                List<String> keywords = new ArrayList<String>();
+                List<Long> counts = new ArrayList<Long>();
+                for (int i = 0; i < 30; i++) {
+                    keywords.add(randomString(4 + random.nextInt(10), false));
+                    counts.add(random.nextLong());
+                }
+                record.setField(name("keywords"), keywords);
+                record.setField(name("counts"), counts);
+                break;
+            case LINKS:
+                record.setId(idGenerator.newRecordId());
+                record.setField(name("parent"), new Link(idGenerator.newRecordId()));
+                List<Link> related = new ArrayList<Link>();
+                for (int i = 0; i < 10; i++) {
+                    related.add(new Link(createVariantId()));
+                }
+                record.setField(name("related"), related);
+                break;
+            case VARIANT:
+                record.setId(createVariantId());
+                record.setField(name("title"), "A variant");
+                record.setField(name("parent"), new Link(record.getId().getMaster()));
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported shape: " + shape);
+        }
+
+        return record;
+    }
+
+    private Record createPerson() throws RepositoryException {
+        Record address = recordFactory.newRecord();
+        address.setRecordType(name("Address"));
+        address.setField(name("street"), randomString(12, false));
+        address.setField(name("number"), random.nextInt(500));
+        address.setField(name("city"), randomString(8, false));
+
+        Record person = recordFactory.newRecord();
+        person.setRecordType(name("Person"));
+        person.setField(name("name"), randomString(15, true));
+        person.setField(name("address"), address);
+        return person;
+    }
+
+    public RecordId createVariantId() {
+        Map<String, String> variantProperties = new HashMap<String, String>();
+        variantProperties.put("lang", random.nextBoolean() ? "en" : "nl");
+        variantProperties.put("branch", "b" + random.nextInt(100));
+        return idGenerator.newRecordId(idGenerator.newRecordId("product-" + random.nextInt(1000000)),
+                variantProperties);
+    }
+
+    /**
+     * Creates a random string. When nonAscii is true, about one in ten characters is outside of the ASCII
+     * range, which exercises the multi-byte paths of the UTF-8 encoding.
+     */
+    public String randomString(int length, boolean nonAscii) {
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            if (nonAscii && random.nextInt(10) == 0) {
+                // Latin-1 supplement and some CJK
+                builder.append(random.nextBoolean() ? (char)(0xC0 + random.nextInt(64)) : (char)(0x4E00 + random.nextInt(500)));
+            } else if (i > 0 && random.nextInt(7) == 0) {
+                builder.append(' ');
+            } else {
+                builder.append((char)('a' + random.nextInt(26)));
+            }
+        }
+        return builder.toString();
+    }
+
+    @Override
+    public RecordFactory getRecordFactory() {
+        return recordFactory;
+    }
+
+    @Override
+    public IdGenerator getIdGenerator() {
+        return idGenerator;
+    }
+
+    @Override
+    public TypeManager getTypeManager() {
+        return typeManager;
+    }
+
+    @Override
+    public Repository getDefaultRepository() throws IOException, InterruptedException {
+        throw new UnsupportedOperationException("No repository is available in the benchmarks");
+    }
+
+    @Override
+    public Repository getRepository(String tableName) throws IOException, InterruptedException {
+        throw new UnsupportedOperationException("No repository is available in the benchmarks");
+    }
+
+    @Override
+    public void close() throws IOException {
+        typeManager.close();
+    }
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.microbenchmarks;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Properties;
+import java.util.TreeSet;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.io.IOUtils;
+import org.lilyproject.cli.BaseCliTool;
+import org.lilyproject.util.Version;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the microbenchmarks, stores their results and optionally compares them with the results of
+ * an earlier run, so that performance regressions in the serialization code can be spotted.
+ *
+ * <p>All benchmarks measure the average time per operation, so for all of them a higher score is worse.</p>
+ */
+public class BenchmarkTool extends BaseCliTool {
+    private static final String DEFAULT_INCLUDE = BenchmarkTool.class.getPackage().getName() + ".*";
+
+    private static final double DEFAULT_THRESHOLD = 10;
+
+    private Option includeOption;
+
+    private Option outputOption;
+
+    private Option baselineOption;
+
+    private Option thresholdOption;
+
+    private Option forksOption;
+
+    private Option iterationsOption;
+
+    @Override
+    protected String getCmdName() {
+        return "lily-microbenchmarks";
+    }
+
+    @Override
+    protected String getVersion() {
+        return Version.readVersion("org.lilyproject", "lily-microbenchmarks");
+    }
+
+    public static void main(String[] args) {
+        new BenchmarkTool().start(args);
+    }
+
+    @Override
+    public List<Option> getOptions() {
+        List<Option> options = super.getOptions();
+
+        includeOption = OptionBuilder
+                .withArgName("regex")
+                .hasArg()
+                .withDescription("Regular expression selecting the benchmarks to run, default: all of them")
+                .withLongOpt("include")
+                .create("i");
+        options.add(includeOption);
+
+        outputOption = OptionBuilder
+                .withArgName("filename")
+                .hasArg()
+                .withDescription("File to which the results are written, can be used as baseline for a later run")
+                .withLongOpt("output")
+                .create("o");
+        options.add(outputOption);
+
+        baselineOption = OptionBuilder
+                .withArgName("filename")
+                .hasArg()
+                .withDescription("Results of an earlier run to compare with")
+                .withLongOpt("baseline")
+                .create("b");
+        options.add(baselineOption);
+
+        thresholdOption = OptionBuilder
+                .withArgName("percentage")
+                .hasArg()
+                .withDescription("How much slower than the baseline a benchmark may be before it is considered a"
+                        + " regression, default: " + DEFAULT_THRESHOLD)
+                .withLongOpt("threshold")
+                .create("t");
+        options.add(thresholdOption);
+
+        forksOption = OptionBuilder
+                .withArgName("count")
+                .hasArg()
+                .withDescription("Number of JVM forks per benchmark (JMH default if not specified)")
+                .withLongOpt("forks")
+                .create("f");
+        options.add(forksOption);
+
+        iterationsOption = OptionBuilder
+                .withArgName("count")
+                .hasArg()
+                .withDescription("Number of warmup and measurement iterations (JMH default if not specified)")
+                .withLongOpt("iterations")
+                .create("n");
+        options.add(iterationsOption);
+
+        return options;
+    }
+
+    @Override
+    public int run(CommandLine cmd) throws Exception {
+        int result = super.run(cmd);
+        if (result != 0) {
+            return result;
+        }
+
+        Properties baseline = null;
+        if (cmd.hasOption(baselineOption.getOpt())) {
+            baseline = loadResults(new File(cmd.getOptionValue(baselineOption.getOpt())));
+        }
+
+        double threshold = DEFAULT_THRESHOLD;
+        if (cmd.hasOption(thresholdOption.getOpt())) {
+            threshold = Double.parseDouble(cmd.getOptionValue(thresholdOption.getOpt()));
+        }
+
+        ChainedOptionsBuilder jmhOptions = new OptionsBuilder()
+                .include(cmd.getOptionValue(includeOption.getOpt(), DEFAULT_INCLUDE));
+        if (cmd.hasOption(forksOption.getOpt())) {
+            jmhOptions.forks(Integer.parseInt(cmd.getOptionValue(forksOption.getOpt())));
+        }
+        if (cmd.hasOption(iterationsOption.getOpt())) {
+            int iterations = Integer.parseInt(cmd.getOptionValue(iterationsOption.getOpt()));
+            jmhOptions.warmupIterations(iterations).measurementIterations(iterations);
+        }
+
+        Collection<RunResult> runResults = new Runner(jmhOptions.build()).run();
+
+        Properties results = new Properties();
+        for (RunResult runResult : runResults) {
+            results.setProperty(getKey(runResult.getParams()),
+                    String.valueOf(runResult.getPrimaryResult().getScore()));
+        }
+
+        if (cmd.hasOption(outputOption.getOpt())) {
+            File outputFile = new File(cmd.getOptionValue(outputOption.getOpt()));
+            storeResults(results, outputFile);
+            System.out.println("Results written to " + outputFile.getAbsolutePath());
+        }
+
+        if (baseline != null) {
+            return compare(baseline, results, threshold) ? 0 : 1;
+        }
+
+        return 0;
+    }
+
+    /**
+     * Prints the comparison of the results with the baseline.
+     *
+     * @return false if at least one benchmark regressed more than the threshold
+     */
+    private boolean compare(Properties baseline, Properties results, double threshold) {
+        List<String> regressions = new ArrayList<String>();
+
+        System.out.println();
+        System.out.println("Comparison with baseline (positive change = slower):");
+        for (String key : new TreeSet<String>(results.stringPropertyNames())) {
+            double score = Double.parseDouble(results.getProperty(key));
+            String baselineValue = baseline.getProperty(key);
+            if (baselineValue == null) {
+                System.out.println(String.format("  %-80s %12.3f  (not in baseline)", key, score));
+                continue;
+            }
+
+            double baselineScore = Double.parseDouble(baselineValue);
+            double change = baselineScore == 0 ? 0 : (score - baselineScore) / baselineScore * 100;
+            boolean regressed = change > threshold;
+            System.out.println(String.format("  %-80s %12.3f %12.3f %+8.1f%%%s", key, baselineScore, score, change,
+                    regressed ? "  REGRESSION" : ""));
+            if (regressed) {
+                regressions.add(key);
+            }
+        }
+
+        System.out.println();
+        if (regressions.isEmpty()) {
+            System.out.println("No regressions above " + threshold + "%.");
+            return true;
+        } else {
+            System.out.println(regressions.size() + " benchmark(s) regressed more than " + threshold + "%:");
+            for (String key : regressions) {
+                System.out.println("  " + key);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Builds a key identifying the benchmark and its parameter values, e.g.
+     * "org.lilyproject.microbenchmarks.BytesBenchmark.readUTF[stringKind=LONG_ASCII]".
+     */
+    private String getKey(BenchmarkParams params) {
+        StringBuilder key = new StringBuilder(params.getBenchmark());
+        Collection<String> paramKeys = params.getParamsKeys();
+        if (!paramKeys.isEmpty()) {
+            key.append('[');
+            boolean first = true;
+            for (String paramKey : new TreeSet<String>(paramKeys)) {
+                if (!first) {
+                    key.append(',');
+                }
+                key.append(paramKey).append('=').append(params.getParam(paramKey));
+                first = false;
+            }
+            key.append(']');
+        }
+        return key.toString();
+    }
+
+    private Properties loadResults(File file) throws Exception {
+        Properties properties = new Properties();
+        InputStream is = null;
+        try {
+            is = new FileInputStream(file);
+            properties.load(is);
+        } finally {
+            IOUtils.closeQuietly(is);
+        }
+        return properties;
+    }
+
+    private void storeResults(Properties results, File file) throws Exception {
+        OutputStream os = null;
+        try {
+            os = new FileOutputStream(file);
+            results.store(os, "Lily microbenchmark results, average time per operation");
+        } finally {
+            IOUtils.closeQuietly(os);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.microbenchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.lilyproject.bytes.impl.DataInputImpl;
+import org.lilyproject.bytes.impl.DataOutputImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks the low-level encoding primitives of lily-bytes, on which all other serialization builds.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BytesBenchmark {
+    public enum StringKind {
+        SHORT_ASCII, LONG_ASCII, LONG_NON_ASCII
+    }
+
+    @Param
+    public StringKind stringKind;
+
+    private String string;
+    private byte[] encodedString;
+
+    private int[] ints;
+    private long[] longs;
+    private byte[] encodedNumbers;
+
+    @Setup
+    public void setup() throws Exception {
+        BenchmarkFixture fixture = new BenchmarkFixture();
+        switch (stringKind) {
+            case SHORT_ASCII:
+                string = fixture.randomString(12, false);
+                break;
+            case LONG_ASCII:
+                string = fixture.randomString(4000, false);
+                break;
+            case LONG_NON_ASCII:
+                string = fixture.randomString(4000, true);
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported string kind: " + stringKind);
+        }
+        DataOutputImpl output = new DataOutputImpl();
+        output.writeUTF(string);
+        encodedString = output.toByteArray();
+
+        // Mix of small and large numbers, so that all variable-length encodings are used
+        ints = new int[100];
+        longs = new long[100];
+        for (int i = 0; i < ints.length; i++) {
+            ints[i] = i % 2 == 0 ? i : Integer.MAX_VALUE / (i + 1);
+            longs[i] = i % 2 == 0 ? i : Long.MAX_VALUE / (i + 1);
+        }
+        output = new DataOutputImpl();
+        for (int i = 0; i < ints.length; i++) {
+            output.writeVInt(ints[i]);
+            output.writeVLong(longs[i]);
+        }
+        encodedNumbers = output.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] writeUTF() {
+        DataOutputImpl output = new DataOutputImpl();
+        output.writeUTF(string);
+        return output.toByteArray();
+    }
+
+    @Benchmark
+    public String readUTF() {
+        return new DataInputImpl(encodedString).readUTF();
+    }
+
+    @Benchmark
+    public byte[] writeVarNumbers() {
+        DataOutputImpl output = new DataOutputImpl();
+        for (int i = 0; i < ints.length; i++) {
+            output.writeVInt(ints[i]);
+            output.writeVLong(longs[i]);
+        }
+        return output.toByteArray();
+    }
+
+    @Benchmark
+    public void readVarNumbers(Blackhole blackhole) {
+        DataInputImpl input = new DataInputImpl(encodedNumbers);
+        for (int i = 0; i < ints.length; i++) {
+            blackhole.consume(input.readVInt());
+            blackhole.consume(input.readVLong());
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.microbenchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.lilyproject.repository.api.IdGenerator;
+import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.repository.impl.id.IdGeneratorImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks the conversion of record ids from and to their binary and string forms.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class IdGeneratorBenchmark {
+    public enum IdKind {
+        UUID, USER, VARIANT
+    }
+
+    @Param
+    public IdKind idKind;
+
+    private IdGenerator idGenerator;
+    private RecordId recordId;
+    private byte[] idBytes;
+    private String idString;
+
+    @Setup
+    public void setup() throws Exception {
+        idGenerator = new IdGeneratorImpl();
+        switch (idKind) {
+            case UUID:
+                recordId = idGenerator.newRecordId();
+                break;
+            case USER:
+                recordId = idGenerator.newRecordId("document-2013-000123456");
+                break;
+            case VARIANT:
+                recordId = new BenchmarkFixture().createVariantId();
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported id kind: " + idKind);
+        }
+        idBytes = recordId.toBytes();
+        idString = recordId.toString();
+    }
+
+    @Benchmark
+    public RecordId fromBytes() {
+        return idGenerator.fromBytes(idBytes);
+    }
+
+    @Benchmark
+    public RecordId fromString() {
+        return idGenerator.fromString(idString);
+    }
+
+    @Benchmark
+    public byte[] toBytes() {
+        return recordId.toBytes();
+    }
+
+    @Benchmark
+    public String toStringForm() {
+        return recordId.toString();
+    }
+}
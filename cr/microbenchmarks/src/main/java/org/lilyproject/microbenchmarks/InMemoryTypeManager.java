@@ -0,0 +1,182 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.microbenchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.apache.commons.logging.LogFactory;
+import org.lilyproject.repository.api.FieldType;
+import org.lilyproject.repository.api.IdGenerator;
+import org.lilyproject.repository.api.QName;
+import org.lilyproject.repository.api.RecordType;
+import org.lilyproject.repository.api.RepositoryException;
+import org.lilyproject.repository.api.SchemaId;
+import org.lilyproject.repository.api.Scope;
+import org.lilyproject.repository.api.TypeBucket;
+import org.lilyproject.repository.api.TypeManager;
+import org.lilyproject.repository.api.ValueType;
+import org.lilyproject.repository.impl.AbstractSchemaCache;
+import org.lilyproject.repository.impl.AbstractTypeManager;
+import org.lilyproject.repository.impl.id.SchemaIdImpl;
+import org.lilyproject.util.Pair;
+
+/**
+ * TypeManager which only keeps its types in memory, so that the value types and record serialization can be
+ * benchmarked without HBase or ZooKeeper. The types are stored in the same schema cache as used by the real
+ * type managers, so lookups have the same cost.
+ *
+ * <p>Only creation of types is supported.</p>
+ */
+public class InMemoryTypeManager extends AbstractTypeManager implements TypeManager {
+
+    public InMemoryTypeManager(IdGenerator idGenerator) {
+        super(null);
+        log = LogFactory.getLog(getClass());
+        this.idGenerator = idGenerator;
+        this.schemaCache = new InMemorySchemaCache(this);
+        registerDefaultValueTypes();
+    }
+
+    @Override
+    public void close() throws IOException {
+    }
+
+    @Override
+    public RecordType createRecordType(RecordType recordType) throws RepositoryException, InterruptedException {
+        RecordType newRecordType = recordType.clone();
+        newRecordType.setId(new SchemaIdImpl(UUID.randomUUID()));
+        newRecordType.setVersion(1L);
+        updateRecordTypeCache(newRecordType);
+        return newRecordType.clone();
+    }
+
+    @Override
+    public RecordType updateRecordType(RecordType recordType) throws RepositoryException, InterruptedException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public RecordType updateRecordType(RecordType recordType, boolean refreshSubtypes)
+            throws RepositoryException, InterruptedException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public RecordType createOrUpdateRecordType(RecordType recordType) throws RepositoryException, InterruptedException {
+        return createRecordType(recordType);
+    }
+
+    @Override
+    public RecordType createOrUpdateRecordType(RecordType recordType, boolean refreshSubtypes)
+            throws RepositoryException, InterruptedException {
+        return createRecordType(recordType);
+    }
+
+    @Override
+    public FieldType createFieldType(FieldType fieldType) throws RepositoryException, InterruptedException {
+        FieldType newFieldType = fieldType.clone();
+        newFieldType.setId(new SchemaIdImpl(UUID.randomUUID()));
+        updateFieldTypeCache(newFieldType);
+        return newFieldType.clone();
+    }
+
+    @Override
+    public FieldType createFieldType(ValueType valueType, QName name, Scope scope)
+            throws RepositoryException, InterruptedException {
+        return createFieldType(newFieldType(valueType, name, scope));
+    }
+
+    @Override
+    public FieldType createFieldType(String valueType, QName name, Scope scope)
+            throws RepositoryException, InterruptedException {
+        return createFieldType(newFieldType(getValueType(valueType), name, scope));
+    }
+
+    @Override
+    public FieldType updateFieldType(FieldType fieldType) throws RepositoryException, InterruptedException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public FieldType createOrUpdateFieldType(FieldType fieldType) throws RepositoryException, InterruptedException {
+        return createFieldType(fieldType);
+    }
+
+    @Override
+    public List<FieldType> getFieldTypesWithoutCache() throws RepositoryException, InterruptedException {
+        return new ArrayList<FieldType>(schemaCache.getFieldTypes());
+    }
+
+    @Override
+    public List<RecordType> getRecordTypesWithoutCache() throws RepositoryException, InterruptedException {
+        return new ArrayList<RecordType>(schemaCache.getRecordTypes());
+    }
+
+    @Override
+    protected RecordType getRecordTypeByIdWithoutCache(SchemaId id, Long version)
+            throws RepositoryException, InterruptedException {
+        // Only one version of each record type exists
+        return getRecordTypeFromCache(id);
+    }
+
+    @Override
+    public Pair<List<FieldType>, List<RecordType>> getTypesWithoutCache()
+            throws RepositoryException, InterruptedException {
+        return new Pair<List<FieldType>, List<RecordType>>(getFieldTypesWithoutCache(), getRecordTypesWithoutCache());
+    }
+
+    @Override
+    public TypeBucket getTypeBucketWithoutCache(String bucketId) throws RepositoryException, InterruptedException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void enableSchemaCacheRefresh() throws RepositoryException, InterruptedException {
+    }
+
+    @Override
+    public void disableSchemaCacheRefresh() throws RepositoryException, InterruptedException {
+    }
+
+    @Override
+    public void triggerSchemaCacheRefresh() throws RepositoryException, InterruptedException {
+    }
+
+    @Override
+    public boolean isSchemaCacheRefreshEnabled() throws RepositoryException, InterruptedException {
+        return false;
+    }
+
+    /**
+     * Schema cache which is never started, and thus doesn't connect to ZooKeeper.
+     */
+    private static class InMemorySchemaCache extends AbstractSchemaCache {
+        private final TypeManager typeManager;
+
+        InMemorySchemaCache(TypeManager typeManager) {
+            super(null);
+            this.typeManager = typeManager;
+        }
+
+        @Override
+        protected TypeManager getTypeManager() {
+            return typeManager;
+        }
+    }
+}
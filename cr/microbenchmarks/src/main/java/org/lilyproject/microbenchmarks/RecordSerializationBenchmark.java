@@ -0,0 +1,69 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.microbenchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.lilyproject.avro.repository.RecordAsBytesConverter;
+import org.lilyproject.bytes.impl.DataInputImpl;
+import org.lilyproject.microbenchmarks.BenchmarkFixture.Shape;
+import org.lilyproject.repository.api.Record;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Benchmarks the serialization of complete records, as done when records are transported over Avro.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RecordSerializationBenchmark {
+    @Param
+    public Shape shape;
+
+    private BenchmarkFixture fixture;
+    private Record record;
+    private byte[] encoded;
+
+    @Setup
+    public void setup() throws Exception {
+        fixture = new BenchmarkFixture();
+        record = fixture.createRecord(shape);
+        encoded = RecordAsBytesConverter.write(record, fixture);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        fixture.close();
+    }
+
+    @Benchmark
+    public byte[] write() throws Exception {
+        return RecordAsBytesConverter.write(record, fixture);
+    }
+
+    @Benchmark
+    public Record read() throws Exception {
+        return RecordAsBytesConverter.read(new DataInputImpl(encoded), fixture);
+    }
+}
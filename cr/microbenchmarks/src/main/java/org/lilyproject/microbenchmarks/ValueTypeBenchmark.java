@@ -0,0 +1,81 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.microbenchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.lilyproject.microbenchmarks.BenchmarkFixture.Shape;
+import org.lilyproject.repository.api.IdentityRecordStack;
+import org.lilyproject.repository.api.QName;
+import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.ValueType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmarks the encoding and decoding of individual field values by their value type.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ValueTypeBenchmark {
+    /**
+     * The fields to benchmark, each one has a different value type, see {@link BenchmarkFixture}.
+     */
+    @Param({"title", "body", "size", "price", "modified", "keywords", "counts", "parent", "related", "owner",
+            "contributors"})
+    public String field;
+
+    private ValueType valueType;
+    private Object value;
+    private byte[] encoded;
+
+    @Setup
+    public void setup() throws Exception {
+        BenchmarkFixture fixture = new BenchmarkFixture();
+        QName fieldName = BenchmarkFixture.name(field);
+        valueType = fixture.getTypeManager().getFieldTypeByName(fieldName).getValueType();
+
+        for (Shape shape : Shape.values()) {
+            Record record = fixture.createRecord(shape);
+            if (record.hasField(fieldName)) {
+                value = record.getField(fieldName);
+                break;
+            }
+        }
+        if (value == null) {
+            throw new IllegalStateException("None of the record shapes has a value for field " + field);
+        }
+
+        encoded = valueType.toBytes(value, new IdentityRecordStack());
+    }
+
+    @Benchmark
+    public byte[] write() throws Exception {
+        return valueType.toBytes(value, new IdentityRecordStack());
+    }
+
+    @Benchmark
+    public Object read() throws Exception {
+        return valueType.read(encoded);
+    }
+}
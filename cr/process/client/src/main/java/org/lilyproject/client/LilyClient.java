@@ -58,6 +58,7 @@ import org.lilyproject.repository.api.RepositoryManager;
 import org.lilyproject.repository.api.RepositoryTableManager;
 import org.lilyproject.repository.impl.BlobManagerImpl;
 import org.lilyproject.repository.impl.BlobStoreAccessConfig;
+import org.lilyproject.repository.impl.ContentAddressedBlobStoreAccess;
 import org.lilyproject.repository.impl.DFSBlobStoreAccess;
 import org.lilyproject.repository.impl.HBaseBlobStoreAccess;
 import org.lilyproject.repository.impl.InlineBlobStoreAccess;
@@ -330,14 +331,19 @@ public class LilyClient implements Closeable, RepositoryManager {
         FileSystem fs = FileSystem.get(DfsUri.getBaseDfsUri(dfsUri), configuration);
         Path blobRootPath = new Path(DfsUri.getDfsPath(dfsUri));
 
-        BlobStoreAccess dfsBlobStoreAccess = new DFSBlobStoreAccess(fs, blobRootPath);
-        BlobStoreAccess hbaseBlobStoreAccess = new HBaseBlobStoreAccess(configuration, true);
+        BlobStoreAccessConfig blobStoreAccessConfig = getBlobStoreAccessConfig(zk);
+        BlobStoreAccess dfsBlobStoreAccess = new ContentAddressedBlobStoreAccess(
+                new DFSBlobStoreAccess(fs, blobRootPath), hbaseTableFactory, true,
+                blobStoreAccessConfig.isContentAddressed());
+        BlobStoreAccess hbaseBlobStoreAccess = new ContentAddressedBlobStoreAccess(
+                new HBaseBlobStoreAccess(configuration, true), hbaseTableFactory, true,
+                blobStoreAccessConfig.isContentAddressed());
         BlobStoreAccess inlineBlobStoreAccess = new InlineBlobStoreAccess();
         List<BlobStoreAccess> blobStoreAccesses =
                 Arrays.asList(dfsBlobStoreAccess, hbaseBlobStoreAccess, inlineBlobStoreAccess);
 
         SizeBasedBlobStoreAccessFactory blobStoreAccessFactory =
-                new SizeBasedBlobStoreAccessFactory(blobStoreAccesses, getBlobStoreAccessConfig(zk));
+                new SizeBasedBlobStoreAccessFactory(blobStoreAccesses, blobStoreAccessConfig);
 
         return new BlobManagerImpl(hbaseTableFactory, blobStoreAccessFactory, true);
     }
@@ -61,8 +61,13 @@ public class BlobIncubatorMonitorSetup {
         long minimalAge = 1000 * blobManagerConf.getChild("blobIncubatorMonitor").getAttributeAsLong("minimalAge");
         long monitorDelay = blobManagerConf.getChild("blobIncubatorMonitor").getAttributeAsLong("monitorDelay");
         long runDelay = 1000 * blobManagerConf.getChild("blobIncubatorMonitor").getAttributeAsLong("runDelay");
+        int batchSize = blobManagerConf.getChild("blobIncubatorMonitor").getAttributeAsInteger("batchSize",
+                BlobIncubatorMonitor.DEFAULT_BATCH_SIZE);
+        int threads = blobManagerConf.getChild("blobIncubatorMonitor").getAttributeAsInteger("threads",
+                BlobIncubatorMonitor.DEFAULT_THREADS);
         blobIncubatorMonitor = new BlobIncubatorMonitor(zookeeper, hbaseTableFactory, repositoryTableManager,
-                                        blobManager, typeManager, minimalAge, monitorDelay, runDelay);
+                                        blobManager, typeManager, minimalAge, monitorDelay, runDelay, batchSize,
+                                        threads);
 
         List<String> blobIncubatorNodes = Collections.EMPTY_LIST;
         Conf nodesConf = blobManagerConf.getChild("blobIncubatorMonitor").getChild("nodes");
@@ -15,6 +15,7 @@
  */
 package org.lilyproject.server.modules.repository;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.util.Arrays;
@@ -28,8 +29,10 @@ import org.apache.hadoop.fs.Path;
 import org.apache.zookeeper.KeeperException;
 import org.lilyproject.repository.api.BlobManager;
 import org.lilyproject.repository.api.BlobStoreAccess;
+import org.lilyproject.repository.impl.BlobDiskCache;
 import org.lilyproject.repository.impl.BlobManagerImpl;
 import org.lilyproject.repository.impl.BlobStoreAccessConfig;
+import org.lilyproject.repository.impl.ContentAddressedBlobStoreAccess;
 import org.lilyproject.repository.impl.DFSBlobStoreAccess;
 import org.lilyproject.repository.impl.HBaseBlobStoreAccess;
 import org.lilyproject.repository.impl.InlineBlobStoreAccess;
@@ -47,6 +50,8 @@ public class BlobManagerSetup {
 
     private FileSystem fs;
     private BlobManager blobManager;
+    private BlobDiskCache blobDiskCache;
+    private HBaseBlobStoreAccess hbaseBlobStore;
 
     public BlobManagerSetup(URI dfsUri, Configuration configuration, HBaseTableFactory tableFactory, ZooKeeperItf zk,
             Conf blobManagerConf) throws IOException, InterruptedException, KeeperException {
@@ -54,20 +59,41 @@ public class BlobManagerSetup {
         fs = FileSystem.get(DfsUri.getBaseDfsUri(dfsUri), configuration);
         Path blobRootPath = new Path(DfsUri.getDfsPath(dfsUri));
 
-        BlobStoreAccess dfsBlobStoreAccess = new DFSBlobStoreAccess(fs, blobRootPath);
-        BlobStoreAccess hbaseBlobStoreAccess = new HBaseBlobStoreAccess(tableFactory);
-        BlobStoreAccess inlineBlobStoreAccess = new InlineBlobStoreAccess();
-        List<BlobStoreAccess> blobStoreAccesses = Arrays.asList(dfsBlobStoreAccess, hbaseBlobStoreAccess,
-                inlineBlobStoreAccess);
-
-        String defaultStoreName = blobManagerConf.getChild("blobStore").getAttribute("default");
+        Conf blobStoreConf = blobManagerConf.getChild("blobStore");
+        String defaultStoreName = blobStoreConf.getAttribute("default");
         BlobStoreAccessConfig blobStoreAccessConfig = new BlobStoreAccessConfig(defaultStoreName);
-        List<Conf> children = blobManagerConf.getChild("blobStore").getChildren("store");
+        List<Conf> children = blobStoreConf.getChildren("store");
         for (Conf access : children) {
             String accessName = access.getAttribute("name");
             long limit = access.getAttributeAsInteger("limit");
             blobStoreAccessConfig.setLimit(accessName, limit);
         }
+        blobStoreAccessConfig.setContentAddressed(blobStoreConf.getAttributeAsBoolean("contentAddressed", false));
+
+        BlobStoreAccess dfsBlobStoreAccess = new DFSBlobStoreAccess(fs, blobRootPath);
+        hbaseBlobStore = new HBaseBlobStoreAccess(tableFactory);
+        BlobStoreAccess hbaseBlobStoreAccess = hbaseBlobStore;
+
+        Conf cacheConf = blobManagerConf.getChild("diskCache");
+        if (cacheConf.getAttributeAsBoolean("enabled", false)) {
+            blobDiskCache = new BlobDiskCache(new File(cacheConf.getAttribute("directory")),
+                    1024L * 1024L * cacheConf.getAttributeAsLong("maxSizeMb"),
+                    cacheConf.getAttributeAsLong("maxBlobSize"),
+                    cacheConf.getAttributeAsInteger("mapThreshold"));
+            dfsBlobStoreAccess = blobDiskCache.wrap(dfsBlobStoreAccess);
+            hbaseBlobStoreAccess = blobDiskCache.wrap(hbaseBlobStoreAccess);
+        }
+
+        // The content-addressed wrappers are always in place, so that deduplicated blobs stay readable when
+        // deduplication is switched off again. They sit on top of the cache, so that is deduplicated too.
+        dfsBlobStoreAccess = new ContentAddressedBlobStoreAccess(dfsBlobStoreAccess, tableFactory, false,
+                blobStoreAccessConfig.isContentAddressed());
+        hbaseBlobStoreAccess = new ContentAddressedBlobStoreAccess(hbaseBlobStoreAccess, tableFactory, false,
+                blobStoreAccessConfig.isContentAddressed());
+
+        BlobStoreAccess inlineBlobStoreAccess = new InlineBlobStoreAccess();
+        List<BlobStoreAccess> blobStoreAccesses = Arrays.asList(dfsBlobStoreAccess, hbaseBlobStoreAccess,
+                inlineBlobStoreAccess);
 
         SizeBasedBlobStoreAccessFactory blobStoreAccessFactory = new SizeBasedBlobStoreAccessFactory(blobStoreAccesses,
                 blobStoreAccessConfig);
@@ -79,6 +105,10 @@ public class BlobManagerSetup {
 
     @PreDestroy
     public void stop() {
+        if (blobDiskCache != null) {
+            blobDiskCache.close();
+        }
+        hbaseBlobStore.close();
         // Since CDH4: don't close connection as this seems to close it for other clients (such as HBase)
         // too in case of launch-test-lily with resetLilyState.
         // Closer.close(fs);
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.server.modules.repository;
+
+import com.ngdata.sep.EventListener;
+import com.ngdata.sep.SepEvent;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.lilyproject.repository.api.IdGenerator;
+import org.lilyproject.repository.impl.RecordCache;
+import org.lilyproject.util.hbase.LilyHBaseSchema.RecordCf;
+import org.lilyproject.util.hbase.LilyHBaseSchema.RecordColumn;
+
+/**
+ * Removes the records for which a record event passes on the SEP from the {@link RecordCache}.
+ *
+ * <p>The events include the changes done through this Lily node, which are already removed from the cache by the
+ * repository itself, removing them again does no harm.</p>
+ */
+public class RecordCacheInvalidator implements EventListener {
+    private final RecordCache recordCache;
+    private final IdGenerator idGenerator;
+
+    public RecordCacheInvalidator(RecordCache recordCache, IdGenerator idGenerator) {
+        this.recordCache = recordCache;
+        this.idGenerator = idGenerator;
+    }
+
+    @Override
+    public void processEvent(SepEvent event) {
+        // Mutations without payload, such as the cleanup following the delete of a record, are treated the
+        // same way: all the cache needs is the row key.
+        recordCache.invalidate(Bytes.toString(event.getTable()), idGenerator.fromBytes(event.getRow()),
+                getChangeTime(event));
+    }
+
+    /**
+     * The time at which the record was changed, which is the timestamp of the payload column.
+     */
+    private long getChangeTime(SepEvent event) {
+        for (KeyValue keyValue : event.getKeyValues()) {
+            if (keyValue.matchingColumn(RecordCf.DATA.bytes, RecordColumn.PAYLOAD.bytes)) {
+                return keyValue.getTimestamp();
+            }
+        }
+        return System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.server.modules.repository;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import com.ngdata.sep.SepModel;
+import com.ngdata.sep.impl.SepConsumer;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.ZooDefs;
+import org.lilyproject.repository.api.IdGenerator;
+import org.lilyproject.repository.impl.RecordCache;
+import org.lilyproject.runtime.conf.Conf;
+import org.lilyproject.sep.LilyPayloadExtractor;
+import org.lilyproject.sep.ZooKeeperItfAdapter;
+import org.lilyproject.util.concurrent.CustomThreadFactory;
+import org.lilyproject.util.io.Closer;
+import org.lilyproject.util.zookeeper.ZkUtil;
+import org.lilyproject.util.zookeeper.ZooKeeperItf;
+
+/**
+ * Sets up the {@link RecordCache} and, when it is enabled, the SEP consumer which removes the records changed
+ * through other Lily nodes from it.
+ *
+ * <p>Each Lily node needs to see all record events, hence each node has its own SEP subscription. Since the cache
+ * starts out empty, there is no need to catch up with the events which happened while the node was down, so the
+ * subscription is removed again when the node stops.</p>
+ *
+ * <p>A node which crashes, or which is restarted under another host name, can't remove its subscription itself,
+ * while HBase keeps the write-ahead logs for as long as the subscription exists. Therefore each subscription is
+ * registered in ZooKeeper under {@link #SUBSCRIPTIONS_PATH}, with an ephemeral child node which exists as long as
+ * the node owning the subscription is alive. Each node periodically removes the subscriptions of which the owner
+ * is gone.</p>
+ */
+public class RecordCacheSetup {
+    static final String SUBSCRIPTIONS_PATH = "/lily/recordCache/subscriptions";
+    private static final String LIVE_NODE = "live";
+    private static final long CLEANUP_INTERVAL = 5L * 60L * 1000L;
+
+    private final RecordCache recordCache;
+    private final SepModel sepModel;
+    private final IdGenerator idGenerator;
+    private final Configuration hbaseConf;
+    private final ZooKeeperItf zk;
+    private final String hostName;
+    private final String subscriptionName;
+    private final int threads;
+    private SepConsumer sepConsumer;
+    private ScheduledExecutorService cleanupExecutor;
+    private final Log log = LogFactory.getLog(getClass());
+
+    public RecordCacheSetup(Conf repositoryConf, SepModel sepModel, IdGenerator idGenerator, Configuration hbaseConf,
+            ZooKeeperItf zk, String hostName) {
+        Conf cacheConf = repositoryConf.getChild("recordCache");
+        boolean enabled = cacheConf.getAttributeAsBoolean("enabled", false);
+        int maxSize = cacheConf.getAttributeAsInteger("maxSize", 10000);
+        long maxAge = 1000L * cacheConf.getAttributeAsInteger("maxAge", 60);
+        this.threads = cacheConf.getAttributeAsInteger("threads", 2);
+
+        this.recordCache = enabled ? new RecordCache(maxSize, maxAge) : new RecordCache();
+        this.sepModel = sepModel;
+        this.idGenerator = idGenerator;
+        this.hbaseConf = hbaseConf;
+        this.zk = zk;
+        this.hostName = hostName;
+        // Subscription names end up in ZooKeeper node names and HBase replication peer ids
+        this.subscriptionName = "RecordCache_" + hostName.replaceAll("[^a-zA-Z0-9]", "_");
+    }
+
+    @PostConstruct
+    public void start() throws InterruptedException, KeeperException, IOException {
+        if (!recordCache.isEnabled()) {
+            // In case the cache was enabled before
+            sepModel.removeSubscriptionSilent(subscriptionName);
+            return;
+        }
+
+        registerLiveSubscription();
+        sepModel.addSubscriptionSilent(subscriptionName);
+        // Events from before the start don't matter, since the cache is empty
+        sepConsumer = new SepConsumer(subscriptionName, System.currentTimeMillis(),
+                new RecordCacheInvalidator(recordCache, idGenerator), threads, hostName,
+                new ZooKeeperItfAdapter(zk), hbaseConf, new LilyPayloadExtractor());
+        sepConsumer.start();
+
+        cleanupExecutor = Executors.newSingleThreadScheduledExecutor(
+                new CustomThreadFactory("record-cache-subscription-cleanup", null, true));
+        cleanupExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    removeDeadSubscriptions();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (Throwable t) {
+                    log.error("Error removing record cache subscriptions of Lily nodes which are gone", t);
+                }
+            }
+        }, 0, CLEANUP_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException, KeeperException, IOException {
+        if (cleanupExecutor != null) {
+            cleanupExecutor.shutdownNow();
+        }
+        Closer.close(sepConsumer);
+        if (recordCache.isEnabled()) {
+            sepModel.removeSubscriptionSilent(subscriptionName);
+            ZkUtil.deleteNode(zk, SUBSCRIPTIONS_PATH + "/" + subscriptionName + "/" + LIVE_NODE);
+            ZkUtil.deleteNode(zk, SUBSCRIPTIONS_PATH + "/" + subscriptionName);
+        }
+        recordCache.close();
+    }
+
+    /**
+     * Registers the subscription of this node, with the ephemeral node telling it is alive. This is done before
+     * the subscription is added, so that another node can't consider it as dead.
+     */
+    private void registerLiveSubscription() throws InterruptedException, KeeperException {
+        String path = SUBSCRIPTIONS_PATH + "/" + subscriptionName;
+        while (true) {
+            ZkUtil.createPath(zk, path);
+            try {
+                zk.create(path + "/" + LIVE_NODE, null, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL);
+                return;
+            } catch (KeeperException.NodeExistsException e) {
+                // Left behind by a previous session of this node which didn't expire yet
+                ZkUtil.deleteNode(zk, path + "/" + LIVE_NODE);
+            } catch (KeeperException.NoNodeException e) {
+                // Removed concurrently by the cleanup of another node, try again
+            }
+        }
+    }
+
+    /**
+     * Removes the subscriptions of which the owning Lily node is not alive anymore.
+     */
+    void removeDeadSubscriptions() throws InterruptedException, KeeperException {
+        List<String> subscriptions;
+        try {
+            subscriptions = zk.getChildren(SUBSCRIPTIONS_PATH, false);
+        } catch (KeeperException.NoNodeException e) {
+            return;
+        }
+
+        for (String subscription : subscriptions) {
+            String path = SUBSCRIPTIONS_PATH + "/" + subscription;
+            try {
+                // The delete fails when the live node exists, which makes checking and removing atomic
+                zk.delete(path, -1);
+            } catch (KeeperException.NotEmptyException e) {
+                continue;
+            } catch (KeeperException.NoNodeException e) {
+                // Removed concurrently by another node
+                continue;
+            }
+            log.info("Removing record cache subscription of Lily node which is gone: " + subscription);
+            sepModel.removeSubscriptionSilent(subscription);
+        }
+    }
+
+    public RecordCache getRecordCache() {
+        return recordCache;
+    }
+}
@@ -20,6 +20,8 @@ import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriInfo;
 
@@ -28,8 +30,10 @@ public class BlobByFieldResource extends RepositoryEnabled {
 
     @GET
     @Produces("*/*")
-    public Response get(@PathParam("id") String id, @PathParam("fieldName") String fieldName, @Context UriInfo uriInfo) {
-        return BlobByVersionAndFieldResource.getBlob(id, null, fieldName, uriInfo, getRepository(uriInfo));
+    public Response get(@PathParam("id") String id, @PathParam("fieldName") String fieldName, @Context UriInfo uriInfo,
+            @Context Request request, @Context HttpHeaders headers) {
+        return BlobByVersionAndFieldResource.getBlob(id, null, fieldName, uriInfo, request, headers,
+                getRepository(uriInfo));
     }
 
 }
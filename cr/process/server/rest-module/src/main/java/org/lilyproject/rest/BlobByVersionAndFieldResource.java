@@ -21,21 +21,26 @@ import static javax.ws.rs.core.Response.Status.NOT_FOUND;
 import javax.ws.rs.*;
 import javax.ws.rs.core.*;
 
+import com.google.common.hash.Hashing;
 import org.lilyproject.repository.api.*;
 
 @Path("record/{id}/version/{version:\\d+}/field/{fieldName}/data")
 public class BlobByVersionAndFieldResource extends RepositoryEnabled {
+    // Not available in Response.Status
+    private static final int PARTIAL_CONTENT = 206;
+    private static final int REQUESTED_RANGE_NOT_SATISFIABLE = 416;
 
     @GET
     @Produces("*/*")
     public Response get(@PathParam("id") String id, @PathParam("version") String version,
-            @PathParam("fieldName") String fieldName, @Context UriInfo uriInfo) {
-        return getBlob(id, version, fieldName, uriInfo, getRepository(uriInfo));
+            @PathParam("fieldName") String fieldName, @Context UriInfo uriInfo, @Context Request request,
+            @Context HttpHeaders headers) {
+        return getBlob(id, version, fieldName, uriInfo, request, headers, getRepository(uriInfo));
     }
 
 
     protected static Response getBlob(String id, String version, String fieldName, UriInfo uriInfo,
-            final Repository repository) {
+            Request request, HttpHeaders headers, final Repository repository) {
         final RecordId recordId = repository.getIdGenerator().fromString(id);
 
         final QName fieldQName = ResourceClassUtil.parseQName(fieldName, uriInfo.getQueryParameters());
@@ -49,7 +54,7 @@ public class BlobByVersionAndFieldResource extends RepositoryEnabled {
 
         try {
             final BlobAccess blobAccess = repository.getBlob(recordId, versionNr, fieldQName, indexes);
-            return Response.ok(blobAccess, MediaType.valueOf(blobAccess.getBlob().getMediaType())).build();
+            return createBlobResponse(blobAccess, request, headers);
         } catch (RecordNotFoundException e) {
             throw new ResourceException(e, NOT_FOUND.getStatusCode());
         } catch (FieldNotFoundException e) {
@@ -61,4 +66,96 @@ public class BlobByVersionAndFieldResource extends RepositoryEnabled {
         }
     }
 
+    /**
+     * Creates the response for a blob, taking the conditional and range headers of the request into account.
+     *
+     * <p>Since a blob never changes once it is written, its key identifies its content and is used as a
+     * strong ETag. Only single byte ranges are supported, a request for multiple ranges gets the complete
+     * blob.</p>
+     */
+    protected static Response createBlobResponse(BlobAccess blobAccess, Request request, HttpHeaders headers) {
+        Blob blob = blobAccess.getBlob();
+        MediaType mediaType = MediaType.valueOf(blob.getMediaType());
+        EntityTag etag = new EntityTag(Hashing.md5().hashBytes(blob.getValue()).toString());
+
+        Response.ResponseBuilder notModified = request.evaluatePreconditions(etag);
+        if (notModified != null) {
+            return notModified.tag(etag).build();
+        }
+
+        Long size = blob.getSize();
+        String range = headers.getRequestHeaders().getFirst("Range");
+        String ifRange = headers.getRequestHeaders().getFirst("If-Range");
+        if (size != null && range != null && (ifRange == null || ifRange.equals(etag.toString()))) {
+            long[] byteRange = parseByteRange(range, size);
+            if (byteRange == null) {
+                // Unsupported or invalid range specification, which is to be ignored
+            } else if (byteRange.length == 0) {
+                return Response.status(REQUESTED_RANGE_NOT_SATISFIABLE)
+                        .header("Content-Range", "bytes */" + size).tag(etag).build();
+            } else {
+                long start = byteRange[0];
+                long end = byteRange[1];
+                return Response.status(PARTIAL_CONTENT)
+                        .entity(new PartialBlob(blobAccess, start, end - start + 1)).type(mediaType)
+                        .header("Content-Range", "bytes " + start + "-" + end + "/" + size)
+                        .header("Accept-Ranges", "bytes").tag(etag).build();
+            }
+        }
+
+        return Response.ok(blobAccess, mediaType).header("Accept-Ranges", "bytes").tag(etag).build();
+    }
+
+    /**
+     * Parses a Range header holding a single byte range.
+     *
+     * @return the first and last byte position (inclusive), an empty array if the range is not satisfiable, or
+     *         null if the header should be ignored
+     */
+    static long[] parseByteRange(String range, long size) {
+        range = range.trim();
+        if (!range.startsWith("bytes=") || range.indexOf(',') != -1) {
+            return null;
+        }
+        String spec = range.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash == -1) {
+            return null;
+        }
+
+        long start;
+        long end;
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+            if (first.length() == 0) {
+                // Suffix range: the last N bytes
+                long suffixLength = Long.parseLong(last);
+                if (suffixLength <= 0) {
+                    return new long[0];
+                }
+                start = Math.max(size - suffixLength, 0);
+                end = size - 1;
+            } else {
+                start = Long.parseLong(first);
+                if (last.length() == 0) {
+                    end = size - 1;
+                } else {
+                    long lastPos = Long.parseLong(last);
+                    if (lastPos < start) {
+                        // Syntactically invalid
+                        return null;
+                    }
+                    end = Math.min(lastPos, size - 1);
+                }
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+
+        if (start < 0 || start >= size) {
+            return new long[0];
+        }
+        return new long[] {start, end};
+    }
 }
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.rest;
+
+import org.lilyproject.repository.api.BlobAccess;
+
+/**
+ * A byte range of a blob, returned as the entity of a 206 Partial Content response.
+ */
+public class PartialBlob {
+    private final BlobAccess blobAccess;
+    private final long offset;
+    private final long length;
+
+    public PartialBlob(BlobAccess blobAccess, long offset, long length) {
+        this.blobAccess = blobAccess;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public BlobAccess getBlobAccess() {
+        return blobAccess;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public long getLength() {
+        return length;
+    }
+}
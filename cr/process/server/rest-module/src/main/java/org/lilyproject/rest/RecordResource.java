@@ -38,6 +38,7 @@ import javax.ws.rs.core.UriInfo;
 
 import org.lilyproject.repository.api.QName;
 import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.RecordCacheBypass;
 import org.lilyproject.repository.api.RecordId;
 import org.lilyproject.repository.api.RecordNotFoundException;
 import org.lilyproject.repository.api.Repository;
@@ -56,12 +57,19 @@ public class RecordResource extends RepositoryEnabled {
         Repository repository = getRepository(uriInfo);
         RecordId recordId = repository.getIdGenerator().fromString(id);
         List<QName> fieldQNames = ResourceClassUtil.parseFieldList(uriInfo);
+        // cache=false asks for the latest state of the record, rather than a cached one
+        boolean bypassCache = "false".equalsIgnoreCase(uriInfo.getQueryParameters().getFirst("cache"));
+        boolean previousBypass = bypassCache ? RecordCacheBypass.begin() : false;
         try {
             return Entity.create(repository.read(recordId, fieldQNames), uriInfo);
         } catch (RecordNotFoundException e) {
             throw new ResourceException(e, NOT_FOUND.getStatusCode());
         } catch (Exception e) {
             throw new ResourceException("Error loading record.", e, INTERNAL_SERVER_ERROR.getStatusCode());
+        } finally {
+            if (bypassCache) {
+                RecordCacheBypass.end(previousBypass);
+            }
         }
     }
 
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.rest.providers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+
+import org.lilyproject.repository.api.BlobException;
+import org.lilyproject.rest.PartialBlob;
+import org.lilyproject.util.io.Closer;
+
+@Provider
+public class PartialBlobBodyWriter implements MessageBodyWriter<PartialBlob> {
+    @Override
+    public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return PartialBlob.class.isAssignableFrom(type);
+    }
+
+    @Override
+    public long getSize(PartialBlob partialBlob, Class<?> type, Type genericType, Annotation[] annotations,
+            MediaType mediaType) {
+        return partialBlob.getLength();
+    }
+
+    @Override
+    public void writeTo(PartialBlob partialBlob, Class<?> type, Type genericType, Annotation[] annotations,
+            MediaType mediaType, MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream)
+            throws IOException, WebApplicationException {
+        InputStream is = null;
+        try {
+            is = partialBlob.getBlobAccess().getInputStream(partialBlob.getOffset());
+            byte[] buffer = new byte[8192];
+            long remaining = partialBlob.getLength();
+            while (remaining > 0) {
+                int read = is.read(buffer, 0, (int)Math.min(buffer.length, remaining));
+                if (read == -1) {
+                    break;
+                }
+                entityStream.write(buffer, 0, read);
+                remaining -= read;
+            }
+        } catch (BlobException e) {
+            throw new IOException("Error reading blob.", e);
+        } finally {
+            Closer.close(is);
+        }
+    }
+}
@@ -25,6 +25,7 @@ import java.util.UUID;
 import org.junit.BeforeClass;
 
 import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpGet;
 import org.codehaus.jackson.JsonNode;
 import org.codehaus.jackson.node.ArrayNode;
 import org.codehaus.jackson.node.JsonNodeFactory;
@@ -284,6 +285,43 @@ public class RecordRestTest extends AbstractRestTest {
         response = get("/record/USER.blob1/field/b$blob1/data?ns.b=org.lilyproject.resttest");
         assertStatus(HttpStatus.SC_OK, response);
         assertEquals(data, new String(response.getContent()));
+        assertEquals("bytes", response.getResponse().getFirstHeader("Accept-Ranges").getValue());
+        String etag = response.getResponse().getFirstHeader("ETag").getValue();
+        assertNotNull(etag);
+
+        // Read the blob again, knowing its ETag
+        String blobUri = buildUri("/record/USER.blob1/field/b$blob1/data?ns.b=org.lilyproject.resttest");
+        HttpGet get = new HttpGet(blobUri);
+        get.setHeader("If-None-Match", etag);
+        response = processResponseAndContent(get);
+        assertStatus(HttpStatus.SC_NOT_MODIFIED, response);
+
+        // Read ranges of the blob
+        get = new HttpGet(blobUri);
+        get.setHeader("Range", "bytes=7-10");
+        response = processResponseAndContent(get);
+        assertStatus(HttpStatus.SC_PARTIAL_CONTENT, response);
+        assertEquals("blob", new String(response.getContent()));
+        assertEquals("bytes 7-10/" + data.length(), response.getResponse().getFirstHeader("Content-Range").getValue());
+
+        get = new HttpGet(blobUri);
+        get.setHeader("Range", "bytes=-6");
+        response = processResponseAndContent(get);
+        assertStatus(HttpStatus.SC_PARTIAL_CONTENT, response);
+        assertEquals("world!", new String(response.getContent()));
+
+        get = new HttpGet(blobUri);
+        get.setHeader("Range", "bytes=100-");
+        response = processResponseAndContent(get);
+        assertStatus(HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE, response);
+
+        // A range with a non-matching If-Range gives the complete blob
+        get = new HttpGet(blobUri);
+        get.setHeader("Range", "bytes=7-10");
+        get.setHeader("If-Range", "\"other\"");
+        response = processResponseAndContent(get);
+        assertStatus(HttpStatus.SC_OK, response);
+        assertEquals(data, new String(response.getContent()));
     }
 
     @Test
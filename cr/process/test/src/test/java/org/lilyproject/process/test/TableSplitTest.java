@@ -15,9 +15,12 @@
  */
 package org.lilyproject.process.test;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 
 import org.junit.Assert;
@@ -41,8 +44,13 @@ import org.lilyproject.repository.api.FieldType;
 import org.lilyproject.repository.api.IdGenerator;
 import org.lilyproject.repository.api.Link;
 import org.lilyproject.repository.api.QName;
+import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.repository.api.RecordScan;
+import org.lilyproject.repository.api.RecordScanner;
 import org.lilyproject.repository.api.RecordType;
 import org.lilyproject.repository.api.Repository;
+import org.lilyproject.repository.api.ReturnFields;
 import org.lilyproject.repository.api.Scope;
 import org.lilyproject.repository.api.TypeManager;
 import org.lilyproject.util.test.TestHomeUtil;
@@ -215,6 +223,46 @@ public class TableSplitTest {
                         count >= 60 && count <= 140);
             }
         }
+
+        //
+        // A parallel scan over the regions should give the same records as a normal scan
+        //
+        List<RecordId> expected = scanIds(repository, new RecordScan());
+        assertTrue(expected.size() >= 300);
+
+        RecordScan orderedScan = new RecordScan();
+        orderedScan.setParallelism(2);
+        orderedScan.setReadAhead(10);
+        assertEquals(expected, scanIds(repository, orderedScan));
+
+        RecordScan unorderedScan = new RecordScan();
+        unorderedScan.setParallelism(3);
+        unorderedScan.setOrdered(false);
+        List<RecordId> unordered = scanIds(repository, unorderedScan);
+        assertEquals(expected.size(), unordered.size());
+        assertEquals(new HashSet<RecordId>(expected), new HashSet<RecordId>(unordered));
+
+        // Scan starting halfway
+        RecordScan rangeScan = new RecordScan();
+        rangeScan.setStartRecordId(expected.get(expected.size() / 2));
+        rangeScan.setParallelism(3);
+        assertEquals(expected.subList(expected.size() / 2, expected.size()), scanIds(repository, rangeScan));
+    }
+
+    private List<RecordId> scanIds(Repository repository, RecordScan scan) throws Exception {
+        scan.setReturnFields(ReturnFields.NONE);
+        scan.setCaching(50);
+        List<RecordId> ids = new ArrayList<RecordId>();
+        RecordScanner scanner = repository.getScanner(scan);
+        try {
+            Record record;
+            while ((record = scanner.next()) != null) {
+                ids.add(record.getId());
+            }
+        } finally {
+            scanner.close();
+        }
+        return ids;
     }
 
 }
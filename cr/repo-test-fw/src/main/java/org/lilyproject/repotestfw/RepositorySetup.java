@@ -100,6 +100,8 @@ public class RepositorySetup {
     private BlobManager remoteBlobManager;
     
     private SepModel sepModel;
+
+    private HBaseBlobStoreAccess hbaseBlobStore;
     private SepConsumer sepConsumer;
     private LilyEventPublisherManager eventPublisherManager;
 
@@ -174,7 +176,8 @@ public class RepositorySetup {
 
     private BlobStoreAccessFactory createBlobAccess() throws Exception {
         DFSBlobStoreAccess dfsBlobStoreAccess = new DFSBlobStoreAccess(hbaseProxy.getBlobFS(), new Path("/lily/blobs"));
-        BlobStoreAccess hbaseBlobStoreAccess = new HBaseBlobStoreAccess(hadoopConf);
+        hbaseBlobStore = new HBaseBlobStoreAccess(hadoopConf);
+        BlobStoreAccess hbaseBlobStoreAccess = hbaseBlobStore;
         BlobStoreAccess inlineBlobStoreAccess = new InlineBlobStoreAccess();
 
         BlobStoreAccessConfig blobStoreAccessConfig = new BlobStoreAccessConfig(dfsBlobStoreAccess.getId());
@@ -260,6 +263,7 @@ public class RepositorySetup {
         Closer.close(typeManager);
         Closer.close(remoteRepositoryManager);
         Closer.close(repositoryManager);
+        Closer.close(hbaseBlobStore);
 
         if (lilyServer != null) {
             lilyServer.close();
@@ -593,6 +593,19 @@ public class RecordEvent {
                         && !indexSubscriptionIds.contains(indexSubscriptionId);
             }
         }
+
+        /**
+         * Check if the containing RecordEvent is possibly applicable to at least one index subscription.
+         *
+         * @return false if the RecordEvent is certainly not applicable to any index subscription
+         */
+        public boolean appliesToAnySubscription() {
+            if (includeSubscriptions) {
+                return indexSubscriptionIds == null || !indexSubscriptionIds.isEmpty();
+            } else {
+                return indexSubscriptionIds != null;
+            }
+        }
         
         @Override
         public boolean equals(Object obj) {
@@ -27,4 +27,13 @@ public interface BlobAccess {
      * The InputStream is only opened when this method is called.
      */
     InputStream getInputStream() throws BlobException;
+
+    /**
+     * Opens the InputStream at the given position in the blob. Blob stores which implement
+     * {@link SeekableBlobStoreAccess} start reading at that position, for the others the bytes before it are
+     * read and skipped.
+     *
+     * @param offset the position of the first byte to read, should not be larger than the size of the blob
+     */
+    InputStream getInputStream(long offset) throws BlobException;
 }
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.api;
+
+import java.math.BigDecimal;
+
+/**
+ * Statistics of the values of one numeric field, as part of a {@link RecordAggregation}.
+ */
+public class FieldAggregation {
+    private final long count;
+    private final BigDecimal min;
+    private final BigDecimal max;
+    private final BigDecimal sum;
+
+    public FieldAggregation(long count, BigDecimal min, BigDecimal max, BigDecimal sum) {
+        this.count = count;
+        this.min = min;
+        this.max = max;
+        this.sum = sum;
+    }
+
+    /**
+     * The number of records which have a value for the field.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * The smallest value, null if no record has a value for the field.
+     */
+    public BigDecimal getMin() {
+        return min;
+    }
+
+    /**
+     * The largest value, null if no record has a value for the field.
+     */
+    public BigDecimal getMax() {
+        return max;
+    }
+
+    /**
+     * The sum of all values, zero if no record has a value for the field.
+     */
+    public BigDecimal getSum() {
+        return sum;
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + count + ", min=" + min + ", max=" + max + ", sum=" + sum;
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.api;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.lilyproject.util.ArgumentValidator;
+
+/**
+ * A mutation of a field which is computed from the current value of the field by the repository, see
+ * {@link Repository#update(Record, List, List)}.
+ *
+ * <p>Since the repository applies the mutation to the value as it is stored at the moment of the update,
+ * concurrent mutations of the same field don't overwrite each other, as opposed to reading a record, changing
+ * the value and writing it back.</p>
+ */
+public class FieldMutation {
+    public enum Type {
+        /**
+         * Adds a number to the value of a LONG, INTEGER or DECIMAL field. A missing field is treated as zero.
+         */
+        INCREMENT,
+        /**
+         * Adds values to the end of a LIST field. A missing field is treated as an empty list.
+         */
+        APPEND
+    }
+
+    private final QName field;
+    private final Type type;
+    private final Number delta;
+    private final List<Object> values;
+    private final int maxSize;
+
+    private FieldMutation(QName field, Type type, Number delta, List<Object> values, int maxSize) {
+        ArgumentValidator.notNull(field, "field");
+        this.field = field;
+        this.type = type;
+        this.delta = delta;
+        this.values = values;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Creates a mutation which adds the given delta to the value of a LONG, INTEGER or DECIMAL field. The
+     * delta is allowed to be negative.
+     */
+    public static FieldMutation increment(QName field, Number delta) {
+        ArgumentValidator.notNull(delta, "delta");
+        return new FieldMutation(field, Type.INCREMENT, delta, null, 0);
+    }
+
+    /**
+     * Creates a mutation which adds the given values to the end of a LIST field, without limit on the size of
+     * the list.
+     */
+    public static FieldMutation append(QName field, List<?> values) {
+        return append(field, values, 0);
+    }
+
+    /**
+     * Creates a mutation which adds the given values to the end of a LIST field.
+     *
+     * @param values the values to append, of the type of the list items
+     * @param maxSize when larger than 0, the maximum number of items of the list: if the list grows beyond
+     *                this size, the oldest items (those at the start of the list) are removed.
+     */
+    public static FieldMutation append(QName field, List<?> values, int maxSize) {
+        ArgumentValidator.notNull(values, "values");
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("maxSize should not be negative, got: " + maxSize);
+        }
+        return new FieldMutation(field, Type.APPEND, null,
+                Collections.unmodifiableList(new ArrayList<Object>(values)), maxSize);
+    }
+
+    public QName getField() {
+        return field;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * The number to add, for {@link Type#INCREMENT} mutations.
+     */
+    public Number getDelta() {
+        return delta;
+    }
+
+    /**
+     * The values to append, for {@link Type#APPEND} mutations.
+     */
+    public List<Object> getValues() {
+        return values;
+    }
+
+    /**
+     * The maximum size of the list, for {@link Type#APPEND} mutations, 0 means unbounded.
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+}
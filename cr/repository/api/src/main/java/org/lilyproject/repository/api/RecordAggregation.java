@@ -0,0 +1,64 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.api;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * The result of {@link Repository#aggregate(RecordScan, QName...)}: the number of records matched by a scan,
+ * broken down per record type, and statistics of some numeric fields of these records.
+ */
+public class RecordAggregation {
+    private final long count;
+    private final Map<QName, Long> countsByRecordType;
+    private final Map<QName, FieldAggregation> fieldAggregations;
+
+    public RecordAggregation(long count, Map<QName, Long> countsByRecordType,
+            Map<QName, FieldAggregation> fieldAggregations) {
+        this.count = count;
+        this.countsByRecordType = Collections.unmodifiableMap(countsByRecordType);
+        this.fieldAggregations = Collections.unmodifiableMap(fieldAggregations);
+    }
+
+    /**
+     * The number of records matched by the scan.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * The number of records per (non-versioned) record type.
+     */
+    public Map<QName, Long> getCountsByRecordType() {
+        return countsByRecordType;
+    }
+
+    /**
+     * The statistics for each of the requested fields.
+     */
+    public Map<QName, FieldAggregation> getFieldAggregations() {
+        return fieldAggregations;
+    }
+
+    /**
+     * Returns the statistics for the given field, or null if it was not requested.
+     */
+    public FieldAggregation getFieldAggregation(QName field) {
+        return fieldAggregations.get(field);
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.api;
+
+/**
+ * Allows code running inside the Lily server to bypass the record cache, for reads which need to see the
+ * latest state of a record rather than one which might lag behind changes made through other Lily nodes.
+ *
+ * <p>The bypass applies to the reads done by the current thread, use it as follows:</p>
+ *
+ * <pre>
+ * boolean previous = RecordCacheBypass.begin();
+ * try {
+ *     record = repository.read(recordId);
+ * } finally {
+ *     RecordCacheBypass.end(previous);
+ * }
+ * </pre>
+ *
+ * <p>Reads done through the remote repository are not affected, on the REST interface the cache can be bypassed
+ * by adding the request parameter cache=false.</p>
+ */
+public final class RecordCacheBypass {
+    private static final ThreadLocal<Boolean> ACTIVE = new ThreadLocal<Boolean>();
+
+    private RecordCacheBypass() {
+    }
+
+    /**
+     * Starts bypassing the record cache for the current thread.
+     *
+     * @return the previous state, to pass to {@link #end(boolean)}
+     */
+    public static boolean begin() {
+        boolean previous = isActive();
+        ACTIVE.set(Boolean.TRUE);
+        return previous;
+    }
+
+    /**
+     * Restores the state from before the corresponding call to {@link #begin()}.
+     */
+    public static void end(boolean previous) {
+        if (previous) {
+            ACTIVE.set(Boolean.TRUE);
+        } else {
+            ACTIVE.remove();
+        }
+    }
+
+    public static boolean isActive() {
+        return ACTIVE.get() != null;
+    }
+}
@@ -31,6 +31,9 @@ public class RecordScan {
     private ReturnFields returnFields;
     private int caching = -1;
     private boolean cacheBlocks = true;
+    private int parallelism = 1;
+    private boolean ordered = true;
+    private int readAhead = -1;
 
     /**
      * @see #setStartRecordId(RecordId)
@@ -210,4 +213,64 @@ public class RecordScan {
     public void setCacheBlocks(boolean cacheBlocks) {
         this.cacheBlocks = cacheBlocks;
     }
+
+    /**
+     * @see #setParallelism(int)
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Sets the number of regions that are scanned concurrently.
+     *
+     * <p>By default (a value of 1), the regions covered by the scan are read one after the other, as
+     * with a plain HBase scan. With a higher value, the key range of the scan is split on the region
+     * boundaries and up to this number of regions are read at the same time by background threads,
+     * which can make full table scans a multiple faster. Each region being read keeps a server-side
+     * scanner open and buffers records on the client, see {@link #setReadAhead(int)}.</p>
+     *
+     * <p>Whether the records are still returned in key order is controlled by {@link #setOrdered(boolean)}.</p>
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * @see #setOrdered(boolean)
+     */
+    public boolean getOrdered() {
+        return ordered;
+    }
+
+    /**
+     * Sets whether a parallel scan (see {@link #setParallelism(int)}) should return the records in key
+     * order. This is true by default.
+     *
+     * <p>When false, records are returned in the order in which they arrive from the regions, which keeps
+     * all scanning threads busy and is thus faster, which is interesting when the order does not matter,
+     * e.g. for counting or exporting records. A non-parallel scan always returns the records in key
+     * order.</p>
+     */
+    public void setOrdered(boolean ordered) {
+        this.ordered = ordered;
+    }
+
+    /**
+     * @see #setReadAhead(int)
+     */
+    public int getReadAhead() {
+        return readAhead;
+    }
+
+    /**
+     * Sets the number of records that a parallel scan (see {@link #setParallelism(int)}) buffers
+     * on the client for each region that is being read ahead of the consumer.
+     *
+     * <p>By default (-1), the buffer is as large as the {@link #setCaching(int) caching}, with a
+     * minimum of 100 records.</p>
+     */
+    public void setReadAhead(int readAhead) {
+        this.readAhead = readAhead;
+    }
 }
@@ -181,6 +181,30 @@ public interface Repository extends Closeable {
     Record update(Record record, boolean updateVersion, boolean useLatestRecordType, List<MutationCondition> conditions)
             throws RepositoryException, InterruptedException;
 
+    /**
+     * Updates a record, applying field mutations of which the result depends on the current value of the field,
+     * such as incrementing a counter or appending to a list. See {@link FieldMutation}.
+     *
+     * <p>The mutations are applied to the latest stored value of the fields, together with the other changes
+     * in the supplied record (which should not contain the mutated fields), as one update. In case of a
+     * concurrent update of the record, the repository reads the record again and reapplies the mutations, so
+     * that there is no need for the client to retry. The update is reported as a normal update of the record.
+     * The mutation conditions, if any, are checked again on each attempt.</p>
+     *
+     * <p>This update always creates a new version in case versioned fields are changed (updateVersion=false),
+     * and uses the latest version of the record type.</p>
+     *
+     * @param record      the record to update, only the id is required
+     * @param conditions  optional (can be null), see {@link #update(Record, boolean, boolean, List)}
+     * @param mutations   the field mutations to apply
+     * @return the updated record, containing the new values of the mutated fields
+     * @throws InvalidRecordException      if a mutation doesn't fit the type of its field
+     * @throws ConcurrentRecordUpdateException if the record is still being updated concurrently after a number
+     *                                     of attempts
+     */
+    Record update(Record record, List<MutationCondition> conditions, List<FieldMutation> mutations)
+            throws RepositoryException, InterruptedException;
+
     /**
      * Creates or updates a record, depending on whether the record already exists.
      *
@@ -550,6 +574,21 @@ public interface Repository extends Closeable {
      */
     IdRecordScanner getScannerWithIds(RecordScan scan) throws RepositoryException, InterruptedException;
 
+    /**
+     * Counts the records matched by a scan and computes the count, minimum, maximum and sum of some numeric fields,
+     * without returning the records themselves.
+     *
+     * <p>The start and stop record ID's and the record filter of the scan are taken into account, the other
+     * settings of the scan are not relevant.</p>
+     *
+     * <p>Where possible, the aggregation is computed inside the HBase region servers, one region at a time,
+     * which requires the RecordAggregationEndpoint coprocessor to be enabled on them. Otherwise, this falls
+     * back to scanning the records, which gives the same result but is a lot slower.</p>
+     *
+     * @param fields fields of type LONG, INTEGER, DOUBLE or DECIMAL to compute statistics for, can be empty
+     */
+    RecordAggregation aggregate(RecordScan scan, QName... fields) throws RepositoryException, InterruptedException;
+
     /**
      * Returns a record builder object which can be used to compose a record object and create or update it on the
      * repository.
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.api;
+
+import java.io.InputStream;
+
+/**
+ * A {@link BlobStoreAccess} which can start reading a blob at an arbitrary position without reading the bytes
+ * which come before it. This is used to serve requests for a part of a blob, such as HTTP range requests.
+ */
+public interface SeekableBlobStoreAccess extends BlobStoreAccess {
+
+    /**
+     * Get an {@link InputStream} which starts at the given position of the blob.
+     *
+     * @param key a unique key identifying the written bytes on the blobstore, see {@link #getOutputStream(Blob)}
+     * @param offset the position of the first byte to read. An offset beyond the end of the blob results in an
+     *               empty stream.
+     *
+     * @throws BlobException when an unexpected exception occurred (e.g. an IOException of the underlying blobstore)
+     */
+    InputStream getInputStream(byte[] key, long offset) throws BlobException;
+}
@@ -21,16 +21,28 @@ import org.lilyproject.repository.api.QName;
 /**
  * Filters based on the value of a record field.
  *
- * <p>Only equals and not-equals comparisons are possible. This is because the comparison happens inside
- * the HBase region servers, on the bytes-encoded field values.</p>
+ * <p>Equals and not-equals comparisons are possible for all field types. The ordered comparisons (less,
+ * greater, ...) are only possible for fields of type INTEGER, LONG, DOUBLE, DECIMAL, DATE and DATETIME,
+ * and lists of these. The comparison happens inside the HBase region servers, on the bytes-encoded field
+ * values.</p>
+ *
+ * <p>For an ordered comparison on a list field, the field value should be a single value of the type of
+ * the list elements. By default, a record passes if any of the list elements satisfies the comparison,
+ * see {@link #setListMatch(ListMatch)}. Records with an empty list never pass.</p>
  *
  * <p>For versioned fields, the filtering always happens based on the last version of the field values.</p>
  */
 public class FieldValueFilter implements RecordFilter {
+    public static enum ListMatch {
+        ANY,
+        ALL
+    }
+
     private QName field;
     private Object fieldValue;
     private CompareOp compareOp = CompareOp.EQUAL;
     private boolean filterIfMissing = true;
+    private ListMatch listMatch = ListMatch.ANY;
 
     public FieldValueFilter() {
     }
@@ -46,8 +58,8 @@ public class FieldValueFilter implements RecordFilter {
 
     /**
      * Constructs a filter comparing the specified field with the specified value,
-     * using the specified comparison operator. Only {@link CompareOp#EQUAL} and
-     * {@link CompareOp#NOT_EQUAL} are supported.
+     * using the specified comparison operator. See the class description for which
+     * operators are supported.
      */
     public FieldValueFilter(QName field, CompareOp compareOp, Object fieldValue) {
         this.field = field;
@@ -96,8 +108,8 @@ public class FieldValueFilter implements RecordFilter {
     }
 
     /**
-     * Sets the comparison operator, only {@link CompareOp#EQUAL} and
-     * {@link CompareOp#NOT_EQUAL} are supported.
+     * Sets the comparison operator. The ordered operators are only supported for
+     * numeric and date fields, see the class description.
      */
     public void setCompareOp(CompareOp compareOp) {
         this.compareOp = compareOp;
@@ -123,4 +135,20 @@ public class FieldValueFilter implements RecordFilter {
     public boolean getFilterIfMissing() {
         return filterIfMissing;
     }
+
+    /**
+     * @see #setListMatch(ListMatch)
+     */
+    public ListMatch getListMatch() {
+        return listMatch;
+    }
+
+    /**
+     * Sets whether any (the default) or all of the values of a list field should satisfy an
+     * ordered comparison. This has no effect on non-list fields, nor on equals and not-equals
+     * comparisons, which always compare the list as a whole.
+     */
+    public void setListMatch(ListMatch listMatch) {
+        this.listMatch = listMatch;
+    }
 }
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.api.filter;
+
+/**
+ * A filter which lets through records which were last modified within a certain time window.
+ *
+ * <p>The time of the last modification is the time of the last create or update of the record, as
+ * registered by the region server. Since deleted records are never returned by a scan, this filter can not
+ * be used to find records deleted within the time window.</p>
+ *
+ * <p>Both bounds are optional: a null value means unbounded. The lower bound is inclusive, the upper
+ * bound exclusive.</p>
+ */
+public class RecordModifiedFilter implements RecordFilter {
+    private Long from;
+    private Long to;
+
+    public RecordModifiedFilter() {
+    }
+
+    /**
+     * @param from inclusive lower bound, in milliseconds since the epoch, null for unbounded
+     * @param to exclusive upper bound, in milliseconds since the epoch, null for unbounded
+     */
+    public RecordModifiedFilter(Long from, Long to) {
+        this.from = from;
+        this.to = to;
+    }
+
+    public Long getFrom() {
+        return from;
+    }
+
+    public void setFrom(Long from) {
+        this.from = from;
+    }
+
+    public Long getTo() {
+        return to;
+    }
+
+    public void setTo(Long to) {
+        this.to = to;
+    }
+}
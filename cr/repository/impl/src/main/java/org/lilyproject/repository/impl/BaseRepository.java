@@ -28,11 +28,14 @@ import java.util.ServiceLoader;
 
 import com.google.common.base.Preconditions;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.hbase.client.Get;
 import org.apache.hadoop.hbase.client.HTableInterface;
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.client.ResultScanner;
 import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.coprocessor.Batch;
 import org.apache.hadoop.hbase.filter.CompareFilter;
 import org.apache.hadoop.hbase.filter.Filter;
 import org.apache.hadoop.hbase.filter.FilterList;
@@ -43,6 +46,7 @@ import org.lilyproject.repository.api.BlobAccess;
 import org.lilyproject.repository.api.BlobException;
 import org.lilyproject.repository.api.BlobManager;
 import org.lilyproject.repository.api.BlobStoreAccess;
+import org.lilyproject.repository.api.FieldAggregation;
 import org.lilyproject.repository.api.FieldType;
 import org.lilyproject.repository.api.FieldTypes;
 import org.lilyproject.repository.api.IdGenerator;
@@ -50,11 +54,14 @@ import org.lilyproject.repository.api.IdRecord;
 import org.lilyproject.repository.api.IdRecordScanner;
 import org.lilyproject.repository.api.QName;
 import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.RecordAggregation;
+import org.lilyproject.repository.api.RecordCacheBypass;
 import org.lilyproject.repository.api.RecordException;
 import org.lilyproject.repository.api.RecordId;
 import org.lilyproject.repository.api.RecordNotFoundException;
 import org.lilyproject.repository.api.RecordScan;
 import org.lilyproject.repository.api.RecordScanner;
+import org.lilyproject.repository.api.RecordTypeNotFoundException;
 import org.lilyproject.repository.api.Repository;
 import org.lilyproject.repository.api.RepositoryException;
 import org.lilyproject.repository.api.RepositoryManager;
@@ -64,7 +71,14 @@ import org.lilyproject.repository.api.TypeException;
 import org.lilyproject.repository.api.TypeManager;
 import org.lilyproject.repository.api.VersionNotFoundException;
 import org.lilyproject.repository.api.filter.RecordFilter;
+import org.lilyproject.repository.api.filter.RecordFilterList;
+import org.lilyproject.repository.api.filter.RecordModifiedFilter;
 import org.lilyproject.repository.impl.RepositoryMetrics.Action;
+import org.lilyproject.repository.impl.RepositoryMetrics.HBaseAction;
+import org.lilyproject.repository.impl.hbase.PartialRecordAggregation;
+import org.lilyproject.repository.impl.hbase.RecordAggregationEndpoint;
+import org.lilyproject.repository.impl.hbase.RecordAggregationProtocol;
+import org.lilyproject.repository.impl.id.SchemaIdImpl;
 import org.lilyproject.repository.spi.HBaseRecordFilterFactory;
 import org.lilyproject.util.ArgumentValidator;
 import org.lilyproject.util.Pair;
@@ -72,6 +86,8 @@ import org.lilyproject.util.hbase.LilyHBaseSchema.RecordCf;
 import org.lilyproject.util.hbase.LilyHBaseSchema.RecordColumn;
 
 public abstract class BaseRepository implements Repository {
+    private final Log log = LogFactory.getLog(getClass());
+    private volatile boolean aggregationEndpointWarned;
     protected final RepositoryManager repositoryManager;
     protected final TypeManager typeManager;
     protected final IdGenerator idGenerator;
@@ -80,6 +96,7 @@ public abstract class BaseRepository implements Repository {
     protected final HTableInterface recordTable;
     private final String tableName;
     protected RepositoryMetrics metrics;
+    protected final RecordCache recordCache;
     /**
      * Not all rows in the HBase record table are real records, this filter excludes non-valid
      * record rows.
@@ -98,10 +115,16 @@ public abstract class BaseRepository implements Repository {
 
     protected BaseRepository(RepositoryManager repositoryManager, BlobManager blobManager,
                              HTableInterface recordTable, RepositoryMetrics metrics) {
+        this(repositoryManager, blobManager, recordTable, metrics, new RecordCache());
+    }
+
+    protected BaseRepository(RepositoryManager repositoryManager, BlobManager blobManager,
+                             HTableInterface recordTable, RepositoryMetrics metrics, RecordCache recordCache) {
         
         Preconditions.checkNotNull(repositoryManager, "repositoryManager cannot be null");
         Preconditions.checkNotNull(blobManager, "blobManager cannot be null");
         Preconditions.checkNotNull(recordTable, "recordTable cannot be null");
+        Preconditions.checkNotNull(recordCache, "recordCache cannot be null");
         
         this.repositoryManager = repositoryManager;
         this.typeManager = repositoryManager.getTypeManager();
@@ -111,6 +134,7 @@ public abstract class BaseRepository implements Repository {
         this.tableName = Bytes.toString(recordTable.getTableName());
         this.recdec = new RecordDecoder(typeManager, idGenerator);
         this.metrics = metrics;
+        this.recordCache = recordCache;
     }
 
     @Override
@@ -204,7 +228,129 @@ public abstract class BaseRepository implements Repository {
         return new HBaseIdRecordScannerImpl(createHBaseResultScanner(scan), recdec);
     }
 
+    @Override
+    public RecordAggregation aggregate(RecordScan scan, QName... fields)
+            throws RepositoryException, InterruptedException {
+        final byte[][] qualifiers = new byte[fields.length][];
+        final String[] valueTypes = new String[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            FieldTypeImpl fieldType = (FieldTypeImpl)typeManager.getFieldTypeByName(fields[i]);
+            valueTypes[i] = fieldType.getValueType().getName();
+            if (!PartialRecordAggregation.isSupportedValueType(valueTypes[i])) {
+                throw new IllegalArgumentException("Field " + fields[i] + " has value type " + valueTypes[i]
+                        + ", only LONG, INTEGER, DOUBLE and DECIMAL fields can be aggregated.");
+            }
+            qualifiers[i] = fieldType.getQualifier();
+        }
+
+        // Aggregation needs all fields, as well as the record type, regardless of the return fields of the scan
+        final Scan hbaseScan = createHBaseScan(scan);
+        hbaseScan.getFamilyMap().clear();
+        hbaseScan.addFamily(RecordCf.DATA.bytes);
+
+        PartialRecordAggregation result = new PartialRecordAggregation(qualifiers, valueTypes);
+        try {
+            Map<byte[], PartialRecordAggregation> regionResults = recordTable.coprocessorExec(
+                    RecordAggregationProtocol.class, hbaseScan.getStartRow(), hbaseScan.getStopRow(),
+                    new Batch.Call<RecordAggregationProtocol, PartialRecordAggregation>() {
+                        @Override
+                        public PartialRecordAggregation call(RecordAggregationProtocol instance) throws IOException {
+                            return instance.aggregate(hbaseScan, qualifiers, valueTypes);
+                        }
+                    });
+            for (PartialRecordAggregation regionResult : regionResults.values()) {
+                result.merge(regionResult);
+            }
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (Throwable t) {
+            if (!isUnknownProtocol(t)) {
+                throw new RecordException("Error aggregating records", t);
+            }
+            if (!aggregationEndpointWarned) {
+                aggregationEndpointWarned = true;
+                log.warn("The " + RecordAggregationEndpoint.class.getName() + " coprocessor is not enabled on the"
+                        + " region servers, records will be aggregated client-side, which is a lot slower.");
+            }
+            result = new PartialRecordAggregation(qualifiers, valueTypes);
+            aggregateClientSide(hbaseScan, result);
+        }
+
+        return toRecordAggregation(result, fields, qualifiers);
+    }
+
+    private void aggregateClientSide(Scan hbaseScan, PartialRecordAggregation aggregation) throws RecordException {
+        ResultScanner scanner = null;
+        try {
+            hbaseScan.setCaching(1000);
+            scanner = recordTable.getScanner(hbaseScan);
+            Result result;
+            while ((result = scanner.next()) != null) {
+                aggregation.addRow(result.list());
+            }
+        } catch (IOException e) {
+            throw new RecordException("Error aggregating records", e);
+        } finally {
+            if (scanner != null) {
+                scanner.close();
+            }
+        }
+    }
+
+    private static boolean isUnknownProtocol(Throwable t) {
+        while (t != null) {
+            if (t.getClass().getName().endsWith("UnknownProtocolException")
+                    || (t.getMessage() != null && (t.getMessage().contains("UnknownProtocolException")
+                    || t.getMessage().contains("No matching handler for protocol")))) {
+                return true;
+            }
+            t = t.getCause();
+        }
+        return false;
+    }
+
+    private RecordAggregation toRecordAggregation(PartialRecordAggregation aggregation, QName[] fields,
+            byte[][] qualifiers) throws RepositoryException, InterruptedException {
+        Map<QName, Long> countsByRecordType = new HashMap<QName, Long>();
+        for (Entry<byte[], Long> entry : aggregation.getCountsByRecordType().entrySet()) {
+            QName recordType;
+            try {
+                recordType = typeManager.getRecordTypeById(new SchemaIdImpl(entry.getKey()), null).getName();
+            } catch (RecordTypeNotFoundException e) {
+                log.warn("Aggregated records have a record type which does not exist: " + e.getMessage());
+                continue;
+            }
+            countsByRecordType.put(recordType, entry.getValue());
+        }
+
+        Map<QName, FieldAggregation> fieldAggregations = new HashMap<QName, FieldAggregation>();
+        for (int i = 0; i < fields.length; i++) {
+            fieldAggregations.put(fields[i], new FieldAggregation(aggregation.getFieldCount(qualifiers[i]),
+                    aggregation.getFieldMin(qualifiers[i]), aggregation.getFieldMax(qualifiers[i]),
+                    aggregation.getFieldSum(qualifiers[i])));
+        }
+
+        return new RecordAggregation(aggregation.getCount(), countsByRecordType, fieldAggregations);
+    }
+
     private ResultScanner createHBaseResultScanner(RecordScan scan) throws RepositoryException, InterruptedException {
+        Scan hbaseScan = createHBaseScan(scan);
+
+        ResultScanner hbaseScanner;
+        try {
+            if (scan.getParallelism() > 1) {
+                hbaseScanner = new ParallelResultScanner(recordTable, hbaseScan, scan.getParallelism(),
+                        scan.getOrdered(), scan.getReadAhead());
+            } else {
+                hbaseScanner = recordTable.getScanner(hbaseScan);
+            }
+        } catch (IOException e) {
+            throw new RecordException("Error creating scanner", e);
+        }
+        return hbaseScanner;
+    }
+
+    private Scan createHBaseScan(RecordScan scan) throws RepositoryException, InterruptedException {
         Scan hbaseScan = new Scan();
 
         hbaseScan.setMaxVersions(1);
@@ -242,6 +388,10 @@ public abstract class BaseRepository implements Repository {
         ReturnFields returnFields = scan.getReturnFields();
         if (returnFields != null && returnFields.getType() != ReturnFields.Type.ALL) {
             RecordDecoder.addSystemColumnsToScan(hbaseScan);
+            if (containsModifiedFilter(scan.getRecordFilter())) {
+                // LilyRecordModifiedFilter needs the timestamp of the payload column
+                hbaseScan.addColumn(RecordCf.DATA.bytes, RecordColumn.PAYLOAD.bytes);
+            }
             switch (returnFields.getType()) {
                 case ENUM:
                     for (QName field : returnFields.getFields()) {
@@ -259,13 +409,20 @@ public abstract class BaseRepository implements Repository {
             hbaseScan.addFamily(RecordCf.DATA.bytes);
         }
 
-        ResultScanner hbaseScanner;
-        try {
-            hbaseScanner = recordTable.getScanner(hbaseScan);
-        } catch (IOException e) {
-            throw new RecordException("Error creating scanner", e);
+        return hbaseScan;
+    }
+
+    private static boolean containsModifiedFilter(RecordFilter filter) {
+        if (filter instanceof RecordModifiedFilter) {
+            return true;
+        } else if (filter instanceof RecordFilterList) {
+            for (RecordFilter subFilter : ((RecordFilterList)filter).getFilters()) {
+                if (containsModifiedFilter(subFilter)) {
+                    return true;
+                }
+            }
         }
-        return hbaseScanner;
+        return false;
     }
 
     private static List<HBaseRecordFilterFactory> FILTER_FACTORIES;
@@ -331,7 +488,18 @@ public abstract class BaseRepository implements Repository {
         FieldTypes fieldTypes = typeManager.getFieldTypesSnapshot();
         List<FieldType> fields = getFieldTypesFromNames(fieldTypes, fieldNames);
 
-        return read(recordId, version, fields, fieldTypes);
+        if (!useRecordCache()) {
+            return read(recordId, version, fields, fieldTypes);
+        }
+
+        ArgumentValidator.notNull(recordId, "recordId");
+        Record record = recordCache.get(tableName, recordId, version, fields, false);
+        if (record == null) {
+            long token = recordCache.getToken(recordId);
+            record = read(recordId, version, fields, fieldTypes);
+            recordCache.put(tableName, recordId, version, fields, false, record, token);
+        }
+        return record;
     }
 
     @Override
@@ -340,7 +508,22 @@ public abstract class BaseRepository implements Repository {
         FieldTypes fieldTypes = typeManager.getFieldTypesSnapshot();
         List<FieldType> fields = getFieldTypesFromIds(fieldIds, fieldTypes);
 
-        return readWithIds(recordId, version, fields, fieldTypes);
+        if (!useRecordCache()) {
+            return readWithIds(recordId, version, fields, fieldTypes);
+        }
+
+        ArgumentValidator.notNull(recordId, "recordId");
+        IdRecord record = (IdRecord)recordCache.get(tableName, recordId, version, fields, true);
+        if (record == null) {
+            long token = recordCache.getToken(recordId);
+            record = readWithIds(recordId, version, fields, fieldTypes);
+            recordCache.put(tableName, recordId, version, fields, true, record, token);
+        }
+        return record;
+    }
+
+    private boolean useRecordCache() {
+        return recordCache.isEnabled() && !RecordCacheBypass.isActive();
     }
 
     private IdRecord readWithIds(RecordId recordId, Long requestedVersion, List<FieldType> fields,
@@ -465,7 +648,10 @@ public abstract class BaseRepository implements Repository {
             get.setMaxVersions(numberOfVersions);
 
             // Retrieve the data from the repository
+            long before = System.currentTimeMillis();
             result = recordTable.get(get);
+            if (metrics != null)
+                metrics.reportHBase(HBaseAction.GET, System.currentTimeMillis() - before);
 
             if (result == null || result.isEmpty())
                 throw new RecordNotFoundException(recordId);
@@ -19,7 +19,10 @@ import org.lilyproject.repository.api.Blob;
 import org.lilyproject.repository.api.BlobAccess;
 import org.lilyproject.repository.api.BlobException;
 import org.lilyproject.repository.api.BlobStoreAccess;
+import org.lilyproject.repository.api.SeekableBlobStoreAccess;
+import org.lilyproject.util.io.Closer;
 
+import java.io.IOException;
 import java.io.InputStream;
 
 public class BlobAccessImpl implements BlobAccess {
@@ -42,4 +45,42 @@ public class BlobAccessImpl implements BlobAccess {
     public InputStream getInputStream() throws BlobException {
         return blobStoreAccess.getInputStream(blobKey);
     }
+
+    @Override
+    public InputStream getInputStream(long offset) throws BlobException {
+        if (offset <= 0) {
+            return getInputStream();
+        }
+
+        if (blobStoreAccess instanceof SeekableBlobStoreAccess) {
+            return ((SeekableBlobStoreAccess)blobStoreAccess).getInputStream(blobKey, offset);
+        }
+
+        InputStream is = blobStoreAccess.getInputStream(blobKey);
+        try {
+            skipFully(is, offset);
+        } catch (IOException e) {
+            Closer.close(is);
+            throw new BlobException("Failed to skip to position " + offset + " in blob '" + blob + "'", e);
+        }
+        return is;
+    }
+
+    /**
+     * Skips the given number of bytes, or until the end of the stream.
+     */
+    static void skipFully(InputStream is, long n) throws IOException {
+        long remaining = n;
+        while (remaining > 0) {
+            long skipped = is.skip(remaining);
+            if (skipped <= 0) {
+                // skip() may skip less than asked without being at the end, read() tells for sure
+                if (is.read() == -1) {
+                    break;
+                }
+                skipped = 1;
+            }
+            remaining -= skipped;
+        }
+    }
 }
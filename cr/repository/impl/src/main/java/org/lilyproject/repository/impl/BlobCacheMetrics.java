@@ -0,0 +1,96 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl;
+
+import javax.management.ObjectName;
+
+import org.apache.hadoop.metrics.MetricsContext;
+import org.apache.hadoop.metrics.MetricsRecord;
+import org.apache.hadoop.metrics.MetricsUtil;
+import org.apache.hadoop.metrics.Updater;
+import org.apache.hadoop.metrics.util.MetricsBase;
+import org.apache.hadoop.metrics.util.MetricsIntValue;
+import org.apache.hadoop.metrics.util.MetricsLongValue;
+import org.apache.hadoop.metrics.util.MetricsRegistry;
+import org.apache.hadoop.metrics.util.MetricsTimeVaryingInt;
+import org.apache.hadoop.metrics.util.MetricsTimeVaryingLong;
+import org.lilyproject.util.hbase.metrics.MBeanUtil;
+import org.lilyproject.util.hbase.metrics.MetricsDynamicMBeanBase;
+
+/**
+ * Metrics of the {@link BlobDiskCache}.
+ */
+public class BlobCacheMetrics implements Updater {
+    private final MetricsRegistry registry = new MetricsRegistry();
+    private final MetricsRecord metricsRecord;
+    private final BlobCacheMetricsMXBean mbean;
+    private final MetricsContext context;
+
+    public MetricsTimeVaryingInt hitCount = new MetricsTimeVaryingInt("hit_cnt", registry);
+    public MetricsTimeVaryingInt missCount = new MetricsTimeVaryingInt("miss_cnt", registry);
+    public MetricsTimeVaryingInt evictionCount = new MetricsTimeVaryingInt("eviction_cnt", registry);
+
+    /** Bytes served from the cache. */
+    public MetricsTimeVaryingLong hitBytes = new MetricsTimeVaryingLong("hit_bytes", registry);
+
+    /** Percentage of the reads of the last interval which were served from the cache. */
+    public MetricsIntValue hitPercentage = new MetricsIntValue("hit_pct", registry);
+
+    public MetricsLongValue size = new MetricsLongValue("size_bytes", registry);
+    public MetricsIntValue entryCount = new MetricsIntValue("entry_cnt", registry);
+
+    public BlobCacheMetrics() {
+        context = MetricsUtil.getContext("blobCache");
+        metricsRecord = MetricsUtil.createRecord(context, "blobCache");
+        context.registerUpdater(this);
+        mbean = new BlobCacheMetricsMXBean(this.registry);
+    }
+
+    public void shutdown() {
+        context.unregisterUpdater(this);
+        mbean.shutdown();
+    }
+
+    @Override
+    public void doUpdates(MetricsContext metricsContext) {
+        synchronized (this) {
+            // Needs to be calculated before the interval values are pushed
+            int hits = hitCount.getCurrentIntervalValue();
+            int total = hits + missCount.getCurrentIntervalValue();
+            hitPercentage.set(total == 0 ? 0 : (int)(100L * hits / total));
+
+            for (MetricsBase m : registry.getMetricsList()) {
+                m.pushMetric(metricsRecord);
+            }
+        }
+        metricsRecord.update();
+    }
+
+    public class BlobCacheMetricsMXBean extends MetricsDynamicMBeanBase {
+        private final ObjectName mbeanName;
+
+        public BlobCacheMetricsMXBean(MetricsRegistry registry) {
+            super(registry, "Lily Blob Cache");
+
+            mbeanName = MBeanUtil.registerMBean("Blob Cache", "blobCache", this);
+        }
+
+        public void shutdown() {
+            if (mbeanName != null)
+                MBeanUtil.unregisterMBean(mbeanName);
+        }
+    }
+}
@@ -0,0 +1,501 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.lilyproject.repository.api.Blob;
+import org.lilyproject.repository.api.BlobException;
+import org.lilyproject.repository.api.BlobStoreAccess;
+import org.lilyproject.repository.api.SeekableBlobStoreAccess;
+import org.lilyproject.util.io.Closer;
+
+/**
+ * A cache of blobs on the local disk, to avoid reading popular blobs over and over again from HDFS or HBase.
+ *
+ * <p>Since a blob, once written, never changes, the cache never needs to be invalidated: a blob is only removed
+ * from the cache when it is deleted or when room is needed for other blobs, in which case the least recently used
+ * blobs are evicted.</p>
+ *
+ * <p>A blob is added to the cache while it is being read for the first time: the bytes are copied to a file as
+ * they are passed to the reader. Only when the blob is read until its end, the file is added to the cache. Small
+ * blobs are read from the cache using memory-mapping.</p>
+ *
+ * <p>Use {@link #wrap(BlobStoreAccess)} to put a BlobStoreAccess behind the cache.</p>
+ */
+public class BlobDiskCache {
+    private final Log log = LogFactory.getLog(getClass());
+
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final File directory;
+    private final long maxSize;
+    private final long maxBlobSize;
+    private final int mapThreshold;
+    private final BlobCacheMetrics metrics;
+
+    /** The cached blobs and their size, in least recently used order. */
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<String, Long>(16, 0.75f, true);
+    private long size;
+
+    /** The blobs which are currently being copied to the cache. */
+    private final Set<String> loading = new HashSet<String>();
+
+    /**
+     * @param directory the directory in which to store the blobs, created if it does not exist. Blobs left there
+     *                  by a previous run are reused.
+     * @param maxSize the maximum total size of the cached blobs, in bytes
+     * @param maxBlobSize blobs larger than this are not cached
+     * @param mapThreshold blobs up to this size are read from the cache using memory-mapping
+     */
+    public BlobDiskCache(File directory, long maxSize, long maxBlobSize, int mapThreshold) throws IOException {
+        this.directory = directory;
+        this.maxSize = maxSize;
+        this.maxBlobSize = Math.min(maxBlobSize, maxSize);
+        this.mapThreshold = mapThreshold;
+        this.metrics = new BlobCacheMetrics();
+
+        FileUtils.forceMkdir(directory);
+        loadExistingEntries();
+    }
+
+    public void close() {
+        metrics.shutdown();
+    }
+
+    /**
+     * Returns a BlobStoreAccess which reads the blobs of the given BlobStoreAccess through this cache.
+     */
+    public BlobStoreAccess wrap(BlobStoreAccess blobStoreAccess) {
+        return new CachingBlobStoreAccess(blobStoreAccess);
+    }
+
+    public BlobCacheMetrics getMetrics() {
+        return metrics;
+    }
+
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    /**
+     * Picks up the blobs cached by a previous run, the oldest ones being the first to be evicted.
+     */
+    private void loadExistingEntries() throws IOException {
+        List<File> files = new ArrayList<File>();
+        File[] storeDirs = directory.listFiles();
+        for (File file : storeDirs) {
+            if (file.isFile()) {
+                // Leftover of a blob which was being copied
+                FileUtils.deleteQuietly(file);
+            } else {
+                for (File subDir : listFiles(file)) {
+                    files.addAll(Arrays.asList(listFiles(subDir)));
+                }
+            }
+        }
+
+        Collections.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File o1, File o2) {
+                long diff = o1.lastModified() - o2.lastModified();
+                return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+            }
+        });
+
+        synchronized (this) {
+            for (File file : files) {
+                String name = file.getParentFile().getParentFile().getName() + "/" + file.getName();
+                entries.put(name, file.length());
+                size += file.length();
+            }
+            evict();
+            updateSizeMetrics();
+        }
+
+        if (log.isInfoEnabled()) {
+            log.info("Blob cache in " + directory + " contains " + entries.size() + " blobs, " + size + " bytes");
+        }
+    }
+
+    private static File[] listFiles(File dir) {
+        File[] files = dir.listFiles();
+        return files != null ? files : new File[0];
+    }
+
+    private static String getName(String storeId, byte[] blobKey) {
+        return storeId + "/" + Hex.encodeHexString(blobKey);
+    }
+
+    /**
+     * The blobs are spread over subdirectories, to avoid having a huge number of files in one directory.
+     */
+    private File getFile(String name) {
+        int slash = name.indexOf('/');
+        String subDir = name.substring(slash + 1, Math.min(slash + 3, name.length()));
+        return new File(new File(new File(directory, name.substring(0, slash)), subDir), name.substring(slash + 1));
+    }
+
+    private InputStream getInputStream(BlobStoreAccess blobStoreAccess, byte[] blobKey, long offset)
+            throws BlobException {
+        String name = getName(blobStoreAccess.getId(), blobKey);
+
+        Long length;
+        synchronized (this) {
+            length = entries.get(name);
+        }
+
+        if (length != null) {
+            try {
+                InputStream is = openCachedBlob(name, length);
+                if (offset > 0) {
+                    BlobAccessImpl.skipFully(is, offset);
+                }
+                metrics.hitCount.inc();
+                metrics.hitBytes.inc(Math.max(length - offset, 0));
+                return is;
+            } catch (IOException e) {
+                // Can happen when the blob was evicted in the meantime, read it from the blob store instead
+                if (log.isDebugEnabled()) {
+                    log.debug("Failed to read blob " + name + " from the cache", e);
+                }
+            }
+        }
+
+        metrics.missCount.inc();
+        if (offset > 0 && blobStoreAccess instanceof SeekableBlobStoreAccess) {
+            // Don't read the start of the blob just to cache it, leave that to a request for the full blob
+            return ((SeekableBlobStoreAccess)blobStoreAccess).getInputStream(blobKey, offset);
+        }
+        InputStream is = blobStoreAccess.getInputStream(blobKey);
+
+        synchronized (this) {
+            if (entries.containsKey(name) || !loading.add(name)) {
+                // Someone else is already copying it
+                return is;
+            }
+        }
+
+        try {
+            File tempFile = File.createTempFile("blob", TEMP_SUFFIX, directory);
+            is = new CachingInputStream(is, name, tempFile);
+        } catch (IOException e) {
+            log.warn("Failed to create a file in the blob cache " + directory, e);
+            synchronized (this) {
+                loading.remove(name);
+            }
+        }
+
+        if (offset > 0) {
+            try {
+                BlobAccessImpl.skipFully(is, offset);
+            } catch (IOException e) {
+                Closer.close(is);
+                throw new BlobException("Failed to skip to position " + offset + " in blob " + name, e);
+            }
+        }
+        return is;
+    }
+
+    private InputStream openCachedBlob(String name, long length) throws IOException {
+        File file = getFile(name);
+        if (length > mapThreshold) {
+            return new FileInputStream(file);
+        }
+
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            // The mapping stays valid after the file is closed, and even after it is deleted
+            ByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+            return new ByteBufferInputStream(buffer);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private void add(String name, File tempFile, long length) {
+        File file = getFile(name);
+        synchronized (this) {
+            loading.remove(name);
+            file.getParentFile().mkdirs();
+            if (!tempFile.renameTo(file)) {
+                log.warn("Failed to move " + tempFile + " to " + file);
+                FileUtils.deleteQuietly(tempFile);
+                return;
+            }
+            entries.put(name, length);
+            size += length;
+            evict();
+            updateSizeMetrics();
+        }
+    }
+
+    private synchronized void abort(String name, File tempFile) {
+        loading.remove(name);
+        FileUtils.deleteQuietly(tempFile);
+    }
+
+    private void remove(String storeId, byte[] blobKey) {
+        String name = getName(storeId, blobKey);
+        synchronized (this) {
+            Long length = entries.remove(name);
+            if (length != null) {
+                size -= length;
+                FileUtils.deleteQuietly(getFile(name));
+                updateSizeMetrics();
+            }
+        }
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+        while (size > maxSize && it.hasNext()) {
+            Map.Entry<String, Long> entry = it.next();
+            it.remove();
+            size -= entry.getValue();
+            FileUtils.deleteQuietly(getFile(entry.getKey()));
+            metrics.evictionCount.inc();
+        }
+    }
+
+    private void updateSizeMetrics() {
+        metrics.size.set(size);
+        metrics.entryCount.set(entries.size());
+    }
+
+    /**
+     * Passes the bytes of a blob to the reader while copying them to a file. The file is added to the cache when
+     * the end of the blob is reached.
+     */
+    private class CachingInputStream extends FilterInputStream {
+        private final String name;
+        private final File tempFile;
+        private OutputStream out;
+        private long length;
+
+        CachingInputStream(InputStream in, String name, File tempFile) throws IOException {
+            super(in);
+            this.name = name;
+            this.tempFile = tempFile;
+            this.out = new FileOutputStream(tempFile);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b == -1) {
+                finish();
+            } else {
+                copy(new byte[] {(byte)b}, 0, 1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n == -1) {
+                finish();
+            } else {
+                copy(b, off, n);
+            }
+            return n;
+        }
+
+        /**
+         * Skipped bytes are still read, otherwise they would be missing in the copy.
+         */
+        @Override
+        public long skip(long n) throws IOException {
+            if (out == null) {
+                return super.skip(n);
+            }
+            byte[] buffer = new byte[(int)Math.min(n, 8192)];
+            long skipped = 0;
+            while (skipped < n) {
+                int read = read(buffer, 0, (int)Math.min(n - skipped, buffer.length));
+                if (read == -1) {
+                    break;
+                }
+                skipped += read;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                // Not read until the end, so not cached
+                stopCopying();
+            }
+        }
+
+        private void copy(byte[] b, int off, int len) {
+            if (out == null) {
+                return;
+            }
+            length += len;
+            if (length > maxBlobSize) {
+                stopCopying();
+                return;
+            }
+            try {
+                out.write(b, off, len);
+            } catch (IOException e) {
+                log.warn("Failed to write to the blob cache " + directory, e);
+                stopCopying();
+            }
+        }
+
+        private void finish() {
+            if (out == null) {
+                return;
+            }
+            try {
+                out.close();
+                out = null;
+                add(name, tempFile, length);
+            } catch (IOException e) {
+                log.warn("Failed to write to the blob cache " + directory, e);
+                stopCopying();
+            }
+        }
+
+        private void stopCopying() {
+            if (out == null) {
+                return;
+            }
+            try {
+                out.close();
+            } catch (IOException e) {
+                // ignore, the file is deleted anyway
+            }
+            out = null;
+            abort(name, tempFile);
+        }
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int)Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
+    private class CachingBlobStoreAccess implements SeekableBlobStoreAccess {
+        private final BlobStoreAccess delegate;
+
+        CachingBlobStoreAccess(BlobStoreAccess delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public String getId() {
+            return delegate.getId();
+        }
+
+        @Override
+        public OutputStream getOutputStream(Blob blob) throws BlobException {
+            return delegate.getOutputStream(blob);
+        }
+
+        @Override
+        public InputStream getInputStream(byte[] key) throws BlobException {
+            return BlobDiskCache.this.getInputStream(delegate, key, 0);
+        }
+
+        @Override
+        public InputStream getInputStream(byte[] key, long offset) throws BlobException {
+            return BlobDiskCache.this.getInputStream(delegate, key, offset);
+        }
+
+        @Override
+        public void delete(byte[] key) throws BlobException {
+            remove(delegate.getId(), key);
+            delegate.delete(key);
+        }
+
+        @Override
+        public boolean incubate() {
+            return delegate.incubate();
+        }
+    }
+}
@@ -37,7 +37,20 @@ public class BlobIncubatorMetrics implements Updater {
 
     public MetricsTimeVaryingInt blobDeleteCount = new MetricsTimeVaryingInt("blob_delete_cnt", registry);
     public MetricsTimeVaryingInt refDeleteCount = new MetricsTimeVaryingInt("ref_delete_cnt", registry);
-    
+
+    public MetricsTimeVaryingInt scannedCount = new MetricsTimeVaryingInt("scanned_cnt", registry);
+    public MetricsTimeVaryingInt checkFailureCount = new MetricsTimeVaryingInt("check_failure_cnt", registry);
+
+    /** Percentage of the slices of the incubator table handled by the current run. */
+    private MetricsIntValue runProgress = new MetricsIntValue("run_progress_pct", registry);
+    /** Number of expired incubator rows handled by the current run so far. */
+    private MetricsLongValue runRows = new MetricsLongValue("run_rows", registry);
+    /**
+     * Number of expired incubator rows handled by the last completed run, this is the backlog that
+     * each run has to work through.
+     */
+    private MetricsLongValue backlog = new MetricsLongValue("backlog_rows", registry);
+
     public BlobIncubatorMetrics() {
         context = MetricsUtil.getContext("blobIncubator");
         metricsRecord = MetricsUtil.createRecord(context, "blobIncubator");
@@ -45,6 +58,24 @@ public class BlobIncubatorMetrics implements Updater {
         mbean = new BlobIncubatorMetricsMXBean(this.registry);
     }
 
+    public void runStarted() {
+        runProgress.set(0);
+        runRows.set(0);
+    }
+
+    public void setRunProgress(int percentage) {
+        runProgress.set(percentage);
+    }
+
+    public void setRunRows(long rows) {
+        runRows.set(rows);
+    }
+
+    public void runCompleted(long rows) {
+        runProgress.set(100);
+        backlog.set(rows);
+    }
+
     public void shutdown() {
         context.unregisterUpdater(this);
         mbean.shutdown();
@@ -16,11 +16,21 @@
 package org.lilyproject.repository.impl;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.client.Delete;
 import org.apache.hadoop.hbase.client.Get;
 import org.apache.hadoop.hbase.client.HTableInterface;
@@ -47,6 +57,8 @@ import org.lilyproject.repository.api.TypeManager;
 import org.lilyproject.repository.api.ValueType;
 import org.lilyproject.repository.impl.id.SchemaIdImpl;
 import org.lilyproject.util.Logs;
+import org.lilyproject.util.Pair;
+import org.lilyproject.util.concurrent.CustomThreadFactory;
 import org.lilyproject.util.hbase.HBaseTableFactory;
 import org.lilyproject.util.hbase.LilyHBaseSchema;
 import org.lilyproject.util.hbase.LilyHBaseSchema.BlobIncubatorCf;
@@ -58,7 +70,19 @@ import org.lilyproject.util.zookeeper.LeaderElectionCallback;
 import org.lilyproject.util.zookeeper.LeaderElectionSetupException;
 import org.lilyproject.util.zookeeper.ZooKeeperItf;
 
+/**
+ * Cleans up the blobs which were uploaded but never got used in a record, and the references left behind in the
+ * blob incubator table when something failed between reserving a blob and using it.
+ *
+ * <p>Only one node runs the monitor at a time, chosen through leader election. That node sweeps the incubator
+ * table in region-sized slices, a number of them in parallel. The rows of a slice are handled in batches: the
+ * usage of all blobs of a batch is looked up with one multi-get per record table, and the blobs which need to be
+ * restored in the incubator table are put back together.</p>
+ */
 public class BlobIncubatorMonitor {
+    public static final int DEFAULT_BATCH_SIZE = 100;
+    public static final int DEFAULT_THREADS = 1;
+
     private Log log = LogFactory.getLog(getClass());
     private BlobIncubatorMetrics metrics = new BlobIncubatorMetrics();
     private final ZooKeeperItf zk;
@@ -72,15 +96,32 @@ public class BlobIncubatorMonitor {
     private HBaseTableFactory tableFactory;
     private RepositoryTableManager repositoryTableManager;
     private final long runDelay;
+    private final int batchSize;
+    private final int threads;
 
     public BlobIncubatorMonitor(ZooKeeperItf zk, HBaseTableFactory tableFactory, RepositoryTableManager repositoryTableManager,
             BlobManager blobManager, TypeManager typeManager, long minimalAge, long monitorDelay, long runDelay) throws IOException, InterruptedException {
+        this(zk, tableFactory, repositoryTableManager, blobManager, typeManager, minimalAge, monitorDelay, runDelay,
+                DEFAULT_BATCH_SIZE, DEFAULT_THREADS);
+    }
+
+    /**
+     * @param monitorDelay the time (in ms) to pause per handled row, to limit the load generated by each thread.
+     *                     The pause is taken after each batch.
+     * @param batchSize the number of incubator rows handled together
+     * @param threads the number of slices of the incubator table which are handled in parallel
+     */
+    public BlobIncubatorMonitor(ZooKeeperItf zk, HBaseTableFactory tableFactory, RepositoryTableManager repositoryTableManager,
+            BlobManager blobManager, TypeManager typeManager, long minimalAge, long monitorDelay, long runDelay,
+            int batchSize, int threads) throws IOException, InterruptedException {
         this.zk = zk;
         this.blobManager = blobManager;
         this.typeManager = typeManager;
         this.minimalAge = minimalAge;
         this.monitorDelay = monitorDelay;
         this.runDelay = runDelay;
+        this.batchSize = batchSize;
+        this.threads = threads;
 
         this.blobIncubatorTable = LilyHBaseSchema.getBlobIncubatorTable(tableFactory, false);
         
@@ -144,7 +185,7 @@ public class BlobIncubatorMonitor {
     }
 
     private class MonitorThread extends Thread {
-        private boolean stopRequested = false;
+        private volatile boolean stopRequested = false;
 
         public MonitorThread() {
         }
@@ -185,83 +226,198 @@ public class BlobIncubatorMonitor {
         public void monitor() throws IOException, RepositoryException, InterruptedException {
             log.debug("Start run blob incubator monitor");
             long monitorBegin = System.currentTimeMillis();
-            Scan scan = new Scan();
-            scan.addFamily(BlobIncubatorCf.REF.bytes);
-            long maxStamp = System.currentTimeMillis() - minimalAge;
-            scan.setTimeRange(0, maxStamp);
-            ResultScanner scanner = blobIncubatorTable.getScanner(scan);
-            while (!stopRequested) {
-                Result[] results = scanner.next(100);
-                if (results == null || (results.length == 0)) {
-                   break;
+            long maxStamp = monitorBegin - minimalAge;
+
+            // The record tables are looked up once per run rather than for each blob
+            List<HTableInterface> recordTables = new ArrayList<HTableInterface>();
+            for (RepositoryTable repoTable : repositoryTableManager.getTables()) {
+                recordTables.add(LilyHBaseSchema.getRecordTable(tableFactory, repoTable.getName()));
+            }
+
+            List<Pair<byte[], byte[]>> slices = ParallelResultScanner.getSplits(blobIncubatorTable,
+                    HConstants.EMPTY_START_ROW, HConstants.EMPTY_END_ROW);
+            RunProgress progress = new RunProgress(slices.size());
+            metrics.runStarted();
+
+            ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, slices.size())),
+                    new CustomThreadFactory("blob-incubator-monitor", null, true));
+            try {
+                List<Future<Void>> futures = new ArrayList<Future<Void>>(slices.size());
+                for (Pair<byte[], byte[]> slice : slices) {
+                    futures.add(executor.submit(new SliceSweeper(slice.getV1(), slice.getV2(), maxStamp,
+                            recordTables, progress)));
                 }
-                for (Result result : results) {
-                    long before = System.currentTimeMillis();
-                    checkResult(result);
-                    // usually these times will be very short, a bit too short to measure with ms precision, but
-                    // this is mainly to observe when it would take long so that is fine
-                    metrics.checkDuration.inc(System.currentTimeMillis() - before);
-
-                    if (stopRequested) {
-                        break;
-                    }
+                executor.shutdown();
 
-                    if (monitorDelay > 0) {
-                        Thread.sleep(monitorDelay);
+                for (Future<Void> future : futures) {
+                    try {
+                        future.get();
+                    } catch (ExecutionException e) {
+                        Throwable cause = e.getCause();
+                        if (cause instanceof IOException) {
+                            throw (IOException)cause;
+                        } else if (cause instanceof RepositoryException) {
+                            throw (RepositoryException)cause;
+                        } else if (cause instanceof InterruptedException) {
+                            throw (InterruptedException)cause;
+                        }
+                        throw new RuntimeException("Error sweeping the blob incubator table", cause);
                     }
                 }
+            } finally {
+                // Stops the other slices when one failed or when we are interrupted
+                executor.shutdownNow();
+            }
+
+            if (!stopRequested) {
+                metrics.runCompleted(progress.rows.get());
             }
-            Closer.close(scanner);
             metrics.runDuration.inc(System.currentTimeMillis() - monitorBegin);
             log.debug("Stop run blob incubator monitor");
         }
 
-        private void checkResult(Result result) throws IOException, RepositoryException, InterruptedException {
-            byte[] recordIdBytes = result.getValue(BlobIncubatorCf.REF.bytes, BlobIncubatorColumn.RECORD.bytes);
-            SchemaId recordId = new SchemaIdImpl(recordIdBytes);
-            byte[] blobKey = result.getRow();
-            if (Arrays.equals(recordIdBytes,BlobManagerImpl.INCUBATE)) {
-                    deleteBlob(blobKey, recordId, null);
-            } else {
-                SchemaId fieldId = new SchemaIdImpl(result.getValue(BlobIncubatorCf.REF.bytes, BlobIncubatorColumn.FIELD.bytes));
-                Result blobUsage;
+        /**
+         * Handles the expired rows in one slice of the incubator table.
+         */
+        private class SliceSweeper implements Callable<Void> {
+            private final byte[] startRow;
+            private final byte[] stopRow;
+            private final long maxStamp;
+            private final List<HTableInterface> recordTables;
+            private final RunProgress progress;
+
+            SliceSweeper(byte[] startRow, byte[] stopRow, long maxStamp, List<HTableInterface> recordTables,
+                    RunProgress progress) {
+                this.startRow = startRow;
+                this.stopRow = stopRow;
+                this.maxStamp = maxStamp;
+                this.recordTables = recordTables;
+                this.progress = progress;
+            }
+
+            @Override
+            public Void call() throws IOException, RepositoryException, InterruptedException {
+                Scan scan = new Scan(startRow, stopRow);
+                scan.addFamily(BlobIncubatorCf.REF.bytes);
+                scan.setTimeRange(0, maxStamp);
+                scan.setCaching(batchSize);
+                ResultScanner scanner = blobIncubatorTable.getScanner(scan);
                 try {
-                    blobUsage = getBlobUsage(blobKey, recordId, fieldId);
-                    if (blobUsage == null || blobUsage.isEmpty()) {
-                        deleteBlob(blobKey, recordId, fieldId); // Delete blob and reference
+                    while (!stopRequested && !Thread.currentThread().isInterrupted()) {
+                        Result[] results = scanner.next(batchSize);
+                        if (results == null || (results.length == 0)) {
+                            break;
+                        }
+
+                        long before = System.currentTimeMillis();
+                        checkResults(results, recordTables);
+                        // the average time per row is reported, this is mainly to observe when it would take long
+                        metrics.checkDuration.inc(results.length, System.currentTimeMillis() - before);
+                        metrics.scannedCount.inc(results.length);
+                        metrics.setRunRows(progress.rows.addAndGet(results.length));
+
+                        if (monitorDelay > 0 && !stopRequested) {
+                            Thread.sleep(monitorDelay * results.length);
+                        }
+                    }
+                } finally {
+                    Closer.close(scanner);
+                }
+                metrics.setRunProgress(progress.sliceDone());
+                return null;
+            }
+        }
+
+        private void checkResults(Result[] results, List<HTableInterface> recordTables)
+                throws IOException, RepositoryException, InterruptedException {
+            List<IncubatorRef> unused = new ArrayList<IncubatorRef>();
+            List<IncubatorRef> toCheck = new ArrayList<IncubatorRef>();
+
+            for (Result result : results) {
+                byte[] recordIdBytes = result.getValue(BlobIncubatorCf.REF.bytes, BlobIncubatorColumn.RECORD.bytes);
+                SchemaId recordId = new SchemaIdImpl(recordIdBytes);
+                byte[] blobKey = result.getRow();
+                if (Arrays.equals(recordIdBytes, BlobManagerImpl.INCUBATE)) {
+                    unused.add(new IncubatorRef(blobKey, recordId, null, null));
+                } else {
+                    SchemaId fieldId = new SchemaIdImpl(result.getValue(BlobIncubatorCf.REF.bytes, BlobIncubatorColumn.FIELD.bytes));
+                    try {
+                        toCheck.add(new IncubatorRef(blobKey, recordId, fieldId,
+                                createBlobUsageGet(blobKey, recordId, fieldId)));
+                    } catch (FieldTypeNotFoundException e) {
+                        logCheckFailure(blobKey, recordId, fieldId, e);
+                    } catch (TypeException e) {
+                        logCheckFailure(blobKey, recordId, fieldId, e);
+                    }
+                }
+            }
+
+            // Look up the usage of all blobs of the batch with one multi-get per record table
+            List<IncubatorRef> used = new ArrayList<IncubatorRef>();
+            for (HTableInterface recordTable : recordTables) {
+                if (toCheck.isEmpty()) {
+                    break;
+                }
+                List<Get> gets = new ArrayList<Get>(toCheck.size());
+                for (IncubatorRef ref : toCheck) {
+                    gets.add(ref.usageGet);
+                }
+                Result[] usages = recordTable.get(gets);
+                List<IncubatorRef> notFound = new ArrayList<IncubatorRef>();
+                for (int i = 0; i < usages.length; i++) {
+                    if (usages[i] != null && !usages[i].isEmpty()) {
+                        used.add(toCheck.get(i));
                     } else {
-                        deleteReference(blobKey, recordId); // The blob is used: only delete the reference
+                        notFound.add(toCheck.get(i));
                     }
-                } catch (FieldTypeNotFoundException e) {
-                    log.warn("Failed to check blob usage " + Hex.encodeHexString(blobKey) +
-                            ", recordId " + recordId +
-                            ", fieldId " + fieldId, e);
-                } catch (TypeException e) {
-                    log.warn("Failed to check blob usage " + Hex.encodeHexString(blobKey) +
-                            ", recordId " + recordId +
-                            ", fieldId " + fieldId, e);
                 }
+                toCheck = notFound;
+            }
+            unused.addAll(toCheck);
+
+            // The blob is used: only delete the reference
+            for (IncubatorRef ref : used) {
+                deleteReference(ref.blobKey, ref.recordId);
             }
+
+            deleteBlobs(unused);
+        }
+
+        private void logCheckFailure(byte[] blobKey, SchemaId recordId, SchemaId fieldId, Exception e) {
+            metrics.checkFailureCount.inc();
+            log.warn("Failed to check blob usage " + Hex.encodeHexString(blobKey) +
+                    ", recordId " + recordId +
+                    ", fieldId " + fieldId, e);
         }
 
-        private void deleteBlob(byte[] blobKey, SchemaId recordId, SchemaId fieldId) throws IOException {
-            if (deleteReference(blobKey, recordId)) {
+        /**
+         * Deletes the blobs and their references.
+         */
+        private void deleteBlobs(List<IncubatorRef> refs) throws IOException {
+            // A reserveBlobs can still change the reference, so each one is deleted with its own check
+            List<Put> restores = new ArrayList<Put>();
+            for (IncubatorRef ref : refs) {
+                if (!deleteReference(ref.blobKey, ref.recordId)) {
+                    continue;
+                }
                 try {
-                    blobManager.delete(blobKey);
+                    blobManager.delete(ref.blobKey);
                     metrics.blobDeleteCount.inc();
                 } catch (BlobException e) {
-                    log.warn("Failed to delete blob " + Hex.encodeHexString(blobKey), e);
+                    log.warn("Failed to delete blob " + Hex.encodeHexString(ref.blobKey), e);
                     // Deleting the blob failed. We put back the reference to try it again later.
                     // There's a small chance that this fails as well. In that there will be an unreferenced blob in the blobstore.
-                    Put put = new Put(blobKey);
-                    put.add(BlobIncubatorCf.REF.bytes, BlobIncubatorColumn.RECORD.bytes, recordId.getBytes());
-                    if (fieldId != null) {
-                        put.add(BlobIncubatorCf.REF.bytes, BlobIncubatorColumn.FIELD.bytes, fieldId.getBytes());
+                    Put put = new Put(ref.blobKey);
+                    put.add(BlobIncubatorCf.REF.bytes, BlobIncubatorColumn.RECORD.bytes, ref.recordId.getBytes());
+                    if (ref.fieldId != null) {
+                        put.add(BlobIncubatorCf.REF.bytes, BlobIncubatorColumn.FIELD.bytes, ref.fieldId.getBytes());
                     }
-                    blobIncubatorTable.put(put);
-                    return;
+                    restores.add(put);
                 }
             }
+            if (!restores.isEmpty()) {
+                blobIncubatorTable.put(restores);
+            }
         }
 
         private boolean deleteReference(byte[] blobKey, SchemaId recordId) throws IOException {
@@ -274,8 +430,8 @@ public class BlobIncubatorMonitor {
             return result;
         }
 
-        private Result getBlobUsage(byte[] blobKey, SchemaId recordId, SchemaId fieldId) throws FieldTypeNotFoundException,
-                TypeException, InterruptedException, IOException, RepositoryException {
+        private Get createBlobUsageGet(byte[] blobKey, SchemaId recordId, SchemaId fieldId)
+                throws FieldTypeNotFoundException, TypeException, InterruptedException, RepositoryException {
             FieldTypeImpl fieldType = (FieldTypeImpl)typeManager.getFieldTypeById(fieldId);
             ValueType valueType = fieldType.getValueType();
             Get get = new Get(recordId.getBytes());
@@ -285,15 +441,45 @@ public class BlobIncubatorMonitor {
             WritableByteArrayComparable valueComparator = new ContainsValueComparator(valueToCompare);
             Filter filter = new SingleColumnValueFilter(RecordCf.DATA.bytes, fieldType.getQualifier(), CompareOp.EQUAL, valueComparator);
             get.setFilter(filter);
-            
-            for (RepositoryTable repoTable : repositoryTableManager.getTables()) {
-                HTableInterface recordTable = LilyHBaseSchema.getRecordTable(tableFactory, repoTable.getName());
-                Result result = recordTable.get(get);
-                if (result != null && !result.isEmpty()) {
-                    return result;
-                }
-            }
-            return null;
+            return get;
+        }
+    }
+
+    /**
+     * A row of the incubator table which is being handled.
+     */
+    private static class IncubatorRef {
+        final byte[] blobKey;
+        final SchemaId recordId;
+        final SchemaId fieldId;
+        /** The get to find out if the blob is used, null for blobs which were never reserved. */
+        final Get usageGet;
+
+        IncubatorRef(byte[] blobKey, SchemaId recordId, SchemaId fieldId, Get usageGet) {
+            this.blobKey = blobKey;
+            this.recordId = recordId;
+            this.fieldId = fieldId;
+            this.usageGet = usageGet;
+        }
+    }
+
+    /**
+     * Progress of a run, shared by the slices which are handled concurrently.
+     */
+    private static class RunProgress {
+        final int slices;
+        final AtomicInteger slicesDone = new AtomicInteger();
+        final AtomicLong rows = new AtomicLong();
+
+        RunProgress(int slices) {
+            this.slices = slices;
+        }
+
+        /**
+         * @return the percentage of slices done
+         */
+        int sliceDone() {
+            return slicesDone.incrementAndGet() * 100 / slices;
         }
     }
 
@@ -16,11 +16,21 @@
 package org.lilyproject.repository.impl;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import com.google.common.primitives.Ints;
 import org.apache.commons.logging.Log;
@@ -43,6 +53,7 @@ import org.lilyproject.repository.api.Record;
 import org.lilyproject.repository.api.RecordId;
 import org.lilyproject.repository.api.ValueType;
 import org.lilyproject.repository.impl.valuetype.BlobValueType;
+import org.lilyproject.util.concurrent.CustomThreadFactory;
 import org.lilyproject.util.hbase.HBaseTableFactory;
 import org.lilyproject.util.hbase.LilyHBaseSchema;
 import org.lilyproject.util.hbase.LilyHBaseSchema.BlobIncubatorCf;
@@ -52,14 +63,31 @@ public class BlobManagerImpl implements BlobManager {
     private Log log = LogFactory.getLog(getClass());
 
     protected static final byte[] INCUBATE = new byte[]{(byte)-1};
+
+    /**
+     * Maximum number of blob reservations or deletions which are done concurrently, on behalf of all threads
+     * writing records.
+     */
+    private static final int MAX_CONCURRENCY = 16;
+
     private HTableInterface blobIncubatorTable;
 
+    /**
+     * Runs the reservations of the blobs of a record (one checkAndPut each) and the deletes from the blobstores
+     * concurrently, so that the time to write a record with many blobs doesn't grow with the number of blobs.
+     */
+    private final ThreadPoolExecutor executor;
+
     private BlobStoreAccessRegistry registry;
 
     public BlobManagerImpl(HBaseTableFactory hbaseTableFactory, BlobStoreAccessFactory blobStoreAccessFactory, boolean clientMode) throws IOException, InterruptedException {
         blobIncubatorTable = LilyHBaseSchema.getBlobIncubatorTable(hbaseTableFactory, clientMode);
         registry = new BlobStoreAccessRegistry(this);
         registry.setBlobStoreAccessFactory(blobStoreAccessFactory);
+
+        executor = new ThreadPoolExecutor(MAX_CONCURRENCY, MAX_CONCURRENCY, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new CustomThreadFactory("blob-reservation", null, true));
+        executor.allowCoreThreadTimeOut(true);
     }
 
     @Override
@@ -95,19 +123,72 @@ public class BlobManagerImpl implements BlobManager {
     @Override
     public Set<BlobReference> reserveBlobs(Set<BlobReference> blobs) throws IOException {
         Set<BlobReference> failedBlobs = new HashSet<BlobReference>();
-        for (BlobReference referencedBlob : blobs) {
-            try {
-                if (!reserveBlob(referencedBlob))
-                    failedBlobs.add(referencedBlob);
-            } catch (BlobNotFoundException bnfe) {
-                failedBlobs.add(referencedBlob);
-            } catch (BlobException be) {
+        if (blobs.size() == 1) {
+            // No need to involve other threads
+            BlobReference referencedBlob = blobs.iterator().next();
+            if (!reserveBlobHandlingErrors(referencedBlob)) {
                 failedBlobs.add(referencedBlob);
             }
+            return failedBlobs;
+        }
+
+        Map<BlobReference, Future<Boolean>> reservations = new LinkedHashMap<BlobReference, Future<Boolean>>();
+        for (final BlobReference referencedBlob : blobs) {
+            reservations.put(referencedBlob, executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws IOException {
+                    return reserveBlobHandlingErrors(referencedBlob);
+                }
+            }));
+        }
+
+        // All reservations are waited for, also when one of them fails, so that none of them is still going on
+        // when the caller reacts to the failure
+        IOException exception = null;
+        for (Map.Entry<BlobReference, Future<Boolean>> reservation : reservations.entrySet()) {
+            try {
+                if (!getResult(reservation.getValue())) {
+                    failedBlobs.add(reservation.getKey());
+                }
+            } catch (IOException e) {
+                if (exception == null) {
+                    exception = e;
+                }
+            }
+        }
+        if (exception != null) {
+            throw exception;
         }
         return failedBlobs;
     }
 
+    private boolean reserveBlobHandlingErrors(BlobReference referencedBlob) throws IOException {
+        try {
+            return reserveBlob(referencedBlob);
+        } catch (BlobNotFoundException bnfe) {
+            return false;
+        } catch (BlobException be) {
+            return false;
+        }
+    }
+
+    private <T> T getResult(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for blob reservations");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException)cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
     private boolean reserveBlob(BlobReference referencedBlob)  throws BlobNotFoundException, BlobException, IOException {
         BlobStoreAccess blobStoreAccess = registry.getBlobStoreAccess(referencedBlob.getBlob());
 
@@ -126,48 +207,79 @@ public class BlobManagerImpl implements BlobManager {
     }
 
     @Override
-    public void handleBlobReferences(RecordId recordId, Set<BlobReference> referencedBlobs, Set<BlobReference> unReferencedBlobs) {
+    public void handleBlobReferences(final RecordId recordId, Set<BlobReference> referencedBlobs,
+            Set<BlobReference> unReferencedBlobs) {
         // Remove references from the blobIncubator for the blobs that are still referenced.
-        if (referencedBlobs != null) {
-            try {
-                for (BlobReference blobReference : referencedBlobs) {
-                    try {
-                        BlobStoreAccess blobStoreAccess = registry.getBlobStoreAccess(blobReference.getBlob());
-                        // Only delete from the blobIncubatorTable if incubation applies
-                        if (blobStoreAccess.incubate()) {
-                            blobIncubatorTable.delete(new Delete(blobReference.getBlob().getValue()));
-                        }
-                    } catch (BlobNotFoundException bnfe) {
-                        // TODO
-                    } catch (BlobException be) {
-                        // TODO
+        if (referencedBlobs != null && !referencedBlobs.isEmpty()) {
+            List<Delete> deletes = new ArrayList<Delete>(referencedBlobs.size());
+            for (BlobReference blobReference : referencedBlobs) {
+                try {
+                    BlobStoreAccess blobStoreAccess = registry.getBlobStoreAccess(blobReference.getBlob());
+                    // Only delete from the blobIncubatorTable if incubation applies
+                    if (blobStoreAccess.incubate()) {
+                        deletes.add(new Delete(blobReference.getBlob().getValue()));
                     }
+                } catch (BlobNotFoundException bnfe) {
+                    // TODO
+                } catch (BlobException be) {
+                    // TODO
+                }
+            }
+            if (!deletes.isEmpty()) {
+                try {
+                    // These deletes are unconditional, so they are all sent in one batch
+                    blobIncubatorTable.delete(deletes);
+                } catch (IOException e) {
+                    // We do a best effort to remove the blobs from the blobIncubator
+                    // If it fails a background cleanup process will notice this later and clean it up
+                    log.info("Failed to remove blobs from the blobIncubator for record '" + recordId + "'", e);
                 }
-            } catch (IOException e) {
-                // We do a best effort to remove the blobs from the blobIncubator
-                // If it fails a background cleanup process will notice this later and clean it up
-                log.info("Failed to remove blobs from the blobIncubator for record '" + recordId + "'", e);
             }
         }
 
         // Remove blobs that are no longer referenced.
-        if (unReferencedBlobs != null) {
+        if (unReferencedBlobs != null && !unReferencedBlobs.isEmpty()) {
             Set<Blob> blobsToDelete = new HashSet<Blob>();
             for (BlobReference blobReference : unReferencedBlobs) {
                 blobsToDelete.add(blobReference.getBlob());
             }
-            for (Blob blobToDelete : blobsToDelete) {
-                // We do a best effort to delete the blobs from the blobstore
-                // If it fails, the blob will never be cleaned up.
+            if (blobsToDelete.size() == 1) {
+                deleteBlobHandlingErrors(recordId, blobsToDelete.iterator().next());
+                return;
+            }
+
+            List<Future<Void>> deletions = new ArrayList<Future<Void>>(blobsToDelete.size());
+            for (final Blob blobToDelete : blobsToDelete) {
+                deletions.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        deleteBlobHandlingErrors(recordId, blobToDelete);
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> deletion : deletions) {
                 try {
-                    registry.delete(blobToDelete);
-                } catch (BlobException e) {
-                    log.warn("Failed to remove blobs from the blobstore for record '" + recordId + "'", e);
+                    getResult(deletion);
+                } catch (IOException e) {
+                    // Interrupted, the remaining deletes continue in the background
+                    log.info("Interrupted while removing blobs from the blobstore for record '" + recordId + "'");
+                    break;
                 }
             }
         }
     }
 
+    private void deleteBlobHandlingErrors(RecordId recordId, Blob blobToDelete) {
+        // We do a best effort to delete the blobs from the blobstore
+        // If it fails, the blob will never be cleaned up.
+        try {
+            registry.delete(blobToDelete);
+        } catch (BlobException e) {
+            log.warn("Failed to remove blobs from the blobstore for record '" + recordId + "'", e);
+        }
+    }
+
     private Blob getBlobFromRecord(Record record, QName fieldName, FieldType fieldType, int... indexes)
             throws BlobNotFoundException {
         Object value = record.getField(fieldName);
@@ -31,6 +31,7 @@ public class BlobStoreAccessConfig {
 
     private String defaultAccess = null;
     private Map<String, Long> limits = new HashMap<String, Long>();
+    private boolean contentAddressed = false;
 
     public BlobStoreAccessConfig(byte[] encodedConfig) {
         JsonNode node = JsonFormat.deserializeSoft(encodedConfig, "BlobStoreAccessConfig");
@@ -44,6 +45,8 @@ public class BlobStoreAccessConfig {
             long limit = JsonUtil.getLong(limitNode, "limit");
             limits.put(store, limit);
         }
+
+        contentAddressed = JsonUtil.getBoolean(node, "contentAddressed", false);
     }
     
     public byte[] toBytes() {
@@ -57,6 +60,8 @@ public class BlobStoreAccessConfig {
             limitNode.put("limit", limit.getValue());
         }
 
+        node.put("contentAddressed", contentAddressed);
+
         return JsonFormat.serializeAsBytesSoft(node, "BlobStoreAccessConfig");
     }
 
@@ -81,5 +86,17 @@ public class BlobStoreAccessConfig {
     public Map<String, Long> getLimits() {
         return limits;
     }
+
+    /**
+     * Sets whether blobs stored in the HDFS and HBase blobstores are deduplicated based on their content,
+     * see {@link ContentAddressedBlobStoreAccess}.
+     */
+    public void setContentAddressed(boolean contentAddressed) {
+        this.contentAddressed = contentAddressed;
+    }
+
+    public boolean isContentAddressed() {
+        return contentAddressed;
+    }
     
 }
@@ -0,0 +1,366 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Increment;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.lilyproject.repository.api.Blob;
+import org.lilyproject.repository.api.BlobException;
+import org.lilyproject.repository.api.BlobStoreAccess;
+import org.lilyproject.repository.api.SeekableBlobStoreAccess;
+import org.lilyproject.util.hbase.HBaseTableFactory;
+import org.lilyproject.util.io.Closer;
+
+/**
+ * Stores each distinct content only once in the wrapped BlobStoreAccess.
+ *
+ * <p>While a blob is written, it is streamed to the wrapped blob store and a SHA-256 hash of its content is
+ * calculated. When the blob is closed, the hash is looked up in the dedup table: if the same content was stored
+ * before, that copy is reused and the one just written is deleted again, otherwise the new copy is registered.</p>
+ *
+ * <p>Each upload still gets a blob key of its own, consisting of the hash, a random upload id and the key of the
+ * shared copy. The incubation and reservation of blobs thus works as before, a blob key is used by at most one
+ * record. The dedup table counts the blob keys referring to each copy, deleting a blob key decreases that count,
+ * and the copy is only deleted from the wrapped blob store when it drops to zero. The count and the marker of an
+ * upload are always changed together, so deleting the same blob key more than once is harmless, and a failed
+ * upload does not keep the copy alive.</p>
+ *
+ * <p>Since the hash is only known once all content has been written, each upload is still written in full to the
+ * wrapped blob store, and a duplicate copy is only deleted afterwards. Deduplication thus saves storage, not
+ * write I/O.</p>
+ *
+ * <p>Blob keys written by the wrapped blob store itself (before deduplication was enabled, or while it is
+ * disabled) are passed on unchanged, so both kinds of blobs can be read and deleted at any time.</p>
+ */
+public class ContentAddressedBlobStoreAccess implements SeekableBlobStoreAccess {
+    private static final byte[] DEDUP_TABLE = Bytes.toBytes("blobdedup");
+    private static final String DEDUP_COLUMN_FAMILY = "ref";
+    private static final byte[] DEDUP_COLUMN_FAMILY_BYTES = Bytes.toBytes(DEDUP_COLUMN_FAMILY);
+    /** The key of the copy in the wrapped blob store. */
+    private static final byte[] STORE_KEY_COLUMN = Bytes.toBytes("k");
+    /** The number of blob keys referring to the copy. */
+    private static final byte[] COUNT_COLUMN = Bytes.toBytes("c");
+    /** Prefix of the columns marking the blob keys which are not deleted yet, followed by the upload id. */
+    private static final byte[] UPLOAD_COLUMN_PREFIX = Bytes.toBytes("u");
+    /** The value of an upload column, it is set with the same atomic increment as the count. */
+    private static final byte[] UPLOAD_MARKER = Bytes.toBytes(1L);
+
+    private static final String HASH_ALGORITHM = "SHA-256";
+    private static final int HASH_LENGTH = 32;
+    private static final int UPLOAD_ID_LENGTH = Bytes.SIZEOF_LONG;
+    /** Keys generated by the wrapped blob stores (UUIDs) are never longer than this. */
+    private static final int MAX_PLAIN_KEY_LENGTH = 16;
+
+    private final Log log = LogFactory.getLog(getClass());
+    private final BlobStoreAccess delegate;
+    private final HBaseTableFactory tableFactory;
+    private final boolean clientMode;
+    private final boolean deduplicate;
+    private final Random random = new Random();
+    private HTableInterface table;
+
+    /**
+     * @param deduplicate true to store new blobs content-addressed. When false, new blobs are written directly
+     *                    to the wrapped blob store, but content-addressed blobs written before can still be read
+     *                    and deleted.
+     */
+    public ContentAddressedBlobStoreAccess(BlobStoreAccess delegate, HBaseTableFactory tableFactory,
+            boolean clientMode, boolean deduplicate) {
+        this.delegate = delegate;
+        this.tableFactory = tableFactory;
+        this.clientMode = clientMode;
+        this.deduplicate = deduplicate;
+    }
+
+    /**
+     * The dedup table is only needed once content-addressed blobs are written or deleted.
+     */
+    private synchronized HTableInterface getTable() throws IOException {
+        if (table == null) {
+            HTableDescriptor tableDescriptor = new HTableDescriptor(DEDUP_TABLE);
+            tableDescriptor.addFamily(new HColumnDescriptor(DEDUP_COLUMN_FAMILY));
+            try {
+                table = tableFactory.getTable(tableDescriptor, !clientMode);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while opening the blob dedup table", e);
+            }
+        }
+        return table;
+    }
+
+    @Override
+    public String getId() {
+        return delegate.getId();
+    }
+
+    @Override
+    public boolean incubate() {
+        return delegate.incubate();
+    }
+
+    @Override
+    public OutputStream getOutputStream(Blob blob) throws BlobException {
+        if (!deduplicate) {
+            return delegate.getOutputStream(blob);
+        }
+        try {
+            return new DedupOutputStream(blob);
+        } catch (NoSuchAlgorithmException e) {
+            throw new BlobException("Failed to open an outputstream for blob '" + blob + "'", e);
+        }
+    }
+
+    @Override
+    public InputStream getInputStream(byte[] key) throws BlobException {
+        return delegate.getInputStream(getStoreKey(key));
+    }
+
+    @Override
+    public InputStream getInputStream(byte[] key, long offset) throws BlobException {
+        byte[] storeKey = getStoreKey(key);
+        if (delegate instanceof SeekableBlobStoreAccess) {
+            return ((SeekableBlobStoreAccess)delegate).getInputStream(storeKey, offset);
+        }
+        InputStream is = delegate.getInputStream(storeKey);
+        try {
+            BlobAccessImpl.skipFully(is, offset);
+        } catch (IOException e) {
+            Closer.close(is);
+            throw new BlobException("Failed to skip to position " + offset + " in blob '"
+                    + Hex.encodeHexString(key) + "'", e);
+        }
+        return is;
+    }
+
+    @Override
+    public void delete(byte[] key) throws BlobException {
+        if (isPlainKey(key)) {
+            delegate.delete(key);
+            return;
+        }
+
+        byte[] row = getRow(Bytes.head(key, HASH_LENGTH));
+        byte[] uploadColumn = getUploadColumn(Bytes.head(Bytes.tail(key, key.length - HASH_LENGTH), UPLOAD_ID_LENGTH));
+        try {
+            release(getTable(), row, uploadColumn);
+        } catch (IOException e) {
+            throw new BlobException("Failed to delete blob with key '" + Hex.encodeHexString(key) + "' from the "
+                    + getId() + " blobstore", e);
+        }
+    }
+
+    /**
+     * Removes the marker of an upload and decreases the count of its copy, deleting the copy once it is no longer
+     * referred to. Removing the marker first makes releasing the same upload more than once harmless.
+     */
+    private void release(HTableInterface dedupTable, byte[] row, byte[] uploadColumn) throws IOException {
+        Delete deleteUpload = new Delete(row);
+        deleteUpload.deleteColumns(DEDUP_COLUMN_FAMILY_BYTES, uploadColumn);
+        if (!dedupTable.checkAndDelete(row, DEDUP_COLUMN_FAMILY_BYTES, uploadColumn, UPLOAD_MARKER, deleteUpload)) {
+            return;
+        }
+
+        long count = dedupTable.incrementColumnValue(row, DEDUP_COLUMN_FAMILY_BYTES, COUNT_COLUMN, -1);
+        if (count > 0) {
+            return;
+        }
+
+        // Only if no new upload incremented the count in the meantime, the copy can go. Once the row is
+        // gone, uploads of the same content register a new copy.
+        byte[] storeKey = getExistingStoreKey(dedupTable, row);
+        if (dedupTable.checkAndDelete(row, DEDUP_COLUMN_FAMILY_BYTES, COUNT_COLUMN, Bytes.toBytes(count),
+                new Delete(row)) && storeKey != null) {
+            deleteCopy(storeKey);
+        }
+    }
+
+    private void deleteCopy(byte[] storeKey) throws IOException {
+        try {
+            delegate.delete(storeKey);
+        } catch (BlobException e) {
+            throw new IOException("Failed to delete blob from the " + getId() + " blobstore", e);
+        }
+    }
+
+    private static byte[] getExistingStoreKey(HTableInterface dedupTable, byte[] row) throws IOException {
+        Get get = new Get(row);
+        get.addColumn(DEDUP_COLUMN_FAMILY_BYTES, STORE_KEY_COLUMN);
+        return dedupTable.get(get).getValue(DEDUP_COLUMN_FAMILY_BYTES, STORE_KEY_COLUMN);
+    }
+
+    private static boolean isPlainKey(byte[] key) {
+        return key.length <= MAX_PLAIN_KEY_LENGTH;
+    }
+
+    private static byte[] getStoreKey(byte[] key) {
+        if (isPlainKey(key)) {
+            return key;
+        }
+        return Bytes.tail(key, key.length - HASH_LENGTH - UPLOAD_ID_LENGTH);
+    }
+
+    /**
+     * The same content in different blob stores results in different copies, so the hash is qualified with
+     * the id of the blob store.
+     */
+    private byte[] getRow(byte[] hash) {
+        return Bytes.add(hash, Bytes.toBytes(delegate.getId()));
+    }
+
+    private static byte[] getUploadColumn(byte[] uploadId) {
+        return Bytes.add(UPLOAD_COLUMN_PREFIX, uploadId);
+    }
+
+    private byte[] newUploadId() {
+        synchronized (random) {
+            return Bytes.toBytes(random.nextLong());
+        }
+    }
+
+    private class DedupOutputStream extends OutputStream {
+        private final Blob blob;
+        private final Blob storeBlob;
+        private final MessageDigest digest;
+        private final OutputStream os;
+        private boolean failed;
+        private boolean closed;
+
+        DedupOutputStream(Blob blob) throws NoSuchAlgorithmException, BlobException {
+            this.blob = blob;
+            this.digest = MessageDigest.getInstance(HASH_ALGORITHM);
+            this.storeBlob = new Blob(blob.getMediaType(), blob.getSize(), blob.getName());
+            this.os = delegate.getOutputStream(storeBlob);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            try {
+                os.write(b);
+            } catch (IOException e) {
+                failed = true;
+                throw e;
+            }
+            digest.update((byte)b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            try {
+                os.write(b, off, len);
+            } catch (IOException e) {
+                failed = true;
+                throw e;
+            }
+            digest.update(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            os.close();
+            byte[] ownKey = storeBlob.getValue();
+            if (failed) {
+                // The copy is incomplete, the blob key is never set so the upload fails. A wrapped stream which
+                // cleaned up after the failure itself has no key. Any error here is only logged, so as not to
+                // hide the one of the failed write.
+                if (ownKey != null) {
+                    try {
+                        deleteCopy(ownKey);
+                    } catch (Throwable t) {
+                        log.error("Failed to delete incomplete blob copy from the " + getId() + " blobstore", t);
+                    }
+                }
+                return;
+            }
+
+            byte[] hash = digest.digest();
+            byte[] row = getRow(hash);
+            byte[] uploadId = newUploadId();
+            byte[] uploadColumn = getUploadColumn(uploadId);
+
+            boolean counted = false;
+            boolean keepOwnCopy = false;
+            boolean success = false;
+            HTableInterface dedupTable = null;
+            try {
+                dedupTable = getTable();
+
+                // Count the new reference before looking for an existing copy, so that it can't be deleted
+                // in between. The marker is set in the same atomic step, so that a failure can always be undone
+                // by releasing the upload.
+                Increment increment = new Increment(row);
+                increment.addColumn(DEDUP_COLUMN_FAMILY_BYTES, COUNT_COLUMN, 1);
+                increment.addColumn(DEDUP_COLUMN_FAMILY_BYTES, uploadColumn, 1);
+                dedupTable.increment(increment);
+                counted = true;
+
+                byte[] storeKey = getExistingStoreKey(dedupTable, row);
+                if (storeKey == null) {
+                    // From here on the own copy might be registered, so it is only deleted when certainly not
+                    keepOwnCopy = true;
+                    Put put = new Put(row);
+                    put.add(DEDUP_COLUMN_FAMILY_BYTES, STORE_KEY_COLUMN, ownKey);
+                    if (dedupTable.checkAndPut(row, DEDUP_COLUMN_FAMILY_BYTES, STORE_KEY_COLUMN, null, put)) {
+                        storeKey = ownKey;
+                    } else {
+                        // The same content was stored concurrently, use that copy
+                        keepOwnCopy = false;
+                        storeKey = getExistingStoreKey(dedupTable, row);
+                    }
+                }
+
+                blob.setValue(Bytes.add(hash, uploadId, storeKey));
+                success = true;
+            } finally {
+                if (!success && counted) {
+                    try {
+                        release(dedupTable, row, uploadColumn);
+                    } catch (Throwable t) {
+                        log.error("Failed to release the reference of a failed upload to blob copy "
+                                + Hex.encodeHexString(row), t);
+                    }
+                }
+                if (!keepOwnCopy) {
+                    try {
+                        deleteCopy(ownKey);
+                    } catch (Throwable t) {
+                        log.error("Failed to delete unused blob copy from the " + getId() + " blobstore", t);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -16,13 +16,22 @@
 package org.lilyproject.repository.impl;
 
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.HColumnDescriptor;
 import org.apache.hadoop.hbase.HTableDescriptor;
@@ -34,20 +43,48 @@ import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.lilyproject.repository.api.Blob;
 import org.lilyproject.repository.api.BlobException;
-import org.lilyproject.repository.api.BlobStoreAccess;
+import org.lilyproject.repository.api.SeekableBlobStoreAccess;
+import org.lilyproject.util.concurrent.CustomThreadFactory;
 import org.lilyproject.util.hbase.HBaseTableFactory;
 import org.lilyproject.util.hbase.HBaseTableFactoryImpl;
 
-public class HBaseBlobStoreAccess implements BlobStoreAccess {
+/**
+ * Stores blobs in an HBase table, one row per blob.
+ *
+ * <p>The content of a blob is split in chunks of a fixed size, each stored in its own column, so that neither
+ * writing nor reading a blob requires its full size in memory. A header column, written together with the last
+ * chunk, records the chunk size and the length of the blob. Blobs written before chunking was introduced consist
+ * of a single column holding all the content, these can still be read.</p>
+ *
+ * <p>Instances should be closed when no longer used, to stop the threads which read ahead.</p>
+ */
+public class HBaseBlobStoreAccess implements SeekableBlobStoreAccess {
 
     private static final byte[] BLOB_TABLE = Bytes.toBytes("blob");
     private static final String ID = "HBASE";
     private static final String BLOBS_COLUMN_FAMILY = "data";
     private static final byte[] BLOBS_COLUMN_FAMILY_BYTES = Bytes.toBytes(BLOBS_COLUMN_FAMILY);
+    /** Column holding the complete blob, as written by older versions. */
     private static final byte[] BLOB_COLUMN = Bytes.toBytes("b");
+    private static final byte[] HEADER_COLUMN = Bytes.toBytes("h");
+    private static final byte[] CHUNK_COLUMN_PREFIX = Bytes.toBytes("c");
+    private static final byte HEADER_VERSION = 1;
+
+    public static final int DEFAULT_CHUNK_SIZE = 512 * 1024;
+
+    /** Maximum number of chunks fetched concurrently, further read-aheads wait for a free thread. */
+    private static final int READ_AHEAD_THREADS = 16;
+
+    private final Log log = LogFactory.getLog(getClass());
 
-    private boolean clientMode = false;
     private HTableInterface table;
+    private final int chunkSize;
+
+    /**
+     * Fetches the next chunk of the blobs being read while the current chunk is consumed. Threads are only
+     * kept while there are readers.
+     */
+    private final ThreadPoolExecutor readAheadExecutor;
 
     public HBaseBlobStoreAccess(Configuration hbaseConf) throws IOException, InterruptedException {
         this(hbaseConf, false);
@@ -62,6 +99,24 @@ public class HBaseBlobStoreAccess implements BlobStoreAccess {
     }
 
     public HBaseBlobStoreAccess(HBaseTableFactory tableFactory, boolean clientMode) throws IOException, InterruptedException {
+        this(tableFactory, clientMode, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param chunkSize the size of the chunks in which newly written blobs are stored. Blobs are always read
+     *                  using the chunk size they were written with.
+     */
+    public HBaseBlobStoreAccess(HBaseTableFactory tableFactory, boolean clientMode, int chunkSize)
+            throws IOException, InterruptedException {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size should be positive, got " + chunkSize);
+        }
+        this.chunkSize = chunkSize;
+
+        readAheadExecutor = new ThreadPoolExecutor(READ_AHEAD_THREADS, READ_AHEAD_THREADS, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new CustomThreadFactory("hbase-blob-read-ahead", null, true));
+        readAheadExecutor.allowCoreThreadTimeOut(true);
+
         HTableDescriptor tableDescriptor = new HTableDescriptor(BLOB_TABLE);
         tableDescriptor.addFamily(new HColumnDescriptor(BLOBS_COLUMN_FAMILY));
 
@@ -73,6 +128,13 @@ public class HBaseBlobStoreAccess implements BlobStoreAccess {
         return ID;
     }
 
+    /**
+     * Stops the read-ahead threads. Input streams which are still open will fail on reading their next chunk.
+     */
+    public void close() {
+        readAheadExecutor.shutdownNow();
+    }
+
     @Override
     public OutputStream getOutputStream(Blob blob) throws BlobException {
         UUID uuid = UUID.randomUUID();
@@ -83,7 +145,13 @@ public class HBaseBlobStoreAccess implements BlobStoreAccess {
 
     @Override
     public InputStream getInputStream(byte[] blobKey) throws BlobException {
+        return getInputStream(blobKey, 0);
+    }
+
+    @Override
+    public InputStream getInputStream(byte[] blobKey, long offset) throws BlobException {
         Get get = new Get(blobKey);
+        get.addColumn(BLOBS_COLUMN_FAMILY_BYTES, HEADER_COLUMN);
         get.addColumn(BLOBS_COLUMN_FAMILY_BYTES, BLOB_COLUMN);
         Result result;
         try {
@@ -91,11 +159,23 @@ public class HBaseBlobStoreAccess implements BlobStoreAccess {
         } catch (IOException e) {
             throw new BlobException("Failed to open an inputstream for blobkey '" + Hex.encodeHexString(blobKey) + "' on the HBASE blobstore", e);
         }
+
+        byte[] header = result.getValue(BLOBS_COLUMN_FAMILY_BYTES, HEADER_COLUMN);
+        if (header != null) {
+            if (header[0] != HEADER_VERSION) {
+                throw new BlobException("Unsupported header version " + header[0] + " for blobkey '" + Hex.encodeHexString(blobKey) + "' on the HBASE blobstore");
+            }
+            int blobChunkSize = Bytes.toInt(header, 1);
+            long length = Bytes.toLong(header, 5);
+            return new HBaseBlobInputStream(table, readAheadExecutor, blobKey, blobChunkSize, length, offset);
+        }
+
         byte[] value = result.getValue(BLOBS_COLUMN_FAMILY_BYTES, BLOB_COLUMN);
         if (value == null) {
             throw new BlobException("Failed to open an inputstream for blobkey '" + Hex.encodeHexString(blobKey) + "' since no blob was found on the HBASE blobstore");
         }
-        return new ByteArrayInputStream(value);
+        int start = (int)Math.min(Math.max(offset, 0), value.length);
+        return new ByteArrayInputStream(value, start, value.length - start);
     }
 
     @Override
@@ -113,25 +193,322 @@ public class HBaseBlobStoreAccess implements BlobStoreAccess {
         return true;
     }
 
-    private class HBaseBlobOutputStream extends ByteArrayOutputStream {
+    private static byte[] chunkColumn(int index) {
+        return Bytes.add(CHUNK_COLUMN_PREFIX, Bytes.toBytes(index));
+    }
+
+    /**
+     * Writes each chunk as soon as it is full. The header is only written together with the last chunk, when the
+     * stream is closed, so a blob of which the writing failed halfway is never readable. The chunks which were
+     * already written are then removed again, since nothing refers to them.
+     *
+     * <p>Note that a stream which is never closed leaves its chunks behind.</p>
+     */
+    private class HBaseBlobOutputStream extends OutputStream {
 
         private final HTableInterface blobTable;
         private final byte[] blobKey;
         private final Blob blob;
+        private byte[] buffer;
+        private int count;
+        private int chunkIndex;
+        private long length;
+        private boolean closed;
+
         public HBaseBlobOutputStream(HTableInterface table, byte[] blobKey, Blob blob) {
-            super();
             blobTable = table;
             this.blobKey = blobKey;
             this.blob = blob;
+            // Avoid allocating a full chunk for blobs which are known to be smaller
+            Long size = blob.getSize();
+            buffer = new byte[size != null && size >= 0 && size < chunkSize ? Math.max(size.intValue(), 1) : chunkSize];
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            ensureOpen();
+            if (count == buffer.length) {
+                flushChunk();
+            }
+            buffer[count++] = (byte)b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ensureOpen();
+            if (off < 0 || len < 0 || off + len > b.length) {
+                throw new IndexOutOfBoundsException();
+            }
+            while (len > 0) {
+                if (count == buffer.length) {
+                    flushChunk();
+                }
+                int n = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        private void ensureOpen() throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
         }
+
+        /**
+         * Writes the buffer as a chunk. If the blob turns out to be larger than announced, the buffer is grown
+         * to the full chunk size instead, since the chunks should all have the same size.
+         */
+        private void flushChunk() throws IOException {
+            if (buffer.length < chunkSize) {
+                byte[] newBuffer = new byte[chunkSize];
+                System.arraycopy(buffer, 0, newBuffer, 0, count);
+                buffer = newBuffer;
+                return;
+            }
+            Put put = new Put(blobKey);
+            put.add(BLOBS_COLUMN_FAMILY_BYTES, chunkColumn(chunkIndex), currentChunk());
+            putOrAbort(put);
+            chunkIndex++;
+            length += count;
+            count = 0;
+        }
+
+        private byte[] currentChunk() {
+            if (count == buffer.length) {
+                return buffer.clone();
+            }
+            byte[] chunk = new byte[count];
+            System.arraycopy(buffer, 0, chunk, 0, count);
+            return chunk;
+        }
+
         @Override
         public void close() throws IOException {
-            super.close();
-            byte[] bytes = toByteArray();
+            if (closed) {
+                return;
+            }
+            closed = true;
+
             Put put = new Put(blobKey);
-            put.add(BLOBS_COLUMN_FAMILY_BYTES, BLOB_COLUMN, bytes);
-            blobTable.put(put);
+            if (count > 0) {
+                put.add(BLOBS_COLUMN_FAMILY_BYTES, chunkColumn(chunkIndex), currentChunk());
+                length += count;
+            }
+            byte[] header = new byte[1 + Bytes.SIZEOF_INT + Bytes.SIZEOF_LONG];
+            header[0] = HEADER_VERSION;
+            Bytes.putInt(header, 1, chunkSize);
+            Bytes.putLong(header, 5, length);
+            put.add(BLOBS_COLUMN_FAMILY_BYTES, HEADER_COLUMN, header);
+            putOrAbort(put);
             blob.setValue(blobKey);
         }
+
+        private void putOrAbort(Put put) throws IOException {
+            try {
+                blobTable.put(put);
+            } catch (IOException e) {
+                abort();
+                throw e;
+            } catch (RuntimeException e) {
+                abort();
+                throw e;
+            }
+        }
+
+        /**
+         * Removes the chunks written so far. This also covers the failed put, which might have been applied
+         * nonetheless.
+         */
+        private void abort() {
+            closed = true;
+            buffer = null;
+            try {
+                blobTable.delete(new Delete(blobKey));
+            } catch (IOException e) {
+                log.warn("Failed to remove the chunks of the failed upload of blob '" + Hex.encodeHexString(blobKey)
+                        + "' from the HBASE blobstore", e);
+            }
+        }
+    }
+
+    /**
+     * Reads the chunks of a blob one by one. While a chunk is being consumed, the next one is already fetched in
+     * the background, so that a reader which streams the blob doesn't wait on HBase for each chunk.
+     */
+    private static class HBaseBlobInputStream extends InputStream {
+
+        private final HTableInterface blobTable;
+        private final ExecutorService readAheadExecutor;
+        private final byte[] blobKey;
+        private final int chunkSize;
+        private final int chunkCount;
+        private final long length;
+        private byte[] chunk;
+        private int chunkPos;
+        /** Where to start reading in the next chunk that will be fetched. */
+        private int startInNextChunk;
+        private int nextChunkIndex;
+        private Future<byte[]> nextChunk;
+        private long position;
+        private boolean closed;
+
+        HBaseBlobInputStream(HTableInterface table, ExecutorService readAheadExecutor, byte[] blobKey, int chunkSize,
+                long length, long offset) {
+            this.blobTable = table;
+            this.readAheadExecutor = readAheadExecutor;
+            this.blobKey = blobKey;
+            this.chunkSize = chunkSize;
+            this.length = length;
+            this.chunkCount = (int)((length + chunkSize - 1) / chunkSize);
+            // Start fetching the first chunk right away
+            seek(Math.min(Math.max(offset, 0), length));
+        }
+
+        /**
+         * Continues reading at the given position, which should not be in the current chunk.
+         */
+        private void seek(long target) {
+            if (nextChunk != null) {
+                nextChunk.cancel(true);
+            }
+            chunk = null;
+            chunkPos = 0;
+            position = target;
+            nextChunkIndex = (int)(target / chunkSize);
+            startInNextChunk = (int)(target % chunkSize);
+            scheduleNextChunk();
+        }
+
+        private void scheduleNextChunk() {
+            if (nextChunkIndex >= chunkCount) {
+                nextChunk = null;
+                return;
+            }
+            final int index = nextChunkIndex++;
+            nextChunk = readAheadExecutor.submit(new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws Exception {
+                    return fetchChunk(index);
+                }
+            });
+        }
+
+        private byte[] fetchChunk(int index) throws IOException {
+            byte[] column = chunkColumn(index);
+            Get get = new Get(blobKey);
+            get.addColumn(BLOBS_COLUMN_FAMILY_BYTES, column);
+            byte[] value = blobTable.get(get).getValue(BLOBS_COLUMN_FAMILY_BYTES, column);
+            if (value == null) {
+                throw new IOException("Chunk " + index + " of blob '" + Hex.encodeHexString(blobKey)
+                        + "' not found on the HBASE blobstore, the blob might have been deleted");
+            }
+            return value;
+        }
+
+        /**
+         * Makes sure there are bytes available in the current chunk.
+         *
+         * @return false at the end of the blob
+         */
+        private boolean ensureChunk() throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            while (chunk == null || chunkPos == chunk.length) {
+                if (nextChunk == null) {
+                    return false;
+                }
+                try {
+                    chunk = nextChunk.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while reading blob '"
+                            + Hex.encodeHexString(blobKey) + "'");
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException) {
+                        throw (IOException)e.getCause();
+                    }
+                    throw new IOException("Error reading blob '" + Hex.encodeHexString(blobKey) + "'", e.getCause());
+                }
+                chunkPos = startInNextChunk;
+                startInNextChunk = 0;
+                scheduleNextChunk();
+            }
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!ensureChunk()) {
+                return -1;
+            }
+            position++;
+            return chunk[chunkPos++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (off < 0 || len < 0 || off + len > b.length) {
+                throw new IndexOutOfBoundsException();
+            }
+            if (len == 0) {
+                return 0;
+            }
+            if (!ensureChunk()) {
+                return -1;
+            }
+            int n = Math.min(len, chunk.length - chunkPos);
+            System.arraycopy(chunk, chunkPos, b, off, n);
+            chunkPos += n;
+            position += n;
+            return n;
+        }
+
+        /**
+         * Skips without fetching the chunks which are skipped entirely.
+         */
+        @Override
+        public long skip(long n) throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            if (n <= 0) {
+                return 0;
+            }
+            long target = Math.min(position + n, length);
+            long skipped = target - position;
+            long chunkStart = position - chunkPos;
+            if (chunk != null && target < chunkStart + chunk.length) {
+                chunkPos += (int)skipped;
+                position = target;
+            } else {
+                seek(target);
+            }
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            if (closed || chunk == null) {
+                return 0;
+            }
+            return chunk.length - chunkPos;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            chunk = null;
+            if (nextChunk != null) {
+                nextChunk.cancel(true);
+                nextChunk = null;
+            }
+        }
     }
 }
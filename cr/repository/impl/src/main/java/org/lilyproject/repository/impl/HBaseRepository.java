@@ -19,6 +19,8 @@ import static org.lilyproject.repository.impl.RecordDecoder.RECORD_TYPE_ID_QUALI
 import static org.lilyproject.repository.impl.RecordDecoder.RECORD_TYPE_VERSION_QUALIFIERS;
 
 import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -58,6 +60,7 @@ import org.lilyproject.repository.api.BlobException;
 import org.lilyproject.repository.api.BlobManager;
 import org.lilyproject.repository.api.BlobReference;
 import org.lilyproject.repository.api.ConcurrentRecordUpdateException;
+import org.lilyproject.repository.api.FieldMutation;
 import org.lilyproject.repository.api.FieldType;
 import org.lilyproject.repository.api.FieldTypeEntry;
 import org.lilyproject.repository.api.FieldTypeNotFoundException;
@@ -85,8 +88,14 @@ import org.lilyproject.repository.api.TypeException;
 import org.lilyproject.repository.api.ValueType;
 import org.lilyproject.repository.api.VersionNotFoundException;
 import org.lilyproject.repository.impl.RepositoryMetrics.Action;
+import org.lilyproject.repository.impl.RepositoryMetrics.HBaseAction;
 import org.lilyproject.repository.impl.id.SchemaIdImpl;
 import org.lilyproject.repository.impl.valuetype.BlobValueType;
+import org.lilyproject.repository.impl.valuetype.DecimalValueType;
+import org.lilyproject.repository.impl.valuetype.IntegerValueType;
+import org.lilyproject.repository.impl.valuetype.ListValueType;
+import org.lilyproject.repository.impl.valuetype.LongValueType;
+import org.lilyproject.repository.spi.FieldDependentRecordUpdateHook;
 import org.lilyproject.repository.spi.RecordUpdateHook;
 import org.lilyproject.util.ArgumentValidator;
 import org.lilyproject.util.ObjectUtils;
@@ -96,6 +105,7 @@ import org.lilyproject.util.hbase.LilyHBaseSchema.RecordColumn;
 import org.lilyproject.util.io.Closer;
 import org.lilyproject.util.repo.RecordEvent;
 import org.lilyproject.util.repo.RecordEvent.Type;
+import org.lilyproject.util.repo.SystemFields;
 
 /**
  * Repository implementation.
@@ -108,9 +118,31 @@ public class HBaseRepository extends BaseRepository {
 
     private static final Object METADATA_ONLY_UPDATE = new Object();
 
+    /**
+     * The number of times an update with field mutations is tried in case of concurrent updates of the record.
+     */
+    private static final int MAX_MUTATION_ATTEMPTS = 20;
+
+    /**
+     * The maximum delay in ms before the first retry of an update with field mutations, it doubles with every
+     * retry up to {@link #MAX_MUTATION_RETRY_DELAY}. The actual delay is random, so that concurrent updates
+     * of the same record don't keep conflicting.
+     */
+    private static final long MUTATION_RETRY_DELAY = 5L;
+
+    private static final long MAX_MUTATION_RETRY_DELAY = 200L;
+
     public HBaseRepository(RepositoryManager repositoryManager, HTableInterface hbaseTable,
             BlobManager blobManager) throws IOException, InterruptedException {
-        super(repositoryManager, blobManager, hbaseTable, new RepositoryMetrics("hbaserepository"));
+        this(repositoryManager, hbaseTable, blobManager, new RecordCache());
+    }
+
+    /**
+     * @param recordCache cache of the records read, which this repository keeps up to date with its own changes
+     */
+    public HBaseRepository(RepositoryManager repositoryManager, HTableInterface hbaseTable,
+            BlobManager blobManager, RecordCache recordCache) throws IOException, InterruptedException {
+        super(repositoryManager, blobManager, hbaseTable, new RepositoryMetrics("hbaserepository"), recordCache);
     }
 
     @Override
@@ -272,8 +304,10 @@ public class HBaseRepository extends BaseRepository {
 
                 put.add(RecordCf.DATA.bytes, RecordColumn.PAYLOAD.bytes, recordEvent.toJsonBytes());
                 put.add(RecordCf.DATA.bytes, RecordColumn.OCC.bytes, 1L, Bytes.toBytes(newOcc));
+                long beforePut = System.currentTimeMillis();
                 boolean success = recordTable.checkAndPut(put.getRow(), RecordCf.DATA.bytes, RecordColumn.OCC.bytes,
                         oldOcc == -1 ? null : Bytes.toBytes(oldOcc), put);
+                metrics.reportHBase(HBaseAction.PUT, System.currentTimeMillis() - beforePut);
                 if (!success) {
                     throw new RecordExistsException(recordId);
                 }
@@ -379,32 +413,128 @@ public class HBaseRepository extends BaseRepository {
                             e);
                 }
             } else {
-                return updateRecord(record, useLatestRecordType, conditions, fieldTypes);
+                return updateRecord(record, useLatestRecordType, conditions, null, fieldTypes, null);
             }
         } finally {
+            invalidateCachedRecord(recordId);
             metrics.report(Action.UPDATE, System.currentTimeMillis() - before);
         }
     }
 
+    @Override
+    public Record update(Record record, List<MutationCondition> conditions, List<FieldMutation> mutations)
+            throws RepositoryException, InterruptedException {
+        if (mutations == null || mutations.isEmpty()) {
+            return update(record, false, true, conditions);
+        }
+
+        long before = System.currentTimeMillis();
+        RecordId recordId = record.getId();
+        try {
+            if (recordId == null) {
+                throw new InvalidRecordException("The recordId cannot be null for a record to be updated.",
+                        record.getId());
+            }
 
+            for (FieldMutation mutation : mutations) {
+                if (record.hasField(mutation.getField()) || record.getFieldsToDelete().contains(mutation.getField())) {
+                    throw new InvalidRecordException("Field " + mutation.getField()
+                            + " cannot be both mutated and set or deleted in the same update.", recordId);
+                }
+            }
+
+            // The mutations are applied to the value read by the update, which is guaranteed to be the latest one
+            // by the occ check. When another update came in between, we simply try again: contrary to a client
+            // side retry, this doesn't need another round trip.
+            MutationRetryState retryState = new MutationRetryState();
+            int attempt = 1;
+            while (true) {
+                FieldTypes fieldTypes = typeManager.getFieldTypesSnapshot();
+                try {
+                    return updateRecord(record, true, conditions, mutations, fieldTypes, retryState);
+                } catch (ConcurrentRecordUpdateException e) {
+                    if (attempt >= MAX_MUTATION_ATTEMPTS) {
+                        throw e;
+                    }
+                    long maxDelay = Math.min(MAX_MUTATION_RETRY_DELAY, MUTATION_RETRY_DELAY << (attempt - 1));
+                    Thread.sleep((long)(Math.random() * maxDelay));
+                    attempt++;
+                }
+            }
+        } finally {
+            invalidateCachedRecord(recordId);
+            metrics.report(Action.UPDATE, System.currentTimeMillis() - before);
+        }
+    }
+
+    /**
+     * Removes a record from the record cache after changing it. This is also done when the change failed, since
+     * in some cases (e.g. an IOException on the put) we can't be sure it wasn't applied.
+     */
+    private void invalidateCachedRecord(RecordId recordId) {
+        if (recordId != null) {
+            recordCache.invalidate(getTableName(), recordId);
+        }
+    }
+
+
+    /**
+     * @param retryState for updates with field mutations, the state kept between the attempts of the update,
+     *                   otherwise null
+     */
     private Record updateRecord(Record record, boolean useLatestRecordType, List<MutationCondition> conditions,
-                                FieldTypes fieldTypes) throws RepositoryException {
+                                List<FieldMutation> mutations, FieldTypes fieldTypes,
+                                MutationRetryState retryState) throws RepositoryException {
 
         RecordId recordId = record.getId();
 
         try {
-            Pair<Record, Long> recordAndOcc = readWithOcc(record.getId(), null, null, fieldTypes);
+            Pair<Record, Long> recordAndOcc = readForUpdate(record, useLatestRecordType, conditions, mutations,
+                    fieldTypes);
             Record originalRecord = new UnmodifiableRecord(recordAndOcc.getV1());
 
+            // Check the mutation conditions.
+            // It is important that we do this before checking if the record needs updating at all: otherwise,
+            // another client might already have performed the update we intended to do, which is problematic
+            // in cases like incrementing a counter (the counter should be updated twice, not once). The field
+            // mutations are only applied once the conditions are known to hold.
+            Record conditionsResponse = MutationConditionVerifier.checkConditions(originalRecord, conditions, this,
+                    record);
+            if (conditionsResponse != null) {
+                return conditionsResponse;
+            }
+
             long oldOcc = recordAndOcc.getV2();
             long newOcc = oldOcc + 1;
 
-            RecordEvent recordEvent = new RecordEvent();
-            recordEvent.setType(Type.UPDATE);
-            recordEvent.setTableName(getTableName());
+            RecordEvent recordEvent;
+            if (retryState != null && canReuseHooks(retryState, originalRecord, mutations)) {
+                // Only the mutated fields differ from the previous attempt, and the hooks don't depend on them
+                record = retryState.hookedRecord.cloneRecord();
+                for (FieldMutation mutation : mutations) {
+                    record.delete(mutation.getField(), false);
+                }
+                record = applyMutations(record, originalRecord, mutations, fieldTypes);
+                recordEvent = new RecordEvent(retryState.hookedRecordEvent, idGenerator);
+            } else {
+                if (mutations != null) {
+                    // From here on, the update is the same as if the client had set the resulting values
+                    record = applyMutations(record, originalRecord, mutations, fieldTypes);
+                }
 
-            for (RecordUpdateHook hook : updateHooks) {
-                hook.beforeUpdate(record, originalRecord, this, fieldTypes, recordEvent);
+                recordEvent = new RecordEvent();
+                recordEvent.setType(Type.UPDATE);
+                recordEvent.setTableName(getTableName());
+
+                for (RecordUpdateHook hook : updateHooks) {
+                    hook.beforeUpdate(record, originalRecord, this, fieldTypes, recordEvent);
+                }
+
+                if (retryState != null) {
+                    retryState.hookedOriginalRecord = originalRecord;
+                    retryState.hookedRecord = record.cloneRecord();
+                    retryState.hookedRecordEvent = recordEvent.toJsonBytes();
+                }
             }
 
             Record newRecord = record.cloneRecord();
@@ -414,16 +544,6 @@ public class HBaseRepository extends BaseRepository {
             Set<BlobReference> unReferencedBlobs = new HashSet<BlobReference>();
             long newVersion = originalRecord.getVersion() == null ? 1 : originalRecord.getVersion() + 1;
 
-            // Check the mutation conditions.
-            // It is important that we do this before checking if the record needs updating at all: otherwise,
-            // another client might already have performed the update we intended to do, which is problematic
-            // in cases like incrementing a counter (the counter should be updated twice, not once).
-            Record conditionsResponse = MutationConditionVerifier.checkConditions(originalRecord, conditions, this,
-                    record);
-            if (conditionsResponse != null) {
-                return conditionsResponse;
-            }
-
             if (calculateRecordChanges(newRecord, originalRecord, newVersion, put, recordEvent, referencedBlobs,
                     unReferencedBlobs, useLatestRecordType, fieldTypes)) {
 
@@ -431,13 +551,23 @@ public class HBaseRepository extends BaseRepository {
                     recordEvent.setAttributes(record.getAttributes());
                 }
 
-                // Reserve blobs so no other records can use them
-                reserveBlobs(record.getId(), referencedBlobs);
+                // Reserve blobs so no other records can use them. An earlier attempt of the same update already
+                // reserved some of them for this record.
+                if (retryState != null) {
+                    Set<BlobReference> newBlobs = new HashSet<BlobReference>(referencedBlobs);
+                    newBlobs.removeAll(retryState.reservedBlobs);
+                    reserveBlobs(record.getId(), newBlobs);
+                    retryState.reservedBlobs.addAll(newBlobs);
+                } else {
+                    reserveBlobs(record.getId(), referencedBlobs);
+                }
 
                 put.add(RecordCf.DATA.bytes, RecordColumn.PAYLOAD.bytes, recordEvent.toJsonBytes());
                 put.add(RecordCf.DATA.bytes, RecordColumn.OCC.bytes, 1L, Bytes.toBytes(newOcc));
+                long beforePut = System.currentTimeMillis();
                 boolean occSuccess = recordTable.checkAndPut(put.getRow(), RecordCf.DATA.bytes, RecordColumn.OCC.bytes,
                         Bytes.toBytes(oldOcc), put);
+                metrics.reportHBase(HBaseAction.PUT, System.currentTimeMillis() - beforePut);
                 if (!occSuccess) {
                     throw new ConcurrentRecordUpdateException(recordId);
                 }
@@ -465,6 +595,277 @@ public class HBaseRepository extends BaseRepository {
         }
     }
 
+    /**
+     * Returns true if the hooks would do the same as in the previous attempt of an update with field mutations:
+     * all of them declare the fields they depend on, none of which is mutated or changed since that attempt.
+     */
+    private boolean canReuseHooks(MutationRetryState retryState, Record originalRecord,
+            List<FieldMutation> mutations) {
+        Record previousRecord = retryState.hookedOriginalRecord;
+        if (previousRecord == null
+                || !ObjectUtils.safeEquals(previousRecord.getRecordTypeName(), originalRecord.getRecordTypeName())
+                || !ObjectUtils.safeEquals(previousRecord.getRecordTypeVersion(),
+                        originalRecord.getRecordTypeVersion())) {
+            return false;
+        }
+
+        Set<QName> mutatedFields = new HashSet<QName>();
+        for (FieldMutation mutation : mutations) {
+            mutatedFields.add(mutation.getField());
+        }
+        for (RecordUpdateHook hook : updateHooks) {
+            if (!(hook instanceof FieldDependentRecordUpdateHook)) {
+                return false;
+            }
+            Set<QName> dependencies = ((FieldDependentRecordUpdateHook)hook).getOriginalFieldDependencies();
+            if (dependencies == null) {
+                return false;
+            }
+            for (QName field : dependencies) {
+                if (mutatedFields.contains(field) || previousRecord.hasField(field) != originalRecord.hasField(field)
+                        || (originalRecord.hasField(field)
+                            && !previousRecord.getField(field).equals(originalRecord.getField(field)))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * What an update with field mutations keeps between its attempts, so that a retry after a concurrent update
+     * of the record doesn't redo the work which doesn't depend on the changes of that update.
+     */
+    private static class MutationRetryState {
+        /** The blobs reserved for the record by earlier attempts. */
+        private final Set<BlobReference> reservedBlobs = new HashSet<BlobReference>();
+        /** The original record seen by the update hooks in the last attempt they were called. */
+        private Record hookedOriginalRecord;
+        /** The record after the update hooks were called in that attempt. */
+        private Record hookedRecord;
+        /** The record event as produced by the update hooks in that attempt. */
+        private byte[] hookedRecordEvent;
+    }
+
+    /**
+     * Reads the current state of a record before updating it. Where possible, only the fields the update needs
+     * are read, rather than the complete record: the fields which are set or deleted (including those of which
+     * only the metadata changes), the fields used in the mutation conditions, the mandatory fields of the record
+     * type (to validate the record), the fields the update hooks depend on and the mutated fields.
+     */
+    private Pair<Record, Long> readForUpdate(Record record, boolean useLatestRecordType,
+            List<MutationCondition> conditions, List<FieldMutation> mutations, FieldTypes fieldTypes)
+            throws RepositoryException, InterruptedException {
+        Set<QName> fieldNames = getFieldsNeededForUpdate(record, conditions, mutations);
+        List<FieldType> fields = fieldNames == null ? null : getFieldTypes(fieldNames, fieldTypes);
+        if (fields == null || fields.isEmpty()) {
+            return readWithOcc(record.getId(), null, null, fieldTypes);
+        }
+
+        if (record.getRecordTypeName() != null) {
+            // Saves a second read in case the record type has mandatory fields
+            try {
+                addMandatoryFields(record.getRecordTypeName(),
+                        useLatestRecordType ? null : record.getRecordTypeVersion(), fieldNames, fields, fieldTypes);
+            } catch (TypeException e) {
+                // Reported by the update itself, after checking that the record exists
+            }
+        }
+
+        Pair<Record, Long> recordAndOcc = readWithOcc(record.getId(), null, fields, fieldTypes);
+
+        if (record.getRecordTypeName() == null) {
+            // The record keeps its record type, of which the mandatory fields are needed as well. Reading
+            // the missing fields again along with the other ones gives a consistent view, the occ check
+            // catches any update in between.
+            int fieldCount = fields.size();
+            addMandatoryFields(recordAndOcc.getV1().getRecordTypeName(), null, fieldNames, fields, fieldTypes);
+            if (fields.size() > fieldCount) {
+                recordAndOcc = readWithOcc(record.getId(), null, fields, fieldTypes);
+            }
+        }
+
+        return recordAndOcc;
+    }
+
+    /**
+     * Returns the names of the fields needed to update a record, or null if the complete record is needed.
+     */
+    private Set<QName> getFieldsNeededForUpdate(Record record, List<MutationCondition> conditions,
+            List<FieldMutation> mutations) {
+        Set<QName> fieldNames = new HashSet<QName>();
+        for (RecordUpdateHook hook : updateHooks) {
+            if (!(hook instanceof FieldDependentRecordUpdateHook)) {
+                return null;
+            }
+            Set<QName> dependencies = ((FieldDependentRecordUpdateHook)hook).getOriginalFieldDependencies();
+            if (dependencies == null) {
+                return null;
+            }
+            fieldNames.addAll(dependencies);
+        }
+
+        fieldNames.addAll(record.getFields().keySet());
+        fieldNames.addAll(record.getFieldsToDelete());
+        fieldNames.addAll(record.getMetadataMap().keySet());
+        if (conditions != null) {
+            for (MutationCondition condition : conditions) {
+                // System fields are derived from the system columns, which are always read
+                if (!SystemFields.NS.equals(condition.getField().getNamespace())) {
+                    fieldNames.add(condition.getField());
+                }
+            }
+        }
+        if (mutations != null) {
+            for (FieldMutation mutation : mutations) {
+                fieldNames.add(mutation.getField());
+            }
+        }
+        return fieldNames;
+    }
+
+    /**
+     * Returns the field types with the given names, or null if one of them doesn't exist, in which case the
+     * complete record is read and the update reports the unknown field as before.
+     */
+    private List<FieldType> getFieldTypes(Set<QName> fieldNames, FieldTypes fieldTypes) throws TypeException,
+            InterruptedException {
+        List<FieldType> fields = new ArrayList<FieldType>(fieldNames.size());
+        for (QName fieldName : fieldNames) {
+            if (!fieldTypes.fieldTypeExists(fieldName)) {
+                return null;
+            }
+            fields.add(fieldTypes.getFieldType(fieldName));
+        }
+        return fields;
+    }
+
+    /**
+     * Returns a copy of the record in which the mutated fields are set to the result of applying the mutations
+     * to their current value. Mutations of the same field are applied one after the other.
+     */
+    private Record applyMutations(Record record, Record originalRecord, List<FieldMutation> mutations,
+            FieldTypes fieldTypes) throws RepositoryException, InterruptedException {
+        Record mutatedRecord = record.cloneRecord();
+        for (FieldMutation mutation : mutations) {
+            QName fieldName = mutation.getField();
+            FieldType fieldType = fieldTypes.getFieldType(fieldName);
+            Object value = null;
+            if (mutatedRecord.hasField(fieldName)) {
+                value = mutatedRecord.getField(fieldName);
+            } else if (originalRecord.hasField(fieldName)) {
+                value = originalRecord.getField(fieldName);
+            }
+
+            switch (mutation.getType()) {
+                case INCREMENT:
+                    value = increment(record.getId(), fieldType, value, mutation.getDelta());
+                    break;
+                case APPEND:
+                    value = append(record.getId(), fieldType, value, mutation.getValues(), mutation.getMaxSize());
+                    break;
+                default:
+                    throw new IllegalStateException("Unsupported field mutation: " + mutation.getType());
+            }
+            mutatedRecord.setField(fieldName, value);
+        }
+        return mutatedRecord;
+    }
+
+    private Object increment(RecordId recordId, FieldType fieldType, Object value, Number delta)
+            throws InvalidRecordException {
+        String valueType = fieldType.getValueType().getName();
+        if (LongValueType.NAME.equals(valueType)) {
+            long current = value == null ? 0L : (Long)value;
+            long longDelta = toLong(recordId, fieldType, delta, Long.MIN_VALUE, Long.MAX_VALUE);
+            long result = current + longDelta;
+            // Overflow if both operands have the same sign and the result has another one
+            if (((current ^ result) & (longDelta ^ result)) < 0) {
+                throw new InvalidRecordException("Incrementing field " + fieldType.getName() + " by " + delta
+                        + " overflows its value " + current + ".", recordId);
+            }
+            return result;
+        } else if (IntegerValueType.NAME.equals(valueType)) {
+            int current = value == null ? 0 : (Integer)value;
+            long result = current + toLong(recordId, fieldType, delta, Integer.MIN_VALUE, Integer.MAX_VALUE);
+            if (result < Integer.MIN_VALUE || result > Integer.MAX_VALUE) {
+                throw new InvalidRecordException("Incrementing field " + fieldType.getName() + " by " + delta
+                        + " overflows its value " + current + ".", recordId);
+            }
+            return (int)result;
+        } else if (DecimalValueType.NAME.equals(valueType)) {
+            BigDecimal decimalDelta = toBigDecimal(recordId, fieldType, delta);
+            return value == null ? decimalDelta : ((BigDecimal)value).add(decimalDelta);
+        }
+        throw new InvalidRecordException("Field " + fieldType.getName() + " of type " + valueType
+                + " cannot be incremented, only LONG, INTEGER and DECIMAL fields can.", recordId);
+    }
+
+    /**
+     * Converts the delta of an increment to a long, failing if it has a fraction or is out of the given range.
+     */
+    private long toLong(RecordId recordId, FieldType fieldType, Number delta, long min, long max)
+            throws InvalidRecordException {
+        if (delta instanceof Long || delta instanceof Integer || delta instanceof Short || delta instanceof Byte) {
+            long longDelta = delta.longValue();
+            if (longDelta >= min && longDelta <= max) {
+                return longDelta;
+            }
+        } else {
+            BigDecimal decimalDelta = toBigDecimal(recordId, fieldType, delta);
+            if ((decimalDelta.signum() == 0 || decimalDelta.stripTrailingZeros().scale() <= 0)
+                    && decimalDelta.compareTo(BigDecimal.valueOf(min)) >= 0
+                    && decimalDelta.compareTo(BigDecimal.valueOf(max)) <= 0) {
+                return decimalDelta.longValue();
+            }
+        }
+        throw new InvalidRecordException("Field " + fieldType.getName() + " cannot be incremented by " + delta
+                + ", it is not a whole number within the range of the field.", recordId);
+    }
+
+    private BigDecimal toBigDecimal(RecordId recordId, FieldType fieldType, Number delta)
+            throws InvalidRecordException {
+        if (delta instanceof BigDecimal) {
+            return (BigDecimal)delta;
+        }
+        try {
+            return new BigDecimal(delta.toString());
+        } catch (NumberFormatException e) {
+            throw new InvalidRecordException("Field " + fieldType.getName() + " cannot be incremented by "
+                    + delta + ".", recordId);
+        }
+    }
+
+    private Object append(RecordId recordId, FieldType fieldType, Object value, List<Object> values, int maxSize)
+            throws InvalidRecordException {
+        if (!ListValueType.NAME.equals(fieldType.getValueType().getBaseName())) {
+            throw new InvalidRecordException("Field " + fieldType.getName() + " of type "
+                    + fieldType.getValueType().getName() + " cannot be appended to, only LIST fields can.", recordId);
+        }
+        List<Object> list = new ArrayList<Object>();
+        if (value != null) {
+            list.addAll((List<?>)value);
+        }
+        list.addAll(values);
+        if (maxSize > 0 && list.size() > maxSize) {
+            list = new ArrayList<Object>(list.subList(list.size() - maxSize, list.size()));
+        }
+        return list;
+    }
+
+    private void addMandatoryFields(QName recordTypeName, Long recordTypeVersion, Set<QName> fieldNames,
+            List<FieldType> fields, FieldTypes fieldTypes) throws RepositoryException, InterruptedException {
+        RecordType recordType = typeManager.getRecordTypeByName(recordTypeName, recordTypeVersion);
+        for (FieldTypeEntry fieldTypeEntry : recordType.getFieldTypeEntries()) {
+            if (fieldTypeEntry.isMandatory()) {
+                FieldType fieldType = fieldTypes.getFieldType(fieldTypeEntry.getFieldTypeId());
+                if (fieldNames.add(fieldType.getName())) {
+                    fields.add(fieldType);
+                }
+            }
+        }
+    }
+
     // Calculates the changes that are to be made on the record-row and puts
     // this information on the Put object and the RecordEvent
     private boolean calculateRecordChanges(Record record, Record originalRecord, Long version, Put put,
@@ -898,10 +1299,6 @@ public class HBaseRepository extends BaseRepository {
             recordEvent.setTableName(getTableName());
             recordEvent.setVersionUpdated(version);
 
-            for (RecordUpdateHook hook : updateHooks) {
-                hook.beforeUpdate(record, originalRecord, this, fieldTypes, recordEvent);
-            }
-
             Set<Scope> changedScopes = calculateUpdateFields(record, fields, record.getMetadataMap(), originalFields,
                     originalRecord.getMetadataMap(), originalNextFields, version, put,
                     recordEvent, referencedBlobs, unReferencedBlobs, true, fieldTypes);
@@ -921,6 +1318,12 @@ public class HBaseRepository extends BaseRepository {
                     return conditionsRecord;
                 }
 
+                // As for other updates, the hooks are only called once the conditions are known to hold. The
+                // fields to update were already determined above, so hooks can't change these here.
+                for (RecordUpdateHook hook : updateHooks) {
+                    hook.beforeUpdate(record, originalRecord, this, fieldTypes, recordEvent);
+                }
+
                 // Update the record types
 
                 // If no record type is specified explicitly, use the current one of the non-versioned scope
@@ -979,7 +1382,7 @@ public class HBaseRepository extends BaseRepository {
                 // Reserve blobs so no other records can use them
                 reserveBlobs(record.getId(), referencedBlobs);
 
-                put.add(RecordCf.DATA.bytes, RecordColumn.PAYLOAD.bytes, 1L, recordEvent.toJsonBytes());
+                put.add(RecordCf.DATA.bytes, RecordColumn.PAYLOAD.bytes, recordEvent.toJsonBytes());
                 put.add(RecordCf.DATA.bytes, RecordColumn.OCC.bytes, 1L, Bytes.toBytes(newOcc));
                 boolean occSuccess = recordTable.checkAndPut(put.getRow(), RecordCf.DATA.bytes, RecordColumn.OCC.bytes,
                         Bytes.toBytes(oldOcc), put);
@@ -1126,6 +1529,7 @@ public class HBaseRepository extends BaseRepository {
             throw new RecordException("Exception occurred while deleting record '" + recordId + "' on HBase table",
                     e);
         } finally {
+            invalidateCachedRecord(recordId);
             long after = System.currentTimeMillis();
             metrics.report(Action.DELETE, (after - before));
         }
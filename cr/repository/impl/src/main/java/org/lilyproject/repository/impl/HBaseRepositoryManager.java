@@ -30,16 +30,27 @@ public class HBaseRepositoryManager extends AbstractRepositoryManager {
 
     private HBaseTableFactory hbaseTableFactory;
     private BlobManager blobManager;
+    private RecordCache recordCache;
     
     public HBaseRepositoryManager(TypeManager typeManager, IdGenerator idGenerator, RecordFactory recordFactory, HBaseTableFactory hbaseTableFactory, BlobManager blobManager) {
+        this(typeManager, idGenerator, recordFactory, hbaseTableFactory, blobManager, new RecordCache());
+    }
+
+    /**
+     * @param recordCache the record cache, shared by the repositories of all tables
+     */
+    public HBaseRepositoryManager(TypeManager typeManager, IdGenerator idGenerator, RecordFactory recordFactory,
+            HBaseTableFactory hbaseTableFactory, BlobManager blobManager, RecordCache recordCache) {
         super(typeManager, idGenerator, recordFactory);
         this.hbaseTableFactory = hbaseTableFactory;
         this.blobManager = blobManager;
+        this.recordCache = recordCache;
     }
     
     @Override
     protected Repository createRepository(String tableName) throws IOException, InterruptedException {
-        return new HBaseRepository(this, LilyHBaseSchema.getRecordTable(hbaseTableFactory, tableName, true), blobManager);
+        return new HBaseRepository(this, LilyHBaseSchema.getRecordTable(hbaseTableFactory, tableName, true), blobManager,
+                recordCache);
     }
 
 }
@@ -0,0 +1,318 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.lilyproject.util.Pair;
+import org.lilyproject.util.concurrent.CustomThreadFactory;
+
+/**
+ * A ResultScanner which splits the key range of a scan on the region boundaries and reads a number of regions
+ * concurrently, each into its own read-ahead buffer.
+ *
+ * <p>In ordered mode, the results are returned region by region, thus in the same order as a plain scan. Since
+ * regions are handed to the reader threads in key order, the region that is being consumed is always being read
+ * (or already finished). In unordered mode, all readers share one buffer and the results are returned as they
+ * arrive.</p>
+ *
+ * <p>A reader whose buffer stays full for a while (which happens in ordered mode for regions further down the
+ * line) closes its server-side scanner, to avoid running into the scanner lease timeout, and reopens it right
+ * after the last row it read once there is room again.</p>
+ */
+class ParallelResultScanner implements ResultScanner {
+    /** How long a reader may be blocked on a full buffer before it releases its server-side scanner. */
+    private static final long RELEASE_SCANNER_AFTER = 20000L;
+
+    private static final long OFFER_INTERVAL = 200L;
+
+    private static final int MIN_READ_AHEAD = 100;
+
+    private static final Object END_OF_REGION = new Object();
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    private final HTableInterface table;
+
+    private final boolean ordered;
+
+    private final List<RegionReader> readers = new ArrayList<RegionReader>();
+
+    private final BlockingQueue<Object> sharedBuffer;
+
+    private final ExecutorService executor;
+
+    /** In ordered mode: the reader that is being consumed. In unordered mode: the number of finished readers. */
+    private int position;
+
+    private volatile boolean closed;
+
+    ParallelResultScanner(HTableInterface table, Scan scan, int parallelism, boolean ordered, int readAhead)
+            throws IOException {
+        this.table = table;
+        this.ordered = ordered;
+
+        if (readAhead <= 0) {
+            readAhead = Math.max(scan.getCaching(), MIN_READ_AHEAD);
+        }
+
+        List<Pair<byte[], byte[]>> splits = getSplits(table, scan.getStartRow(), scan.getStopRow());
+        sharedBuffer = ordered ? null : new ArrayBlockingQueue<Object>(readAhead * Math.min(parallelism, splits.size()));
+        for (Pair<byte[], byte[]> split : splits) {
+            Scan regionScan = new Scan(scan);
+            regionScan.setStartRow(split.getV1());
+            regionScan.setStopRow(split.getV2());
+            readers.add(new RegionReader(regionScan,
+                    ordered ? new ArrayBlockingQueue<Object>(readAhead) : sharedBuffer));
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("Scanning " + splits.size() + " regions of table " + Bytes.toString(table.getTableName())
+                    + " with " + parallelism + " threads, " + (ordered ? "ordered" : "unordered"));
+        }
+
+        executor = Executors.newFixedThreadPool(Math.min(parallelism, splits.size()),
+                new CustomThreadFactory("parallel-scan", null, true));
+        // The readers are submitted in key order and the executor runs them in that order, which is
+        // what guarantees that in ordered mode, the consumer never waits for a reader that isn't started.
+        for (RegionReader reader : readers) {
+            executor.submit(reader);
+        }
+        executor.shutdown();
+    }
+
+    /**
+     * Returns the key ranges, one per region, covering the range [startRow, stopRow[.
+     */
+    static List<Pair<byte[], byte[]>> getSplits(HTableInterface tableInterface, byte[] startRow,
+            byte[] stopRow) throws IOException {
+        // HTableInterface doesn't give access to the region boundaries, so we use a plain HTable for that.
+        HTable table = new HTable(tableInterface.getConfiguration(), tableInterface.getTableName());
+        org.apache.hadoop.hbase.util.Pair<byte[][], byte[][]> keys;
+        try {
+            keys = table.getStartEndKeys();
+        } finally {
+            table.close();
+        }
+
+        List<Pair<byte[], byte[]>> splits = new ArrayList<Pair<byte[], byte[]>>();
+        byte[][] startKeys = keys.getFirst();
+        byte[][] endKeys = keys.getSecond();
+        for (int i = 0; i < startKeys.length; i++) {
+            boolean lastRegion = endKeys[i].length == 0;
+            // Skip regions outside of the range of the scan
+            if (!lastRegion && startRow.length > 0 && Bytes.compareTo(endKeys[i], startRow) <= 0) {
+                continue;
+            }
+            if (stopRow.length > 0 && Bytes.compareTo(startKeys[i], stopRow) >= 0) {
+                continue;
+            }
+
+            byte[] splitStart = startRow.length > 0 && Bytes.compareTo(startKeys[i], startRow) < 0 ?
+                    startRow : startKeys[i];
+            byte[] splitStop = stopRow.length > 0 && (lastRegion || Bytes.compareTo(endKeys[i], stopRow) > 0) ?
+                    stopRow : endKeys[i];
+            splits.add(new Pair<byte[], byte[]>(splitStart, splitStop));
+        }
+
+        if (splits.isEmpty()) {
+            // Can happen for an empty range, let a single reader handle it
+            splits.add(new Pair<byte[], byte[]>(startRow, stopRow));
+        }
+
+        return splits;
+    }
+
+    @Override
+    public Result next() throws IOException {
+        while (!closed && position < readers.size()) {
+            BlockingQueue<Object> buffer = ordered ? readers.get(position).buffer : sharedBuffer;
+
+            Object item;
+            try {
+                item = buffer.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for scan results");
+            }
+
+            if (item == END_OF_REGION) {
+                position++;
+            } else if (item instanceof IOException) {
+                throw (IOException)item;
+            } else {
+                return (Result)item;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Result[] next(int nbRows) throws IOException {
+        List<Result> results = new ArrayList<Result>(nbRows);
+        for (int i = 0; i < nbRows; i++) {
+            Result result = next();
+            if (result == null) {
+                break;
+            }
+            results.add(result);
+        }
+        return results.toArray(new Result[results.size()]);
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        // Interrupts the readers, which close their scanner
+        executor.shutdownNow();
+    }
+
+    @Override
+    public Iterator<Result> iterator() {
+        return new Iterator<Result>() {
+            private Result next;
+
+            @Override
+            public boolean hasNext() {
+                if (next == null) {
+                    try {
+                        next = ParallelResultScanner.this.next();
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public Result next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Result result = next;
+                next = null;
+                return result;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Reads the results of one region into a buffer, ending with {@link #END_OF_REGION} or the IOException
+     * that occurred.
+     */
+    private class RegionReader implements Runnable {
+        private final Scan scan;
+        private final BlockingQueue<Object> buffer;
+        private ResultScanner scanner;
+        private byte[] lastRow;
+
+        RegionReader(Scan scan, BlockingQueue<Object> buffer) {
+            this.scan = scan;
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!closed) {
+                    if (scanner == null) {
+                        openScanner();
+                    }
+                    Result result = scanner.next();
+                    if (result == null) {
+                        break;
+                    }
+                    lastRow = result.getRow();
+                    if (!offer(result)) {
+                        return;
+                    }
+                }
+                offer(END_OF_REGION);
+            } catch (IOException e) {
+                offer(e);
+            } catch (Throwable t) {
+                offer(new IOException("Error reading region starting at " + Bytes.toStringBinary(scan.getStartRow()),
+                        t));
+            } finally {
+                closeScanner();
+            }
+        }
+
+        private void openScanner() throws IOException {
+            if (lastRow != null) {
+                // Resume right after the last row we have read, appending a zero byte gives the next possible key
+                scan.setStartRow(Bytes.add(lastRow, new byte[] {0}));
+            }
+            scanner = table.getScanner(scan);
+        }
+
+        private void closeScanner() {
+            if (scanner != null) {
+                scanner.close();
+                scanner = null;
+            }
+        }
+
+        /**
+         * Puts an item in the buffer, waiting for space if needed.
+         *
+         * @return false if the scan was closed in the meantime
+         */
+        private boolean offer(Object item) {
+            long waitingSince = System.currentTimeMillis();
+            try {
+                while (!closed) {
+                    if (buffer.offer(item, OFFER_INTERVAL, TimeUnit.MILLISECONDS)) {
+                        return true;
+                    }
+                    if (scanner != null && System.currentTimeMillis() - waitingSince > RELEASE_SCANNER_AFTER) {
+                        closeScanner();
+                    }
+                }
+            } catch (InterruptedException e) {
+                // close() was called
+                Thread.currentThread().interrupt();
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,322 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.lilyproject.repository.api.FieldType;
+import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.RecordException;
+import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.repository.api.SchemaId;
+
+/**
+ * An in-memory cache of records which are read often, to avoid going to HBase over and over again for the
+ * same records.
+ *
+ * <p>An entry is kept for each combination of record, requested version and requested fields, and for
+ * {@link org.lilyproject.repository.api.Repository#read reads} and
+ * {@link org.lilyproject.repository.api.Repository#readWithIds readWithIds} separately. The number of entries is
+ * bounded: when the cache is full, the entries of the least recently used record are evicted.</p>
+ *
+ * <p>The repository removes a record from the cache whenever it changes it. Changes made by other Lily nodes
+ * are learned from the record events on the SEP, so that these reach this cache with some delay. To bound
+ * how long a stale record can be served in case the events are lagging behind, entries also expire after a
+ * configured age.</p>
+ *
+ * <p>A record read from HBase is only added to the cache if the record wasn't invalidated while it was being
+ * read, otherwise the cache could keep a record which was read just before an update. To make this check cheap,
+ * the records are spread over a fixed number of invalidation counters, of which a reader takes a snapshot before
+ * reading, see {@link #getToken}.</p>
+ *
+ * <p>A cache with a maximum size of 0 is disabled, all its methods are then no-ops.</p>
+ */
+public class RecordCache {
+    private static final int TOKEN_STRIPES = 1024;
+
+    private final int maxSize;
+    private final long maxAge;
+    private final RecordCacheMetrics metrics;
+
+    /** The cached reads, grouped by record, in least recently used order. */
+    private final LinkedHashMap<RecordKey, Map<ReadKey, CachedRead>> records =
+            new LinkedHashMap<RecordKey, Map<ReadKey, CachedRead>>(16, 0.75f, true);
+    private int size;
+
+    private final AtomicLongArray tokens = new AtomicLongArray(TOKEN_STRIPES);
+
+    /**
+     * @param maxSize the maximum number of cached reads, 0 disables the cache
+     * @param maxAge the time after which a cached read expires, in milliseconds
+     */
+    public RecordCache(int maxSize, long maxAge) {
+        this.maxSize = maxSize;
+        this.maxAge = maxAge;
+        this.metrics = maxSize > 0 ? new RecordCacheMetrics() : null;
+    }
+
+    /**
+     * Creates a disabled cache.
+     */
+    public RecordCache() {
+        this(0, 0);
+    }
+
+    public void close() {
+        if (metrics != null) {
+            metrics.shutdown();
+        }
+    }
+
+    public boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    public RecordCacheMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Returns the value to pass to {@link #put} for a record which is about to be read.
+     */
+    public long getToken(RecordId recordId) {
+        return tokens.get(stripe(recordId));
+    }
+
+    /**
+     * Returns a copy of the cached record, or null if the read is not cached.
+     *
+     * @param version the requested version, null for the latest one
+     * @param fields the requested fields, null for all fields
+     * @param withIds true for records read with {@code readWithIds}, which are returned as IdRecords
+     */
+    public Record get(String table, RecordId recordId, Long version, Collection<FieldType> fields, boolean withIds)
+            throws RecordException {
+        if (!isEnabled()) {
+            return null;
+        }
+
+        Record record = null;
+        synchronized (this) {
+            RecordKey recordKey = new RecordKey(table, recordId);
+            Map<ReadKey, CachedRead> reads = records.get(recordKey);
+            CachedRead read = reads == null ? null : reads.get(new ReadKey(version, fields, withIds));
+            if (read != null) {
+                if (System.currentTimeMillis() - read.cachedAt > maxAge) {
+                    remove(recordKey);
+                    metrics.expirationCount.inc();
+                } else {
+                    record = read.record;
+                }
+            }
+        }
+
+        if (record == null) {
+            metrics.missCount.inc();
+            return null;
+        }
+        metrics.hitCount.inc();
+        // The caller is free to modify the record
+        return record.cloneRecord();
+    }
+
+    /**
+     * Adds a record which has been read from HBase, unless the record has been invalidated since the given token
+     * was obtained.
+     */
+    public void put(String table, RecordId recordId, Long version, Collection<FieldType> fields, boolean withIds,
+            Record record, long token) throws RecordException {
+        if (!isEnabled()) {
+            return;
+        }
+
+        Record copy = record.cloneRecord();
+        synchronized (this) {
+            if (tokens.get(stripe(recordId)) != token) {
+                return;
+            }
+
+            RecordKey recordKey = new RecordKey(table, recordId);
+            Map<ReadKey, CachedRead> reads = records.get(recordKey);
+            if (reads == null) {
+                reads = new HashMap<ReadKey, CachedRead>(4);
+                records.put(recordKey, reads);
+            }
+            if (reads.put(new ReadKey(version, fields, withIds), new CachedRead(copy)) == null) {
+                size++;
+            }
+
+            Iterator<Map.Entry<RecordKey, Map<ReadKey, CachedRead>>> it = records.entrySet().iterator();
+            while (size > maxSize && it.hasNext()) {
+                Map.Entry<RecordKey, Map<ReadKey, CachedRead>> eldest = it.next();
+                if (eldest.getKey().equals(recordKey) && records.size() > 1) {
+                    // Never evict the record that was just added, unless it alone exceeds the maximum size
+                    continue;
+                }
+                size -= eldest.getValue().size();
+                it.remove();
+                metrics.evictionCount.inc();
+            }
+            metrics.entryCount.set(size);
+        }
+    }
+
+    /**
+     * Removes all cached reads of a record, to be called after the record has been changed.
+     */
+    public void invalidate(String table, RecordId recordId) {
+        if (!isEnabled()) {
+            return;
+        }
+
+        tokens.incrementAndGet(stripe(recordId));
+        synchronized (this) {
+            if (remove(new RecordKey(table, recordId))) {
+                metrics.invalidationCount.inc();
+            }
+        }
+    }
+
+    /**
+     * Removes all cached reads of a record which has been changed by another Lily node.
+     *
+     * @param changedAt the time at which the record was changed, to report how long the cache could have been
+     *                  serving a stale record
+     */
+    public void invalidate(String table, RecordId recordId, long changedAt) {
+        if (!isEnabled()) {
+            return;
+        }
+
+        invalidate(table, recordId);
+        metrics.invalidationDelay.inc(Math.max(0, System.currentTimeMillis() - changedAt));
+    }
+
+    /**
+     * Removes all cached reads.
+     */
+    public void clear() {
+        if (!isEnabled()) {
+            return;
+        }
+
+        for (int i = 0; i < TOKEN_STRIPES; i++) {
+            tokens.incrementAndGet(i);
+        }
+        synchronized (this) {
+            records.clear();
+            size = 0;
+            metrics.entryCount.set(0);
+        }
+    }
+
+    public synchronized int getSize() {
+        return size;
+    }
+
+    private boolean remove(RecordKey recordKey) {
+        Map<ReadKey, CachedRead> reads = records.remove(recordKey);
+        if (reads == null) {
+            return false;
+        }
+        size -= reads.size();
+        metrics.entryCount.set(size);
+        return true;
+    }
+
+    private static int stripe(RecordId recordId) {
+        return (recordId.hashCode() & Integer.MAX_VALUE) % TOKEN_STRIPES;
+    }
+
+    private static final class RecordKey {
+        private final String table;
+        private final RecordId recordId;
+
+        RecordKey(String table, RecordId recordId) {
+            this.table = table;
+            this.recordId = recordId;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof RecordKey)) {
+                return false;
+            }
+            RecordKey other = (RecordKey)obj;
+            return recordId.equals(other.recordId) && table.equals(other.table);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * table.hashCode() + recordId.hashCode();
+        }
+    }
+
+    private static final class ReadKey {
+        private final Long version;
+        /** Null if all fields are read. */
+        private final Set<SchemaId> fieldIds;
+        private final boolean withIds;
+
+        ReadKey(Long version, Collection<FieldType> fields, boolean withIds) {
+            this.version = version;
+            this.withIds = withIds;
+            if (fields == null || fields.isEmpty()) {
+                // Same as in BaseRepository: no fields means all fields
+                this.fieldIds = null;
+            } else {
+                this.fieldIds = new HashSet<SchemaId>(fields.size());
+                for (FieldType field : fields) {
+                    fieldIds.add(field.getId());
+                }
+            }
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof ReadKey)) {
+                return false;
+            }
+            ReadKey other = (ReadKey)obj;
+            return withIds == other.withIds
+                    && (version == null ? other.version == null : version.equals(other.version))
+                    && (fieldIds == null ? other.fieldIds == null : fieldIds.equals(other.fieldIds));
+        }
+
+        @Override
+        public int hashCode() {
+            int result = version == null ? 0 : version.hashCode();
+            result = 31 * result + (fieldIds == null ? 0 : fieldIds.hashCode());
+            return 31 * result + (withIds ? 1 : 0);
+        }
+    }
+
+    private static final class CachedRead {
+        private final Record record;
+        private final long cachedAt = System.currentTimeMillis();
+
+        CachedRead(Record record) {
+            this.record = record;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl;
+
+import javax.management.ObjectName;
+
+import org.apache.hadoop.metrics.MetricsContext;
+import org.apache.hadoop.metrics.MetricsRecord;
+import org.apache.hadoop.metrics.MetricsUtil;
+import org.apache.hadoop.metrics.Updater;
+import org.apache.hadoop.metrics.util.MetricsBase;
+import org.apache.hadoop.metrics.util.MetricsIntValue;
+import org.apache.hadoop.metrics.util.MetricsRegistry;
+import org.apache.hadoop.metrics.util.MetricsTimeVaryingInt;
+import org.apache.hadoop.metrics.util.MetricsTimeVaryingRate;
+import org.lilyproject.util.hbase.metrics.MBeanUtil;
+import org.lilyproject.util.hbase.metrics.MetricsDynamicMBeanBase;
+
+/**
+ * Metrics of the {@link RecordCache}.
+ */
+public class RecordCacheMetrics implements Updater {
+    private final MetricsRegistry registry = new MetricsRegistry();
+    private final MetricsRecord metricsRecord;
+    private final RecordCacheMetricsMXBean mbean;
+    private final MetricsContext context;
+
+    public MetricsTimeVaryingInt hitCount = new MetricsTimeVaryingInt("hit_cnt", registry);
+    public MetricsTimeVaryingInt missCount = new MetricsTimeVaryingInt("miss_cnt", registry);
+
+    /** Records removed to make room for others. */
+    public MetricsTimeVaryingInt evictionCount = new MetricsTimeVaryingInt("eviction_cnt", registry);
+
+    /** Cached reads found to be older than the maximum age. */
+    public MetricsTimeVaryingInt expirationCount = new MetricsTimeVaryingInt("expiration_cnt", registry);
+
+    /** Records removed because they were changed, either through this node or another one. */
+    public MetricsTimeVaryingInt invalidationCount = new MetricsTimeVaryingInt("invalidation_cnt", registry);
+
+    /**
+     * The time between a change by another node and its invalidation in this cache, which is how long the
+     * cache could have been serving a stale record.
+     */
+    public MetricsTimeVaryingRate invalidationDelay = new MetricsTimeVaryingRate("staleness", registry);
+
+    /** Percentage of the reads of the last interval which were served from the cache. */
+    public MetricsIntValue hitPercentage = new MetricsIntValue("hit_pct", registry);
+
+    public MetricsIntValue entryCount = new MetricsIntValue("entry_cnt", registry);
+
+    public RecordCacheMetrics() {
+        context = MetricsUtil.getContext("recordCache");
+        metricsRecord = MetricsUtil.createRecord(context, "recordCache");
+        context.registerUpdater(this);
+        mbean = new RecordCacheMetricsMXBean(this.registry);
+    }
+
+    public void shutdown() {
+        context.unregisterUpdater(this);
+        mbean.shutdown();
+    }
+
+    @Override
+    public void doUpdates(MetricsContext metricsContext) {
+        synchronized (this) {
+            // Needs to be calculated before the interval values are pushed
+            int hits = hitCount.getCurrentIntervalValue();
+            int total = hits + missCount.getCurrentIntervalValue();
+            hitPercentage.set(total == 0 ? 0 : (int)(100L * hits / total));
+
+            for (MetricsBase m : registry.getMetricsList()) {
+                m.pushMetric(metricsRecord);
+            }
+        }
+        metricsRecord.update();
+    }
+
+    public class RecordCacheMetricsMXBean extends MetricsDynamicMBeanBase {
+        private final ObjectName mbeanName;
+
+        public RecordCacheMetricsMXBean(MetricsRegistry registry) {
+            super(registry, "Lily Record Cache");
+
+            mbeanName = MBeanUtil.registerMBean("Record Cache", "recordCache", this);
+        }
+
+        public void shutdown() {
+            if (mbeanName != null)
+                MBeanUtil.unregisterMBean(mbeanName);
+        }
+    }
+}
@@ -29,9 +29,9 @@ import org.apache.hadoop.metrics.MetricsUtil;
 import org.apache.hadoop.metrics.Updater;
 import org.apache.hadoop.metrics.util.MetricsBase;
 import org.apache.hadoop.metrics.util.MetricsRegistry;
-import org.apache.hadoop.metrics.util.MetricsTimeVaryingRate;
 import org.lilyproject.util.hbase.metrics.MBeanUtil;
 import org.lilyproject.util.hbase.metrics.MetricsDynamicMBeanBase;
+import org.lilyproject.util.hbase.metrics.MetricsHistogram;
 
 public class RepositoryMetrics implements Updater {
     public enum Action{CREATE, READ, UPDATE, DELETE};
@@ -39,21 +39,28 @@ public class RepositoryMetrics implements Updater {
     private final MetricsRegistry registry = new MetricsRegistry();
     private final MetricsRecord metricsRecord;
     private final MetricsContext context;
-    private final EnumMap<Action, MetricsTimeVaryingRate> rates = new EnumMap<Action, MetricsTimeVaryingRate>(Action.class);
-    private final EnumMap<HBaseAction, MetricsTimeVaryingRate> hbaseRates = 
-                new EnumMap<HBaseAction, MetricsTimeVaryingRate>(HBaseAction.class);
+    private final EnumMap<Action, MetricsHistogram> rates = new EnumMap<Action, MetricsHistogram>(Action.class);
+    private final EnumMap<HBaseAction, MetricsHistogram> hbaseRates =
+                new EnumMap<HBaseAction, MetricsHistogram>(HBaseAction.class);
     private final MetricsLongValue lastMutationEventTimestamp;
     private final RepositoryMetricsMXBean mbean;
     private final String recordName;
 
     public RepositoryMetrics(String recordName) {
+        this(recordName, MetricsHistogram.getDefaultPercentiles());
+    }
+
+    /**
+     * @param percentiles the latency percentiles to report for each action, e.g. {50, 99, 99.9}
+     */
+    public RepositoryMetrics(String recordName, double[] percentiles) {
         this.recordName = recordName;
         for (Action action : Action.values()) {
-            rates.put(action, new MetricsTimeVaryingRate(action.name().toLowerCase(), registry));
+            rates.put(action, new MetricsHistogram(action.name().toLowerCase(), registry, percentiles));
         }
 
         for (HBaseAction action : HBaseAction.values()) {
-            hbaseRates.put(action, new MetricsTimeVaryingRate(action.name().toLowerCase(), registry));
+            hbaseRates.put(action, new MetricsHistogram(action.name().toLowerCase(), registry, percentiles));
         }
         lastMutationEventTimestamp = new MetricsLongValue("timestampLastMutation", registry);
         context = MetricsUtil.getContext("repository");
@@ -15,6 +15,7 @@
  */
 package org.lilyproject.repository.impl.filter;
 
+import org.apache.hadoop.hbase.filter.CompareFilter;
 import org.apache.hadoop.hbase.filter.Filter;
 import org.lilyproject.bytes.api.DataOutput;
 import org.lilyproject.bytes.impl.DataOutputImpl;
@@ -23,10 +24,12 @@ import org.lilyproject.repository.api.FieldType;
 import org.lilyproject.repository.api.IdentityRecordStack;
 import org.lilyproject.repository.api.RepositoryException;
 import org.lilyproject.repository.api.RepositoryManager;
+import org.lilyproject.repository.api.ValueType;
 import org.lilyproject.repository.api.filter.FieldValueFilter;
 import org.lilyproject.repository.api.filter.RecordFilter;
 import org.lilyproject.repository.impl.FieldTypeImpl;
 import org.lilyproject.repository.impl.hbase.LilyFieldSingleColumnValueFilter;
+import org.lilyproject.repository.impl.hbase.OrderedValueComparator;
 import org.lilyproject.repository.spi.HBaseRecordFilterFactory;
 import org.lilyproject.util.hbase.LilyHBaseSchema.RecordCf;
 
@@ -50,19 +53,57 @@ public class HBaseFieldValueFilter implements HBaseRecordFilterFactory {
         }
 
         CompareOp compareOp = filter.getCompareOp() != null ? filter.getCompareOp() : CompareOp.EQUAL;
-        if (compareOp != CompareOp.EQUAL && compareOp != CompareOp.NOT_EQUAL) {
-            throw new IllegalArgumentException("FieldValueFilter does not support this compare operator: " + compareOp);
-        }
-
         FieldType fieldType = repositoryManager.getTypeManager().getFieldTypeByName(filter.getField());
-        DataOutput dataOutput = new DataOutputImpl();
-        fieldType.getValueType().write(filter.getFieldValue(), dataOutput, new IdentityRecordStack());
-        byte[] fieldValue = dataOutput.toByteArray();
+        byte[] qualifier = ((FieldTypeImpl)fieldType).getQualifier();
 
-        LilyFieldSingleColumnValueFilter hbaseFilter = new LilyFieldSingleColumnValueFilter(RecordCf.DATA.bytes,
-                ((FieldTypeImpl)fieldType).getQualifier(), HBaseRecordFilterUtil.translateCompareOp(compareOp), fieldValue);
+        LilyFieldSingleColumnValueFilter hbaseFilter;
+        if (compareOp == CompareOp.EQUAL || compareOp == CompareOp.NOT_EQUAL) {
+            byte[] fieldValue = encode(filter.getFieldValue(), fieldType.getValueType());
+            hbaseFilter = new LilyFieldSingleColumnValueFilter(RecordCf.DATA.bytes, qualifier,
+                    HBaseRecordFilterUtil.translateCompareOp(compareOp), fieldValue);
+        } else {
+            hbaseFilter = new LilyFieldSingleColumnValueFilter(RecordCf.DATA.bytes, qualifier,
+                    CompareFilter.CompareOp.EQUAL, createOrderedComparator(filter, compareOp, fieldType));
+        }
         hbaseFilter.setFilterIfMissing(filter.getFilterIfMissing());
 
         return hbaseFilter;
     }
+
+    /**
+     * Creates the comparator for the ordered comparison operators, which decodes the values since their
+     * byte encoding doesn't sort in the same order as the values themselves.
+     */
+    private OrderedValueComparator createOrderedComparator(FieldValueFilter filter, CompareOp compareOp,
+            FieldType fieldType) throws RepositoryException, InterruptedException {
+        ValueType valueType = fieldType.getValueType();
+        int nestingLevel = 0;
+        while (valueType.getBaseName().equals("LIST")) {
+            valueType = valueType.getNestedValueType();
+            nestingLevel++;
+        }
+
+        OrderedValueComparator.Type type;
+        try {
+            type = OrderedValueComparator.Type.valueOf(valueType.getBaseName());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("FieldValueFilter does not support compare operator " + compareOp
+                    + " for fields of type " + fieldType.getValueType().getName());
+        }
+
+        if (!valueType.getType().isInstance(filter.getFieldValue())) {
+            throw new IllegalArgumentException("FieldValueFilter with compare operator " + compareOp + " on field "
+                    + filter.getField() + " requires a value of type " + valueType.getType().getName());
+        }
+
+        return new OrderedValueComparator(type, nestingLevel,
+                filter.getListMatch() == FieldValueFilter.ListMatch.ALL,
+                HBaseRecordFilterUtil.translateCompareOp(compareOp), encode(filter.getFieldValue(), valueType));
+    }
+
+    private byte[] encode(Object value, ValueType valueType) throws RepositoryException, InterruptedException {
+        DataOutput dataOutput = new DataOutputImpl();
+        valueType.write(value, dataOutput, new IdentityRecordStack());
+        return dataOutput.toByteArray();
+    }
 }
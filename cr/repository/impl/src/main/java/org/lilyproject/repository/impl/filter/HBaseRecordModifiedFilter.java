@@ -0,0 +1,47 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl.filter;
+
+import org.apache.hadoop.hbase.filter.Filter;
+import org.lilyproject.repository.api.RepositoryException;
+import org.lilyproject.repository.api.RepositoryManager;
+import org.lilyproject.repository.api.filter.RecordFilter;
+import org.lilyproject.repository.api.filter.RecordModifiedFilter;
+import org.lilyproject.repository.impl.hbase.LilyRecordModifiedFilter;
+import org.lilyproject.repository.spi.HBaseRecordFilterFactory;
+
+public class HBaseRecordModifiedFilter implements HBaseRecordFilterFactory {
+    @Override
+    public Filter createHBaseFilter(RecordFilter uncastFilter, RepositoryManager repositoryManager,
+            HBaseRecordFilterFactory factory) throws RepositoryException, InterruptedException {
+
+        if (!(uncastFilter instanceof RecordModifiedFilter)) {
+            return null;
+        }
+
+        RecordModifiedFilter filter = (RecordModifiedFilter) uncastFilter;
+
+        long from = filter.getFrom() != null ? filter.getFrom() : 0L;
+        long to = filter.getTo() != null ? filter.getTo() : Long.MAX_VALUE;
+
+        if (from >= to) {
+            throw new IllegalArgumentException("RecordModifiedFilter: from should be smaller than to, got from = "
+                    + from + ", to = " + to);
+        }
+
+        return new LilyRecordModifiedFilter(from, to);
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl.hbase;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.filter.FilterBase;
+import org.lilyproject.util.hbase.LilyHBaseSchema.RecordCf;
+import org.lilyproject.util.hbase.LilyHBaseSchema.RecordColumn;
+
+/**
+ * HBase filter which only lets through the rows of records whose last modification falls within a time window.
+ *
+ * <p>The time of the last modification is taken from the timestamp of the payload column, which is rewritten
+ * with the current time on every create, update and delete of a record. The timestamps of the field columns
+ * can't be used for this, since they contain the version number of the record. For the same reason, an HBase
+ * time range on the scan can't be used, as it would drop these columns.</p>
+ *
+ * <p>Rows without payload column (which can only be the case if it is not part of the scan) are filtered out.</p>
+ */
+public class LilyRecordModifiedFilter extends FilterBase {
+    private long from;
+    private long to;
+
+    /** The timestamp of the most recent payload cell of the current row, -1 if none was encountered. */
+    private long modified = -1;
+
+    /**
+     * @param from inclusive lower bound
+     * @param to exclusive upper bound
+     */
+    public LilyRecordModifiedFilter(long from, long to) {
+        this.from = from;
+        this.to = to;
+    }
+
+    public LilyRecordModifiedFilter() {
+        // for hbase readFields
+    }
+
+    @Override
+    public ReturnCode filterKeyValue(KeyValue kv) {
+        if (kv.matchingColumn(RecordCf.DATA.bytes, RecordColumn.PAYLOAD.bytes)) {
+            // Versions of a cell are sorted newest first, but taking the max doesn't rely on that
+            modified = Math.max(modified, kv.getTimestamp());
+        }
+        return ReturnCode.INCLUDE;
+    }
+
+    @Override
+    public boolean hasFilterRow() {
+        return true;
+    }
+
+    @Override
+    public boolean filterRow() {
+        // note: return value true means it is NOT a result of the scanner, false otherwise
+        return modified < from || modified >= to;
+    }
+
+    @Override
+    public void reset() {
+        modified = -1;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        out.writeLong(from);
+        out.writeLong(to);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        from = in.readLong();
+        to = in.readLong();
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl.hbase;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigDecimal;
+
+import org.apache.hadoop.hbase.filter.CompareFilter;
+import org.apache.hadoop.hbase.filter.WritableByteArrayComparable;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Comparator which decodes a numeric or date field value and checks it against a reference value
+ * using an ordered comparison operator. This allows to evaluate range conditions inside the region
+ * servers, which isn't possible on the encoded bytes since those are not order-preserving.
+ *
+ * <p>The comparison operator is evaluated by this comparator itself: {@link #compareTo(byte[], int, int)}
+ * returns 0 if the value matches, so this comparator should be used with {@link CompareFilter.CompareOp#EQUAL}.
+ * This is needed for list values, for which either any or all of the values should match.</p>
+ *
+ * <p>The compared bytes should be the field value only, without field flags or metadata, as is the case
+ * when used with {@link LilyFieldSingleColumnValueFilter}.</p>
+ *
+ * <p>IMPORTANT: This implementation depends on the byte encodings of the numeric and date value types,
+ * ListValueType and DataOutputImpl. Any changes there have an impact on this implementation.</p>
+ */
+public class OrderedValueComparator extends WritableByteArrayComparable {
+    public static enum Type {
+        INTEGER, LONG, DOUBLE, DECIMAL, DATE, DATETIME
+    }
+
+    private Type type;
+    private int nestingLevel;
+    private boolean matchAll;
+    private CompareFilter.CompareOp compareOp;
+    private byte[] value;
+
+    // Decoded reference value: a Long, Double or BigDecimal
+    private Comparable reference;
+    private int offset;
+
+    /**
+     * Nullary constructor, for Writable
+     */
+    public OrderedValueComparator() {
+        super();
+    }
+
+    /**
+     * @param type the type of the (deepest) values
+     * @param nestingLevel the number of list levels around the values, 0 for a non-list field
+     * @param matchAll for lists, whether all values rather than any value should match
+     * @param value the reference value, encoded as a single value of the given type
+     */
+    public OrderedValueComparator(Type type, int nestingLevel, boolean matchAll, CompareFilter.CompareOp compareOp,
+            byte[] value) {
+        this.type = type;
+        this.nestingLevel = nestingLevel;
+        this.matchAll = matchAll;
+        this.compareOp = compareOp;
+        this.value = value;
+        this.reference = decodeReference();
+    }
+
+    @Override
+    public byte[] getValue() {
+        return value;
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        type = Type.valueOf(in.readUTF());
+        nestingLevel = in.readInt();
+        matchAll = in.readBoolean();
+        compareOp = CompareFilter.CompareOp.valueOf(in.readUTF());
+        value = Bytes.readByteArray(in);
+        reference = decodeReference();
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        out.writeUTF(type.name());
+        out.writeInt(nestingLevel);
+        out.writeBoolean(matchAll);
+        out.writeUTF(compareOp.name());
+        Bytes.writeByteArray(out, value);
+    }
+
+    /**
+     * Returns 0 if the value matches, 1 otherwise.
+     */
+    @Override
+    public int compareTo(byte[] theirValue, int fromOffset, int length) {
+        if (length == 0) {
+            return 1;
+        }
+        offset = fromOffset;
+        return matches(nestingLevel, theirValue) ? 0 : 1;
+    }
+
+    private boolean matches(int nestingLevel, byte[] theirValue) {
+        if (nestingLevel == 0) {
+            return matches(readValue(theirValue));
+        }
+
+        int count = readInt(theirValue);
+        if (count == 0) {
+            // An empty list doesn't match, also not for 'all'
+            return false;
+        }
+        for (int i = 0; i < count; i++) {
+            boolean match = matches(nestingLevel - 1, theirValue);
+            if (match != matchAll) {
+                // This decides the outcome, also for the enclosing lists, so there's no need to skip
+                // the remaining values
+                return match;
+            }
+        }
+        return matchAll;
+    }
+
+    @SuppressWarnings("unchecked")
+    private boolean matches(Comparable theirValue) {
+        int result = theirValue.compareTo(reference);
+        switch (compareOp) {
+            case LESS:
+                return result < 0;
+            case LESS_OR_EQUAL:
+                return result <= 0;
+            case EQUAL:
+                return result == 0;
+            case NOT_EQUAL:
+                return result != 0;
+            case GREATER_OR_EQUAL:
+                return result >= 0;
+            case GREATER:
+                return result > 0;
+            default:
+                throw new RuntimeException("Unknown Compare op " + compareOp.name());
+        }
+    }
+
+    private Comparable decodeReference() {
+        offset = 0;
+        return readValue(value);
+    }
+
+    private Comparable readValue(byte[] bytes) {
+        switch (type) {
+            case INTEGER:
+                return Long.valueOf(readInt(bytes));
+            case LONG:
+                return Long.valueOf(readLong(bytes));
+            case DOUBLE:
+                return Double.valueOf(Double.longBitsToDouble(readLong(bytes)));
+            case DECIMAL:
+                int length = readInt(bytes);
+                String decimal = Bytes.toString(bytes, offset, length);
+                offset += length;
+                return new BigDecimal(decimal);
+            case DATE:
+            case DATETIME:
+                offset++; // Skip the encoding version byte. Currently there is only one encoding version.
+                return Long.valueOf(readLong(bytes));
+            default:
+                throw new RuntimeException("Unsupported type: " + type);
+        }
+    }
+
+    private int readInt(byte[] bytes) {
+        return ((bytes[offset++] & 0xFF) << 24) | ((bytes[offset++] & 0xFF) << 16)
+        | ((bytes[offset++] & 0xFF) << 8) | (bytes[offset++] & 0xFF);
+    }
+
+    private long readLong(byte[] bytes) {
+        return ((long)readInt(bytes) << 32) | (readInt(bytes) & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,313 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl.hbase;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+import org.lilyproject.bytes.impl.DataInputImpl;
+import org.lilyproject.repository.impl.FieldFlags;
+import org.lilyproject.util.hbase.LilyHBaseSchema.RecordColumn;
+
+/**
+ * Aggregation of a set of record table rows: the number of rows, the number of rows per record type and
+ * statistics about some numeric fields. Used for the aggregation of one region in
+ * {@link RecordAggregationEndpoint}, and for combining the results of all regions.
+ *
+ * <p>This works directly on the stored bytes, without access to the schema, hence the value types of the fields
+ * are passed in by name. Supported value types are LONG, INTEGER, DOUBLE and DECIMAL.</p>
+ *
+ * <p>The rows should contain the latest version of the columns only.</p>
+ */
+public class PartialRecordAggregation implements Writable {
+    private long count;
+    private Map<byte[], Long> countsByRecordType = new TreeMap<byte[], Long>(Bytes.BYTES_COMPARATOR);
+    private FieldStats[] fieldStats;
+
+    /**
+     * Constructor for deserialization.
+     */
+    public PartialRecordAggregation() {
+        this.fieldStats = new FieldStats[0];
+    }
+
+    public PartialRecordAggregation(byte[][] fieldQualifiers, String[] valueTypes) {
+        if (fieldQualifiers.length != valueTypes.length) {
+            throw new IllegalArgumentException("There should be as many value types as field qualifiers");
+        }
+        fieldStats = new FieldStats[fieldQualifiers.length];
+        for (int i = 0; i < fieldQualifiers.length; i++) {
+            fieldStats[i] = new FieldStats(fieldQualifiers[i], valueTypes[i]);
+        }
+    }
+
+    public static boolean isSupportedValueType(String valueType) {
+        return "LONG".equals(valueType) || "INTEGER".equals(valueType) || "DOUBLE".equals(valueType)
+                || "DECIMAL".equals(valueType);
+    }
+
+    /**
+     * Adds one row, given as the KeyValues of the row.
+     */
+    public void addRow(List<KeyValue> row) {
+        count++;
+        for (KeyValue kv : row) {
+            byte[] buffer = kv.getBuffer();
+            int qualifierOffset = kv.getQualifierOffset();
+            int qualifierLength = kv.getQualifierLength();
+            if (qualifierLength == 0) {
+                continue;
+            }
+
+            if (buffer[qualifierOffset] == RecordColumn.SYSTEM_PREFIX) {
+                if (Bytes.equals(RecordColumn.NON_VERSIONED_RT_ID.bytes, 0, RecordColumn.NON_VERSIONED_RT_ID.bytes.length,
+                        buffer, qualifierOffset, qualifierLength)) {
+                    byte[] recordTypeId = kv.getValue();
+                    Long current = countsByRecordType.get(recordTypeId);
+                    countsByRecordType.put(recordTypeId, current == null ? 1L : current + 1);
+                }
+            } else {
+                for (FieldStats stats : fieldStats) {
+                    if (Bytes.equals(stats.qualifier, 0, stats.qualifier.length, buffer, qualifierOffset,
+                            qualifierLength)) {
+                        stats.add(buffer, kv.getValueOffset(), kv.getValueLength());
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the result of another aggregation, which should be over the same fields.
+     */
+    public void merge(PartialRecordAggregation other) {
+        count += other.count;
+        for (Map.Entry<byte[], Long> entry : other.countsByRecordType.entrySet()) {
+            Long current = countsByRecordType.get(entry.getKey());
+            countsByRecordType.put(entry.getKey(), current == null ? entry.getValue() : current + entry.getValue());
+        }
+        for (FieldStats otherStats : other.fieldStats) {
+            for (FieldStats stats : fieldStats) {
+                if (Bytes.equals(stats.qualifier, otherStats.qualifier)) {
+                    stats.merge(otherStats);
+                    break;
+                }
+            }
+        }
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * The number of rows by non-versioned record type ID.
+     */
+    public Map<byte[], Long> getCountsByRecordType() {
+        return countsByRecordType;
+    }
+
+    public long getFieldCount(byte[] qualifier) {
+        FieldStats stats = getFieldStats(qualifier);
+        return stats != null ? stats.count : 0;
+    }
+
+    public BigDecimal getFieldMin(byte[] qualifier) {
+        FieldStats stats = getFieldStats(qualifier);
+        return stats != null ? stats.getMin() : null;
+    }
+
+    public BigDecimal getFieldMax(byte[] qualifier) {
+        FieldStats stats = getFieldStats(qualifier);
+        return stats != null ? stats.getMax() : null;
+    }
+
+    public BigDecimal getFieldSum(byte[] qualifier) {
+        FieldStats stats = getFieldStats(qualifier);
+        return stats != null ? stats.getSum() : BigDecimal.ZERO;
+    }
+
+    private FieldStats getFieldStats(byte[] qualifier) {
+        for (FieldStats stats : fieldStats) {
+            if (Bytes.equals(stats.qualifier, qualifier)) {
+                return stats;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        WritableUtils.writeVLong(out, count);
+
+        WritableUtils.writeVInt(out, countsByRecordType.size());
+        for (Map.Entry<byte[], Long> entry : countsByRecordType.entrySet()) {
+            Bytes.writeByteArray(out, entry.getKey());
+            WritableUtils.writeVLong(out, entry.getValue());
+        }
+
+        WritableUtils.writeVInt(out, fieldStats.length);
+        for (FieldStats stats : fieldStats) {
+            Bytes.writeByteArray(out, stats.qualifier);
+            out.writeUTF(stats.valueType);
+            WritableUtils.writeVLong(out, stats.count);
+            writeNullableDecimal(out, stats.getMin());
+            writeNullableDecimal(out, stats.getMax());
+            writeNullableDecimal(out, stats.getSum());
+        }
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        count = WritableUtils.readVLong(in);
+
+        countsByRecordType.clear();
+        int recordTypeCount = WritableUtils.readVInt(in);
+        for (int i = 0; i < recordTypeCount; i++) {
+            countsByRecordType.put(Bytes.readByteArray(in), WritableUtils.readVLong(in));
+        }
+
+        fieldStats = new FieldStats[WritableUtils.readVInt(in)];
+        for (int i = 0; i < fieldStats.length; i++) {
+            FieldStats stats = new FieldStats(Bytes.readByteArray(in), in.readUTF());
+            stats.count = WritableUtils.readVLong(in);
+            stats.decimalMin = readNullableDecimal(in);
+            stats.decimalMax = readNullableDecimal(in);
+            stats.decimalSum = readNullableDecimal(in);
+            fieldStats[i] = stats;
+        }
+    }
+
+    private static void writeNullableDecimal(DataOutput out, BigDecimal value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value.toString());
+        }
+    }
+
+    private static BigDecimal readNullableDecimal(DataInput in) throws IOException {
+        return in.readBoolean() ? new BigDecimal(in.readUTF()) : null;
+    }
+
+    /**
+     * Statistics for one field. Integral values are accumulated as longs, which avoids creating BigDecimals
+     * for each value, the other ones as BigDecimal.
+     */
+    private static class FieldStats {
+        private final byte[] qualifier;
+        private final String valueType;
+        private final boolean integral;
+        private long count;
+
+        private long longMin = Long.MAX_VALUE;
+        private long longMax = Long.MIN_VALUE;
+        private long longSum;
+
+        private BigDecimal decimalMin;
+        private BigDecimal decimalMax;
+        private BigDecimal decimalSum = BigDecimal.ZERO;
+
+        FieldStats(byte[] qualifier, String valueType) {
+            if (!isSupportedValueType(valueType)) {
+                throw new IllegalArgumentException("Unsupported value type for aggregation: " + valueType);
+            }
+            this.qualifier = qualifier;
+            this.valueType = valueType;
+            this.integral = "LONG".equals(valueType) || "INTEGER".equals(valueType);
+        }
+
+        void add(byte[] buffer, int offset, int length) {
+            if (length < FieldFlags.SIZE_OF_FIELD_FLAGS) {
+                return;
+            }
+            byte flags = buffer[offset];
+            if (FieldFlags.isDeletedField(flags)) {
+                return;
+            }
+
+            // Strip the field flags and, if present, the field metadata (see RecordDecoder)
+            int valueLength = length - FieldFlags.SIZE_OF_FIELD_FLAGS;
+            if (FieldFlags.getFieldMetadataVersion(flags) == 1) {
+                int metadataSize = Bytes.toInt(buffer, offset + length - Bytes.SIZEOF_INT, Bytes.SIZEOF_INT);
+                valueLength -= metadataSize + Bytes.SIZEOF_INT;
+            }
+            DataInputImpl input = new DataInputImpl(buffer, offset + FieldFlags.SIZE_OF_FIELD_FLAGS, valueLength);
+
+            count++;
+            if (integral) {
+                long value = "LONG".equals(valueType) ? input.readLong() : input.readInt();
+                longMin = Math.min(longMin, value);
+                longMax = Math.max(longMax, value);
+                if ((value > 0 && longSum > Long.MAX_VALUE - value) || (value < 0 && longSum < Long.MIN_VALUE - value)) {
+                    // Would overflow
+                    decimalSum = decimalSum.add(BigDecimal.valueOf(longSum));
+                    longSum = 0;
+                }
+                longSum += value;
+            } else {
+                BigDecimal value = "DOUBLE".equals(valueType) ? BigDecimal.valueOf(input.readDouble())
+                        : new BigDecimal(input.readUTF());
+                decimalMin = decimalMin == null || value.compareTo(decimalMin) < 0 ? value : decimalMin;
+                decimalMax = decimalMax == null || value.compareTo(decimalMax) > 0 ? value : decimalMax;
+                decimalSum = decimalSum.add(value);
+            }
+        }
+
+        void merge(FieldStats other) {
+            if (other.count == 0) {
+                return;
+            }
+            count += other.count;
+            decimalMin = min(getMin(), other.getMin());
+            decimalMax = max(getMax(), other.getMax());
+            decimalSum = getSum().add(other.getSum());
+            // everything is now in the decimal fields
+            longMin = Long.MAX_VALUE;
+            longMax = Long.MIN_VALUE;
+            longSum = 0;
+        }
+
+        BigDecimal getMin() {
+            return longMin <= longMax ? min(decimalMin, BigDecimal.valueOf(longMin)) : decimalMin;
+        }
+
+        BigDecimal getMax() {
+            return longMin <= longMax ? max(decimalMax, BigDecimal.valueOf(longMax)) : decimalMax;
+        }
+
+        BigDecimal getSum() {
+            return longSum != 0 ? decimalSum.add(BigDecimal.valueOf(longSum)) : decimalSum;
+        }
+
+        private static BigDecimal min(BigDecimal a, BigDecimal b) {
+            return a == null ? b : (b == null || a.compareTo(b) <= 0 ? a : b);
+        }
+
+        private static BigDecimal max(BigDecimal a, BigDecimal b) {
+            return a == null ? b : (b == null || a.compareTo(b) >= 0 ? a : b);
+        }
+    }
+}
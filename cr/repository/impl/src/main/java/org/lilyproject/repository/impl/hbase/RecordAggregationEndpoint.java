@@ -0,0 +1,60 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl.hbase;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.coprocessor.BaseEndpointCoprocessor;
+import org.apache.hadoop.hbase.coprocessor.RegionCoprocessorEnvironment;
+import org.apache.hadoop.hbase.regionserver.InternalScanner;
+
+/**
+ * Coprocessor endpoint which counts records and computes field statistics within a region, so that only
+ * the aggregated result needs to be sent to the client.
+ *
+ * <p>To enable it, add this class to the hbase.coprocessor.region.classes setting of the region servers.
+ * This requires the Lily repository jars to be on the classpath of the region servers, as is already the case
+ * for the record filters.</p>
+ */
+public class RecordAggregationEndpoint extends BaseEndpointCoprocessor implements RecordAggregationProtocol {
+
+    @Override
+    public PartialRecordAggregation aggregate(Scan scan, byte[][] fieldQualifiers, String[] valueTypes)
+            throws IOException {
+        PartialRecordAggregation aggregation = new PartialRecordAggregation(fieldQualifiers, valueTypes);
+
+        InternalScanner scanner = ((RegionCoprocessorEnvironment)getEnvironment()).getRegion().getScanner(scan);
+        try {
+            List<KeyValue> row = new ArrayList<KeyValue>();
+            boolean hasMore;
+            do {
+                row.clear();
+                hasMore = scanner.next(row);
+                if (!row.isEmpty()) {
+                    aggregation.addRow(row);
+                }
+            } while (hasMore);
+        } finally {
+            scanner.close();
+        }
+
+        return aggregation;
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl.hbase;
+
+import java.io.IOException;
+
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.ipc.CoprocessorProtocol;
+
+/**
+ * Protocol of the {@link RecordAggregationEndpoint} coprocessor, which aggregates the records of a region
+ * server-side.
+ */
+public interface RecordAggregationProtocol extends CoprocessorProtocol {
+    long VERSION = 1L;
+
+    /**
+     * Runs the scan over the region and aggregates the matching rows.
+     *
+     * @param fieldQualifiers column qualifiers of the fields to compute statistics for
+     * @param valueTypes the names of the value types of these fields, see {@link PartialRecordAggregation}
+     */
+    PartialRecordAggregation aggregate(Scan scan, byte[][] fieldQualifiers, String[] valueTypes) throws IOException;
+}
@@ -30,6 +30,7 @@ import org.lilyproject.avro.AvroGenericException;
 import org.lilyproject.avro.AvroLily;
 import org.lilyproject.avro.AvroRepositoryException;
 import org.lilyproject.repository.api.BlobManager;
+import org.lilyproject.repository.api.FieldMutation;
 import org.lilyproject.repository.api.IORecordException;
 import org.lilyproject.repository.api.IdGenerator;
 import org.lilyproject.repository.api.MutationCondition;
@@ -172,6 +173,23 @@ public class RemoteRepository extends BaseRepository {
         }
     }
 
+    @Override
+    public Record update(Record record, List<MutationCondition> conditions, List<FieldMutation> mutations)
+            throws RepositoryException, InterruptedException {
+        try {
+            return converter.convertRecord(lilyProxy.updateWithMutations(converter.convert(record), tableName,
+                    converter.convert(record, conditions), converter.convertFieldMutations(record, mutations)));
+        } catch (AvroRepositoryException e) {
+            throw converter.convert(e);
+        } catch (AvroGenericException e) {
+            throw converter.convert(e);
+        } catch (AvroRemoteException e) {
+            throw handleAvroRemoteException(e);
+        } catch (UndeclaredThrowableException e) {
+            throw handleUndeclaredRecordThrowable(e);
+        }
+    }
+
     @Override
     public Record createOrUpdate(Record record) throws RepositoryException, InterruptedException {
         return createOrUpdate(record, true);
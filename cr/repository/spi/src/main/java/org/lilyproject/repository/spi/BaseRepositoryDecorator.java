@@ -26,11 +26,13 @@ import org.lilyproject.repository.api.RepositoryManager;
 import org.lilyproject.repository.api.Blob;
 import org.lilyproject.repository.api.BlobAccess;
 import org.lilyproject.repository.api.BlobStoreAccess;
+import org.lilyproject.repository.api.FieldMutation;
 import org.lilyproject.repository.api.IdGenerator;
 import org.lilyproject.repository.api.IdRecord;
 import org.lilyproject.repository.api.IdRecordScanner;
 import org.lilyproject.repository.api.MutationCondition;
 import org.lilyproject.repository.api.QName;
+import org.lilyproject.repository.api.RecordAggregation;
 import org.lilyproject.repository.api.Record;
 import org.lilyproject.repository.api.RecordBuilder;
 import org.lilyproject.repository.api.RecordException;
@@ -91,6 +93,12 @@ public class BaseRepositoryDecorator implements RepositoryDecorator {
         return delegate.update(record, conditions);
     }
 
+    @Override
+    public Record update(Record record, List<MutationCondition> conditions, List<FieldMutation> mutations)
+            throws RepositoryException, InterruptedException {
+        return delegate.update(record, conditions, mutations);
+    }
+
     @Override
     public Record createOrUpdate(Record record) throws RepositoryException, InterruptedException {
         return delegate.createOrUpdate(record);
@@ -264,6 +272,11 @@ public class BaseRepositoryDecorator implements RepositoryDecorator {
         return delegate.getScannerWithIds(scan);
     }
 
+    @Override
+    public RecordAggregation aggregate(RecordScan scan, QName... fields) throws RepositoryException, InterruptedException {
+        return delegate.aggregate(scan, fields);
+    }
+
     @Override
     public void close() throws IOException {
         delegate.close();
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.spi;
+
+import java.util.Set;
+
+import org.lilyproject.repository.api.QName;
+
+/**
+ * A {@link RecordUpdateHook} which tells which fields of the original record it uses.
+ *
+ * <p>For updates, the repository reads the original record before calling the hooks. When all hooks implement
+ * this interface, it only reads the system information (record type, version) plus the fields needed for the
+ * update itself and the fields requested by the hooks, rather than the complete record. This makes small updates
+ * of records with many or large fields considerably cheaper.</p>
+ */
+public interface FieldDependentRecordUpdateHook extends RecordUpdateHook {
+    /**
+     * Returns the fields of the original record which {@link #beforeUpdate} needs, besides the fields which are
+     * updated. Return null if the complete record is needed.
+     *
+     * <p>This is called for each update, so the answer can change over time.</p>
+     */
+    Set<QName> getOriginalFieldDependencies();
+}
@@ -32,13 +32,19 @@ public interface RecordUpdateHook {
      * since the record is locked, you can be sure the record state won't change anymore between the read
      * and the update.</p>
      *
-     * <p>The hook is called before the conditional update checks are checked.</p>
+     * <p>The hook is called after the conditional update checks are checked, so it is not called for updates
+     * which are refused because of them. For updates of versioned-mutable fields, these checks are only done when
+     * the update changes something, so the hook is not called for updates which don't change anything. When an
+     * update with field mutations is retried because of a concurrent update, a
+     * {@link FieldDependentRecordUpdateHook} is only called again if one of the fields it depends on is mutated
+     * or has changed.</p>
      *
      * <p>The hook should not modify the ID of the record, this will lead to unpredictable behavior.</p>
      *
      * @param record the record supplied by the user (not validated). Only contains fields supplied by the user.
      * @param originalRecord the record as it is stored in the repository, containing all record
-     *                       fields. Unmodifiable.
+     *                       fields (for {@link FieldDependentRecordUpdateHook}s, it can be limited to the
+     *                       updated fields and the fields the hooks depend on). Unmodifiable.
      * @param fieldTypes snapshot of the state of the field types when the update operation started (to
      *                   be insensitive to changes such as field type name changes)
      * @param recordEvent the RecordEvent that will be added as payload to the SEP. Hooks can add their
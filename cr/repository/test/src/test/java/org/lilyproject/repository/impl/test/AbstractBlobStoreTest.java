@@ -18,12 +18,17 @@ package org.lilyproject.repository.impl.test;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Random;
 import java.util.Set;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.client.Delete;
 import org.apache.hadoop.hbase.client.Get;
 import org.apache.hadoop.hbase.client.HTableInterface;
 import org.apache.hadoop.hbase.client.Put;
@@ -35,6 +40,7 @@ import org.lilyproject.repository.api.BlobException;
 import org.lilyproject.repository.api.BlobManager;
 import org.lilyproject.repository.api.BlobNotFoundException;
 import org.lilyproject.repository.api.BlobReference;
+import org.lilyproject.repository.api.BlobStoreAccess;
 import org.lilyproject.repository.api.FieldNotFoundException;
 import org.lilyproject.repository.api.FieldType;
 import org.lilyproject.repository.api.FieldTypeEntry;
@@ -53,12 +59,26 @@ import org.lilyproject.repository.api.TypeManager;
 import org.lilyproject.repository.api.ValueType;
 import org.lilyproject.repository.impl.BlobIncubatorMonitor;
 import org.lilyproject.repository.impl.BlobStoreAccessRegistry;
+import org.lilyproject.repository.impl.ContentAddressedBlobStoreAccess;
+import org.lilyproject.repository.impl.HBaseBlobStoreAccess;
 import org.lilyproject.repository.impl.id.IdGeneratorImpl;
 import org.lilyproject.repotestfw.RepositorySetup;
+import org.lilyproject.util.hbase.HBaseTableFactory;
 import org.lilyproject.util.hbase.LilyHBaseSchema;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 public abstract class AbstractBlobStoreTest {
     private static String namespace = "test";
@@ -926,6 +946,214 @@ public abstract class AbstractBlobStoreTest {
         assertTrue(result == null || result.isEmpty());
     }
 
+    @Test
+    public void testReserveMultipleBlobs() throws Exception {
+        QName fieldName = new QName(namespace, "testReserveMultipleBlobs");
+        FieldType fieldType = typeManager.newFieldType(typeManager.getValueType("LIST<BLOB>"), fieldName,
+                Scope.NON_VERSIONED);
+        fieldType = typeManager.createFieldType(fieldType);
+
+        RecordId recordId = new IdGeneratorImpl().newRecordId();
+        Set<BlobReference> blobs = new HashSet<BlobReference>();
+        List<Blob> blobList = new ArrayList<Blob>();
+        for (int i = 0; i < 20; i++) {
+            // Mix of HDFS, HBase and inline blobs
+            byte[] bytes = new byte[30 + i * 100];
+            random.nextBytes(bytes);
+            Blob blob = writeBlob(bytes, "aMediaType", "testReserveMultipleBlobs");
+            blobList.add(blob);
+            blobs.add(new BlobReference(blob, recordId, fieldType));
+        }
+
+        // A blob which is already reserved can't be reserved again
+        BlobReference reserved = new BlobReference(blobList.get(15), recordId, fieldType);
+        assertTrue(blobManager.reserveBlobs(Collections.singleton(reserved)).isEmpty());
+
+        Set<BlobReference> failed = blobManager.reserveBlobs(blobs);
+        assertEquals(Collections.singleton(reserved), failed);
+
+        // Releasing removes the references from the incubator
+        blobManager.handleBlobReferences(recordId, blobs, null);
+        HTableInterface blobIncubatorTable = LilyHBaseSchema.getBlobIncubatorTable(repoSetup.getHbaseTableFactory(), true);
+        for (Blob blob : blobList) {
+            Result result = blobIncubatorTable.get(new Get(blob.getValue()));
+            assertTrue(result == null || result.isEmpty());
+        }
+    }
+
+    @Test
+    public void testChunkedHBaseBlob() throws Exception {
+        // Use a small chunk size so that the blob is spread over a number of chunks
+        HBaseBlobStoreAccess blobStoreAccess = new HBaseBlobStoreAccess(repoSetup.getHbaseTableFactory(), true, 100);
+
+        for (int size : new int[] {0, 1, 100, 101, 1050}) {
+            byte[] bytes = new byte[size];
+            random.nextBytes(bytes);
+
+            // Announce a smaller size than the real one, the writer should cope with that
+            Blob blob = new Blob("aMediaType", (long)size / 2, "testChunkedHBaseBlob");
+            OutputStream outputStream = blobStoreAccess.getOutputStream(blob);
+            outputStream.write(bytes, 0, size / 3);
+            for (int i = size / 3; i < size / 2; i++) {
+                outputStream.write(bytes[i]);
+            }
+            outputStream.write(bytes, size / 2, size - size / 2);
+            outputStream.close();
+
+            InputStream inputStream = blobStoreAccess.getInputStream(blob.getValue());
+            try {
+                assertTrue(Arrays.equals(bytes, IOUtils.toByteArray(inputStream)));
+            } finally {
+                IOUtils.closeQuietly(inputStream);
+            }
+
+            // Skipping over chunks
+            if (size > 0) {
+                inputStream = blobStoreAccess.getInputStream(blob.getValue());
+                try {
+                    assertEquals(size - 1, inputStream.skip(size - 1));
+                    assertEquals(bytes[size - 1] & 0xff, inputStream.read());
+                    assertEquals(-1, inputStream.read());
+                } finally {
+                    IOUtils.closeQuietly(inputStream);
+                }
+            }
+
+            blobStoreAccess.delete(blob.getValue());
+            try {
+                blobStoreAccess.getInputStream(blob.getValue());
+                fail("The blob should have been deleted.");
+            } catch (BlobException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void testSingleCellHBaseBlob() throws Exception {
+        // Blobs written before chunking was introduced are stored in a single cell
+        byte[] bytes = new byte[500];
+        random.nextBytes(bytes);
+        byte[] blobKey = Bytes.toBytes("testSingleCellHBaseBlob");
+        HBaseBlobStoreAccess blobStoreAccess = new HBaseBlobStoreAccess(repoSetup.getHbaseTableFactory(), true, 100);
+        HTableInterface blobTable = repoSetup.getHbaseTableFactory().getTable(new HTableDescriptor("blob"), false);
+        Put put = new Put(blobKey);
+        put.add(Bytes.toBytes("data"), Bytes.toBytes("b"), bytes);
+        blobTable.put(put);
+
+        InputStream inputStream = blobStoreAccess.getInputStream(blobKey);
+        try {
+            assertTrue(Arrays.equals(bytes, IOUtils.toByteArray(inputStream)));
+        } finally {
+            IOUtils.closeQuietly(inputStream);
+        }
+    }
+
+    @Test
+    public void testContentAddressedBlob() throws Exception {
+        HBaseBlobStoreAccess hbaseBlobStoreAccess = new HBaseBlobStoreAccess(repoSetup.getHbaseTableFactory(), true, 100);
+        ContentAddressedBlobStoreAccess blobStoreAccess = new ContentAddressedBlobStoreAccess(hbaseBlobStoreAccess,
+                repoSetup.getHbaseTableFactory(), true, true);
+
+        for (int size : new int[] {0, 150, 1050}) {
+            byte[] bytes = new byte[size];
+            random.nextBytes(bytes);
+
+            Blob blob1 = writeStoreBlob(blobStoreAccess, bytes);
+            Blob blob2 = writeStoreBlob(blobStoreAccess, bytes);
+
+            // Each upload has its own key, but the content is only stored once
+            assertFalse(Arrays.equals(blob1.getValue(), blob2.getValue()));
+            byte[] storeKey = Arrays.copyOfRange(blob1.getValue(), 40, blob1.getValue().length);
+            assertTrue(Arrays.equals(storeKey, Arrays.copyOfRange(blob2.getValue(), 40, blob2.getValue().length)));
+
+            assertTrue(Arrays.equals(bytes, readStoreBlob(blobStoreAccess, blob1.getValue(), 0)));
+            if (size > 0) {
+                assertTrue(Arrays.equals(Arrays.copyOfRange(bytes, size - 1, size),
+                        readStoreBlob(blobStoreAccess, blob2.getValue(), size - 1)));
+            }
+
+            // Deleting one key, even twice, keeps the content for the other one
+            blobStoreAccess.delete(blob1.getValue());
+            blobStoreAccess.delete(blob1.getValue());
+            assertTrue(Arrays.equals(bytes, readStoreBlob(blobStoreAccess, blob2.getValue(), 0)));
+
+            // Deleting the last key deletes the content
+            blobStoreAccess.delete(blob2.getValue());
+            try {
+                hbaseBlobStoreAccess.getInputStream(storeKey);
+                fail("The blob should have been deleted.");
+            } catch (BlobException expected) {
+            }
+
+            // Storing the same content again works after that
+            Blob blob3 = writeStoreBlob(blobStoreAccess, bytes);
+            assertTrue(Arrays.equals(bytes, readStoreBlob(blobStoreAccess, blob3.getValue(), 0)));
+            blobStoreAccess.delete(blob3.getValue());
+        }
+
+        // Blobs written by the wrapped blobstore itself can still be read and deleted
+        byte[] bytes = new byte[300];
+        random.nextBytes(bytes);
+        Blob plainBlob = writeStoreBlob(hbaseBlobStoreAccess, bytes);
+        assertTrue(Arrays.equals(bytes, readStoreBlob(blobStoreAccess, plainBlob.getValue(), 0)));
+        blobStoreAccess.delete(plainBlob.getValue());
+        try {
+            hbaseBlobStoreAccess.getInputStream(plainBlob.getValue());
+            fail("The blob should have been deleted.");
+        } catch (BlobException expected) {
+        }
+    }
+
+    @Test
+    public void testContentAddressedBlobWriteFailure() throws Exception {
+        // The wrapped HBase blobstore fails on writing the first chunk
+        IOException writeFailure = new IOException("testContentAddressedBlobWriteFailure");
+        HTableInterface failingTable = mock(HTableInterface.class);
+        doThrow(writeFailure).when(failingTable).put(any(Put.class));
+        HBaseTableFactory failingTableFactory = mock(HBaseTableFactory.class);
+        when(failingTableFactory.getTable(any(HTableDescriptor.class), anyBoolean())).thenReturn(failingTable);
+        HBaseBlobStoreAccess hbaseBlobStoreAccess = new HBaseBlobStoreAccess(failingTableFactory, true, 100);
+        ContentAddressedBlobStoreAccess blobStoreAccess = new ContentAddressedBlobStoreAccess(hbaseBlobStoreAccess,
+                repoSetup.getHbaseTableFactory(), true, true);
+
+        Blob blob = new Blob("aMediaType", 150L, "testContentAddressedBlobWriteFailure");
+        try {
+            OutputStream outputStream = blobStoreAccess.getOutputStream(blob);
+            try {
+                outputStream.write(new byte[150]);
+            } finally {
+                outputStream.close();
+            }
+            fail("The write should have failed.");
+        } catch (IOException e) {
+            assertSame(writeFailure, e);
+        } finally {
+            hbaseBlobStoreAccess.close();
+        }
+
+        assertNull(blob.getValue());
+        // The aborted HBase stream removed its chunks itself, nothing else is deleted
+        verify(failingTable, times(1)).delete(any(Delete.class));
+    }
+
+    private Blob writeStoreBlob(BlobStoreAccess blobStoreAccess, byte[] bytes) throws Exception {
+        Blob blob = new Blob("aMediaType", (long)bytes.length, "testContentAddressedBlob");
+        OutputStream outputStream = blobStoreAccess.getOutputStream(blob);
+        outputStream.write(bytes);
+        outputStream.close();
+        return blob;
+    }
+
+    private byte[] readStoreBlob(ContentAddressedBlobStoreAccess blobStoreAccess, byte[] key, long offset)
+            throws Exception {
+        InputStream inputStream = blobStoreAccess.getInputStream(key, offset);
+        try {
+            return IOUtils.toByteArray(inputStream);
+        } finally {
+            IOUtils.closeQuietly(inputStream);
+        }
+    }
+
     private void assertBlobDelete(boolean expectDelete, Blob blob) throws BlobNotFoundException, BlobException {
         if (expectDelete) {
             try {
@@ -16,6 +16,7 @@
 package org.lilyproject.repository.impl.test;
 
 import java.io.OutputStream;
+import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -41,6 +42,8 @@ import org.lilyproject.repository.api.Blob;
 import org.lilyproject.repository.api.CompareOp;
 import org.lilyproject.repository.api.ConcurrentRecordUpdateException;
 import org.lilyproject.repository.api.FieldNotFoundException;
+import org.lilyproject.repository.api.FieldAggregation;
+import org.lilyproject.repository.api.FieldMutation;
 import org.lilyproject.repository.api.FieldType;
 import org.lilyproject.repository.api.IdGenerator;
 import org.lilyproject.repository.api.IdRecord;
@@ -59,6 +62,7 @@ import org.lilyproject.repository.api.RecordId;
 import org.lilyproject.repository.api.RecordNotFoundException;
 import org.lilyproject.repository.api.RecordScan;
 import org.lilyproject.repository.api.RecordScanner;
+import org.lilyproject.repository.api.RecordAggregation;
 import org.lilyproject.repository.api.RecordType;
 import org.lilyproject.repository.api.RecordTypeNotFoundException;
 import org.lilyproject.repository.api.Repository;
@@ -1486,6 +1490,47 @@ public abstract class AbstractRepositoryTest {
         repository.update(record, false, false);
     }
 
+    @Test
+    public void testUpdateWithFieldsNotInUpdate() throws Exception {
+        // Version 2 of recordType3 has field1 as mandatory field
+        Record record = repository.newRecord();
+        record.setRecordType(recordType3.getName(), 2L);
+        record.setField(fieldType1.getName(), "abc");
+        record.setField(fieldType2.getName(), 123);
+        record = repository.create(record);
+
+        // The mandatory field and the field in the condition are not part of the update, but are still taken
+        // into account
+        Record update = repository.newRecord(record.getId());
+        update.setRecordType(recordType3.getName(), 2L);
+        update.setField(fieldType2.getName(), 456);
+        update = repository.update(update, false, false,
+                Collections.singletonList(new MutationCondition(fieldType1.getName(), "abc")));
+        assertEquals(ResponseStatus.UPDATED, update.getResponseStatus());
+
+        update = repository.newRecord(record.getId());
+        update.setRecordType(recordType3.getName(), 2L);
+        update.setField(fieldType2.getName(), 789);
+        update = repository.update(update, false, false,
+                Collections.singletonList(new MutationCondition(fieldType1.getName(), "xyz")));
+        assertEquals(ResponseStatus.CONFLICT, update.getResponseStatus());
+
+        update = repository.newRecord(record.getId());
+        update.setRecordType(recordType3.getName(), 2L);
+        update.addFieldsToDelete(Collections.singletonList(fieldType1.getName()));
+        try {
+            if (avro)
+                System.out.println("Expecting InvalidRecordException");
+            repository.update(update, false, false);
+            fail();
+        } catch (InvalidRecordException expected) {
+        }
+
+        Record readRecord = repository.read(record.getId());
+        assertEquals("abc", readRecord.getField(fieldType1.getName()));
+        assertEquals(456, readRecord.getField(fieldType2.getName()));
+    }
+
     @Test
     public void testValidateMutableUpdate() throws Exception {
         // Nothing mandatory
@@ -1897,6 +1942,124 @@ public abstract class AbstractRepositoryTest {
         assertEquals(count, record.getField(fieldType4.getName()));
     }
 
+    @Test
+    public void testIncrementMutationConcurrency() throws Exception {
+        // Same as the test above, but letting the repository apply the increment
+        Record record = repository.newRecord();
+        record.setId(repository.getIdGenerator().newRecordId());
+        record.setRecordType(recordType2.getName());
+        record.setField(fieldType5.getName(), Boolean.TRUE);
+        record = repository.create(record);
+        final RecordId recordId = record.getId();
+
+        int threads = 5;
+        int count = 200;
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 10, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(count));
+
+        List<Future> futures = new ArrayList<Future>();
+        for (int i = 0; i < count; i++) {
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    Record record = repository.newRecord(recordId);
+                    record = repository.update(record, null,
+                            Lists.newArrayList(FieldMutation.increment(fieldType4.getName(), 1)));
+                    assertEquals(ResponseStatus.UPDATED, record.getResponseStatus());
+                    return null;
+                }
+            }));
+        }
+
+        for (Future future : futures) {
+            future.get();
+        }
+
+        executor.shutdown();
+
+        // The counter started out missing, which counts as zero
+        record = repository.read(recordId);
+        assertEquals(count, record.getField(fieldType4.getName()));
+        assertEquals(Boolean.TRUE, record.getField(fieldType5.getName()));
+    }
+
+    @Test
+    public void testAppendMutation() throws Exception {
+        FieldType listField = typeManager.createFieldType(typeManager.newFieldType(
+                typeManager.getValueType("LIST<STRING>"), new QName(namespace, "appendField"), Scope.NON_VERSIONED));
+
+        Record record = repository.newRecord();
+        record.setRecordType(recordType1.getName());
+        record.setField(fieldType1.getName(), "hello");
+        record = repository.create(record);
+
+        Record update = repository.newRecord(record.getId());
+        update.setField(fieldType1.getName(), "world");
+        record = repository.update(update, null,
+                Lists.newArrayList(FieldMutation.append(listField.getName(), Lists.newArrayList("a", "b"), 3)));
+        assertEquals(Lists.newArrayList("a", "b"), record.getField(listField.getName()));
+        assertEquals("world", record.getField(fieldType1.getName()));
+
+        // Beyond the maximum size, the oldest values are dropped
+        record = repository.update(repository.newRecord(record.getId()), null,
+                Lists.newArrayList(FieldMutation.append(listField.getName(), Lists.newArrayList("c", "d"), 3)));
+        assertEquals(Lists.newArrayList("b", "c", "d"), record.getField(listField.getName()));
+        assertEquals(Lists.newArrayList("b", "c", "d"), repository.read(record.getId()).getField(listField.getName()));
+
+        // Conditions are checked before applying the mutations
+        List<MutationCondition> conditions = Lists.newArrayList(new MutationCondition(fieldType1.getName(), "hello"));
+        record = repository.update(repository.newRecord(record.getId()), conditions,
+                Lists.newArrayList(FieldMutation.append(listField.getName(), Lists.newArrayList("e"))));
+        assertEquals(ResponseStatus.CONFLICT, record.getResponseStatus());
+
+        // Only numeric fields can be incremented
+        try {
+            repository.update(repository.newRecord(record.getId()), null,
+                    Lists.newArrayList(FieldMutation.increment(fieldType1.getName(), 1)));
+            fail("expected exception");
+        } catch (InvalidRecordException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testIncrementMutationOverflow() throws Exception {
+        FieldType longField = typeManager.createFieldType(typeManager.newFieldType(
+                typeManager.getValueType("LONG"), new QName(namespace, "overflowField"), Scope.NON_VERSIONED));
+
+        Record record = repository.newRecord();
+        record.setRecordType(recordType1.getName());
+        record.setField(fieldType1.getName(), "hello");
+        record.setField(fieldType4.getName(), Integer.MAX_VALUE - 1);
+        record.setField(longField.getName(), Long.MIN_VALUE + 1);
+        record = repository.create(record);
+
+        record = repository.update(repository.newRecord(record.getId()), null,
+                Lists.newArrayList(FieldMutation.increment(fieldType4.getName(), 1L),
+                        FieldMutation.increment(longField.getName(), new BigDecimal("-1.0"))));
+        assertEquals(Integer.MAX_VALUE, record.getField(fieldType4.getName()));
+        assertEquals(Long.MIN_VALUE, record.getField(longField.getName()));
+
+        List<FieldMutation> invalidMutations = Lists.newArrayList(
+                FieldMutation.increment(fieldType4.getName(), 1),
+                FieldMutation.increment(longField.getName(), -1),
+                FieldMutation.increment(fieldType4.getName(), Long.MIN_VALUE),
+                FieldMutation.increment(longField.getName(), 0.5));
+        for (FieldMutation mutation : invalidMutations) {
+            try {
+                repository.update(repository.newRecord(record.getId()), null, Lists.newArrayList(mutation));
+                fail("expected exception");
+            } catch (InvalidRecordException e) {
+                // expected
+            }
+        }
+
+        // The failed increments left the values alone
+        record = repository.read(record.getId());
+        assertEquals(Integer.MAX_VALUE, record.getField(fieldType4.getName()));
+        assertEquals(Long.MIN_VALUE, record.getField(longField.getName()));
+    }
+
     @Test
     public void testConditionalDelete() throws Exception {
         Record record = createDefaultRecord();
@@ -2640,6 +2803,63 @@ public abstract class AbstractRepositoryTest {
         assertEquals(3, countResults(repository.getScanner(scan)));
     }
 
+    @Test
+    public void testFieldValueFilterOrderedCompare() throws Exception {
+        FieldType longField =
+                typeManager.createFieldType("LONG", new QName("FieldValueFilterOrdered", "long"), Scope.NON_VERSIONED);
+        FieldType decimalField = typeManager.createFieldType("DECIMAL",
+                new QName("FieldValueFilterOrdered", "decimal"), Scope.NON_VERSIONED);
+        FieldType listField = typeManager.createFieldType("LIST<INTEGER>",
+                new QName("FieldValueFilterOrdered", "list"), Scope.NON_VERSIONED);
+        RecordType rt = typeManager.recordTypeBuilder()
+                .defaultNamespace("FieldValueFilterOrdered")
+                .name("rt1")
+                .fieldEntry().use(longField).add()
+                .fieldEntry().use(decimalField).add()
+                .fieldEntry().use(listField).add()
+                .create();
+
+        // Negative numbers and decimals with different scales don't sort correctly in their byte encoding
+        repository.recordBuilder().recordType(rt.getName()).field(longField.getName(), -5L)
+                .field(decimalField.getName(), new BigDecimal("9.5")).field(listField.getName(), Arrays.asList(1, 2))
+                .create();
+        repository.recordBuilder().recordType(rt.getName()).field(longField.getName(), 3L)
+                .field(decimalField.getName(), new BigDecimal("10")).field(listField.getName(), Arrays.asList(2, 20))
+                .create();
+        repository.recordBuilder().recordType(rt.getName()).field(longField.getName(), 300L)
+                .field(decimalField.getName(), new BigDecimal("100.25"))
+                .field(listField.getName(), Arrays.asList(30, 40)).create();
+
+        RecordScan scan = new RecordScan();
+        scan.setRecordFilter(new FieldValueFilter(longField.getName(), CompareOp.LESS, 3L));
+        assertEquals(1, countResults(repository.getScanner(scan)));
+
+        scan = new RecordScan();
+        scan.setRecordFilter(new FieldValueFilter(longField.getName(), CompareOp.GREATER_OR_EQUAL, 3L));
+        assertEquals(2, countResults(repository.getScanner(scan)));
+
+        scan = new RecordScan();
+        scan.setRecordFilter(new FieldValueFilter(decimalField.getName(), CompareOp.GREATER, new BigDecimal("9.50")));
+        assertEquals(2, countResults(repository.getScanner(scan)));
+
+        scan = new RecordScan();
+        scan.setRecordFilter(
+                new FieldValueFilter(decimalField.getName(), CompareOp.LESS_OR_EQUAL, new BigDecimal("10.0")));
+        assertEquals(2, countResults(repository.getScanner(scan)));
+
+        // Lists: any of the values
+        scan = new RecordScan();
+        scan.setRecordFilter(new FieldValueFilter(listField.getName(), CompareOp.GREATER, 10));
+        assertEquals(2, countResults(repository.getScanner(scan)));
+
+        // Lists: all of the values
+        FieldValueFilter filter = new FieldValueFilter(listField.getName(), CompareOp.GREATER, 10);
+        filter.setListMatch(FieldValueFilter.ListMatch.ALL);
+        scan = new RecordScan();
+        scan.setRecordFilter(filter);
+        assertEquals(1, countResults(repository.getScanner(scan)));
+    }
+
     @Test
     public void testFilterList() throws Exception {
         FieldType f1 = typeManager.createFieldType("STRING", new QName("FilterList", "field1"), Scope.NON_VERSIONED);
@@ -2782,6 +3002,82 @@ public abstract class AbstractRepositoryTest {
         //assertNull(repository.getScanner(scan).next());
     }
     
+    @Test
+    public void testAggregate() throws Exception {
+        String ns = "Aggregate";
+        FieldType name = typeManager.createFieldType("STRING", new QName(ns, "name"), Scope.NON_VERSIONED);
+        FieldType size = typeManager.createFieldType("LONG", new QName(ns, "size"), Scope.NON_VERSIONED);
+        FieldType price = typeManager.createFieldType("DECIMAL", new QName(ns, "price"), Scope.VERSIONED);
+
+        RecordType rt1 = typeManager.recordTypeBuilder().defaultNamespace(ns).name("rt1")
+                .fieldEntry().use(name).add()
+                .fieldEntry().use(size).add()
+                .fieldEntry().use(price).add()
+                .create();
+        RecordType rt2 = typeManager.recordTypeBuilder().defaultNamespace(ns).name("rt2")
+                .fieldEntry().use(size).add()
+                .create();
+
+        for (long i = 1; i <= 10; i++) {
+            repository.recordBuilder()
+                    .id("aggregate-" + i)
+                    .recordType(rt1.getName())
+                    .field(name.getName(), "record " + i)
+                    .field(size.getName(), i)
+                    .field(price.getName(), new BigDecimal(i + ".5"))
+                    .create();
+        }
+        for (long i = 1; i <= 5; i++) {
+            repository.recordBuilder()
+                    .id("aggregate-rt2-" + i)
+                    .recordType(rt2.getName())
+                    .field(size.getName(), -i)
+                    .create();
+        }
+        // A record without the fields, and a deleted record, both should not be counted
+        repository.recordBuilder().id("aggregate-empty").recordType(rt2.getName()).create();
+        repository.recordBuilder().id("aggregate-deleted").recordType(rt2.getName()).field(size.getName(), 1000L)
+                .create();
+        repository.delete(idGenerator.newRecordId("aggregate-deleted"));
+
+        // Only the records of rt1
+        RecordScan scan = new RecordScan();
+        scan.setRecordFilter(new RecordTypeFilter(rt1.getName()));
+        RecordAggregation aggregation = repository.aggregate(scan, size.getName(), price.getName());
+        assertEquals(10, aggregation.getCount());
+        assertEquals(Long.valueOf(10), aggregation.getCountsByRecordType().get(rt1.getName()));
+        FieldAggregation sizeAggregation = aggregation.getFieldAggregation(size.getName());
+        assertEquals(10, sizeAggregation.getCount());
+        assertEquals(0, new BigDecimal(1).compareTo(sizeAggregation.getMin()));
+        assertEquals(0, new BigDecimal(10).compareTo(sizeAggregation.getMax()));
+        assertEquals(0, new BigDecimal(55).compareTo(sizeAggregation.getSum()));
+        FieldAggregation priceAggregation = aggregation.getFieldAggregation(price.getName());
+        assertEquals(0, new BigDecimal("1.5").compareTo(priceAggregation.getMin()));
+        assertEquals(0, new BigDecimal("10.5").compareTo(priceAggregation.getMax()));
+        assertEquals(0, new BigDecimal("60").compareTo(priceAggregation.getSum()));
+
+        // All records in the range of our record ids
+        scan = new RecordScan();
+        scan.setStartRecordId(idGenerator.newRecordId("aggregate-"));
+        scan.setStopRecordId(idGenerator.newRecordId("aggregate."));
+        aggregation = repository.aggregate(scan, size.getName());
+        assertEquals(16, aggregation.getCount());
+        assertEquals(Long.valueOf(10), aggregation.getCountsByRecordType().get(rt1.getName()));
+        assertEquals(Long.valueOf(6), aggregation.getCountsByRecordType().get(rt2.getName()));
+        sizeAggregation = aggregation.getFieldAggregation(size.getName());
+        assertEquals(15, sizeAggregation.getCount());
+        assertEquals(0, new BigDecimal(-5).compareTo(sizeAggregation.getMin()));
+        assertEquals(0, new BigDecimal(40).compareTo(sizeAggregation.getSum()));
+
+        // Only numeric fields can be aggregated
+        try {
+            repository.aggregate(scan, name.getName());
+            fail("Expected an exception");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
     /**
      * Tests if record type is set when different settings of returnFields is used.
      * @throws Exception
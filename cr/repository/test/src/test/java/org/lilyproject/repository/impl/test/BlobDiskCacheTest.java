@@ -0,0 +1,209 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.lilyproject.repository.api.Blob;
+import org.lilyproject.repository.api.BlobException;
+import org.lilyproject.repository.api.BlobStoreAccess;
+import org.lilyproject.repository.impl.BlobDiskCache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class BlobDiskCacheTest {
+    private File cacheDir;
+    private BlobDiskCache cache;
+    private CountingBlobStoreAccess blobStore;
+    private Random random = new Random();
+
+    @Before
+    public void setUp() throws Exception {
+        cacheDir = new File(System.getProperty("java.io.tmpdir"), "lily-blobcache-test-" + System.currentTimeMillis());
+        blobStore = new CountingBlobStoreAccess();
+        // Room for 3000 bytes, no blobs larger than 1500 bytes, small blobs memory-mapped
+        cache = new BlobDiskCache(cacheDir, 3000, 1500, 600);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        cache.close();
+        FileUtils.deleteDirectory(cacheDir);
+    }
+
+    @Test
+    public void testReadThrough() throws Exception {
+        BlobStoreAccess cachingStore = cache.wrap(blobStore);
+        byte[] small = blobStore.add("small", 500);
+        byte[] medium = blobStore.add("medium", 1000);
+
+        for (int i = 0; i < 3; i++) {
+            assertArrayEquals(small, read(cachingStore, "small"));
+            assertArrayEquals(medium, read(cachingStore, "medium"));
+        }
+
+        // Only the first reads went to the blob store
+        assertEquals(2, blobStore.reads);
+        assertEquals(2, cache.getEntryCount());
+        assertEquals(1500, cache.getSize());
+    }
+
+    @Test
+    public void testLargeBlobsAreNotCached() throws Exception {
+        BlobStoreAccess cachingStore = cache.wrap(blobStore);
+        byte[] large = blobStore.add("large", 2000);
+
+        assertArrayEquals(large, read(cachingStore, "large"));
+        assertArrayEquals(large, read(cachingStore, "large"));
+
+        assertEquals(2, blobStore.reads);
+        assertEquals(0, cache.getEntryCount());
+    }
+
+    @Test
+    public void testPartialReadIsNotCached() throws Exception {
+        BlobStoreAccess cachingStore = cache.wrap(blobStore);
+        byte[] blob = blobStore.add("blob", 1000);
+
+        InputStream is = cachingStore.getInputStream("blob".getBytes());
+        is.read(new byte[100]);
+        is.close();
+        assertEquals(0, cache.getEntryCount());
+
+        assertArrayEquals(blob, read(cachingStore, "blob"));
+        assertEquals(1, cache.getEntryCount());
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        BlobStoreAccess cachingStore = cache.wrap(blobStore);
+        for (int i = 0; i < 4; i++) {
+            blobStore.add("blob" + i, 1000);
+        }
+
+        read(cachingStore, "blob0");
+        read(cachingStore, "blob1");
+        read(cachingStore, "blob2");
+        // Makes blob1 the least recently used one
+        read(cachingStore, "blob0");
+        read(cachingStore, "blob3");
+
+        assertEquals(3, cache.getEntryCount());
+        assertEquals(3000, cache.getSize());
+
+        blobStore.reads = 0;
+        read(cachingStore, "blob0");
+        read(cachingStore, "blob2");
+        read(cachingStore, "blob3");
+        assertEquals(0, blobStore.reads);
+        read(cachingStore, "blob1");
+        assertEquals(1, blobStore.reads);
+    }
+
+    @Test
+    public void testDelete() throws Exception {
+        BlobStoreAccess cachingStore = cache.wrap(blobStore);
+        blobStore.add("blob", 1000);
+        read(cachingStore, "blob");
+        assertEquals(1, cache.getEntryCount());
+
+        cachingStore.delete("blob".getBytes());
+        assertEquals(0, cache.getEntryCount());
+        try {
+            cachingStore.getInputStream("blob".getBytes());
+            fail("Expected an exception for a deleted blob");
+        } catch (BlobException expected) {
+        }
+    }
+
+    @Test
+    public void testReuseAfterRestart() throws Exception {
+        BlobStoreAccess cachingStore = cache.wrap(blobStore);
+        byte[] blob = blobStore.add("blob", 1000);
+        read(cachingStore, "blob");
+        cache.close();
+
+        cache = new BlobDiskCache(cacheDir, 3000, 1500, 600);
+        assertEquals(1, cache.getEntryCount());
+        blobStore.reads = 0;
+        assertArrayEquals(blob, read(cache.wrap(blobStore), "blob"));
+        assertEquals(0, blobStore.reads);
+    }
+
+    private byte[] read(BlobStoreAccess blobStoreAccess, String key) throws Exception {
+        InputStream is = blobStoreAccess.getInputStream(key.getBytes());
+        try {
+            return IOUtils.toByteArray(is);
+        } finally {
+            IOUtils.closeQuietly(is);
+        }
+    }
+
+    private class CountingBlobStoreAccess implements BlobStoreAccess {
+        private Map<String, byte[]> blobs = new HashMap<String, byte[]>();
+        private int reads;
+
+        byte[] add(String key, int size) {
+            byte[] bytes = new byte[size];
+            random.nextBytes(bytes);
+            blobs.put(key, bytes);
+            return bytes;
+        }
+
+        @Override
+        public String getId() {
+            return "TEST";
+        }
+
+        @Override
+        public OutputStream getOutputStream(Blob blob) throws BlobException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public InputStream getInputStream(byte[] key) throws BlobException {
+            reads++;
+            byte[] bytes = blobs.get(new String(key));
+            if (bytes == null) {
+                throw new BlobException("No such blob");
+            }
+            return new ByteArrayInputStream(bytes);
+        }
+
+        @Override
+        public void delete(byte[] key) throws BlobException {
+            blobs.remove(new String(key));
+        }
+
+        @Override
+        public boolean incubate() {
+            return true;
+        }
+    }
+}
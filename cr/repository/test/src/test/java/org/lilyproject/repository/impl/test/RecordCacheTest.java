@@ -0,0 +1,151 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl.test;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.lilyproject.repository.api.IdGenerator;
+import org.lilyproject.repository.api.QName;
+import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.repository.impl.RecordCache;
+import org.lilyproject.repository.impl.RecordImpl;
+import org.lilyproject.repository.impl.id.IdGeneratorImpl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class RecordCacheTest {
+    private static final String TABLE = "record";
+    private static final QName FIELD = new QName("ns", "field");
+
+    private IdGenerator idGenerator = new IdGeneratorImpl();
+    private RecordCache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        cache = new RecordCache(3, 60000L);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        cache.close();
+    }
+
+    @Test
+    public void testPutAndGet() throws Exception {
+        RecordId recordId = idGenerator.newRecordId();
+        assertNull(cache.get(TABLE, recordId, null, null, false));
+
+        cache.put(TABLE, recordId, null, null, false, newRecord(recordId, "value"), cache.getToken(recordId));
+
+        Record cached = cache.get(TABLE, recordId, null, null, false);
+        assertEquals("value", cached.getField(FIELD));
+
+        // The returned record is a copy
+        cached.setField(FIELD, "changed");
+        assertEquals("value", cache.get(TABLE, recordId, null, null, false).getField(FIELD));
+
+        // Other versions, kinds of read and tables are cached separately
+        assertNull(cache.get(TABLE, recordId, 1L, null, false));
+        assertNull(cache.get(TABLE, recordId, null, null, true));
+        assertNull(cache.get("othertable", recordId, null, null, false));
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        RecordId recordId = idGenerator.newRecordId();
+        cache.put(TABLE, recordId, null, null, false, newRecord(recordId, "value"), cache.getToken(recordId));
+        cache.put(TABLE, recordId, 1L, null, false, newRecord(recordId, "value"), cache.getToken(recordId));
+        assertEquals(2, cache.getSize());
+
+        cache.invalidate(TABLE, recordId);
+        assertNull(cache.get(TABLE, recordId, null, null, false));
+        assertNull(cache.get(TABLE, recordId, 1L, null, false));
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void testReadDuringInvalidationIsNotCached() throws Exception {
+        RecordId recordId = idGenerator.newRecordId();
+
+        // Simulates a record which was read from HBase just before it got updated
+        long token = cache.getToken(recordId);
+        cache.invalidate(TABLE, recordId);
+        cache.put(TABLE, recordId, null, null, false, newRecord(recordId, "old value"), token);
+
+        assertNull(cache.get(TABLE, recordId, null, null, false));
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        RecordId[] recordIds = new RecordId[4];
+        for (int i = 0; i < recordIds.length; i++) {
+            recordIds[i] = idGenerator.newRecordId();
+        }
+
+        for (int i = 0; i < 3; i++) {
+            cache.put(TABLE, recordIds[i], null, null, false, newRecord(recordIds[i], "v" + i),
+                    cache.getToken(recordIds[i]));
+        }
+        // Makes record 0 the most recently used one
+        assertNotNull(cache.get(TABLE, recordIds[0], null, null, false));
+
+        cache.put(TABLE, recordIds[3], null, null, false, newRecord(recordIds[3], "v3"),
+                cache.getToken(recordIds[3]));
+
+        assertEquals(3, cache.getSize());
+        assertNull(cache.get(TABLE, recordIds[1], null, null, false));
+        assertNotNull(cache.get(TABLE, recordIds[0], null, null, false));
+        assertNotNull(cache.get(TABLE, recordIds[2], null, null, false));
+        assertNotNull(cache.get(TABLE, recordIds[3], null, null, false));
+    }
+
+    @Test
+    public void testExpiration() throws Exception {
+        cache.close();
+        cache = new RecordCache(3, 10L);
+
+        RecordId recordId = idGenerator.newRecordId();
+        cache.put(TABLE, recordId, null, null, false, newRecord(recordId, "value"), cache.getToken(recordId));
+        assertNotNull(cache.get(TABLE, recordId, null, null, false));
+
+        Thread.sleep(50);
+        assertNull(cache.get(TABLE, recordId, null, null, false));
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        RecordCache disabled = new RecordCache();
+        assertFalse(disabled.isEnabled());
+
+        RecordId recordId = idGenerator.newRecordId();
+        disabled.put(TABLE, recordId, null, null, false, newRecord(recordId, "value"), disabled.getToken(recordId));
+        assertNull(disabled.get(TABLE, recordId, null, null, false));
+        disabled.invalidate(TABLE, recordId);
+        disabled.close();
+    }
+
+    private Record newRecord(RecordId recordId, String value) {
+        Record record = new RecordImpl(recordId);
+        record.setField(FIELD, value);
+        return record;
+    }
+}
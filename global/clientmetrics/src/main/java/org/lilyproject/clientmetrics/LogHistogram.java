@@ -0,0 +1,109 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.clientmetrics;
+
+import java.util.Arrays;
+
+/**
+ * Histogram of positive double values using logarithmically sized buckets, from which approximate
+ * percentiles can be calculated.
+ *
+ * <p>Each bucket is 2% wider than the previous one, so that a value reported for a percentile is within
+ * about 1% of the real value, independent of the magnitude. Values in the range [0.0001, 10^10] are
+ * tracked, smaller values (including zero and negative values) end up in the first bucket, larger
+ * ones in the last bucket. The memory use is thus fixed, independent of the number of recorded values.
+ *
+ * <p>Histograms can be merged, which allows to record values in several histograms concurrently (e.g.
+ * one per thread) and only combine them when a report is needed.
+ *
+ * <p>This class is not thread safe.
+ */
+public class LogHistogram {
+    private static final double GAMMA = 1.02;
+    private static final double LOG_GAMMA = Math.log(GAMMA);
+    private static final double MIN_TRACKED = 1e-4;
+    private static final double MAX_TRACKED = 1e10;
+
+    static final int BUCKET_COUNT = (int)Math.ceil(Math.log(MAX_TRACKED / MIN_TRACKED) / LOG_GAMMA) + 1;
+
+    private final long[] counts = new long[BUCKET_COUNT];
+    private long count;
+
+    public void record(double value) {
+        counts[bucketIndex(value)]++;
+        count++;
+    }
+
+    public void merge(LogHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+    }
+
+    public void reset() {
+        if (count > 0) {
+            Arrays.fill(counts, 0);
+            count = 0;
+        }
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the approximate value below which the given percentage of the recorded values fall.
+     *
+     * @param percentile a number between 0 and 100
+     * @param min the smallest recorded value, the result is never smaller than this
+     * @param max the largest recorded value, the result is never larger than this
+     */
+    public double getPercentile(double percentile, double min, double max) {
+        if (count == 0) {
+            return 0;
+        }
+
+        long threshold = Math.max(1, (long)Math.ceil(percentile / 100d * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= threshold) {
+                return Math.max(min, Math.min(max, bucketValue(i)));
+            }
+        }
+        return max;
+    }
+
+    static int bucketIndex(double value) {
+        if (value <= MIN_TRACKED) {
+            return 0;
+        }
+        int index = (int)Math.ceil(Math.log(value / MIN_TRACKED) / LOG_GAMMA);
+        return Math.min(index, BUCKET_COUNT - 1);
+    }
+
+    /**
+     * A representative value for the bucket, chosen so that the relative error on any value in the bucket
+     * is the same.
+     */
+    static double bucketValue(int index) {
+        if (index == 0) {
+            return 0;
+        }
+        return 2 * MIN_TRACKED * Math.pow(GAMMA, index) / (GAMMA + 1);
+    }
+}
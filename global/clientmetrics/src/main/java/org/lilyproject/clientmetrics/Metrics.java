@@ -19,6 +19,9 @@ import org.joda.time.DateTime;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.regex.Pattern;
 
 /**
@@ -37,15 +40,22 @@ import java.util.regex.Pattern;
  *
  * <p>The metrics files produced by this class are human readable but also machine readable, they can
  * be parsed using {@link org.lilyproject.clientmetrics.postproc.MetricsParser}.
+ *
+ * <p>Incrementing a metric does not take a global lock: each metric spreads its values over a number of
+ * stripes, which are selected based on the calling thread, and each stripe records the values in a
+ * {@link LogHistogram}. The stripes are only combined when the interval report is printed. This keeps
+ * the overhead of the metrics low, also with hundreds of threads, and makes that the memory used per
+ * metric does not grow with the number of values.
  */
 public class Metrics {
-    private Map<String, Metric> metrics = new TreeMap<String, Metric>();
+    private ConcurrentMap<String, Metric> metrics = new ConcurrentSkipListMap<String, Metric>();
     private int intervalDuration = 1000 * 30;
-    private DateTime intervalStartedAt;
-    private DateTime startedAt;
+    private volatile DateTime intervalStartedAt;
+    private volatile DateTime startedAt;
     private PrintStream reportStream;
     private MetricsPlugin plugin;
-    private boolean inReport;
+    private final ReentrantLock reportLock = new ReentrantLock();
+    private volatile boolean inReport;
     private int threadCount = 1;
     private Table table;
     private boolean inHeader;
@@ -70,6 +80,8 @@ public class Metrics {
         table.addColumn(-1, "Op count", "d");
         table.addColumn(-1, "Average", "f");
         table.addColumn(-1, "Median", "f");
+        table.addColumn(-1, "95th pct", "f");
+        table.addColumn(-1, "99th pct", "f");
         table.addColumn(-1, "Minimum", "f");
         table.addColumn(-1, "Maximum", "f");
         table.addColumn(-1, "Alltime ops", "d");
@@ -95,12 +107,17 @@ public class Metrics {
      * Does an in-between reset of the metrics. This is useful if your test consists of multiple phases
      * which each have different metrics.
      */
-    public synchronized void restart() {
-        printReport();
-        printGlobalOpsPerSec();
-        metrics.clear();
-        intervalStartedAt = null;
-        startedAt = null;
+    public void restart() {
+        reportLock.lock();
+        try {
+            printReport();
+            printGlobalOpsPerSec();
+            metrics.clear();
+            intervalStartedAt = null;
+            startedAt = null;
+        } finally {
+            reportLock.unlock();
+        }
 
         reportStream.println("");
         reportStream.println("Metrics have been reset");
@@ -143,11 +160,11 @@ public class Metrics {
         return intervalDuration;
     }
 
-    public synchronized void increment(String name, double value) {
+    public void increment(String name, double value) {
         increment(name, null, 1, value);
     }
 
-    public synchronized void increment(String name, String type, double value) {
+    public void increment(String name, String type, double value) {
         increment(name, type, 1, value);
     }
 
@@ -165,7 +182,7 @@ public class Metrics {
      * @param value the value for the metric, such as a duration (typically in ms), an operation count, or whatever
      *              quantity you want to keep track of such as free memory, cpu load, ...
      */
-    public synchronized void increment(String name, String type, int operations, double value) {
+    public void increment(String name, String type, int operations, double value) {
         if (type != null && !NAME_PATTERN.matcher(type).matches()) {
             // Being strict here, can be helpful for further reporting
             throw new IllegalArgumentException("Invalid type name, should be alphanumeric only: " + type);
@@ -177,24 +194,28 @@ public class Metrics {
         }
 
         if (intervalStartedAt == null) {
-            // it's our very first value
-            intervalStartedAt = new DateTime();
-            startedAt = new DateTime();
+            start();
         }
 
-        if (!inReport && System.currentTimeMillis() - intervalStartedAt.getMillis() >= intervalDuration) {
-            printReport();
-            for (Metric metric : metrics.values()) {
-                metric.rollInterval();
+        // Only one thread prints the report, the others simply continue. The inReport check avoids that
+        // metrics added by the plugin during the report would trigger a nested report.
+        if (!inReport && intervalExpired() && reportLock.tryLock()) {
+            try {
+                if (intervalExpired()) {
+                    printReport();
+                }
+            } finally {
+                reportLock.unlock();
             }
-            intervalStartedAt = new DateTime();
         }
 
         Metric metric = metrics.get(name);
         if (metric == null) {
-            metric = new Metric();
-            metric.type = type;
-            metrics.put(name, metric);
+            metric = new Metric(type);
+            Metric existing = metrics.putIfAbsent(name, metric);
+            if (existing != null) {
+                metric = existing;
+            }
         }
 
         metric.add(operations, value);
@@ -202,13 +223,39 @@ public class Metrics {
         plugin.afterIncrement(this);
     }
 
-    public void printReport() {
+    private synchronized void start() {
         if (intervalStartedAt == null) {
-            return;
+            // it's our very first value
+            startedAt = new DateTime();
+            intervalStartedAt = startedAt;
         }
+    }
 
-        inReport = true;
+    private boolean intervalExpired() {
+        DateTime intervalStartedAt = this.intervalStartedAt;
+        return intervalStartedAt != null &&
+                System.currentTimeMillis() - intervalStartedAt.getMillis() >= intervalDuration;
+    }
 
+    /**
+     * Prints the report of the current interval, and starts a new interval.
+     */
+    public void printReport() {
+        reportLock.lock();
+        try {
+            if (intervalStartedAt == null) {
+                return;
+            }
+
+            inReport = true;
+            doPrintReport();
+        } finally {
+            inReport = false;
+            reportLock.unlock();
+        }
+    }
+
+    private void doPrintReport() {
         plugin.beforeReport(this);
 
         long now = System.currentTimeMillis();
@@ -233,6 +280,7 @@ public class Metrics {
         for (Map.Entry<String, Metric> entry : metrics.entrySet()) {
             String name = entry.getKey();
             Metric metric = entry.getValue();
+            IntervalData data = metric.rollInterval();
 
             if (metric.type != null) {
                 name = metric.type + ":" + name;
@@ -242,12 +290,12 @@ public class Metrics {
                     statByType.put(metric.type, stat);
                 }
 
-                stat.count += metric.getIntervalCount();
-                stat.value += metric.getIntervalValue();
+                stat.count += data.count;
+                stat.value += data.value;
             }
 
-            table.columns(name, metric.getIntervalCount(), metric.getIntervalAverage(), metric.getIntervalMedian(),
-                    metric.getIntervalMin(), metric.getIntervalMax(), metric.getAllTimeCount(),
+            table.columns(name, data.count, data.getAverage(), data.getPercentile(50), data.getPercentile(95),
+                    data.getPercentile(99), data.getMin(), data.max, metric.getAllTimeCount(),
                     metric.getAllTimeAverage());
         }
         table.columnSepLine();
@@ -278,7 +326,7 @@ public class Metrics {
 
         reportStream.flush();
 
-        inReport = false;
+        intervalStartedAt = new DateTime(now);
     }
 
     private void printGlobalOpsPerSec() {
@@ -335,21 +383,31 @@ public class Metrics {
         return String.format("%1$02d:%2$02d:%3$02d", hours, minutesOverflow, secondsOverflow);
     }
 
+    private static final int STRIPE_COUNT;
+
+    static {
+        // Power of two, so that a stripe can be selected with a mask
+        int stripes = 1;
+        while (stripes < Runtime.getRuntime().availableProcessors() * 4 && stripes < 64) {
+            stripes <<= 1;
+        }
+        STRIPE_COUNT = stripes;
+    }
+
     private static class Metric {
-        private List<Double> values = new ArrayList<Double>(1000);
+        private final Stripe[] stripes = new Stripe[STRIPE_COUNT];
 
-        String type;
-        
-        int intervalCount;
-        double intervalValue;
-        double intervalMin;
-        double intervalMax;
+        final String type;
 
-        int allTimeCount;
-        double allTimeValue;
+        // The all time values are only updated when rolling the interval, which happens under the report lock
+        private int allTimeCount;
+        private double allTimeValue;
 
-        public Metric() {
-            rollInterval();
+        public Metric(String type) {
+            this.type = type;
+            for (int i = 0; i < stripes.length; i++) {
+                stripes[i] = new Stripe();
+            }
         }
 
         /**
@@ -360,46 +418,27 @@ public class Metrics {
             if (operations == 0)
                 return;
 
-            intervalCount += operations;
-            intervalValue += value;
-            allTimeCount += operations;
-            allTimeValue += value;
-
-            double valuePerOp = value / (double)operations;
-
-            if (valuePerOp < intervalMin)
-                intervalMin = valuePerOp;
-
-            if (valuePerOp > intervalMax)
-                intervalMax = valuePerOp;
-
-            values.add(valuePerOp);
-        }
-
-        public void rollInterval() {
-            intervalCount = 0;
-            intervalValue = 0;
-            intervalMin = Integer.MAX_VALUE;
-            intervalMax = 0;
-            values.clear();
+            Stripe stripe = stripes[(int)Thread.currentThread().getId() & (STRIPE_COUNT - 1)];
+            stripe.add(operations, value);
         }
 
-        public int getIntervalCount() {
-            return intervalCount;
-        }
-
-        public double getIntervalValue() {
-            return intervalValue;
+        /**
+         * Collects the data of the current interval and starts a new interval.
+         */
+        public synchronized IntervalData rollInterval() {
+            IntervalData data = new IntervalData();
+            for (Stripe stripe : stripes) {
+                stripe.drainTo(data);
+            }
+            allTimeCount += data.count;
+            allTimeValue += data.value;
+            return data;
         }
 
         public int getAllTimeCount() {
             return allTimeCount;
         }
 
-        public double getIntervalAverage() {
-            return intervalCount == 0 ? 0 : intervalValue / (double)intervalCount;
-        }
-
         public double getAllTimeAverage() {
             return allTimeCount == 0 ? 0 : allTimeValue / (double)allTimeCount;
         }
@@ -407,27 +446,75 @@ public class Metrics {
         public double getAllTimeValue() {
             return allTimeValue;
         }
+    }
+
+    /**
+     * Accumulates the values of the threads mapped onto it. Threads only contend with other threads
+     * sharing the same stripe.
+     */
+    private static class Stripe {
+        private int count;
+        private double value;
+        private double min = Double.MAX_VALUE;
+        private double max;
+        private LogHistogram histogram;
+
+        synchronized void add(int operations, double value) {
+            count += operations;
+            this.value += value;
 
-        public double getIntervalMin() {
-            return intervalCount == 0 ? 0 : intervalMin;
+            double valuePerOp = value / (double)operations;
+
+            if (valuePerOp < min)
+                min = valuePerOp;
+
+            if (valuePerOp > max)
+                max = valuePerOp;
+
+            if (histogram == null) {
+                histogram = new LogHistogram();
+            }
+            histogram.record(valuePerOp);
         }
 
-        public double getIntervalMax() {
-            return intervalMax;
+        synchronized void drainTo(IntervalData data) {
+            if (count == 0)
+                return;
+
+            data.count += count;
+            data.value += value;
+            data.min = Math.min(data.min, min);
+            data.max = Math.max(data.max, max);
+            data.histogram.merge(histogram);
+
+            count = 0;
+            value = 0;
+            min = Double.MAX_VALUE;
+            max = 0;
+            histogram.reset();
         }
+    }
 
-        public double getIntervalMedian() {
-            if (values.size() == 0)
-                return 0;
+    /**
+     * The values of one metric during one interval.
+     */
+    private static class IntervalData {
+        int count;
+        double value;
+        double min = Double.MAX_VALUE;
+        double max;
+        LogHistogram histogram = new LogHistogram();
 
-            Collections.sort(values);
-            int middle = values.size() / 2;
+        public double getAverage() {
+            return count == 0 ? 0 : value / (double)count;
+        }
 
-            if (values.size() % 2 == 1) {
-                return values.get(middle);
-            } else {
-                return (values.get(middle - 1) + values.get(middle)) / 2d;
-            }
+        public double getMin() {
+            return count == 0 ? 0 : min;
+        }
+
+        public double getPercentile(double percentile) {
+            return histogram.getPercentile(percentile, getMin(), max);
         }
     }
 
@@ -19,6 +19,8 @@ import org.joda.time.DateTime;
 import org.lilyproject.util.io.Closer;
 
 import java.io.*;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.zip.GZIPInputStream;
 
 /**
@@ -80,20 +82,23 @@ public class MetricsParser {
                 //| Interval started at: 2011-01-15T19:57:23.918+01:00 (duration: 30s).                                                  |
                 //| Measurements started at: 2011-01-15T19:57:23.918+01:00 (duration: 00:00:30)                                          |
                 //| HBase cluster status: avg load: 20.00, dead servers: 0, live servers: 1, regions: 20                                 |
-                //+----------------------------------------+----------+---------+--------+---------+---------+-------------+-------------+
-                //| Name                                   | Op count | Average | Median | Minimum | Maximum | Alltime ops | Alltime avg |
-                //+----------------------------------------+----------+---------+--------+---------+---------+-------------+-------------+
-                //|-blockCacheHitRatio@lat                 |         1|    97.00|   97.00|    97.00|    97.00|            1|        97.00|
-                //|-sysLoadAvg@lat                         |         1|     1.16|    1.16|     1.16|     1.16|            1|         1.16|
-                //|-usedHeap@lat                           |         1|   162.90|  162.90|   162.90|   162.90|            1|       162.90|
-                //|B:Blob creation                         |      1231|     0.33|    0.06|     0.02|   101.84|         1231|         0.33|
-                //|Invalid messages                        |         6|     1.00|    1.00|     1.00|     1.00|            6|         1.00|
-                //|C:Message record                        |      1190|    10.16|    8.30|     6.52|   444.16|         1190|        10.16|
-                //|C:Part record                           |      1225|     9.29|    8.11|     6.45|    90.71|         1225|         9.29|
-                //+----------------------------------------+----------+---------+--------+---------+---------+-------------+-------------+
-                //| B ops/sec: 3063.80 real (=3063.80x1), 40.99 interval                                                                 |
-                //| C ops/sec: 102.93 real (=102.93x1), 80.41 interval                                                                   |
-                //+----------------------------------------------------------------------------------------------------------------------+
+                //+----------------------------------------+----------+---------+--------+----------+----------+---------+---------+-------------+-------------+
+                //| Name                                   | Op count | Average | Median | 95th pct | 99th pct | Minimum | Maximum | Alltime ops | Alltime avg |
+                //+----------------------------------------+----------+---------+--------+----------+----------+---------+---------+-------------+-------------+
+                //|-blockCacheHitRatio@lat                 |         1|    97.00|   97.00|     97.00|     97.00|    97.00|    97.00|            1|        97.00|
+                //|-sysLoadAvg@lat                         |         1|     1.16|    1.16|      1.16|      1.16|     1.16|     1.16|            1|         1.16|
+                //|-usedHeap@lat                           |         1|   162.90|  162.90|    162.90|    162.90|   162.90|   162.90|            1|       162.90|
+                //|B:Blob creation                         |      1231|     0.33|    0.06|      0.71|      1.90|     0.02|   101.84|         1231|         0.33|
+                //|Invalid messages                        |         6|     1.00|    1.00|      1.00|      1.00|     1.00|     1.00|            6|         1.00|
+                //|C:Message record                        |      1190|    10.16|    8.30|     17.42|     62.85|     6.52|   444.16|         1190|        10.16|
+                //|C:Part record                           |      1225|     9.29|    8.11|     14.03|     35.12|     6.45|    90.71|         1225|         9.29|
+                //+----------------------------------------+----------+---------+--------+----------+----------+---------+---------+-------------+-------------+
+                //| B ops/sec: 3063.80 real (=3063.80x1), 40.99 interval                                                                                     |
+                //| C ops/sec: 102.93 real (=102.93x1), 80.41 interval                                                                                       |
+                //+------------------------------------------------------------------------------------------------------------------------------------------+
+                //
+                // Files produced by older versions don't have the percentile columns, therefore the columns are
+                // located based on their title.
 
                 if (test == null) {
                     test = new Test("default");
@@ -109,28 +114,29 @@ public class MetricsParser {
                 // read all heading section lines
                 while ((line = reader.readLine()) != null && line.startsWith("| "));
 
-                // read the title lines (we are already positioned at the first one)
-                reader.readLine();
+                // read the title lines (we are already positioned at the line above the titles)
+                Map<String, Integer> columns = parseTitles(reader.readLine());
                 reader.readLine();
 
                 // read the metrics
                 while ((line = reader.readLine()) != null && line.startsWith("|")) {
-                    int countColStart = line.indexOf("|", 1);
-                    int averageColStart = line.indexOf("|", countColStart + 1);
-                    int medianColStart = line.indexOf("|", averageColStart + 1);
-                    int minColStart = line.indexOf("|", medianColStart + 1);
-                    int maxColStart = line.indexOf("|", minColStart + 1);
-                    int allTimeOpsColStart = line.indexOf("|", maxColStart + 1);
+                    String[] cells = line.split("\\|");
 
                     MetricData data = new MetricData();
 
-                    String metricName = line.substring(1, countColStart).trim();
+                    String metricName = cells[1].trim();
 
-                    data.count = Integer.parseInt(line.substring(countColStart + 1, averageColStart).trim());
-                    data.average = Double.parseDouble(line.substring(averageColStart + 1, medianColStart).trim());
-                    data.median = Double.parseDouble(line.substring(medianColStart + 1, minColStart).trim());
-                    data.min = Double.parseDouble(line.substring(minColStart + 1, maxColStart).trim());
-                    data.max = Double.parseDouble(line.substring(maxColStart + 1, allTimeOpsColStart).trim());
+                    data.count = Integer.parseInt(cell(cells, columns, "Op count"));
+                    data.average = Double.parseDouble(cell(cells, columns, "Average"));
+                    data.median = Double.parseDouble(cell(cells, columns, "Median"));
+                    data.min = Double.parseDouble(cell(cells, columns, "Minimum"));
+                    data.max = Double.parseDouble(cell(cells, columns, "Maximum"));
+                    if (columns.containsKey("95th pct")) {
+                        data.p95 = Double.parseDouble(cell(cells, columns, "95th pct"));
+                    }
+                    if (columns.containsKey("99th pct")) {
+                        data.p99 = Double.parseDouble(cell(cells, columns, "99th pct"));
+                    }
 
                     interval.set(metricName, data);
                 }
@@ -162,6 +168,23 @@ public class MetricsParser {
         return tests;
     }
 
+    private Map<String, Integer> parseTitles(String line) {
+        Map<String, Integer> columns = new HashMap<String, Integer>();
+        String[] titles = line.split("\\|");
+        for (int i = 0; i < titles.length; i++) {
+            columns.put(titles[i].trim(), i);
+        }
+        return columns;
+    }
+
+    private String cell(String[] cells, Map<String, Integer> columns, String title) throws IOException {
+        Integer index = columns.get(title);
+        if (index == null || index >= cells.length) {
+            throw new IOException("Missing column '" + title + "' on line " + reader.currentLine);
+        }
+        return cells[index].trim();
+    }
+
     public int getCurrentLine() {
         return reader != null ? reader.currentLine : -1;
     }
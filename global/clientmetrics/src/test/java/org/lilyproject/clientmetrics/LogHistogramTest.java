@@ -0,0 +1,102 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.clientmetrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LogHistogramTest {
+    private static final double RELATIVE_ERROR = 0.0101;
+
+    @Test
+    public void testBucketRelativeError() {
+        int previousIndex = 0;
+        for (double value = 0.001; value < 1e9; value *= 1.37) {
+            int index = LogHistogram.bucketIndex(value);
+            assertTrue("Buckets should be increasing", index >= previousIndex);
+            previousIndex = index;
+            assertEquals(value, LogHistogram.bucketValue(index), value * RELATIVE_ERROR);
+        }
+    }
+
+    @Test
+    public void testOutOfRange() {
+        assertEquals(0, LogHistogram.bucketIndex(0));
+        assertEquals(0, LogHistogram.bucketIndex(-5));
+        assertEquals(LogHistogram.BUCKET_COUNT - 1, LogHistogram.bucketIndex(1e12));
+
+        LogHistogram histogram = new LogHistogram();
+        histogram.record(-5);
+        histogram.record(1e12);
+        // Values outside the tracked range are bounded by the recorded minimum and maximum
+        assertEquals(-5, histogram.getPercentile(50, -5, 1e12), 0);
+        assertEquals(1e12, histogram.getPercentile(100, -5, 1e12), 0);
+    }
+
+    @Test
+    public void testPercentiles() {
+        LogHistogram histogram = new LogHistogram();
+        assertEquals(0, histogram.getPercentile(50, 0, 0), 0);
+
+        for (int i = 1000; i >= 1; i--) {
+            histogram.record(i);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500, histogram.getPercentile(50, 1, 1000), 500 * RELATIVE_ERROR);
+        assertEquals(950, histogram.getPercentile(95, 1, 1000), 950 * RELATIVE_ERROR);
+        assertEquals(990, histogram.getPercentile(99, 1, 1000), 990 * RELATIVE_ERROR);
+        assertEquals(1000, histogram.getPercentile(100, 1, 1000), 1000 * RELATIVE_ERROR);
+        // Never below the minimum
+        assertEquals(1, histogram.getPercentile(0, 1, 1000), 0);
+    }
+
+    @Test
+    public void testPercentilesOverWideRange() {
+        LogHistogram histogram = new LogHistogram();
+        double[] values = {0.001, 1, 1000, 1000000};
+        for (double value : values) {
+            histogram.record(value);
+        }
+        for (int i = 0; i < values.length; i++) {
+            assertEquals(values[i], histogram.getPercentile((i + 1) * 25, 0.001, 1000000), values[i] * RELATIVE_ERROR);
+        }
+    }
+
+    @Test
+    public void testMergeAndReset() {
+        LogHistogram all = new LogHistogram();
+        LogHistogram even = new LogHistogram();
+        LogHistogram odd = new LogHistogram();
+        for (int i = 1; i <= 500; i++) {
+            all.record(i);
+            (i % 2 == 0 ? even : odd).record(i);
+        }
+
+        even.merge(odd);
+        assertEquals(all.getCount(), even.getCount());
+        for (double percentile : new double[] {1, 25, 50, 75, 95, 99, 100}) {
+            assertEquals(all.getPercentile(percentile, 1, 500), even.getPercentile(percentile, 1, 500), 0);
+        }
+
+        even.reset();
+        assertEquals(0, even.getCount());
+        assertEquals(0, even.getPercentile(50, 0, 0), 0);
+        even.record(7);
+        assertEquals(7, even.getPercentile(50, 7, 7), 0);
+    }
+}
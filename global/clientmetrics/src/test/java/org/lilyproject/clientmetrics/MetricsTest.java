@@ -0,0 +1,117 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.clientmetrics;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+import org.lilyproject.clientmetrics.postproc.Interval;
+import org.lilyproject.clientmetrics.postproc.MetricData;
+import org.lilyproject.clientmetrics.postproc.MetricsParser;
+import org.lilyproject.clientmetrics.postproc.Tests;
+
+public class MetricsTest {
+    @Test
+    public void testConcurrentIncrements() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final Metrics metrics = new Metrics(new PrintStream(output), null);
+        // A short interval, so that reports are printed while the threads are still recording
+        metrics.setIntervalDuration(5);
+
+        final int threadCount = 16;
+        final int valuesPerThread = 10000;
+        final CountDownLatch startSignal = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < threadCount; i++) {
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        startSignal.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int j = 1; j <= valuesPerThread; j++) {
+                        metrics.increment("op", "T", j % 100 + 1);
+                    }
+                }
+            };
+            thread.start();
+            threads.add(thread);
+        }
+        startSignal.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        metrics.finish();
+
+        Tests tests = new MetricsParser().parse(new ByteArrayInputStream(output.toByteArray()));
+        org.lilyproject.clientmetrics.postproc.Test test = tests.entries.get(0);
+        int index = test.getIndex("T:op");
+
+        // No values got lost, whatever the interval in which they were reported
+        long count = 0;
+        double total = 0;
+        double min = Double.MAX_VALUE;
+        double max = 0;
+        for (Interval interval : test.intervals) {
+            if (index >= interval.datas.length || interval.datas[index] == null) {
+                continue;
+            }
+            MetricData data = interval.datas[index];
+            if (data.count > 0) {
+                count += data.count;
+                total += data.count * data.average;
+                min = Math.min(min, data.min);
+                max = Math.max(max, data.max);
+            }
+        }
+        assertEquals(threadCount * valuesPerThread, count);
+        assertEquals(50.5, total / count, 0.01);
+        assertEquals(1, min, 0);
+        assertEquals(100, max, 0);
+    }
+
+    @Test
+    public void testPercentiles() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Metrics metrics = new Metrics(new PrintStream(output), null);
+        metrics.setIntervalDuration(Integer.MAX_VALUE);
+        for (int i = 1; i <= 1000; i++) {
+            metrics.increment("op", i);
+        }
+        metrics.finish();
+
+        Tests tests = new MetricsParser().parse(new ByteArrayInputStream(output.toByteArray()));
+        org.lilyproject.clientmetrics.postproc.Test test = tests.entries.get(0);
+        assertEquals(1, test.intervals.size());
+        MetricData data = test.intervals.get(0).datas[test.getIndex("op")];
+        assertEquals(1000, data.count);
+        assertEquals(500.5, data.average, 0.01);
+        assertEquals(500, data.median, 500 * 0.0101);
+        assertEquals(950, data.p95, 950 * 0.0101);
+        assertEquals(990, data.p99, 990 * 0.0101);
+        assertEquals(1, data.min, 0);
+        assertEquals(1000, data.max, 0);
+    }
+}
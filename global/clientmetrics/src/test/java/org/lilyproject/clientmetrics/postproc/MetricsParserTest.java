@@ -0,0 +1,99 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.clientmetrics.postproc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class MetricsParserTest {
+    private static final String CURRENT_FORMAT =
+            "+---------------------------------------------------------------------------------------------+\n" +
+            "| Interval started at: 2013-01-15T19:57:23.918+01:00 (duration: 30s).                        |\n" +
+            "| Measurements started at: 2013-01-15T19:57:23.918+01:00 (duration: 00:00:30)                 |\n" +
+            "+----------------+----------+---------+--------+----------+----------+---------+---------+-------------+-------------+\n" +
+            "| Name           | Op count | Average | Median | 95th pct | 99th pct | Minimum | Maximum | Alltime ops | Alltime avg |\n" +
+            "+----------------+----------+---------+--------+----------+----------+---------+---------+-------------+-------------+\n" +
+            "|B:Blob creation |      1231|     0.33|    0.06|      0.71|      1.90|     0.02|   101.84|         1231|         0.33|\n" +
+            "|Invalid messages|         6|     1.00|    1.00|      1.00|      1.00|     1.00|     1.00|            6|         1.00|\n" +
+            "+----------------+----------+---------+--------+----------+----------+---------+---------+-------------+-------------+\n" +
+            "| B ops/sec: 3063.80 real (=3063.80x1), 40.99 interval                                        |\n" +
+            "+---------------------------------------------------------------------------------------------+\n";
+
+    /** Produced before the percentile columns were added. */
+    private static final String OLD_FORMAT =
+            "+---------------------------------------------------------------------------------------------+\n" +
+            "| Interval started at: 2011-01-15T19:57:23.918+01:00 (duration: 30s).                        |\n" +
+            "| Measurements started at: 2011-01-15T19:57:23.918+01:00 (duration: 00:00:30)                 |\n" +
+            "+----------------+----------+---------+--------+---------+---------+-------------+-------------+\n" +
+            "| Name           | Op count | Average | Median | Minimum | Maximum | Alltime ops | Alltime avg |\n" +
+            "+----------------+----------+---------+--------+---------+---------+-------------+-------------+\n" +
+            "|B:Blob creation |      1231|     0.33|    0.06|     0.02|   101.84|         1231|         0.33|\n" +
+            "+----------------+----------+---------+--------+---------+---------+-------------+-------------+\n";
+
+    @Test
+    public void testCurrentFormat() throws Exception {
+        Tests tests = parse(CURRENT_FORMAT);
+        org.lilyproject.clientmetrics.postproc.Test test = tests.entries.get(0);
+        assertEquals(1, test.intervals.size());
+        Interval interval = test.intervals.get(0);
+
+        MetricData data = interval.datas[test.getIndex("B:Blob creation")];
+        assertEquals(1231, data.count);
+        assertEquals(0.33, data.average, 0);
+        assertEquals(0.06, data.median, 0);
+        assertEquals(0.71, data.p95, 0);
+        assertEquals(1.90, data.p99, 0);
+        assertEquals(0.02, data.min, 0);
+        assertEquals(101.84, data.max, 0);
+
+        assertEquals(6, interval.datas[test.getIndex("Invalid messages")].count);
+        assertEquals(3063.80, interval.datas[test.getIndex("-B ops/sec")].average, 0);
+    }
+
+    @Test
+    public void testOldFormat() throws Exception {
+        Tests tests = parse(OLD_FORMAT);
+        org.lilyproject.clientmetrics.postproc.Test test = tests.entries.get(0);
+        MetricData data = test.intervals.get(0).datas[test.getIndex("B:Blob creation")];
+        assertEquals(1231, data.count);
+        assertEquals(0.33, data.average, 0);
+        assertEquals(0.06, data.median, 0);
+        // Not available in this format
+        assertEquals(-1, data.p95, 0);
+        assertEquals(-1, data.p99, 0);
+        assertEquals(0.02, data.min, 0);
+        assertEquals(101.84, data.max, 0);
+    }
+
+    @Test
+    public void testMissingColumn() throws Exception {
+        try {
+            parse(OLD_FORMAT.replace("| Median |", "| Medium |"));
+            fail("Expected an exception for the missing column");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private Tests parse(String metrics) throws IOException {
+        return new MetricsParser().parse(new ByteArrayInputStream(metrics.getBytes("UTF-8")));
+    }
+}
@@ -75,6 +75,21 @@ public abstract class MetricsDynamicMBeanBase implements DynamicMBean {
         metricsRateAttributeMod.put(o.getName() + MIN_TIME, o);
         metricsRateAttributeMod.put(o.getName() + MAX_TIME, o);
 
+      } else if (MetricsHistogram.class.isInstance(o)) {
+        MetricsHistogram histogram = (MetricsHistogram)o;
+        List<String> names = new ArrayList<String>();
+        names.add(o.getName() + NUM_OPS);
+        names.add(o.getName() + AVG_TIME);
+        names.add(o.getName() + MIN_TIME);
+        names.add(o.getName() + MAX_TIME);
+        for (String percentileName : histogram.getPercentileNames()) {
+          names.add(o.getName() + percentileName);
+        }
+        for (String name : names) {
+          String type = name.endsWith(NUM_OPS) ? "java.lang.Integer" : "java.lang.Long";
+          attributesInfo.add(new MBeanAttributeInfo(name, type, o.getDescription(), true, false, false));
+          metricsRateAttributeMod.put(name, o);
+        }
       }  else if ( MetricsIntValue.class.isInstance(o) || MetricsTimeVaryingInt.class.isInstance(o) ) {
         attributesInfo.add(new MBeanAttributeInfo(o.getName(), "java.lang.Integer",
             o.getDescription(), true, false, false));
@@ -139,6 +154,23 @@ public abstract class MetricsDynamicMBeanBase implements DynamicMBean {
         MetricsUtil.LOG.error("Unexpected attrubute suffix");
         throw new AttributeNotFoundException();
       }
+    } else if (o instanceof MetricsHistogram) {
+      MetricsHistogram histogram = (MetricsHistogram)o;
+      String suffix = attributeName.substring(histogram.getName().length());
+      if (suffix.equals(NUM_OPS))
+        return histogram.getPreviousIntervalNumOps();
+      else if (suffix.equals(AVG_TIME))
+        return histogram.getPreviousIntervalAverageTime();
+      else if (suffix.equals(MIN_TIME))
+        return histogram.getPreviousIntervalMinTime();
+      else if (suffix.equals(MAX_TIME))
+        return histogram.getPreviousIntervalMaxTime();
+      Long value = histogram.getPreviousIntervalPercentile(suffix);
+      if (value == null) {
+        MetricsUtil.LOG.error("Unexpected attribute suffix");
+        throw new AttributeNotFoundException();
+      }
+      return value;
     } else if (o instanceof MetricsNonTimeRate) {
         MetricsNonTimeRate metric = (MetricsNonTimeRate)o;
         return metric.getPreviousIntervalValue();
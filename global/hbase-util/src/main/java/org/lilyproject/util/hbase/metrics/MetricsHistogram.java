@@ -0,0 +1,294 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.util.hbase.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.metrics.MetricsRecord;
+import org.apache.hadoop.metrics.util.MetricsBase;
+import org.apache.hadoop.metrics.util.MetricsRegistry;
+
+/**
+ * Metric which keeps a latency histogram per reporting interval, from which percentiles are derived.
+ *
+ * <p>This is a drop-in replacement for Hadoop's MetricsTimeVaryingRate: it publishes the same num_ops,
+ * avg_time, min_time and max_time values, and in addition one value for each configured percentile.</p>
+ *
+ * <p>Values are counted in log-linear buckets (in the style of HdrHistogram): values below
+ * 2^(precision + 1) each get their own bucket, larger values are grouped in buckets whose width
+ * doubles every 2^precision buckets. This bounds the relative error on reported percentiles
+ * to 2^-precision while using a fixed amount of memory.</p>
+ *
+ * <p>Recording a value does not take any locks, it only does a few atomic increments. At the end
+ * of each interval (when {@link #pushMetric} is called), the current histogram is swapped for a new
+ * one and the percentiles of the finished interval are computed.</p>
+ */
+public class MetricsHistogram extends MetricsBase {
+    /**
+     * System property through which the default set of percentiles can be changed, as a comma-separated
+     * list, e.g. "50,95,99,99.9".
+     */
+    public static final String PERCENTILES_PROPERTY = "lily.metrics.percentiles";
+
+    public static final double[] DEFAULT_PERCENTILES = new double[] {50, 95, 99, 99.9};
+
+    /** Number of bits of precision, a precision of 5 gives a relative error of about 3%. */
+    private static final int PRECISION = 5;
+
+    private static final int SUB_BUCKET_HALF_COUNT = 1 << PRECISION;
+
+    private static final int LINEAR_BUCKET_COUNT = SUB_BUCKET_HALF_COUNT * 2;
+
+    private static final int BUCKET_COUNT = (64 - PRECISION) * SUB_BUCKET_HALF_COUNT;
+
+    private final Log log = LogFactory.getLog(getClass());
+
+    private final double[] percentiles;
+
+    private final String[] percentileNames;
+
+    private final AtomicReference<Interval> current = new AtomicReference<Interval>(new Interval());
+
+    private volatile Snapshot previous;
+
+    public MetricsHistogram(final String name, MetricsRegistry registry, final String description,
+            double[] percentiles) {
+        super(name, description);
+        this.percentiles = percentiles.clone();
+        this.percentileNames = new String[percentiles.length];
+        for (int i = 0; i < percentiles.length; i++) {
+            if (percentiles[i] <= 0 || percentiles[i] > 100) {
+                throw new IllegalArgumentException("Percentile should be in the range ]0, 100]: " + percentiles[i]);
+            }
+            percentileNames[i] = percentileName(percentiles[i]);
+        }
+        this.previous = new Snapshot(new Interval());
+        registry.add(name, this);
+    }
+
+    public MetricsHistogram(final String name, MetricsRegistry registry, double[] percentiles) {
+        this(name, registry, NO_DESCRIPTION, percentiles);
+    }
+
+    public MetricsHistogram(final String name, MetricsRegistry registry) {
+        this(name, registry, NO_DESCRIPTION, getDefaultPercentiles());
+    }
+
+    /**
+     * Returns the percentiles configured via the {@link #PERCENTILES_PROPERTY} system property,
+     * or {@link #DEFAULT_PERCENTILES} if it is not set.
+     */
+    public static double[] getDefaultPercentiles() {
+        String value = System.getProperty(PERCENTILES_PROPERTY);
+        if (value == null || value.trim().length() == 0) {
+            return DEFAULT_PERCENTILES;
+        }
+
+        String[] parts = value.split(",");
+        double[] result = new double[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            result[i] = Double.parseDouble(parts[i].trim());
+        }
+        return result;
+    }
+
+    /**
+     * Returns the suffix used for the name of a percentile, e.g. "P99" for 99 and "P999" for 99.9.
+     */
+    static String percentileName(double percentile) {
+        String value = String.valueOf(percentile);
+        if (value.endsWith(".0")) {
+            value = value.substring(0, value.length() - 2);
+        }
+        return "P" + value.replace(".", "");
+    }
+
+    /**
+     * Records one value (typically a duration in milliseconds). Negative values are counted as zero.
+     */
+    public void inc(final long value) {
+        current.get().record(value < 0 ? 0 : value);
+    }
+
+    private synchronized void intervalHeartBeat() {
+        Interval finished = current.getAndSet(new Interval());
+        previous = new Snapshot(finished);
+    }
+
+    @Override
+    public void pushMetric(final MetricsRecord mr) {
+        intervalHeartBeat();
+        Snapshot snapshot = previous;
+        try {
+            mr.incrMetric(getName() + "_num_ops", snapshot.numOps);
+            mr.setMetric(getName() + "_avg_time", snapshot.avg);
+            mr.setMetric(getName() + "_min_time", snapshot.min);
+            mr.setMetric(getName() + "_max_time", snapshot.max);
+            for (int i = 0; i < percentiles.length; i++) {
+                mr.setMetric(getName() + "_" + percentileNames[i], snapshot.percentileValues[i]);
+            }
+        } catch (Exception e) {
+            log.info("pushMetric failed for " + getName(), e);
+        }
+    }
+
+    public int getPreviousIntervalNumOps() {
+        return (int)previous.numOps;
+    }
+
+    public long getPreviousIntervalAverageTime() {
+        return previous.avg;
+    }
+
+    public long getPreviousIntervalMinTime() {
+        return previous.min;
+    }
+
+    public long getPreviousIntervalMaxTime() {
+        return previous.max;
+    }
+
+    /**
+     * The names of the configured percentiles, see {@link #percentileName}, in the same order
+     * as {@link #getPercentiles()}.
+     */
+    public String[] getPercentileNames() {
+        return percentileNames.clone();
+    }
+
+    public double[] getPercentiles() {
+        return percentiles.clone();
+    }
+
+    /**
+     * Returns the value of the percentile with the given name (as returned by {@link #getPercentileNames()})
+     * for the previous interval, or null if there is no such percentile.
+     */
+    public Long getPreviousIntervalPercentile(String percentileName) {
+        for (int i = 0; i < percentileNames.length; i++) {
+            if (percentileNames[i].equals(percentileName)) {
+                return previous.percentileValues[i];
+            }
+        }
+        return null;
+    }
+
+    static int bucketIndex(long value) {
+        if (value < LINEAR_BUCKET_COUNT) {
+            return (int)value;
+        }
+        int msb = 63 - Long.numberOfLeadingZeros(value);
+        int shift = msb - PRECISION;
+        int subBucket = (int)(value >>> shift);
+        return (shift + 1) * SUB_BUCKET_HALF_COUNT + (subBucket - SUB_BUCKET_HALF_COUNT);
+    }
+
+    /**
+     * The highest value which is counted in the given bucket.
+     */
+    static long bucketUpperBound(int index) {
+        if (index < LINEAR_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_HALF_COUNT - 1;
+        long subBucket = index % SUB_BUCKET_HALF_COUNT + SUB_BUCKET_HALF_COUNT;
+        long upper = ((subBucket + 1) << shift) - 1;
+        return upper < 0 ? Long.MAX_VALUE : upper;
+    }
+
+    /**
+     * The data recorded during one interval.
+     */
+    private static final class Interval {
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sum = new AtomicLong();
+        private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+        private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+        void record(long value) {
+            counts.incrementAndGet(bucketIndex(value));
+            count.incrementAndGet();
+            sum.addAndGet(value);
+
+            long currentMin;
+            while (value < (currentMin = min.get())) {
+                if (min.compareAndSet(currentMin, value)) {
+                    break;
+                }
+            }
+
+            long currentMax;
+            while (value > (currentMax = max.get())) {
+                if (max.compareAndSet(currentMax, value)) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Immutable summary of a finished interval.
+     */
+    private final class Snapshot {
+        private final long numOps;
+        private final long avg;
+        private final long min;
+        private final long max;
+        private final long[] percentileValues;
+
+        Snapshot(Interval interval) {
+            // Take a copy of the counts, the total count is derived from it rather than taken from
+            // interval.count so that the percentile calculation is consistent with the buckets even when
+            // a late writer is still updating the interval.
+            long[] counts = new long[BUCKET_COUNT];
+            long total = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                counts[i] = interval.counts.get(i);
+                total += counts[i];
+            }
+
+            numOps = total;
+            avg = total > 0 ? interval.sum.get() / total : 0;
+            min = total > 0 ? interval.min.get() : 0;
+            max = total > 0 ? interval.max.get() : 0;
+
+            percentileValues = new long[percentiles.length];
+            for (int p = 0; p < percentiles.length; p++) {
+                if (total == 0) {
+                    continue;
+                }
+                long threshold = (long)Math.ceil(percentiles[p] / 100d * total);
+                if (threshold < 1) {
+                    threshold = 1;
+                }
+                long seen = 0;
+                for (int i = 0; i < BUCKET_COUNT; i++) {
+                    seen += counts[i];
+                    if (seen >= threshold) {
+                        // Don't report more than the maximum which was actually recorded
+                        percentileValues[p] = Math.min(bucketUpperBound(i), max);
+                        break;
+                    }
+                }
+            }
+        }
+    }
+}
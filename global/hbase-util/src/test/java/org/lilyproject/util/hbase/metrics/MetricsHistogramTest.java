@@ -0,0 +1,99 @@
+package org.lilyproject.util.hbase.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.hadoop.metrics.MetricsRecord;
+import org.apache.hadoop.metrics.util.MetricsRegistry;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class MetricsHistogramTest {
+
+    @Test
+    public void testBucketBoundaries() {
+        // Linear range: each value has its own bucket
+        for (long i = 0; i < 64; i++) {
+            assertEquals(i, MetricsHistogram.bucketUpperBound(MetricsHistogram.bucketIndex(i)));
+        }
+
+        // Beyond the linear range, every value falls in a bucket whose upper bound is within the precision
+        long[] values = new long[] {64, 65, 100, 1000, 12345, 1000000, Long.MAX_VALUE / 3, Long.MAX_VALUE};
+        for (long value : values) {
+            int index = MetricsHistogram.bucketIndex(value);
+            long upper = MetricsHistogram.bucketUpperBound(index);
+            assertTrue("upper bound " + upper + " should be >= " + value, upper >= value);
+            assertTrue("relative error too large for " + value, (upper - value) / (double)value < 0.035);
+            if (index > 0) {
+                assertTrue(MetricsHistogram.bucketUpperBound(index - 1) < value);
+            }
+        }
+    }
+
+    @Test
+    public void testPercentileNames() {
+        assertEquals("P50", MetricsHistogram.percentileName(50));
+        assertEquals("P99", MetricsHistogram.percentileName(99));
+        assertEquals("P999", MetricsHistogram.percentileName(99.9));
+        assertEquals("P9999", MetricsHistogram.percentileName(99.99));
+    }
+
+    @Test
+    public void testPercentiles() {
+        MetricsHistogram histogram = new MetricsHistogram("test", new MetricsRegistry(),
+                new double[] {50, 99, 99.9});
+
+        for (int i = 1; i <= 1000; i++) {
+            histogram.inc(i);
+        }
+
+        // Nothing is visible before the interval ends
+        assertEquals(0, histogram.getPreviousIntervalNumOps());
+
+        histogram.pushMetric(Mockito.mock(MetricsRecord.class));
+
+        assertEquals(1000, histogram.getPreviousIntervalNumOps());
+        assertEquals(500, histogram.getPreviousIntervalAverageTime());
+        assertEquals(1, histogram.getPreviousIntervalMinTime());
+        assertEquals(1000, histogram.getPreviousIntervalMaxTime());
+
+        assertWithin(500, histogram.getPreviousIntervalPercentile("P50"));
+        assertWithin(990, histogram.getPreviousIntervalPercentile("P99"));
+        assertWithin(999, histogram.getPreviousIntervalPercentile("P999"));
+
+        // Next interval starts empty
+        histogram.pushMetric(Mockito.mock(MetricsRecord.class));
+        assertEquals(0, histogram.getPreviousIntervalNumOps());
+        assertEquals(0L, histogram.getPreviousIntervalPercentile("P99").longValue());
+    }
+
+    @Test
+    public void testConcurrentRecording() throws Exception {
+        final MetricsHistogram histogram = new MetricsHistogram("test", new MetricsRegistry());
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        histogram.inc(i % 100);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        histogram.pushMetric(Mockito.mock(MetricsRecord.class));
+        assertEquals(80000, histogram.getPreviousIntervalNumOps());
+        assertEquals(0, histogram.getPreviousIntervalMinTime());
+        assertEquals(99, histogram.getPreviousIntervalMaxTime());
+    }
+
+    private void assertWithin(long expected, Long actual) {
+        assertTrue("expected about " + expected + " but got " + actual,
+                Math.abs(actual - expected) <= expected * 0.035);
+    }
+}